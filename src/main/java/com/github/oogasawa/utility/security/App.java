@@ -1,10 +1,54 @@
 package com.github.oogasawa.utility.security;
 
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import com.github.oogasawa.utility.cli.CommandRepository;
+import com.github.oogasawa.utility.security.access.AccessLogAnalyzer;
+import com.github.oogasawa.utility.security.auth.AuthLogAnalyzer;
+import com.github.oogasawa.utility.security.io.ParallelGzipOutputStream;
+import com.github.oogasawa.utility.security.ioc.IndicatorSet;
+import com.github.oogasawa.utility.security.ioc.IndicatorType;
+import com.github.oogasawa.utility.security.ioc.IocScanner;
+import com.github.oogasawa.utility.security.log.ChunkStore;
+import com.github.oogasawa.utility.security.log.CopyStrategy;
+import com.github.oogasawa.utility.security.log.EvidenceManifest;
+import com.github.oogasawa.utility.security.log.FleetCollector;
+import com.github.oogasawa.utility.security.log.IoThrottle;
+import com.github.oogasawa.utility.security.log.LogCollector;
+import com.github.oogasawa.utility.security.log.LogFileClassifier;
+import com.github.oogasawa.utility.security.log.LogInputs;
+import com.github.oogasawa.utility.security.log.LogMerger;
 import com.github.oogasawa.utility.security.log.LogRenamer;
+import com.github.oogasawa.utility.security.log.LogRotationWatcher;
+import com.github.oogasawa.utility.security.log.Redactor;
+import com.github.oogasawa.utility.security.search.LogSearcher;
+import com.github.oogasawa.utility.security.search.SearchIndex;
+import com.github.oogasawa.utility.security.search.SearchMatch;
+import com.github.oogasawa.utility.security.usn.DigestInputs;
+import com.github.oogasawa.utility.security.usn.USNDigestWatcher;
 import com.github.oogasawa.utility.security.usn.USNJsonExporter;
+import com.github.oogasawa.utility.security.usn.USNReportServer;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
@@ -62,7 +106,19 @@ public class App {
     public void setupCommands() {
 
         logRenameCommand();
+        logFleetCommand();
+        logWatchCommand();
+        logAuthCommand();
+        logAccessCommand();
+        logMergeCommand();
+        logRangeCommand();
+        logIocCommand();
+        logSearchCommand();
+        logRestoreCommand();
+        logIndexCommand();
         ubuntuSecurityReportCommand();
+        ubuntuSecurityServeCommand();
+        ubuntuSecurityWatchCommand();
         
     }
     
@@ -85,8 +141,18 @@ public class App {
                 .longOpt("destDir")
                 .hasArg(true)
                 .argName("destDir")
-                .desc("The destination directory of the log files.")
-                .required(true)
+                .desc("The destination directory of the log files (required unless --archive is given).")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("archive")
+                .option("a")
+                .longOpt("archive")
+                .hasArg(true)
+                .argName("file")
+                .desc("Stream the log files into a tar archive instead of a directory; - for stdout. "
+                        + "Gzip-compressed with --compress or a .tar.gz/.tgz name.")
+                .required(false)
                 .build());
 
 
@@ -99,31 +165,1276 @@ public class App {
                 .required(false)
                 .build());
 
-        
+        addCollectorOptions(opts);
 
-        this.cmds.addCommand("Ubuntu security commands", "ubuntu:report", opts,
-                "Create TSV format report.",
+        this.cmds.addCommand("Log commands", "log:rename", opts,
+                "Copy rotated log files, renamed with the host name and date.",
                 (CommandLine cl) -> {
-                    Path srcPath = Path.of(cl.getOptionValue("srcPath"));
-                    Path destPath = Path.of(cl.getOptionValue("destPath"));
+                    if (!cl.hasOption("destDir") && !cl.hasOption("archive")) {
+                        System.err.println("Either --destDir or --archive is required.");
+                        return;
+                    }
+                    Path srcPath = Path.of(cl.getOptionValue("srcDir"));
+                    Path destPath = cl.hasOption("destDir") ? Path.of(cl.getOptionValue("destDir")) : null;
                     String hostName = cl.getOptionValue("hostName",LogRenamer.hostName());
+                    LogCollector.Builder collector = configureCollector(cl, LogCollector.builder(hostName, destPath));
+                    if (collector == null) {
+                        return;
+                    }
                     LogRenamer renamer = new LogRenamer();
-                    renamer.rename(hostName, srcPath, destPath);
+                    String archive = cl.getOptionValue("archive");
+                    if (archive == null) {
+                        renamer.rename(srcPath, collector);
+                    } else if (archive.equals("-")) {
+                        renamer.rename(srcPath, collector.archive(System.out));
+                    } else {
+                        if (archive.endsWith(".tar.gz") || archive.endsWith(".tgz")) {
+                            collector.compress(true);
+                        }
+                        try (OutputStream out = Files.newOutputStream(Path.of(archive))) {
+                            renamer.rename(srcPath, collector.archive(out));
+                        } catch (IOException e) {
+                            System.err.println("Failed to write the archive: " + e.getMessage());
+                        }
+                    }
                 });
         
     }
 
 
 
-    public void ubuntuSecurityReportCommand() {
+    public void logFleetCommand() {
+        Options opts = new Options();
+
+        opts.addOption(Option.builder("srcRoot")
+                .option("s")
+                .longOpt("srcRoot")
+                .hasArg(true)
+                .argName("srcRoot")
+                .desc("A directory with one subdirectory per host, named after the host.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("subPath")
+                .option("p")
+                .longOpt("subPath")
+                .hasArg(true)
+                .argName("subPath")
+                .desc("The log directory within each host directory of --srcRoot, e.g. var/log.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("hosts")
+                .option("m")
+                .longOpt("hosts")
+                .hasArg(true)
+                .argName("file")
+                .desc("A file with a host name and its source directory on each line.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("destDir")
+                .option("d")
+                .longOpt("destDir")
+                .hasArg(true)
+                .argName("destDir")
+                .desc("The destination directory, which receives one subdirectory per host.")
+                .required(true)
+                .build());
+
+        addCollectorOptions(opts);
+
+        this.cmds.addCommand("Log commands", "log:fleet", opts,
+                "Collect the rotated log files of many hosts concurrently, into one subdirectory per host.",
+                (CommandLine cl) -> {
+                    if (cl.hasOption("srcRoot") == cl.hasOption("hosts")) {
+                        System.err.println("Either --srcRoot or --hosts is required.");
+                        return;
+                    }
+                    Map<String, Path> hosts;
+                    try {
+                        hosts = cl.hasOption("hosts")
+                                ? FleetCollector.hostsFromFile(Path.of(cl.getOptionValue("hosts")))
+                                : FleetCollector.hostsFromDirectory(Path.of(cl.getOptionValue("srcRoot")),
+                                        cl.getOptionValue("subPath"));
+                    } catch (IOException | IllegalArgumentException e) {
+                        System.err.println("Failed to read the hosts: " + e.getMessage());
+                        return;
+                    }
+                    LogCollector.Builder collector = configureCollector(cl,
+                            LogCollector.builder(null, Path.of(cl.getOptionValue("destDir"))));
+                    if (collector == null) {
+                        return;
+                    }
+                    new LogRenamer().renameFleet(hosts, collector);
+                });
+    }
+
+
+
+    public void logWatchCommand() {
+        Options opts = new Options();
+
+        opts.addOption(Option.builder("srcDir")
+                .option("s")
+                .longOpt("srcDir")
+                .hasArg(true)
+                .argName("srcDir")
+                .desc("The source directory of the log files.")
+                .required(true)
+                .build());
+
+        opts.addOption(Option.builder("destDir")
+                .option("d")
+                .longOpt("destDir")
+                .hasArg(true)
+                .argName("destDir")
+                .desc("The destination directory of the log files.")
+                .required(true)
+                .build());
+
+        opts.addOption(Option.builder("hostName")
+                .option("n")
+                .longOpt("hostName")
+                .hasArg(true)
+                .argName("hostName")
+                .desc("host name")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("debounce")
+                .option("w")
+                .longOpt("debounce")
+                .hasArg(true)
+                .argName("millis")
+                .desc("How long a rotated file must stay unchanged before it is collected (default: 2000).")
+                .required(false)
+                .build());
+
+        addCollectorOptions(opts);
+
+        this.cmds.addCommand("Log commands", "log:watch", opts,
+                "Collect rotated log files as soon as they appear, until interrupted.",
+                (CommandLine cl) -> {
+                    Path srcPath = Path.of(cl.getOptionValue("srcDir"));
+                    Path destPath = Path.of(cl.getOptionValue("destDir"));
+                    String hostName = cl.getOptionValue("hostName", LogRenamer.hostName());
+                    LogCollector.Builder collector = configureCollector(cl, LogCollector.builder(hostName, destPath));
+                    if (collector == null) {
+                        return;
+                    }
+                    LogRotationWatcher watcher = new LogRotationWatcher(srcPath, collector);
+                    watcher.setDebounceMillis(Long.parseLong(cl.getOptionValue("debounce", "2000")));
+                    try {
+                        Files.createDirectories(destPath);
+                        watcher.watch();
+                    } catch (IOException e) {
+                        System.err.println("Failed to watch " + srcPath + ": " + e.getMessage());
+                    }
+                });
+    }
+
+
+
+    public void logAuthCommand() {
+        Options opts = new Options();
+
+        opts.addOption(Option.builder("infile")
+                .option("i")
+                .longOpt("infile")
+                .hasArgs()
+                .argName("infile")
+                .desc("auth.log files or directories of collected logs (optionally gzip compressed). "
+                        + "May be repeated and may contain glob patterns.")
+                .required(true)
+                .build());
+
+        opts.addOption(Option.builder("threads")
+                .option("t")
+                .longOpt("threads")
+                .hasArg(true)
+                .argName("threads")
+                .desc("The number of files parsed in parallel (default: the number of processors)")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("window")
+                .option("w")
+                .longOpt("window")
+                .hasArg(true)
+                .argName("seconds")
+                .desc("The length of the sliding window (default: 60)")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("threshold")
+                .option("T")
+                .longOpt("threshold")
+                .hasArg(true)
+                .argName("failures")
+                .desc("The number of failures within a window that is reported as a burst (default: 10)")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("top")
+                .option("l")
+                .longOpt("top")
+                .hasArg(true)
+                .argName("lines")
+                .desc("The number of lines of each ranking (default: 20)")
+                .required(false)
+                .build());
+
+        this.cmds.addCommand("Log commands", "log:auth", opts,
+                "Detect brute-force bursts and suspicious log-ins in auth.log files.",
+                (CommandLine cl) -> {
+                    try {
+                        List<Path> infilePaths =
+                                AuthLogAnalyzer.resolve(Arrays.asList(cl.getOptionValues("infile")));
+                        if (infilePaths.isEmpty()) {
+                            System.err.println("No input files matched.");
+                            return;
+                        }
+                        AuthLogAnalyzer analyzer = new AuthLogAnalyzer();
+                        if (cl.hasOption("threads")) {
+                            analyzer.setThreads(Integer.parseInt(cl.getOptionValue("threads")));
+                        }
+                        analyzer.setWindowSeconds(Long.parseLong(cl.getOptionValue("window", "60")));
+                        analyzer.setThreshold(Integer.parseInt(cl.getOptionValue("threshold", "10")));
+                        int top = Integer.parseInt(cl.getOptionValue("top", "20"));
+                        System.out.print(analyzer.analyze(infilePaths).format(top));
+                    } catch (IOException e) {
+                        System.err.println("Failed to analyze auth logs: " + e.getMessage());
+                    }
+                });
+    }
+
+
+
+    public void logAccessCommand() {
+        Options opts = new Options();
+
+        opts.addOption(Option.builder("infile")
+                .option("i")
+                .longOpt("infile")
+                .hasArgs()
+                .argName("infile")
+                .desc("Apache access logs or directories of collected logs (optionally gzip compressed). "
+                        + "May be repeated and may contain glob patterns.")
+                .required(true)
+                .build());
+
+        opts.addOption(Option.builder("threads")
+                .option("t")
+                .longOpt("threads")
+                .hasArg(true)
+                .argName("threads")
+                .desc("The number of files parsed in parallel (default: the number of processors)")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("capacity")
+                .option("k")
+                .longOpt("capacity")
+                .hasArg(true)
+                .argName("counters")
+                .desc("The number of counters of each top-K sketch (default: 1000)")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("top")
+                .option("l")
+                .longOpt("top")
+                .hasArg(true)
+                .argName("lines")
+                .desc("The number of lines of each ranking (default: 20)")
+                .required(false)
+                .build());
+
+        this.cmds.addCommand("Log commands", "log:access", opts,
+                "Summarize Apache access logs with bounded-memory sketches and flag scanners.",
+                (CommandLine cl) -> {
+                    try {
+                        List<Path> infilePaths =
+                                AccessLogAnalyzer.resolve(Arrays.asList(cl.getOptionValues("infile")));
+                        if (infilePaths.isEmpty()) {
+                            System.err.println("No input files matched.");
+                            return;
+                        }
+                        AccessLogAnalyzer analyzer = new AccessLogAnalyzer();
+                        if (cl.hasOption("threads")) {
+                            analyzer.setThreads(Integer.parseInt(cl.getOptionValue("threads")));
+                        }
+                        analyzer.setCapacity(Integer.parseInt(cl.getOptionValue("capacity", "1000")));
+                        int top = Integer.parseInt(cl.getOptionValue("top", "20"));
+                        System.out.print(analyzer.analyze(infilePaths).format(top));
+                    } catch (IOException e) {
+                        System.err.println("Failed to analyze access logs: " + e.getMessage());
+                    }
+                });
+    }
+
+
+
+    public void logMergeCommand() {
+        Options opts = new Options();
+
+        opts.addOption(Option.builder("infile")
+                .option("i")
+                .longOpt("infile")
+                .hasArgs()
+                .argName("infile")
+                .desc("Log files or directories of collected logs (optionally gzip compressed), each in time order. "
+                        + "May be repeated and may contain glob patterns.")
+                .required(true)
+                .build());
+
+        opts.addOption(Option.builder("outfile")
+                .option("o")
+                .longOpt("outfile")
+                .hasArg(true)
+                .argName("outfile")
+                .desc("The merged timeline; compressed if it ends with .gz (default: standard output)")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("normalize")
+                .option("N")
+                .longOpt("normalize")
+                .hasArg(false)
+                .desc("Rewrite timestamps as ISO 8601 with microseconds and offset.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("label")
+                .option("L")
+                .longOpt("label")
+                .hasArg(false)
+                .desc("Prefix each line with the host of its file.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("zone")
+                .option("z")
+                .longOpt("zone")
+                .hasArg(true)
+                .argName("zone")
+                .desc("The time zone of timestamps without an offset (default: the system time zone)")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("maxOpen")
+                .option("F")
+                .longOpt("maxOpen")
+                .hasArg(true)
+                .argName("files")
+                .desc("The maximum number of files open at once; more inputs are merged through runs on disk (default: 256)")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("memory")
+                .option("M")
+                .longOpt("memory")
+                .hasArg(true)
+                .argName("MiB")
+                .desc("The memory for the buffers of the open files (default: 256)")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("tmpDir")
+                .option("T")
+                .longOpt("tmpDir")
+                .hasArg(true)
+                .argName("dir")
+                .desc("The directory for the runs on disk (default: the system temporary directory)")
+                .required(false)
+                .build());
+
+        this.cmds.addCommand("Log commands", "log:merge", opts,
+                "Merge logs of many hosts and rotations into one timeline.",
+                (CommandLine cl) -> {
+                    LogMerger merger = new LogMerger();
+                    if (cl.hasOption("zone")) {
+                        merger.setZone(ZoneId.of(cl.getOptionValue("zone")));
+                    }
+                    merger.setNormalize(cl.hasOption("normalize"));
+                    merger.setLabel(cl.hasOption("label"));
+                    merger.setMaxOpenFiles(Integer.parseInt(cl.getOptionValue("maxOpen", "256")));
+                    merger.setMemoryBudget(Long.parseLong(cl.getOptionValue("memory", "256")) << 20);
+                    if (cl.hasOption("tmpDir")) {
+                        merger.setTempDir(Path.of(cl.getOptionValue("tmpDir")));
+                    }
+                    String outfile = cl.getOptionValue("outfile");
+                    try {
+                        List<Path> infilePaths = LogMerger.resolve(Arrays.asList(cl.getOptionValues("infile")));
+                        if (infilePaths.isEmpty()) {
+                            System.err.println("No input files matched.");
+                            return;
+                        }
+                        LogMerger.Stats stats;
+                        if (outfile == null) {
+                            OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+                            stats = merger.merge(infilePaths, out);
+                        } else {
+                            try (OutputStream out = outfile.endsWith(".gz")
+                                    ? new ParallelGzipOutputStream(Files.newOutputStream(Path.of(outfile)))
+                                    : new BufferedOutputStream(Files.newOutputStream(Path.of(outfile)), 1 << 16)) {
+                                stats = merger.merge(infilePaths, out);
+                            }
+                        }
+                        System.err.printf("Merged %d files, %d lines (%.1f MB) into %d records in %.2f s"
+                                + " (%d runs spilled in %d passes)%n",
+                                stats.inputs(), stats.lines(), stats.bytes() / 1e6, stats.records(),
+                                stats.elapsedNanos() / 1e9, stats.runs(), stats.passes());
+                    } catch (IOException e) {
+                        System.err.println("Failed to merge logs: " + e.getMessage());
+                    }
+                });
+    }
+
+
+
+    public void logRangeCommand() {
+        Options opts = new Options();
+
+        opts.addOption(Option.builder("infile")
+                .option("i")
+                .longOpt("infile")
+                .hasArgs()
+                .argName("infile")
+                .desc("Log files or directories of collected logs (optionally gzip compressed), each in time order. "
+                        + "May be repeated and may contain glob patterns.")
+                .required(true)
+                .build());
+
+        opts.addOption(Option.builder("from")
+                .option("f")
+                .longOpt("from")
+                .hasArg(true)
+                .argName("time")
+                .desc("The start of the window, inclusive, e.g. 2025-06-22T02:10 or 2025-06-22T02:10:00+09:00")
+                .required(true)
+                .build());
+
+        opts.addOption(Option.builder("to")
+                .option("t")
+                .longOpt("to")
+                .hasArg(true)
+                .argName("time")
+                .desc("The end of the window, exclusive")
+                .required(true)
+                .build());
+
+        opts.addOption(Option.builder("outfile")
+                .option("o")
+                .longOpt("outfile")
+                .hasArg(true)
+                .argName("outfile")
+                .desc("The lines of the window; compressed if it ends with .gz (default: standard output)")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("normalize")
+                .option("N")
+                .longOpt("normalize")
+                .hasArg(false)
+                .desc("Rewrite timestamps as ISO 8601 with microseconds and offset.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("label")
+                .option("L")
+                .longOpt("label")
+                .hasArg(false)
+                .desc("Prefix each line with the host of its file.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("zone")
+                .option("z")
+                .longOpt("zone")
+                .hasArg(true)
+                .argName("zone")
+                .desc("The time zone of the window and of timestamps without an offset in files without an index "
+                        + "(default: the system time zone)")
+                .required(false)
+                .build());
+
+        this.cmds.addCommand("Log commands", "log:range", opts,
+                "Extract a time window from collected logs, seeking with their time indexes.",
+                (CommandLine cl) -> {
+                    ZoneId zone = cl.hasOption("zone") ? ZoneId.of(cl.getOptionValue("zone")) : ZoneId.systemDefault();
+                    long from;
+                    long to;
+                    try {
+                        from = parseTime(cl.getOptionValue("from"), zone);
+                        to = parseTime(cl.getOptionValue("to"), zone);
+                    } catch (DateTimeParseException e) {
+                        System.err.println("Invalid time: " + e.getParsedString());
+                        return;
+                    }
+                    LogMerger merger = new LogMerger();
+                    merger.setZone(zone);
+                    merger.setRange(from, to);
+                    merger.setNormalize(cl.hasOption("normalize"));
+                    merger.setLabel(cl.hasOption("label"));
+                    String outfile = cl.getOptionValue("outfile");
+                    try {
+                        List<Path> infilePaths = LogMerger.resolve(Arrays.asList(cl.getOptionValues("infile")));
+                        if (infilePaths.isEmpty()) {
+                            System.err.println("No input files matched.");
+                            return;
+                        }
+                        LogMerger.Stats stats;
+                        if (outfile == null) {
+                            OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+                            stats = merger.merge(infilePaths, out);
+                        } else {
+                            try (OutputStream out = outfile.endsWith(".gz")
+                                    ? new ParallelGzipOutputStream(Files.newOutputStream(Path.of(outfile)))
+                                    : new BufferedOutputStream(Files.newOutputStream(Path.of(outfile)), 1 << 16)) {
+                                stats = merger.merge(infilePaths, out);
+                            }
+                        }
+                        System.err.printf("Extracted %d records from %d files in %.3f s (%.1f MB read)%n",
+                                stats.records(), stats.inputs(), stats.elapsedNanos() / 1e9, stats.bytes() / 1e6);
+                    } catch (IOException e) {
+                        System.err.println("Failed to extract logs: " + e.getMessage());
+                    }
+                });
+    }
+
+
+    public void logIocCommand() {
+        Options opts = new Options();
+
+        opts.addOption(Option.builder("list")
+                .option("l")
+                .longOpt("list")
+                .hasArgs()
+                .argName("list")
+                .desc("Indicator lists to compile: IPv4 and IPv6 addresses, IPv4 CIDR ranges, domains and hashes, "
+                        + "one per line (optionally gzip compressed). May be repeated.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("compiled")
+                .option("c")
+                .longOpt("compiled")
+                .hasArg(true)
+                .argName("file")
+                .desc("The compiled indicator set, written from --list if given and read for the scan.")
+                .required(true)
+                .build());
+
+        opts.addOption(Option.builder("fpp")
+                .option("p")
+                .longOpt("fpp")
+                .hasArg(true)
+                .argName("rate")
+                .desc("The false positive rate of the Bloom filter (default: " + IndicatorSet.DEFAULT_FPP + ")")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("infile")
+                .option("i")
+                .longOpt("infile")
+                .hasArgs()
+                .argName("infile")
+                .desc("Log files or directories of collected logs (optionally gzip compressed) to scan. "
+                        + "May be repeated and may contain glob patterns.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("outfile")
+                .option("o")
+                .longOpt("outfile")
+                .hasArg(true)
+                .argName("outfile")
+                .desc("The matching lines as file:line, indicator and line separated by tabs "
+                        + "(default: standard output)")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("threads")
+                .option("t")
+                .longOpt("threads")
+                .hasArg(true)
+                .argName("threads")
+                .desc("The number of files scanned in parallel (default: the number of processors)")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("top")
+                .option("k")
+                .longOpt("top")
+                .hasArg(true)
+                .argName("lines")
+                .desc("The number of indicators listed in the report (default: 20)")
+                .required(false)
+                .build());
+
+        this.cmds.addCommand("Log commands", "log:ioc", opts,
+                "Match indicators of compromise against collected logs with a Bloom filter.",
+                (CommandLine cl) -> {
+                    Path compiled = Path.of(cl.getOptionValue("compiled"));
+                    try {
+                        if (cl.hasOption("list")) {
+                            List<Path> lists = Arrays.stream(cl.getOptionValues("list")).map(Path::of).toList();
+                            double fpp = Double.parseDouble(cl.getOptionValue("fpp", String.valueOf(IndicatorSet.DEFAULT_FPP)));
+                            IndicatorSet.Stats stats = IndicatorSet.compile(lists, compiled, fpp);
+                            long[] counts = stats.counts();
+                            System.err.printf("Compiled %d indicators (%d IPv4, %d IPv6, %d domains, %d hashes; "
+                                    + "%d rejected) into %s (%.1f MB)%n", stats.indicators(),
+                                    counts[IndicatorType.IPV4.ordinal()], counts[IndicatorType.IPV6.ordinal()],
+                                    counts[IndicatorType.DOMAIN.ordinal()], counts[IndicatorType.HASH.ordinal()],
+                                    stats.rejected(), compiled, stats.bytes() / 1e6);
+                        }
+                        if (!cl.hasOption("infile")) {
+                            return;
+                        }
+                        List<Path> infilePaths = IocScanner.resolve(Arrays.asList(cl.getOptionValues("infile")));
+                        if (infilePaths.isEmpty()) {
+                            System.err.println("No input files matched.");
+                            return;
+                        }
+                        IocScanner scanner = new IocScanner();
+                        if (cl.hasOption("threads")) {
+                            scanner.setThreads(Integer.parseInt(cl.getOptionValue("threads")));
+                        }
+                        int top = Integer.parseInt(cl.getOptionValue("top", "20"));
+                        String outfile = cl.getOptionValue("outfile");
+                        try (IndicatorSet set = IndicatorSet.open(compiled);
+                                PrintStream out = outfile == null
+                                        ? new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false, StandardCharsets.UTF_8)
+                                        : new PrintStream(new BufferedOutputStream(Files.newOutputStream(Path.of(outfile)), 1 << 16),
+                                                false, StandardCharsets.UTF_8)) {
+                            IocScanner.Report report = scanner.scan(infilePaths, set, m ->
+                                    out.println(m.file() + ":" + m.line() + "\t" + m.indicator() + "\t" + m.text()));
+                            out.flush();
+                            System.err.print(report.format(top));
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Failed to match indicators: " + e.getMessage());
+                    }
+                });
+    }
+
+
+
+    public void logSearchCommand() {
+        Options opts = new Options();
+
+        opts.addOption(Option.builder("pattern")
+                .option("e")
+                .longOpt("pattern")
+                .hasArgs()
+                .argName("text")
+                .desc("A literal text to search for. May be repeated; a line matches if it contains any.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("patternFile")
+                .option("f")
+                .longOpt("patternFile")
+                .hasArg(true)
+                .argName("file")
+                .desc("A file of literal texts to search for, one per line.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("regex")
+                .option("E")
+                .longOpt("regex")
+                .hasArgs()
+                .argName("regex")
+                .desc("A Java regular expression to search for. May be repeated.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("ignoreCase")
+                .option("y")
+                .longOpt("ignoreCase")
+                .hasArg(false)
+                .desc("Match ASCII letters regardless of case.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("infile")
+                .option("i")
+                .longOpt("infile")
+                .hasArgs()
+                .argName("infile")
+                .desc("Log files or directories of collected logs (optionally gzip compressed) to search. "
+                        + "May be repeated and may contain glob patterns.")
+                .required(true)
+                .build());
+
+        opts.addOption(Option.builder("before")
+                .option("B")
+                .longOpt("before")
+                .hasArg(true)
+                .argName("lines")
+                .desc("The number of lines printed before each matching line (default: 0)")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("after")
+                .option("A")
+                .longOpt("after")
+                .hasArg(true)
+                .argName("lines")
+                .desc("The number of lines printed after each matching line (default: 0)")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("context")
+                .option("C")
+                .longOpt("context")
+                .hasArg(true)
+                .argName("lines")
+                .desc("The number of lines printed before and after each matching line")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("label")
+                .option("L")
+                .longOpt("label")
+                .hasArg(false)
+                .desc("Prefix each line with the host of its file.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("outfile")
+                .option("o")
+                .longOpt("outfile")
+                .hasArg(true)
+                .argName("outfile")
+                .desc("The matching lines as file:line:text, context lines as file-line-text "
+                        + "(default: standard output)")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("threads")
+                .option("t")
+                .longOpt("threads")
+                .hasArg(true)
+                .argName("threads")
+                .desc("The number of files searched in parallel (default: the number of processors)")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("index")
+                .option("x")
+                .longOpt("index")
+                .hasArg(true)
+                .argName("dir")
+                .desc("A search index built by log:index, through which literal texts are looked up so that "
+                        + "only the blocks that may match are read (default: " + SearchIndex.DIRECTORY
+                        + " in the --infile directory, if there is one)")
+                .required(false)
+                .build());
+
+        this.cmds.addCommand("Log commands", "log:search", opts,
+                "Search collected logs, plain or gzip-compressed, in parallel for texts or regular expressions.",
+                (CommandLine cl) -> {
+                    try {
+                        List<String> literals = new ArrayList<>();
+                        if (cl.hasOption("pattern")) {
+                            literals.addAll(Arrays.asList(cl.getOptionValues("pattern")));
+                        }
+                        if (cl.hasOption("patternFile")) {
+                            Files.readAllLines(Path.of(cl.getOptionValue("patternFile")), StandardCharsets.UTF_8).stream()
+                                    .filter(line -> !line.isEmpty())
+                                    .forEach(literals::add);
+                        }
+                        List<String> regexes = cl.hasOption("regex") ? Arrays.asList(cl.getOptionValues("regex")) : List.of();
+                        if (literals.isEmpty() && regexes.isEmpty()) {
+                            System.err.println("One of --pattern, --patternFile or --regex is required.");
+                            return;
+                        }
+                        LogSearcher searcher = new LogSearcher(literals, regexes, cl.hasOption("ignoreCase"));
+                        if (cl.hasOption("threads")) {
+                            searcher.setThreads(Integer.parseInt(cl.getOptionValue("threads")));
+                        }
+                        int context = Integer.parseInt(cl.getOptionValue("context", "0"));
+                        searcher.setContext(Integer.parseInt(cl.getOptionValue("before", String.valueOf(context))),
+                                Integer.parseInt(cl.getOptionValue("after", String.valueOf(context))));
+                        boolean separate = cl.hasOption("context") || cl.hasOption("before") || cl.hasOption("after");
+                        boolean label = cl.hasOption("label");
+
+                        List<Path> infilePaths = LogSearcher.resolve(Arrays.asList(cl.getOptionValues("infile")));
+                        if (infilePaths.isEmpty()) {
+                            System.err.println("No input files matched.");
+                            return;
+                        }
+                        Path indexDir = indexDirectory(cl, false);
+                        if (indexDir != null) {
+                            if (!Files.isDirectory(indexDir)) {
+                                System.err.println("No search index in " + indexDir);
+                                return;
+                            }
+                            searcher.setIndex(SearchIndex.open(indexDir));
+                        }
+                        String outfile = cl.getOptionValue("outfile");
+                        try (PrintStream out = outfile == null
+                                ? new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false, StandardCharsets.UTF_8)
+                                : new PrintStream(new BufferedOutputStream(Files.newOutputStream(Path.of(outfile)), 1 << 16),
+                                        false, StandardCharsets.UTF_8)) {
+                            // the last file and line printed, to separate groups of lines that are not adjacent
+                            Object[] last = new Object[2];
+                            LogSearcher.Report report = searcher.search(infilePaths, (SearchMatch m) -> {
+                                if (separate && last[0] != null
+                                        && !(m.file().equals(last[0]) && m.firstLine() == (long) last[1] + 1)) {
+                                    out.println("--");
+                                }
+                                String prefix = label ? (m.host() != null ? m.host() : m.file().getFileName().toString()) + " " : "";
+                                long n = m.firstLine();
+                                for (String line : m.before()) {
+                                    out.println(prefix + m.file() + "-" + n++ + "-" + line);
+                                }
+                                out.println(prefix + m.file() + ":" + n++ + ":" + m.text());
+                                for (String line : m.after()) {
+                                    out.println(prefix + m.file() + "-" + n++ + "-" + line);
+                                }
+                                last[0] = m.file();
+                                last[1] = m.lastLine();
+                            });
+                            out.flush();
+                            System.err.print(report.format());
+                        }
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Invalid argument: " + e.getMessage());
+                    } catch (IOException e) {
+                        System.err.println("Failed to search the logs: " + e.getMessage());
+                    }
+                });
+    }
+
+
+
+    public void logRestoreCommand() {
         Options opts = new Options();
 
         opts.addOption(Option.builder("infile")
                 .option("i")
                 .longOpt("infile")
+                .hasArgs()
+                .argName("infile")
+                .desc("Recipes written with --store, or directories of them. May be repeated and may contain glob patterns.")
+                .required(true)
+                .build());
+
+        opts.addOption(Option.builder("destDir")
+                .option("d")
+                .longOpt("destDir")
                 .hasArg(true)
+                .argName("destDir")
+                .desc("The directory of the restored files, under the names of the recipes "
+                        + "(default: the content to standard output)")
+                .required(false)
+                .build());
+
+        this.cmds.addCommand("Log commands", "log:restore", opts,
+                "Restore the original files from the recipes of a chunk store, checking every chunk.",
+                (CommandLine cl) -> {
+                    try {
+                        List<Path> recipes = LogInputs.resolve(Arrays.asList(cl.getOptionValues("infile")), name -> true);
+                        Path destDir = cl.hasOption("destDir") ? Files.createDirectories(Path.of(cl.getOptionValue("destDir"))) : null;
+                        long files = 0;
+                        long bytes = 0;
+                        long start = System.nanoTime();
+                        OutputStream stdout = new BufferedOutputStream(System.out, 1 << 16);
+                        for (Path recipe : recipes) {
+                            boolean isRecipe;
+                            try (InputStream in = new BufferedInputStream(Files.newInputStream(recipe))) {
+                                isRecipe = ChunkStore.isRecipe(in);
+                            }
+                            if (!isRecipe) {
+                                System.err.println("Skipped " + recipe + ": not a recipe");
+                                continue;
+                            }
+                            try (InputStream in = ChunkStore.restore(recipe)) {
+                                if (destDir == null) {
+                                    bytes += in.transferTo(stdout);
+                                } else {
+                                    Path temp = destDir.resolve("." + recipe.getFileName() + ".part");
+                                    try (OutputStream out = Files.newOutputStream(temp)) {
+                                        bytes += in.transferTo(out);
+                                    }
+                                    Files.move(temp, destDir.resolve(recipe.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+                                }
+                            }
+                            files++;
+                        }
+                        stdout.flush();
+                        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+                        System.err.printf("Restored %d files (%.1f MB) in %.2f s: %.1f MB/s%n",
+                                files, bytes / 1e6, seconds, bytes / 1e6 / seconds);
+                    } catch (IOException e) {
+                        System.err.println("Failed to restore: " + e.getMessage());
+                    }
+                });
+    }
+
+
+
+    public void logIndexCommand() {
+        Options opts = new Options();
+
+        opts.addOption(Option.builder("infile")
+                .option("i")
+                .longOpt("infile")
+                .hasArgs()
                 .argName("infile")
-                .desc("An input file of ubuntu security report.")
+                .desc("Log files or directories of collected logs to index. May be repeated and may contain glob patterns.")
+                .required(true)
+                .build());
+
+        opts.addOption(Option.builder("index")
+                .option("x")
+                .longOpt("index")
+                .hasArg(true)
+                .argName("dir")
+                .desc("The index directory (default: " + SearchIndex.DIRECTORY + " in the --infile directory)")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("memory")
+                .option("m")
+                .longOpt("memory")
+                .hasArg(true)
+                .argName("MB")
+                .desc("The memory for the terms being indexed, after which a segment is written "
+                        + "(default: " + (SearchIndex.DEFAULT_MEMORY >> 20) + ")")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("merge")
+                .option("M")
+                .longOpt("merge")
+                .hasArg(false)
+                .desc("Merge all segments of the index into one after indexing.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("threads")
+                .option("t")
+                .longOpt("threads")
+                .hasArg(true)
+                .argName("threads")
+                .desc("The number of files indexed in parallel (default: the number of processors)")
+                .required(false)
+                .build());
+
+        this.cmds.addCommand("Log commands", "log:index", opts,
+                "Build or update an inverted index of collected logs, for log:search to read only the blocks that may match.",
+                (CommandLine cl) -> {
+                    try {
+                        Path indexDir = indexDirectory(cl, true);
+                        if (indexDir == null) {
+                            System.err.println("--index is required unless --infile is a single directory.");
+                            return;
+                        }
+                        SearchIndex index = SearchIndex.open(indexDir);
+                        if (cl.hasOption("threads")) {
+                            index.setThreads(Integer.parseInt(cl.getOptionValue("threads")));
+                        }
+                        if (cl.hasOption("memory")) {
+                            index.setMemory(Long.parseLong(cl.getOptionValue("memory")) << 20);
+                        }
+                        Path absolute = indexDir.toAbsolutePath().normalize();
+                        List<Path> infilePaths = LogSearcher.resolve(Arrays.asList(cl.getOptionValues("infile"))).stream()
+                                .filter(p -> !p.toAbsolutePath().normalize().startsWith(absolute))
+                                .toList();
+                        System.err.print(index.update(infilePaths).format());
+                        if (cl.hasOption("merge")) {
+                            System.err.print(index.merge().format());
+                        }
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Invalid argument: " + e.getMessage());
+                    } catch (IOException e) {
+                        System.err.println("Failed to index the logs: " + e.getMessage());
+                    }
+                });
+    }
+
+
+    /**
+     * Returns the search index given by {@code --index}, or else {@value SearchIndex#DIRECTORY}
+     * in the directory given by {@code --infile}, if that is a single directory.
+     *
+     * @param cl     the command line
+     * @param create whether the default index need not exist yet
+     * @return the index directory, or {@code null} if there is none
+     */
+    private Path indexDirectory(CommandLine cl, boolean create) {
+        if (cl.hasOption("index")) {
+            return Path.of(cl.getOptionValue("index"));
+        }
+        String[] infiles = cl.getOptionValues("infile");
+        if (infiles.length == 1 && Files.isDirectory(Path.of(infiles[0]))) {
+            Path dir = Path.of(infiles[0]).resolve(SearchIndex.DIRECTORY);
+            return create || Files.isDirectory(dir) ? dir : null;
+        }
+        return null;
+    }
+
+
+
+    /**
+     * Parses a time given on the command line: an ISO 8601 date and time, with {@code T} or a
+     * space between them, and with or without an offset.
+     *
+     * @param text the time
+     * @param zone the time zone of a time without an offset
+     * @return the time in microseconds since the epoch
+     * @throws DateTimeParseException if the time is invalid
+     */
+    private static long parseTime(String text, ZoneId zone) {
+        String iso = text.trim().replace(' ', 'T');
+        TemporalAccessor parsed = DateTimeFormatter.ISO_DATE_TIME.parseBest(iso,
+                OffsetDateTime::from, LocalDateTime::from);
+        Instant instant = parsed instanceof OffsetDateTime odt ? odt.toInstant()
+                : ((LocalDateTime) parsed).atZone(zone).toInstant();
+        return instant.getEpochSecond() * 1_000_000L + instant.getNano() / 1000;
+    }
+
+
+
+    /**
+     * Adds the options that configure a {@link LogCollector}, shared by the log collection
+     * commands.
+     *
+     * @param opts the options of a command
+     */
+    private void addCollectorOptions(Options opts) {
+        opts.addOption(Option.builder("threads")
+                .option("t")
+                .longOpt("threads")
+                .hasArg(true)
+                .argName("threads")
+                .desc("Number of traversal threads and copy workers (default: number of processors).")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("perDevice")
+                .option("P")
+                .longOpt("perDevice")
+                .hasArg(true)
+                .argName("perDevice")
+                .desc("Maximum number of concurrent copies from one source device (default: "
+                        + LogCollector.DEFAULT_PER_DEVICE_LIMIT + ").")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("copyMode")
+                .option("c")
+                .longOpt("copyMode")
+                .hasArg(true)
+                .argName("copyMode")
+                .desc("How files are copied: copy (default), transfer (in-kernel copy) "
+                        + "or hardlink (falls back to transfer across file systems).")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("full")
+                .option("F")
+                .longOpt("full")
+                .hasArg(false)
+                .desc("Copy every file again, even if the manifest in the destination directory "
+                        + "records it as collected unchanged.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("evidence")
+                .option("e")
+                .longOpt("evidence")
+                .hasArg(false)
+                .desc("Write SHA256SUMS and a sign-off file (" + EvidenceManifest.SIGNOFF_FILE
+                        + ") to the destination directory.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("digest")
+                .option("D")
+                .longOpt("digest")
+                .hasArgs()
+                .argName("algorithm")
+                .desc("Additional digest algorithms computed while copying, e.g. SHA-512/256 or SHA3-256. "
+                        + "Implies --evidence.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("compress")
+                .option("z")
+                .longOpt("compress")
+                .hasArg(false)
+                .desc("Compress uncompressed log files with parallel gzip while copying (adds .gz).")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("index")
+                .option("x")
+                .longOpt("index")
+                .hasArg(false)
+                .desc("Write a time index next to every copied file, for fast extraction with log:range.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("redactKey")
+                .option("R")
+                .longOpt("redactKey")
+                .hasArg(true)
+                .argName("keyFile")
+                .desc("Replace IP addresses, email addresses and user names in the copies with pseudonyms "
+                        + "keyed by the secret in this file (at least 16 bytes, e.g. from /dev/urandom).")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("store")
+                .option("S")
+                .longOpt("store")
+                .hasArg(false)
+                .desc("Store the content in a deduplicating chunk store in the destination directory, "
+                        + "with a recipe of its chunks in place of each file (restore with log:restore).")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("bwLimit")
+                .option("B")
+                .longOpt("bwLimit")
+                .hasArg(true)
+                .argName("bytes/s")
+                .desc("The maximum read rate from the source, e.g. 50M (binary K, M, G suffixes).")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("fileLimit")
+                .option("O")
+                .longOpt("fileLimit")
+                .hasArg(true)
+                .argName("files/s")
+                .desc("The maximum number of files started per second.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("adaptive")
+                .option("A")
+                .longOpt("adaptive")
+                .hasArg(false)
+                .desc("Lower the read rate while the disk latency is high, so that services on the host are not slowed down.")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("rules")
+                .option("r")
+                .longOpt("rules")
+                .hasArg(true)
+                .argName("rules.yaml")
+                .desc("A YAML file with the include, exclude and date patterns of collected file names.")
+                .required(false)
+                .build());
+    }
+
+
+    /**
+     * Applies the collector options of a command line to a builder, printing an error if an
+     * option is invalid.
+     *
+     * @param cl        the command line
+     * @param collector the builder
+     * @return the builder, or {@code null} if an option is invalid
+     */
+    private LogCollector.Builder configureCollector(CommandLine cl, LogCollector.Builder collector) {
+        int threads = Integer.parseInt(cl.getOptionValue("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        int perDevice = Integer.parseInt(cl.getOptionValue("perDevice",
+                String.valueOf(LogCollector.DEFAULT_PER_DEVICE_LIMIT)));
+        CopyStrategy copyMode;
+        try {
+            copyMode = CopyStrategy.of(cl.getOptionValue("copyMode", "copy"));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown copy mode: " + cl.getOptionValue("copyMode"));
+            return null;
+        }
+        if (copyMode == CopyStrategy.TRANSFER && (cl.hasOption("evidence") || cl.hasOption("digest"))) {
+            System.err.println("Warning: --copyMode transfer copies through a buffer with --evidence or --digest, "
+                    + "which hash the content while it is copied.");
+        }
+        collector.threads(threads)
+                .perDeviceLimit(perDevice)
+                .copyStrategy(copyMode)
+                .incremental(!cl.hasOption("full"))
+                .compress(cl.hasOption("compress"))
+                .index(cl.hasOption("index"))
+                .evidence(cl.hasOption("evidence") || cl.hasOption("digest"));
+        if (cl.hasOption("bwLimit") || cl.hasOption("fileLimit") || cl.hasOption("adaptive")) {
+            try {
+                collector.throttle(new IoThrottle(
+                        IoThrottle.parseBytes(cl.getOptionValue("bwLimit", "0")),
+                        Double.parseDouble(cl.getOptionValue("fileLimit", "0")),
+                        cl.hasOption("adaptive")));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid limit: " + e.getMessage());
+                return null;
+            }
+        }
+        if (cl.hasOption("redactKey")) {
+            if (cl.hasOption("archive")) {
+                System.err.println("--redactKey cannot be used with --archive.");
+                return null;
+            }
+            try {
+                collector.redactor(Redactor.load(Path.of(cl.getOptionValue("redactKey"))));
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Failed to load the redaction key: " + e.getMessage());
+                return null;
+            }
+        }
+        if (cl.hasOption("store")) {
+            if (cl.hasOption("archive") || cl.hasOption("index")) {
+                System.err.println("--store cannot be used with --archive or --index.");
+                return null;
+            }
+            try {
+                collector.store(ChunkStore.open(collector.destDir()));
+            } catch (IOException e) {
+                System.err.println("Failed to open the chunk store: " + e.getMessage());
+                return null;
+            }
+        }
+        if (cl.hasOption("rules")) {
+            try {
+                collector.classifier(LogFileClassifier.load(Path.of(cl.getOptionValue("rules"))));
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Failed to load rules: " + e.getMessage());
+                return null;
+            }
+        }
+        if (cl.hasOption("digest")) {
+            try {
+                collector.extraDigests(Arrays.asList(cl.getOptionValues("digest")));
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                return null;
+            }
+        }
+        return collector;
+    }
+
+
+
+    public void ubuntuSecurityReportCommand() {
+        Options opts = new Options();
+
+        opts.addOption(Option.builder("infile")
+                .option("i")
+                .longOpt("infile")
+                .hasArgs()
+                .argName("infile")
+                .desc("Input files of ubuntu security report (plain text, mbox or Maildir, optionally .gz). "
+                        + "May be repeated and may contain glob patterns.")
                 .required(true)
                 .build());
 
@@ -140,13 +1451,121 @@ public class App {
         this.cmds.addCommand("Ubuntu security commands", "ubuntu:report", opts,
                 "Create TSV format report.",
                 (CommandLine cl) -> {
-                    Path infilePath = Path.of(cl.getOptionValue("infile"));
                     String format = cl.getOptionValue("format", "tsv");
-                    USNJsonExporter exporter = new USNJsonExporter();
-                    exporter.report(infilePath, format);
+                    try {
+                        List<Path> infilePaths =
+                                DigestInputs.resolve(Arrays.asList(cl.getOptionValues("infile")));
+                        if (infilePaths.isEmpty()) {
+                            System.err.println("No input files matched.");
+                            return;
+                        }
+                        USNJsonExporter exporter = new USNJsonExporter();
+                        exporter.report(infilePaths, format);
+                    } catch (IOException e) {
+                        System.err.println("Failed to resolve input files: " + e.getMessage());
+                    }
                 });
     }
 
-    
+
+
+    public void ubuntuSecurityServeCommand() {
+        Options opts = new Options();
+
+        opts.addOption(Option.builder("port")
+                .option("p")
+                .longOpt("port")
+                .hasArg(true)
+                .argName("port")
+                .desc("The port to listen on (default: 8080)")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("bind")
+                .option("b")
+                .longOpt("bind")
+                .hasArg(true)
+                .argName("address")
+                .desc("The address to bind to (default: 127.0.0.1)")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("threads")
+                .option("t")
+                .longOpt("threads")
+                .hasArg(true)
+                .argName("threads")
+                .desc("The number of request handling threads (default: 4)")
+                .required(false)
+                .build());
+
+        opts.addOption(Option.builder("root")
+                .option("r")
+                .longOpt("root")
+                .hasArg(true)
+                .argName("dir")
+                .desc("The directory below which GET /report?path= may read digests; "
+                        + "without it, the path form is only accepted on a loopback address")
+                .required(false)
+                .build());
+
+        this.cmds.addCommand("Ubuntu security commands", "ubuntu:serve", opts,
+                "Serve reports from a long-running process with warm caches.",
+                (CommandLine cl) -> {
+                    int port = Integer.parseInt(cl.getOptionValue("port", "8080"));
+                    String bind = cl.getOptionValue("bind", "127.0.0.1");
+                    int threads = Integer.parseInt(cl.getOptionValue("threads", "4"));
+                    USNReportServer server = new USNReportServer(new USNJsonExporter(),
+                            new InetSocketAddress(bind, port), threads);
+                    try {
+                        if (cl.hasOption("root")) {
+                            server.setRoot(Path.of(cl.getOptionValue("root")));
+                        }
+                        server.start();
+                        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+                    } catch (IOException e) {
+                        System.err.println("Failed to start the report server: " + e.getMessage());
+                    }
+                });
+    }
+
+
+
+    public void ubuntuSecurityWatchCommand() {
+        Options opts = new Options();
+
+        opts.addOption(Option.builder("dir")
+                .option("d")
+                .longOpt("dir")
+                .hasArg(true)
+                .argName("dir")
+                .desc("The directory the ubuntu-security-announce digests are saved into.")
+                .required(true)
+                .build());
+
+        opts.addOption(Option.builder("outdir")
+                .option("o")
+                .longOpt("outdir")
+                .hasArg(true)
+                .argName("outdir")
+                .desc("The directory of the rolling TSV reports (default: the digest directory)")
+                .required(false)
+                .build());
+
+
+        this.cmds.addCommand("Ubuntu security commands", "ubuntu:watch", opts,
+                "Append new notices to a rolling TSV report as digests arrive.",
+                (CommandLine cl) -> {
+                    Path digestDir = Path.of(cl.getOptionValue("dir"));
+                    Path reportDir = Path.of(cl.getOptionValue("outdir", digestDir.toString()));
+                    USNDigestWatcher watcher =
+                            new USNDigestWatcher(new USNJsonExporter(), digestDir, reportDir);
+                    try {
+                        watcher.watch();
+                    } catch (IOException e) {
+                        System.err.println("Failed to watch " + digestDir + ": " + e.getMessage());
+                    }
+                });
+    }
 
 }
@@ -0,0 +1,255 @@
+package com.github.oogasawa.utility.security.access;
+
+import com.github.oogasawa.utility.security.log.LogInputs;
+import com.github.oogasawa.utility.security.sketch.HyperLogLog;
+import com.github.oogasawa.utility.security.sketch.SpaceSaving;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Summarizes collected Apache access logs of many hosts in bounded memory.
+ * <p>
+ * The files, plain or gzip-compressed, are parsed in parallel, one file per thread, with an
+ * {@link AccessLogParser}, each into an {@link AccessSummary} of its own. The summaries are
+ * merged into the total as the files complete, and their client sketches into one
+ * {@link HyperLogLog} per host, so the memory in use is that of one summary per thread plus
+ * the total and a few kilobytes per host, however large the logs are. The host of a file is
+ * taken from its collected name, e.g. {@code web01} for {@code access.log-20250622.gz_web01}.
+ */
+public class AccessLogAnalyzer {
+
+    private static final Logger logger = LoggerFactory.getLogger(AccessLogAnalyzer.class);
+
+    /**
+     * The requests of one host.
+     *
+     * @param host             the host name, or {@code -} for files without one
+     * @param files            the number of files of the host
+     * @param requests         the number of requests
+     * @param scannerRequests  the number of requests that matched a scanner signature
+     * @param distinctClients  the estimated number of distinct client addresses
+     */
+    public record Host(String host, long files, long requests, long scannerRequests, long distinctClients) {
+    }
+
+    /**
+     * The outcome of an analysis.
+     *
+     * @param files        the number of files parsed
+     * @param bytes        the number of uncompressed bytes parsed
+     * @param lines        the number of lines parsed
+     * @param elapsedNanos the wall-clock time of the analysis
+     * @param total        the summary of all requests
+     * @param hosts        the requests per host, by host name
+     */
+    public record Report(long files, long bytes, long lines, long elapsedNanos, AccessSummary total,
+            List<Host> hosts) {
+
+        /**
+         * Formats the report as text, with at most {@code top} lines per ranking.
+         *
+         * @param top the maximum number of lines per ranking
+         * @return the report
+         */
+        public String format(int top) {
+            StringBuilder sb = new StringBuilder();
+            double seconds = Math.max(elapsedNanos, 1) / 1e9;
+            sb.append(String.format("Parsed %d files of %d hosts, %d lines (%.1f MB) in %.2f s: %.1f MB/s%n",
+                    files, hosts.size(), lines, bytes / 1e6, seconds, bytes / 1e6 / seconds));
+            sb.append(String.format("Requests: %d (%d lines not in a known format), %.1f MB sent%n",
+                    total.requests(), lines - total.requests(), total.bytesSent() / 1e6));
+            sb.append(String.format("Status: 1xx=%d 2xx=%d 3xx=%d 4xx=%d 5xx=%d invalid=%d%n",
+                    total.status(1), total.status(2), total.status(3), total.status(4), total.status(5),
+                    total.status(0)));
+            HyperLogLog clients = total.clients();
+            sb.append(String.format("Distinct clients: ~%d (standard error %.1f %%)%n",
+                    clients.estimate(), clients.standardError() * 100));
+
+            sb.append(String.format("%nHosts:%n"));
+            for (Host h : hosts) {
+                sb.append(String.format("  %-24s  %4d files  %10d requests  %8d scanner  ~%d clients%n",
+                        h.host(), h.files(), h.requests(), h.scannerRequests(), h.distinctClients()));
+            }
+
+            sb.append(String.format("%nScanner signatures: %d requests%n", total.scannerRequests()));
+            for (ScannerSignature s : ScannerSignature.values()) {
+                if (total.hits(s) > 0) {
+                    sb.append(String.format("  %10d  %s%n", total.hits(s), s.label()));
+                }
+            }
+            appendTop(sb, "Top clients matching scanner signatures", total.scannerClients(), top);
+            appendTop(sb, "Top clients with 404 responses", total.notFoundClients(), top);
+            appendTop(sb, "Top clients", total.topClients(), top);
+            appendTop(sb, "Top paths", total.topPaths(), top);
+            appendTop(sb, "Top user agents", total.topAgents(), top);
+            return sb.toString();
+        }
+
+        private static void appendTop(StringBuilder sb, String title, SpaceSaving sketch, int top) {
+            sb.append(String.format("%n%s:%n", title));
+            for (SpaceSaving.Item item : sketch.top(top)) {
+                String error = item.error() == 0 ? "" : String.format("(+-%d)", item.error());
+                sb.append(String.format("  %10d %-10s  %s%n", item.count(), error, item.value()));
+            }
+        }
+    }
+
+    private record FileResult(Path file, AccessSummary summary, long lines, long bytes) {
+    }
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private int capacity = 1000;
+
+
+    /**
+     * Sets the number of files parsed in parallel.
+     *
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+
+    /**
+     * Sets the number of counters of the top-K sketches. The counts of the values that rank
+     * well within the capacity are exact or nearly so.
+     *
+     * @param capacity the number of counters
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+
+    /**
+     * Expands input specifications into the files to analyze: a directory stands for the files
+     * below it whose names contain {@code access.log} or {@code access_log}, which covers
+     * {@code other_vhosts_access.log} and {@code ssl_access_log} of Debian and Red Hat as well;
+     * any other specification is resolved by {@link LogInputs#resolve}.
+     *
+     * @param specs the paths, directories or glob patterns given on the command line
+     * @return the files
+     * @throws IOException if a directory cannot be searched
+     */
+    public static List<Path> resolve(List<String> specs) throws IOException {
+        return LogInputs.resolve(specs, name -> name.contains("access.log") || name.contains("access_log"));
+    }
+
+
+    /**
+     * Analyzes files.
+     *
+     * @param files the files, plain or gzip-compressed
+     * @return the report
+     * @throws IOException if a file cannot be read
+     */
+    public Report analyze(List<Path> files) throws IOException {
+        long start = System.nanoTime();
+
+        // the largest files first, so that no thread starts a large file last
+        List<Path> ordered = new ArrayList<>(files);
+        ordered.sort(Comparator.comparingLong(AccessLogAnalyzer::sizeOf).reversed());
+
+        AccessSummary total = new AccessSummary(capacity);
+        Map<String, HostTotals> hosts = new TreeMap<>();
+        long lines = 0;
+        long bytes = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, ordered.size())));
+        try {
+            CompletionService<FileResult> results = new ExecutorCompletionService<>(pool);
+            for (Path file : ordered) {
+                results.submit(() -> parse(file));
+            }
+            // merge in the order of completion, so that a finished summary is released at once
+            for (int i = 0; i < ordered.size(); i++) {
+                FileResult r = results.take().get();
+                total.merge(r.summary());
+                String host = LogInputs.hostOf(r.file());
+                hosts.computeIfAbsent(host == null ? "-" : host, h -> new HostTotals()).add(r.summary());
+                lines += r.lines();
+                bytes += r.bytes();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException u) {
+                throw new IOException(u.getMessage(), u.getCause());
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        List<Host> hostList = new ArrayList<>();
+        for (Map.Entry<String, HostTotals> e : hosts.entrySet()) {
+            HostTotals h = e.getValue();
+            hostList.add(new Host(e.getKey(), h.files, h.requests, h.scannerRequests, h.clients.estimate()));
+        }
+        logger.info("Summarized {} requests of {} files", total.requests(), files.size());
+        return new Report(files.size(), bytes, lines, System.nanoTime() - start, total, hostList);
+    }
+
+
+    private FileResult parse(Path file) {
+        AccessLogParser parser = new AccessLogParser();
+        AccessSummary summary = new AccessSummary(capacity);
+        try (InputStream in = LogInputs.open(file)) {
+            parser.parse(in, summary::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException(file + ": " + e.getMessage(), e);
+        }
+        logger.debug("{}: {} lines, {} requests", file, parser.lines(), summary.requests());
+        return new FileResult(file, summary, parser.lines(), parser.bytes());
+    }
+
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+
+    /**
+     * The running totals of a host.
+     */
+    private static final class HostTotals {
+
+        private final HyperLogLog clients = new HyperLogLog();
+
+        private long files = 0;
+
+        private long requests = 0;
+
+        private long scannerRequests = 0;
+
+        void add(AccessSummary summary) {
+            clients.merge(summary.clients());
+            files++;
+            requests += summary.requests();
+            scannerRequests += summary.scannerRequests();
+        }
+    }
+
+}
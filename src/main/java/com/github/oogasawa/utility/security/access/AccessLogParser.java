@@ -0,0 +1,270 @@
+package com.github.oogasawa.utility.security.access;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+
+/**
+ * Extracts {@link AccessRequest}s from the lines of an Apache access log, working on the raw
+ * bytes instead of matching a regular expression per line.
+ * <p>
+ * The fields are located by their delimiters: the timestamp in {@code [...]}, the request line,
+ * referer and user agent in double quotes, in which Apache escapes quotes as {@code \"}. The
+ * three fields before the timestamp are the client, the identity and the user, so the
+ * {@code vhost_combined} format of Debian and Ubuntu, which puts {@code host:port} first, is
+ * understood as well. The timestamp is not decoded, as the summaries do not need it.
+ * <p>
+ * Apache escapes non-printable bytes in the quoted fields, so the fields are decoded as
+ * ISO-8859-1, which is the fastest decoding and keeps any other byte as one character.
+ * <p>
+ * A parser is not thread-safe; use one per file.
+ */
+public class AccessLogParser {
+
+    private long lines = 0;
+
+    private long bytes = 0;
+
+    // the end of the last quoted field, after its closing quote
+    private int quotedEnd;
+
+
+    /**
+     * Parses a stream line by line and passes its requests to a consumer.
+     *
+     * @param in       the stream, already decompressed
+     * @param consumer receives the requests in the order of the lines
+     * @throws IOException if the stream cannot be read
+     */
+    public void parse(InputStream in, Consumer<AccessRequest> consumer) throws IOException {
+        byte[] buffer = new byte[1 << 20];
+        int length = 0;
+        while (true) {
+            if (length == buffer.length) {
+                // a line longer than the buffer
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int n = in.read(buffer, length, buffer.length - length);
+            if (n < 0) {
+                break;
+            }
+            bytes += n;
+            int scanned = length;
+            length += n;
+
+            int lineStart = 0;
+            for (int i = scanned; i < length; i++) {
+                if (buffer[i] == '\n') {
+                    emit(buffer, lineStart, i, consumer);
+                    lineStart = i + 1;
+                }
+            }
+            System.arraycopy(buffer, lineStart, buffer, 0, length - lineStart);
+            length -= lineStart;
+        }
+        if (length > 0) {
+            emit(buffer, 0, length, consumer);
+        }
+    }
+
+
+    /**
+     * Returns the number of lines parsed.
+     *
+     * @return the number of lines
+     */
+    public long lines() {
+        return lines;
+    }
+
+
+    /**
+     * Returns the number of bytes parsed.
+     *
+     * @return the number of bytes
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+
+    private void emit(byte[] b, int start, int end, Consumer<AccessRequest> consumer) {
+        lines++;
+        AccessRequest request = parse(b, start, end);
+        if (request != null) {
+            consumer.accept(request);
+        }
+    }
+
+
+    /**
+     * Parses one line.
+     *
+     * @param b     the bytes of the line
+     * @param start the start of the line
+     * @param end   the end of the line, excluding the line feed
+     * @return the request of the line, or {@code null} if the line is not in a known format
+     */
+    public AccessRequest parse(byte[] b, int start, int end) {
+        if (end > start && b[end - 1] == '\r') {
+            end--;
+        }
+        int bracket = indexOf(b, start, end, (byte) '[');
+        if (bracket < start + 5 || b[bracket - 1] != ' ') {
+            return null;
+        }
+
+        // client, identity and user, read backwards from the timestamp
+        int userStart = lastIndexOf(b, start, bracket - 1, (byte) ' ');
+        int identStart = userStart < 0 ? -1 : lastIndexOf(b, start, userStart, (byte) ' ');
+        if (identStart < 0) {
+            return null;
+        }
+        int clientStart = lastIndexOf(b, start, identStart, (byte) ' ') + 1;
+        if (clientStart < start) {
+            clientStart = start;
+        }
+        if (clientStart == identStart) {
+            return null;
+        }
+
+        int close = indexOf(b, bracket, end, (byte) ']');
+        if (close < 0 || close + 2 >= end || b[close + 1] != ' ' || b[close + 2] != '"') {
+            return null;
+        }
+
+        // request line
+        int requestStart = close + 3;
+        int requestEnd = quoted(b, requestStart, end);
+        if (requestEnd < 0) {
+            return null;
+        }
+        String method;
+        String target;
+        int space = indexOf(b, requestStart, requestEnd, (byte) ' ');
+        int lastSpace = lastIndexOf(b, requestStart, requestEnd, (byte) ' ');
+        if (space > requestStart && lastSpace > space + 1 && isToken(b, requestStart, space)) {
+            method = string(b, requestStart, space);
+            target = string(b, space + 1, lastSpace);
+        } else {
+            method = "";
+            target = string(b, requestStart, requestEnd);
+        }
+
+        // status and size
+        int pos = quotedEnd;
+        if (pos >= end || b[pos] != ' ') {
+            return null;
+        }
+        int statusEnd = indexOf(b, pos + 1, end, (byte) ' ');
+        if (statusEnd < 0) {
+            statusEnd = end;
+        }
+        int status = (int) number(b, pos + 1, statusEnd);
+        int sizeEnd = statusEnd < end ? indexOf(b, statusEnd + 1, end, (byte) ' ') : -1;
+        if (sizeEnd < 0) {
+            sizeEnd = end;
+        }
+        long size = statusEnd < end ? number(b, statusEnd + 1, sizeEnd) : 0;
+        if (status < 0) {
+            status = 0;
+        }
+        if (size < 0) {
+            size = 0;
+        }
+
+        // referer and user agent of the combined format
+        String userAgent = "";
+        if (sizeEnd + 2 < end && b[sizeEnd + 1] == '"') {
+            int refererEnd = quoted(b, sizeEnd + 2, end);
+            int agentStart = quotedEnd + 2;
+            if (refererEnd >= 0 && agentStart < end && b[quotedEnd] == ' ' && b[agentStart - 1] == '"') {
+                int agentEnd = quoted(b, agentStart, end);
+                if (agentEnd >= 0) {
+                    userAgent = agentEnd == agentStart + 1 && b[agentStart] == '-' ? "" : string(b, agentStart, agentEnd);
+                }
+            }
+        }
+        return new AccessRequest(string(b, clientStart, identStart), method, target, status, size, userAgent);
+    }
+
+
+    /**
+     * Finds the closing quote of a quoted field, skipping escaped characters, and sets
+     * {@link #quotedEnd} to the position after it.
+     *
+     * @return the position of the closing quote, or -1 if there is none
+     */
+    private int quoted(byte[] b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (b[i] == '\\') {
+                i++;
+            } else if (b[i] == '"') {
+                quotedEnd = i + 1;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Checks whether a method consists of upper-case letters, as opposed to binary garbage.
+     */
+    private static boolean isToken(byte[] b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (b[i] < 'A' || b[i] > 'Z') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Parses a decimal number, returning -1 for {@code -} or anything else that is not one.
+     */
+    private static long number(byte[] b, int start, int end) {
+        if (start >= end || end - start > 18) {
+            return -1;
+        }
+        long n = 0;
+        for (int i = start; i < end; i++) {
+            int d = b[i] - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            n = n * 10 + d;
+        }
+        return n;
+    }
+
+
+    private static String string(byte[] b, int start, int end) {
+        return new String(b, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+
+    private static int indexOf(byte[] b, int start, int end, byte c) {
+        for (int i = start; i < end; i++) {
+            if (b[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    private static int lastIndexOf(byte[] b, int start, int end, byte c) {
+        for (int i = end - 1; i >= start; i--) {
+            if (b[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.github.oogasawa.utility.security.access;
+
+
+/**
+ * A request of an Apache access log in the common or combined log format.
+ *
+ * @param client    the client address ({@code %h})
+ * @param method    the request method, or an empty string if the request line is malformed,
+ *                  e.g. the binary handshake of a TLS client on a plain HTTP port
+ * @param target    the request target including the query string; the whole request line if
+ *                  it is malformed
+ * @param status    the status code, or 0 if it is not a number
+ * @param size      the size of the response body in bytes, 0 for {@code -}
+ * @param userAgent the {@code User-Agent} header, or an empty string in the common log format
+ */
+public record AccessRequest(String client, String method, String target, int status, long size, String userAgent) {
+
+    /**
+     * Checks whether the request line could not be split into method, target and protocol.
+     *
+     * @return {@code true} for malformed request lines
+     */
+    public boolean isMalformed() {
+        return method.isEmpty();
+    }
+
+
+    /**
+     * Returns the path of the target, without the query string.
+     *
+     * @return the path
+     */
+    public String path() {
+        int query = target.indexOf('?');
+        return query < 0 ? target : target.substring(0, query);
+    }
+
+}
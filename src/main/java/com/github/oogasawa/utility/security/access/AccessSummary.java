@@ -0,0 +1,264 @@
+package com.github.oogasawa.utility.security.access;
+
+import com.github.oogasawa.utility.security.sketch.HyperLogLog;
+import com.github.oogasawa.utility.security.sketch.SpaceSaving;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * A summary of access log requests in bounded memory, which can be merged with the summaries
+ * of other files.
+ * <p>
+ * Besides exact counters, a summary holds a {@link HyperLogLog} of the client addresses and
+ * {@link SpaceSaving} sketches of the most frequent clients, paths (without the query string)
+ * and user agents, of the clients that hit a {@link ScannerSignature}, and of the clients that
+ * got a 404. Its size is therefore fixed by the capacity of the sketches, however many requests
+ * it summarizes. Paths and user agents longer than {@value #MAX_VALUE} characters are truncated,
+ * so that a scanner sending megabyte URLs cannot inflate the sketches either.
+ * <p>
+ * A summary is not thread-safe; build one per file and merge them.
+ */
+public class AccessSummary {
+
+    /** The maximum length of a path or user agent kept in a sketch. */
+    public static final int MAX_VALUE = 256;
+
+    /** The maximum number of user agents whose signature matches are cached. */
+    private static final int MAX_CACHED_AGENTS = 4096;
+
+    private final HyperLogLog clients = new HyperLogLog();
+
+    private final SpaceSaving topClients;
+
+    private final SpaceSaving topPaths;
+
+    private final SpaceSaving topAgents;
+
+    private final SpaceSaving scannerClients;
+
+    private final SpaceSaving notFoundClients;
+
+    private final long[] statusClasses = new long[6];
+
+    private final long[] signatureHits = new long[ScannerSignature.values().length];
+
+    private long requests = 0;
+
+    private long scannerRequests = 0;
+
+    private long bytesSent = 0;
+
+    /** The signature matches of recent user agents, which repeat across most requests. */
+    private final Map<String, Integer> agentMatches = new HashMap<>();
+
+
+    /**
+     * Constructs an empty summary.
+     *
+     * @param capacity the number of counters of each top-K sketch
+     */
+    public AccessSummary(int capacity) {
+        this.topClients = new SpaceSaving(capacity);
+        this.topPaths = new SpaceSaving(capacity);
+        this.topAgents = new SpaceSaving(capacity);
+        this.scannerClients = new SpaceSaving(capacity);
+        this.notFoundClients = new SpaceSaving(capacity);
+    }
+
+
+    /**
+     * Adds a request.
+     *
+     * @param request the request
+     */
+    public void add(AccessRequest request) {
+        requests++;
+        bytesSent += request.size();
+        int status = request.status();
+        statusClasses[status >= 100 && status < 600 ? status / 100 : 0]++;
+
+        String client = request.client();
+        clients.add(client);
+        topClients.add(client);
+        if (!request.isMalformed()) {
+            topPaths.add(truncate(request.path()));
+        }
+        if (!request.userAgent().isEmpty()) {
+            topAgents.add(truncate(request.userAgent()));
+        }
+        if (status == 404) {
+            notFoundClients.add(client);
+        }
+
+        int matches = ScannerSignature.matchTarget(request) | matchAgent(request.userAgent());
+        if (matches != 0) {
+            scannerRequests++;
+            scannerClients.add(client);
+            for (int i = 0; i < signatureHits.length; i++) {
+                if ((matches & (1 << i)) != 0) {
+                    signatureHits[i]++;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Merges another summary into this one.
+     *
+     * @param other a summary with sketches of the same capacity
+     */
+    public void merge(AccessSummary other) {
+        clients.merge(other.clients);
+        topClients.merge(other.topClients);
+        topPaths.merge(other.topPaths);
+        topAgents.merge(other.topAgents);
+        scannerClients.merge(other.scannerClients);
+        notFoundClients.merge(other.notFoundClients);
+        for (int i = 0; i < statusClasses.length; i++) {
+            statusClasses[i] += other.statusClasses[i];
+        }
+        for (int i = 0; i < signatureHits.length; i++) {
+            signatureHits[i] += other.signatureHits[i];
+        }
+        requests += other.requests;
+        scannerRequests += other.scannerRequests;
+        bytesSent += other.bytesSent;
+    }
+
+
+    /**
+     * Returns the number of requests.
+     *
+     * @return the number of requests
+     */
+    public long requests() {
+        return requests;
+    }
+
+
+    /**
+     * Returns the number of requests that matched at least one scanner signature.
+     *
+     * @return the number of requests
+     */
+    public long scannerRequests() {
+        return scannerRequests;
+    }
+
+
+    /**
+     * Returns the total size of the response bodies.
+     *
+     * @return the number of bytes
+     */
+    public long bytesSent() {
+        return bytesSent;
+    }
+
+
+    /**
+     * Returns the number of requests per status class.
+     *
+     * @param hundreds the status class, 1 to 5 for {@code 1xx} to {@code 5xx}, or 0 for an
+     *                 invalid status
+     * @return the number of requests
+     */
+    public long status(int hundreds) {
+        return statusClasses[hundreds];
+    }
+
+
+    /**
+     * Returns the number of requests that matched a signature.
+     *
+     * @param signature the signature
+     * @return the number of requests
+     */
+    public long hits(ScannerSignature signature) {
+        return signatureHits[signature.ordinal()];
+    }
+
+
+    /**
+     * Returns the sketch of the distinct client addresses.
+     *
+     * @return the sketch
+     */
+    public HyperLogLog clients() {
+        return clients;
+    }
+
+
+    /**
+     * Returns the sketch of the most frequent client addresses.
+     *
+     * @return the sketch
+     */
+    public SpaceSaving topClients() {
+        return topClients;
+    }
+
+
+    /**
+     * Returns the sketch of the most frequent paths.
+     *
+     * @return the sketch
+     */
+    public SpaceSaving topPaths() {
+        return topPaths;
+    }
+
+
+    /**
+     * Returns the sketch of the most frequent user agents.
+     *
+     * @return the sketch
+     */
+    public SpaceSaving topAgents() {
+        return topAgents;
+    }
+
+
+    /**
+     * Returns the sketch of the clients with the most requests that matched a scanner signature.
+     *
+     * @return the sketch
+     */
+    public SpaceSaving scannerClients() {
+        return scannerClients;
+    }
+
+
+    /**
+     * Returns the sketch of the clients with the most 404 responses.
+     *
+     * @return the sketch
+     */
+    public SpaceSaving notFoundClients() {
+        return notFoundClients;
+    }
+
+
+    private int matchAgent(String agent) {
+        if (agent.length() > MAX_VALUE) {
+            return ScannerSignature.matchAgent(agent);
+        }
+        Integer matches = agentMatches.get(agent);
+        if (matches == null) {
+            if (agentMatches.size() >= MAX_CACHED_AGENTS) {
+                agentMatches.clear();
+            }
+            matches = ScannerSignature.matchAgent(agent);
+            agentMatches.put(agent, matches);
+        }
+        return matches;
+    }
+
+
+    private static String truncate(String value) {
+        return value.length() <= MAX_VALUE ? value : value.substring(0, MAX_VALUE);
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.github.oogasawa.utility.security.access;
+
+import java.util.Locale;
+
+
+/**
+ * Patterns of requests made by vulnerability scanners and exploit bots rather than by people.
+ * <p>
+ * Each signature is a list of lower-case substrings of the request target or the user agent,
+ * both compared in lower case; one match is enough. They are deliberately few and specific, so
+ * that a hit is worth a look; a client that hits several of them is almost certainly a scanner.
+ */
+public enum ScannerSignature {
+
+    /** A request line that is not {@code METHOD target protocol}, e.g. a TLS handshake. */
+    MALFORMED_REQUEST("malformed request line", Field.NONE),
+
+    /** Directory traversal, plain or percent-encoded. */
+    PATH_TRAVERSAL("path traversal", Field.TARGET, "../", "..%2f", "%2e%2e", "..\\"),
+
+    /** Files that must never be served: credentials, repositories, configuration. */
+    SENSITIVE_FILE("sensitive file", Field.TARGET, "/etc/passwd", "/.env", "/.git/", "/.aws/", "/.ssh/",
+            ".htpasswd", "/web.config", "/wp-config.php", "/server-status"),
+
+    /** WordPress log-in and plug-in probes. */
+    WORDPRESS("WordPress probe", Field.TARGET, "/wp-login.php", "/wp-admin", "/xmlrpc.php", "/wp-content/plugins/",
+            "/wp-includes/"),
+
+    /** Administration consoles. */
+    ADMIN_CONSOLE("admin console", Field.TARGET, "phpmyadmin", "/pma/", "/manager/html", "/actuator",
+            "/solr/admin", "/jmx-console"),
+
+    /** Known remote code execution exploits of routers, CGI scripts and PHP libraries. */
+    EXPLOIT("exploit attempt", Field.TARGET, "/cgi-bin/", "/boaform/", "/hnap1", "/vendor/phpunit/",
+            "eval-stdin.php", "/shell?", "cmd.exe", "/bin/sh", "wget%20http", "wget+http"),
+
+    /** SQL injection. */
+    SQL_INJECTION("SQL injection", Field.TARGET, "union%20select", "union+select", "union select",
+            "%27%20or%20", "' or '", "information_schema", "sleep(", "sleep%28"),
+
+    /** Cross-site scripting. */
+    XSS("cross-site scripting", Field.TARGET, "<script", "%3cscript", "javascript:", "onerror="),
+
+    /** JNDI lookups (Log4Shell), which are also sent in the user agent. */
+    JNDI("JNDI injection", Field.BOTH, "${jndi:", "%24%7bjndi"),
+
+    /** The user agents of well-known scanners. */
+    SCANNER_AGENT("scanner user agent", Field.AGENT, "sqlmap", "nikto", "nmap", "masscan", "zgrab", "nuclei",
+            "wpscan", "dirbuster", "gobuster", "acunetix", "netsparker", "openvas", "censysinspect");
+
+    private enum Field { NONE, TARGET, AGENT, BOTH }
+
+    private static final ScannerSignature[] ALL = values();
+
+    private final String label;
+
+    private final Field field;
+
+    private final String[] needles;
+
+    ScannerSignature(String label, Field field, String... needles) {
+        this.label = label;
+        this.field = field;
+        this.needles = needles;
+    }
+
+
+    /**
+     * Returns a short description for reports.
+     *
+     * @return the description
+     */
+    public String label() {
+        return label;
+    }
+
+
+    /**
+     * Finds the signatures a request matches.
+     *
+     * @param request the request
+     * @return a bit set of the ordinals of the matching signatures, 0 if none
+     */
+    public static int match(AccessRequest request) {
+        return matchTarget(request) | matchAgent(request.userAgent());
+    }
+
+
+    /**
+     * Finds the signatures that match the request line of a request.
+     *
+     * @param request the request
+     * @return a bit set of the ordinals of the matching signatures, 0 if none
+     */
+    public static int matchTarget(AccessRequest request) {
+        String target = request.target().toLowerCase(Locale.ROOT);
+        int matches = request.isMalformed() ? 1 << MALFORMED_REQUEST.ordinal() : 0;
+        for (ScannerSignature s : ALL) {
+            if ((s.field == Field.TARGET || s.field == Field.BOTH) && s.containsAny(target)) {
+                matches |= 1 << s.ordinal();
+            }
+        }
+        return matches;
+    }
+
+
+    /**
+     * Finds the signatures that match a user agent. As user agents repeat far more than request
+     * targets, the result lends itself to caching by the caller.
+     *
+     * @param userAgent the user agent
+     * @return a bit set of the ordinals of the matching signatures, 0 if none
+     */
+    public static int matchAgent(String userAgent) {
+        if (userAgent.isEmpty()) {
+            return 0;
+        }
+        String agent = userAgent.toLowerCase(Locale.ROOT);
+        int matches = 0;
+        for (ScannerSignature s : ALL) {
+            if ((s.field == Field.AGENT || s.field == Field.BOTH) && s.containsAny(agent)) {
+                matches |= 1 << s.ordinal();
+            }
+        }
+        return matches;
+    }
+
+
+    private boolean containsAny(String s) {
+        for (String needle : needles) {
+            if (s.contains(needle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.github.oogasawa.utility.security.auth;
+
+
+/**
+ * A security-relevant event of an {@code auth.log} file.
+ *
+ * @param time the time of the event in seconds since the epoch
+ * @param type the kind of event
+ * @param host the host that logged the event
+ * @param user the user name the event refers to: the user that tried to log in or ran sudo, or
+ *             the target user of a PAM failure; possibly empty
+ * @param ip   the remote address, or {@code null} if the event has none
+ */
+public record AuthEvent(long time, Type type, String host, String user, String ip) {
+
+    /**
+     * The kinds of events.
+     */
+    public enum Type {
+
+        /** sshd: {@code Failed password for ... from ...}, or another failed method. */
+        FAILED(true),
+
+        /** sshd: {@code Invalid user ... from ...}, a log-in attempt with an unknown user name. */
+        INVALID_USER(true),
+
+        /** sshd: {@code Accepted publickey for ... from ...}, a successful log-in. */
+        ACCEPTED(false),
+
+        /** sudo: a command run with sudo. */
+        SUDO(false),
+
+        /** sudo: incorrect password attempts, or a user not in the sudoers file. */
+        SUDO_FAILURE(true),
+
+        /** pam_unix: an authentication failure of a service other than sshd and sudo, e.g. su. */
+        PAM_FAILURE(true);
+
+        private final boolean failure;
+
+        Type(boolean failure) {
+            this.failure = failure;
+        }
+
+        /**
+         * Checks whether the event is a failed authentication, which counts towards a burst.
+         *
+         * @return {@code true} for failures
+         */
+        public boolean isFailure() {
+            return failure;
+        }
+    }
+
+}
@@ -0,0 +1,286 @@
+package com.github.oogasawa.utility.security.auth;
+
+import com.github.oogasawa.utility.security.log.LogInputs;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Analyzes collected {@code auth.log} files for brute-force attacks and other authentication
+ * events.
+ * <p>
+ * The files, plain or gzip-compressed, are parsed in parallel, one file per thread, with an
+ * {@link AuthLogParser}; compressed files are inflated on a thread of their own while they are
+ * parsed. Only the events of the files are kept. They are then ordered by time, which for the
+ * already ordered events of each file is a merge, and fed to two {@link BurstDetector}s, one
+ * keyed by source address and one by user name. The result is a compact {@link Report}: the
+ * event counts, the bursts, the addresses and users with the most failures, and the successful
+ * log-ins from addresses that had a burst before, which are the ones to look at first.
+ */
+public class AuthLogAnalyzer {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuthLogAnalyzer.class);
+
+    /** The number of buckets of the sliding windows. */
+    private static final int BUCKETS = 12;
+
+    /**
+     * The outcome of an analysis.
+     *
+     * @param files            the number of files parsed
+     * @param bytes            the number of uncompressed bytes parsed
+     * @param lines            the number of lines parsed
+     * @param elapsedNanos     the wall-clock time of the analysis
+     * @param counts           the number of events of each type
+     * @param addressBursts    the bursts of failures per source address, the largest first
+     * @param userBursts       the bursts of failures per user name, the largest first
+     * @param topAddresses     the addresses with the most failures and their failures
+     * @param topUsers         the user names with the most failures and their failures
+     * @param loginsAfterBurst the successful log-ins from an address after it had a burst
+     * @param zone             the time zone of the times in the formatted report
+     */
+    public record Report(long files, long bytes, long lines, long elapsedNanos,
+            Map<AuthEvent.Type, Long> counts, List<BurstDetector.Burst> addressBursts,
+            List<BurstDetector.Burst> userBursts, List<Map.Entry<String, Long>> topAddresses,
+            List<Map.Entry<String, Long>> topUsers, List<AuthEvent> loginsAfterBurst, ZoneId zone) {
+
+        /**
+         * Formats the report as text, with at most {@code top} lines per section.
+         *
+         * @param top the maximum number of lines per section
+         * @return the report
+         */
+        public String format(int top) {
+            DateTimeFormatter time = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(zone);
+            StringBuilder sb = new StringBuilder();
+            double seconds = Math.max(elapsedNanos, 1) / 1e9;
+            sb.append(String.format("Parsed %d files, %d lines (%.1f MB) in %.2f s: %.1f MB/s%n",
+                    files, lines, bytes / 1e6, seconds, bytes / 1e6 / seconds));
+            sb.append("Events:");
+            for (AuthEvent.Type type : AuthEvent.Type.values()) {
+                sb.append(' ').append(type.name().toLowerCase(Locale.ROOT)).append('=').append(counts.getOrDefault(type, 0L));
+            }
+            sb.append(System.lineSeparator());
+
+            sb.append(String.format("%nBursts by source address: %d%n", addressBursts.size()));
+            appendBursts(sb, addressBursts, top, time, "users");
+            sb.append(String.format("%nBursts by user: %d%n", userBursts.size()));
+            appendBursts(sb, userBursts, top, time, "addresses");
+
+            sb.append(String.format("%nLog-ins after a burst from the same address: %d%n", loginsAfterBurst.size()));
+            for (AuthEvent e : loginsAfterBurst.subList(0, Math.min(top, loginsAfterBurst.size()))) {
+                sb.append(String.format("  %s  %-15s  %-39s  %s%n", time.format(Instant.ofEpochSecond(e.time())),
+                        e.host(), e.ip(), e.user()));
+            }
+
+            sb.append(String.format("%nTop source addresses by failures:%n"));
+            for (Map.Entry<String, Long> e : topAddresses.subList(0, Math.min(top, topAddresses.size()))) {
+                sb.append(String.format("  %10d  %s%n", e.getValue(), e.getKey()));
+            }
+            sb.append(String.format("%nTop users by failures:%n"));
+            for (Map.Entry<String, Long> e : topUsers.subList(0, Math.min(top, topUsers.size()))) {
+                sb.append(String.format("  %10d  %s%n", e.getValue(), e.getKey()));
+            }
+            return sb.toString();
+        }
+
+        private static void appendBursts(StringBuilder sb, List<BurstDetector.Burst> bursts, int top,
+                DateTimeFormatter time, String relatedName) {
+            for (BurstDetector.Burst b : bursts.subList(0, Math.min(top, bursts.size()))) {
+                List<String> sample = b.related().stream().limit(5).toList();
+                sb.append(String.format("  %-39s  %s .. %s  %7d failures  peak %5d  %4d %s %s%n",
+                        b.key(), time.format(Instant.ofEpochSecond(b.start())),
+                        time.format(Instant.ofEpochSecond(b.end())), b.failures(), b.peak(),
+                        b.related().size(), relatedName, sample));
+            }
+        }
+    }
+
+    private record FileResult(List<AuthEvent> events, long lines, long bytes) {
+    }
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private long windowSeconds = 60;
+
+    private int threshold = 10;
+
+    private ZoneId zone = ZoneId.systemDefault();
+
+
+    /**
+     * Sets the number of files parsed in parallel.
+     *
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+
+    /**
+     * Sets the length of the sliding window.
+     *
+     * @param windowSeconds the window in seconds, at least {@value #BUCKETS}
+     */
+    public void setWindowSeconds(long windowSeconds) {
+        this.windowSeconds = windowSeconds;
+    }
+
+
+    /**
+     * Sets the number of failures within a window that makes a burst.
+     *
+     * @param threshold the threshold
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+
+    /**
+     * Sets the time zone of traditional syslog timestamps and of the report.
+     *
+     * @param zone the time zone
+     */
+    public void setZone(ZoneId zone) {
+        this.zone = zone;
+    }
+
+
+    /**
+     * Expands input specifications into the files to analyze: a directory stands for the files
+     * below it whose names start with {@code auth.log} or {@code secure}, as collected by
+     * {@code log:rename}; any other specification is resolved by {@link LogInputs#resolve}.
+     *
+     * @param specs the paths, directories or glob patterns given on the command line
+     * @return the files
+     * @throws IOException if a directory cannot be searched
+     */
+    public static List<Path> resolve(List<String> specs) throws IOException {
+        return LogInputs.resolve(specs, name -> name.startsWith("auth.log") || name.startsWith("secure"));
+    }
+
+
+    /**
+     * Analyzes files.
+     *
+     * @param files the files, plain or gzip-compressed
+     * @return the report
+     * @throws IOException if a file cannot be read
+     */
+    public Report analyze(List<Path> files) throws IOException {
+        long start = System.nanoTime();
+        BurstDetector byAddress = new BurstDetector(windowSeconds, BUCKETS, threshold);
+        BurstDetector byUser = new BurstDetector(windowSeconds, BUCKETS, threshold);
+
+        // the largest files first, so that no thread starts a large file last
+        List<Path> ordered = new ArrayList<>(files);
+        ordered.sort(Comparator.comparingLong(AuthLogAnalyzer::sizeOf).reversed());
+
+        List<AuthEvent> events = new ArrayList<>();
+        long lines = 0;
+        long bytes = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, ordered.size())));
+        try {
+            List<Future<FileResult>> results = new ArrayList<>();
+            for (Path file : ordered) {
+                results.add(pool.submit(() -> parse(file)));
+            }
+            for (Future<FileResult> result : results) {
+                FileResult r = result.get();
+                events.addAll(r.events());
+                lines += r.lines();
+                bytes += r.bytes();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException u) {
+                throw new IOException(u.getMessage(), u.getCause());
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // each file is in time order, so this merges runs
+        events.sort(Comparator.comparingLong(AuthEvent::time));
+
+        Map<AuthEvent.Type, Long> counts = new EnumMap<>(AuthEvent.Type.class);
+        Map<String, Long> addressFailures = new HashMap<>();
+        Map<String, Long> userFailures = new HashMap<>();
+        List<AuthEvent> loginsAfterBurst = new ArrayList<>();
+        for (AuthEvent e : events) {
+            counts.merge(e.type(), 1L, Long::sum);
+            if (e.type().isFailure()) {
+                if (e.ip() != null) {
+                    byAddress.add(e.ip(), e.time(), e.user());
+                    addressFailures.merge(e.ip(), 1L, Long::sum);
+                }
+                if (!e.user().isEmpty()) {
+                    byUser.add(e.user(), e.time(), e.ip());
+                    userFailures.merge(e.user(), 1L, Long::sum);
+                }
+            } else if (e.type() == AuthEvent.Type.ACCEPTED && byAddress.hasBurst(e.ip())) {
+                loginsAfterBurst.add(e);
+            }
+        }
+
+        Report report = new Report(files.size(), bytes, lines, System.nanoTime() - start, counts,
+                byAddress.finish(), byUser.finish(), top(addressFailures), top(userFailures),
+                loginsAfterBurst, zone);
+        logger.info("Analyzed {} events of {} files", events.size(), files.size());
+        return report;
+    }
+
+
+    private FileResult parse(Path file) {
+        AuthLogParser parser = new AuthLogParser(LogInputs.referenceDate(file, zone), zone);
+        List<AuthEvent> events = new ArrayList<>();
+        try (InputStream in = LogInputs.open(file)) {
+            parser.parse(in, events::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException(file + ": " + e.getMessage(), e);
+        }
+        logger.debug("{}: {} lines, {} events", file, parser.lines(), events.size());
+        return new FileResult(events, parser.lines(), parser.bytes());
+    }
+
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+
+    private static List<Map.Entry<String, Long>> top(Map<String, Long> counts) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        return entries;
+    }
+
+}
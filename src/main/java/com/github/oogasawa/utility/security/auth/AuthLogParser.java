@@ -0,0 +1,386 @@
+package com.github.oogasawa.utility.security.auth;
+
+import com.github.oogasawa.utility.security.log.SyslogTimestamps;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+
+/**
+ * Extracts {@link AuthEvent}s from the lines of an {@code auth.log} file, working on the raw
+ * bytes instead of matching a regular expression per line.
+ * <p>
+ * A line is tokenized at fixed positions: the timestamp, the host, the program up to {@code [}
+ * or {@code :}, and the message. Only the messages of {@code sshd} (and {@code sshd-session}),
+ * {@code sudo} and {@code pam_unix} are examined further, by comparing their first bytes with a
+ * few literal prefixes, and only the user name and the address of a matching line are decoded.
+ * All other lines, e.g. {@code CRON} sessions, cost a scan for the end of the program name.
+ * <p>
+ * Both timestamp formats of rsyslog are understood, the traditional {@code Jun 22 06:25:01}
+ * and RFC 3339, {@code 2025-06-22T06:25:01.123456+09:00}; they are converted by
+ * {@link SyslogTimestamps}, which takes the year of traditional timestamps from a reference
+ * date, normally the rotation date of the file.
+ * <p>
+ * A parser is not thread-safe; use one per file.
+ */
+public class AuthLogParser {
+
+    private static final byte[] SSHD = ascii("sshd");
+    private static final byte[] SUDO = ascii("sudo");
+    private static final byte[] PAM_UNIX = ascii("pam_unix(");
+
+    private static final byte[] FAILED = ascii("Failed ");
+    private static final byte[] INVALID_USER = ascii("Invalid user ");
+    private static final byte[] ACCEPTED = ascii("Accepted ");
+    private static final byte[] FOR = ascii(" for ");
+    private static final byte[] FOR_INVALID_USER = ascii("invalid user ");
+    private static final byte[] FROM = ascii(" from ");
+
+    private static final byte[] SUDO_SEPARATOR = ascii(" : ");
+    private static final byte[] INCORRECT_PASSWORD = ascii("incorrect password attempt");
+    private static final byte[] NOT_IN_SUDOERS = ascii("NOT in sudoers");
+    private static final byte[] COMMAND = ascii("COMMAND=");
+
+    private static final byte[] AUTH_FAILURE = ascii("): authentication failure;");
+    private static final byte[] PAM_USER = ascii(" user=");
+    private static final byte[] PAM_RHOST = ascii(" rhost=");
+
+    private final SyslogTimestamps timestamps;
+
+    // the user name and address of the last matched message, -1 if absent
+    private int userStart;
+    private int userEnd;
+    private int ipStart;
+    private int ipEnd;
+
+    private long lines = 0;
+
+    private long bytes = 0;
+
+
+    /**
+     * Constructs a parser.
+     *
+     * @param reference the date that determines the year of traditional timestamps, normally the
+     *                  date the file was rotated
+     * @param zone      the time zone of traditional timestamps
+     */
+    public AuthLogParser(LocalDate reference, ZoneId zone) {
+        this.timestamps = new SyslogTimestamps(reference, zone);
+    }
+
+
+    /**
+     * Parses a stream line by line and passes its events to a consumer.
+     *
+     * @param in       the stream, already decompressed
+     * @param consumer receives the events in the order of the lines
+     * @throws IOException if the stream cannot be read
+     */
+    public void parse(InputStream in, Consumer<AuthEvent> consumer) throws IOException {
+        byte[] buffer = new byte[1 << 20];
+        int length = 0;
+        while (true) {
+            if (length == buffer.length) {
+                // a line longer than the buffer
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int n = in.read(buffer, length, buffer.length - length);
+            if (n < 0) {
+                break;
+            }
+            bytes += n;
+            int scanned = length;
+            length += n;
+
+            int lineStart = 0;
+            for (int i = scanned; i < length; i++) {
+                if (buffer[i] == '\n') {
+                    emit(buffer, lineStart, i, consumer);
+                    lineStart = i + 1;
+                }
+            }
+            System.arraycopy(buffer, lineStart, buffer, 0, length - lineStart);
+            length -= lineStart;
+        }
+        if (length > 0) {
+            emit(buffer, 0, length, consumer);
+        }
+    }
+
+
+    /**
+     * Returns the number of lines parsed.
+     *
+     * @return the number of lines
+     */
+    public long lines() {
+        return lines;
+    }
+
+
+    /**
+     * Returns the number of bytes parsed.
+     *
+     * @return the number of bytes
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+
+    private void emit(byte[] b, int start, int end, Consumer<AuthEvent> consumer) {
+        lines++;
+        AuthEvent event = parse(b, start, end);
+        if (event != null) {
+            consumer.accept(event);
+        }
+    }
+
+
+    /**
+     * Parses one line.
+     *
+     * @param b     the bytes of the line
+     * @param start the start of the line
+     * @param end   the end of the line, excluding the line feed
+     * @return the event of the line, or {@code null} if the line has none
+     */
+    public AuthEvent parse(byte[] b, int start, int end) {
+        if (end > start && b[end - 1] == '\r') {
+            end--;
+        }
+        if (end - start < 20) {
+            return null;
+        }
+
+        // the end of the timestamp, which is converted only for the lines with an event
+        int pos;
+        if (b[start + 4] == '-') {
+            // ISO 8601, whose date and time may be separated by a space
+            pos = indexOf(b, start + 19, end, (byte) ' ');
+            if (pos < 0) {
+                return null;
+            }
+        } else {
+            pos = start + 15;
+            if (b[pos] != ' ') {
+                return null;
+            }
+        }
+
+        // host
+        int hostStart = pos + 1;
+        int hostEnd = indexOf(b, hostStart, end, (byte) ' ');
+        if (hostEnd < 0) {
+            return null;
+        }
+
+        // program, up to "[pid]:" or ":"
+        int programStart = hostEnd + 1;
+        int programEnd = programStart;
+        while (programEnd < end && b[programEnd] != '[' && b[programEnd] != ':' && b[programEnd] != ' ') {
+            programEnd++;
+        }
+        int colon = indexOf(b, programEnd, end, (byte) ':');
+        if (colon < 0) {
+            return null;
+        }
+        int message = colon + 1;
+        while (message < end && b[message] == ' ') {
+            message++;
+        }
+
+        AuthEvent.Type type;
+        if (startsWith(b, programStart, programEnd, SSHD)) {
+            type = sshd(b, message, end);
+        } else if (programEnd - programStart == SUDO.length && startsWith(b, programStart, programEnd, SUDO)) {
+            type = sudo(b, message, end);
+        } else if (startsWith(b, message, end, PAM_UNIX)) {
+            type = pam(b, message, end);
+        } else {
+            return null;
+        }
+        if (type == null) {
+            return null;
+        }
+
+        long micros = timestamps.parse(b, start, pos);
+        if (micros == SyslogTimestamps.NONE) {
+            return null;
+        }
+        long time = Math.floorDiv(micros, 1_000_000L);
+        return new AuthEvent(time, type, string(b, hostStart, hostEnd),
+                userStart < 0 ? "" : string(b, userStart, userEnd),
+                ipStart < 0 ? null : string(b, ipStart, ipEnd));
+    }
+
+
+    /**
+     * Matches a message of sshd, setting the user and address.
+     */
+    private AuthEvent.Type sshd(byte[] b, int m, int end) {
+        AuthEvent.Type type;
+        int user;
+        if (startsWith(b, m, end, FAILED)) {
+            type = AuthEvent.Type.FAILED;
+            user = indexOf(b, m, end, FOR);
+            if (user < 0) {
+                return null;
+            }
+            user += FOR.length;
+            if (startsWith(b, user, end, FOR_INVALID_USER)) {
+                user += FOR_INVALID_USER.length;
+            }
+        } else if (startsWith(b, m, end, INVALID_USER)) {
+            type = AuthEvent.Type.INVALID_USER;
+            user = m + INVALID_USER.length;
+        } else if (startsWith(b, m, end, ACCEPTED)) {
+            type = AuthEvent.Type.ACCEPTED;
+            user = indexOf(b, m, end, FOR);
+            if (user < 0) {
+                return null;
+            }
+            user += FOR.length;
+        } else {
+            return null;
+        }
+
+        // the user name is chosen by the client and may contain " from "; the address is last
+        int from = lastIndexOf(b, user, end, FROM);
+        if (from < 0) {
+            return null;
+        }
+        userStart = user;
+        userEnd = from;
+        ipStart = from + FROM.length;
+        ipEnd = indexOf(b, ipStart, end, (byte) ' ');
+        if (ipEnd < 0) {
+            ipEnd = end;
+        }
+        return type;
+    }
+
+
+    /**
+     * Matches a message of sudo, {@code user : TTY=... ; COMMAND=...}, setting the user.
+     */
+    private AuthEvent.Type sudo(byte[] b, int m, int end) {
+        int separator = indexOf(b, m, end, SUDO_SEPARATOR);
+        if (separator < 0 || startsWith(b, m, end, PAM_UNIX)) {
+            return null;
+        }
+        AuthEvent.Type type;
+        if (indexOf(b, separator, end, INCORRECT_PASSWORD) >= 0 || indexOf(b, separator, end, NOT_IN_SUDOERS) >= 0) {
+            type = AuthEvent.Type.SUDO_FAILURE;
+        } else if (indexOf(b, separator, end, COMMAND) >= 0) {
+            type = AuthEvent.Type.SUDO;
+        } else {
+            return null;
+        }
+        userStart = m;
+        userEnd = separator;
+        ipStart = -1;
+        return type;
+    }
+
+
+    /**
+     * Matches an authentication failure of pam_unix, setting the target user and the remote
+     * host, if any.
+     */
+    private AuthEvent.Type pam(byte[] b, int m, int end) {
+        int serviceStart = m + PAM_UNIX.length;
+        int serviceEnd = indexOf(b, serviceStart, end, (byte) ':');
+        if (serviceEnd < 0 || indexOf(b, serviceEnd, end, AUTH_FAILURE) < 0) {
+            return null;
+        }
+        // sshd and sudo log the same failure in their own words, which are counted instead
+        if (startsWith(b, serviceStart, serviceEnd, SSHD) || startsWith(b, serviceStart, serviceEnd, SUDO)) {
+            return null;
+        }
+        userStart = field(b, m, end, PAM_USER);
+        userEnd = userStart < 0 ? -1 : valueEnd(b, userStart, end);
+        ipStart = field(b, m, end, PAM_RHOST);
+        ipEnd = ipStart < 0 ? -1 : valueEnd(b, ipStart, end);
+        if (ipStart == ipEnd) {
+            ipStart = -1;
+        }
+        return AuthEvent.Type.PAM_FAILURE;
+    }
+
+
+    /**
+     * Returns the start of the value of a {@code key=value} field of a PAM message, or -1.
+     */
+    private static int field(byte[] b, int start, int end, byte[] key) {
+        int i = indexOf(b, start, end, key);
+        return i < 0 ? -1 : i + key.length;
+    }
+
+
+    private static int valueEnd(byte[] b, int start, int end) {
+        int i = indexOf(b, start, end, (byte) ' ');
+        return i < 0 ? end : i;
+    }
+
+
+    private static String string(byte[] b, int start, int end) {
+        return new String(b, start, end - start, StandardCharsets.UTF_8);
+    }
+
+
+    private static boolean startsWith(byte[] b, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (b[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static int indexOf(byte[] b, int start, int end, byte c) {
+        for (int i = start; i < end; i++) {
+            if (b[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    private static int indexOf(byte[] b, int start, int end, byte[] s) {
+        byte first = s[0];
+        for (int i = start, last = end - s.length; i <= last; i++) {
+            if (b[i] == first && startsWith(b, i, end, s)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    private static int lastIndexOf(byte[] b, int start, int end, byte[] s) {
+        byte first = s[0];
+        for (int i = end - s.length; i >= start; i--) {
+            if (b[i] == first && startsWith(b, i, end, s)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
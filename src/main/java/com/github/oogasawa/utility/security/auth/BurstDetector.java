@@ -0,0 +1,242 @@
+package com.github.oogasawa.utility.security.auth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Detects bursts of failures per key, e.g. per source address or per user, with a sliding
+ * window of time buckets.
+ * <p>
+ * Every key has a ring of counters, each covering {@code window / buckets} seconds, and the sum
+ * of the ring. An event advances the ring to its bucket, clearing the buckets that fell out of
+ * the window, and increments the counter of its bucket, so a key costs a fixed amount of memory
+ * and an event a constant amount of work, regardless of the number of events in the window. The
+ * window slides in steps of one bucket, so its length is exact to one bucket.
+ * <p>
+ * A burst opens when the sum reaches the threshold and lasts as long as the events of the key
+ * arrive while the sum stays at or above it. Events must be added in time order.
+ */
+public class BurstDetector {
+
+    /** The maximum number of distinct related values remembered per burst. */
+    private static final int MAX_DISTINCT = 1000;
+
+    /**
+     * A burst of failures.
+     *
+     * @param key      the key, e.g. the source address
+     * @param start    the start of the first bucket of the window in which the burst opened, in
+     *                 seconds since the epoch
+     * @param end      the time of the last failure of the burst
+     * @param failures the number of failures in the burst, including those of the opening
+     *                 window
+     * @param peak     the highest number of failures in one window
+     * @param related  the related values of the failures of the burst, e.g. the user names
+     *                 tried from an address, in order of appearance; at most
+     *                 {@value #MAX_DISTINCT}. The values of the opening window include those
+     *                 of earlier failures since the key last had an empty window.
+     */
+    public record Burst(String key, long start, long end, long failures, int peak, Set<String> related) {
+
+        /**
+         * Returns the duration of the burst.
+         *
+         * @return the duration in seconds
+         */
+        public long seconds() {
+            return end - start;
+        }
+    }
+
+    private final long bucketSeconds;
+
+    private final int buckets;
+
+    private final int threshold;
+
+    private final Map<String, State> states = new HashMap<>();
+
+    private final List<Burst> bursts = new ArrayList<>();
+
+
+    /**
+     * Constructs a detector.
+     *
+     * @param windowSeconds the length of the window
+     * @param buckets       the number of buckets the window is divided into
+     * @param threshold     the number of failures within a window that opens a burst
+     */
+    public BurstDetector(long windowSeconds, int buckets, int threshold) {
+        if (windowSeconds < buckets || buckets < 1 || threshold < 1) {
+            throw new IllegalArgumentException("Invalid window: " + windowSeconds + " s, " + buckets
+                    + " buckets, threshold " + threshold);
+        }
+        this.bucketSeconds = windowSeconds / buckets;
+        this.buckets = buckets;
+        this.threshold = threshold;
+    }
+
+
+    /**
+     * Adds a failure.
+     *
+     * @param key     the key of the failure
+     * @param time    the time of the failure in seconds since the epoch
+     * @param related a related value, e.g. the user name, or {@code null}
+     */
+    public void add(String key, long time, String related) {
+        State state = states.computeIfAbsent(key, k -> new State(buckets));
+        int sum = state.add(Math.floorDiv(time, bucketSeconds));
+        if (sum < threshold && state.burst != null) {
+            close(key, state);
+        }
+        if (related != null && state.related.size() < MAX_DISTINCT) {
+            state.related.add(related);
+        }
+        if (sum >= threshold) {
+            if (state.burst == null) {
+                state.burst = new OpenBurst(state.oldestBucket() * bucketSeconds, sum, state.related);
+                state.related = new LinkedHashSet<>();
+                state.ever = true;
+            } else {
+                state.burst.failures++;
+                state.burst.peak = Math.max(state.burst.peak, sum);
+                if (related != null && state.burst.related.size() < MAX_DISTINCT) {
+                    state.burst.related.add(related);
+                }
+                state.related.clear();
+            }
+            state.burst.end = time;
+        }
+    }
+
+
+    /**
+     * Checks whether a key has had a burst so far.
+     *
+     * @param key the key
+     * @return {@code true} if the failures of the key have reached the threshold
+     */
+    public boolean hasBurst(String key) {
+        State state = states.get(key);
+        return state != null && state.ever;
+    }
+
+
+    /**
+     * Closes the open bursts and returns all bursts, the largest first.
+     *
+     * @return the bursts
+     */
+    public List<Burst> finish() {
+        for (Map.Entry<String, State> e : states.entrySet()) {
+            if (e.getValue().burst != null) {
+                close(e.getKey(), e.getValue());
+            }
+        }
+        bursts.sort(Comparator.comparingLong(Burst::failures).reversed().thenComparing(Burst::start));
+        return bursts;
+    }
+
+
+    private void close(String key, State state) {
+        OpenBurst b = state.burst;
+        bursts.add(new Burst(key, b.start, b.end, b.failures, b.peak, b.related));
+        state.burst = null;
+    }
+
+
+    /**
+     * The ring of counters of a key.
+     */
+    private static final class State {
+
+        private final int[] counts;
+
+        /** The bucket of the newest counter. */
+        private long head = Long.MIN_VALUE;
+
+        private int sum = 0;
+
+        private OpenBurst burst;
+
+        /** The related values since the window was last empty, while no burst is open. */
+        private Set<String> related = new LinkedHashSet<>();
+
+        private boolean ever = false;
+
+        State(int buckets) {
+            this.counts = new int[buckets];
+        }
+
+        /**
+         * Counts an event in a bucket and returns the sum of the window ending with the bucket.
+         */
+        int add(long bucket) {
+            int n = counts.length;
+            if (head == Long.MIN_VALUE || bucket - head >= n) {
+                Arrays.fill(counts, 0);
+                sum = 0;
+                head = bucket;
+                related.clear();
+            } else {
+                for (long b = head + 1; b <= bucket; b++) {
+                    int slot = Math.floorMod(b, n);
+                    sum -= counts[slot];
+                    counts[slot] = 0;
+                }
+                head = Math.max(head, bucket);
+            }
+            if (bucket > head - n) {
+                counts[Math.floorMod(bucket, n)]++;
+                sum++;
+            }
+            return sum;
+        }
+
+        /**
+         * Returns the oldest bucket of the window that has a count.
+         */
+        long oldestBucket() {
+            int n = counts.length;
+            for (long b = head - n + 1; b < head; b++) {
+                if (counts[Math.floorMod(b, n)] > 0) {
+                    return b;
+                }
+            }
+            return head;
+        }
+    }
+
+
+    /**
+     * The counters of a burst that is still open.
+     */
+    private static final class OpenBurst {
+
+        private final long start;
+
+        private long end;
+
+        private long failures;
+
+        private int peak;
+
+        private final Set<String> related;
+
+        OpenBurst(long start, int failures, Set<String> related) {
+            this.start = start;
+            this.failures = failures;
+            this.peak = failures;
+            this.related = related;
+        }
+    }
+
+}
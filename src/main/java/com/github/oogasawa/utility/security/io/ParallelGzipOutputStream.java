@@ -0,0 +1,344 @@
+package com.github.oogasawa.utility.security.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+
+/**
+ * A gzip output stream that compresses blocks of its input in parallel, in the manner of
+ * {@code pigz}.
+ * <p>
+ * The input is cut into blocks of a fixed size. Every block is compressed on a worker thread
+ * into an independent gzip member — header, raw deflate data, CRC-32 and length — and the members
+ * are written to the underlying stream in input order. The result is a standard multi-member gzip
+ * file, which {@code gzip -d}, {@code zcat} and {@link java.util.zip.GZIPInputStream} decompress
+ * to the concatenation of the blocks. Because the blocks do not share a dictionary, the output is
+ * slightly larger than that of a single-threaded {@code gzip}.
+ * <p>
+ * At most twice as many blocks as there are processors are in flight, which bounds the memory
+ * used. The workers are shared by all streams created without an explicit executor, so that
+ * compressing many files at once does not oversubscribe the processors, and so is the limit on
+ * the blocks in flight, so that the memory stays bounded however many streams are open. A stream
+ * that finds no free slot writes out its own oldest member to free one, and waits only when it has
+ * none in flight, so that streams never wait for each other in a cycle.
+ * <p>
+ * Since every member can be decompressed on its own, a reader can seek to any member and
+ * decompress from there. A {@link MemberListener} learns where each member starts, e.g. to
+ * build an index of the file.
+ * <p>
+ * Like other output streams, an instance is not thread-safe.
+ */
+public class ParallelGzipOutputStream extends FilterOutputStream {
+
+    /** The default size of a block. */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+
+    /** The workers shared by the streams created without an executor. */
+    private static final class SharedPool {
+        private static final AtomicInteger counter = new AtomicInteger();
+        static final ExecutorService INSTANCE = Executors.newFixedThreadPool(PROCESSORS, r -> {
+            Thread t = new Thread(r, "gzip-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        /** The blocks in flight across all streams on the shared workers. */
+        static final Semaphore SLOTS = new Semaphore(2 * PROCESSORS);
+    }
+
+    /**
+     * Receives the start of each member as it is written.
+     */
+    public interface MemberListener {
+
+        /**
+         * Called before a member is written to the underlying stream.
+         *
+         * @param position the position in the input of the first byte of the member
+         * @param offset   the position in the output of the first byte of the member
+         */
+        void member(long position, long offset);
+    }
+
+    private final ExecutorService executor;
+
+    private final int level;
+
+    private final int blockSize;
+
+    private final int maxPending;
+
+    /** Limits the blocks in flight on the executor; one permit per {@link #pending} member. */
+    private final Semaphore slots;
+
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    /** The input positions of the {@link #pending} members. */
+    private final Deque<Long> pendingPositions = new ArrayDeque<>();
+
+    private MemberListener listener = null;
+
+    /** The number of input bytes submitted for compression. */
+    private long submitted = 0;
+
+    /** The number of bytes written to the underlying stream. */
+    private long written = 0;
+
+    private byte[] block;
+
+    private int count = 0;
+
+    private boolean membersWritten = false;
+
+    private boolean finished = false;
+
+
+    /**
+     * Creates a stream with the default compression level, 1 MiB blocks and the shared workers.
+     *
+     * @param out the underlying output stream
+     */
+    public ParallelGzipOutputStream(OutputStream out) {
+        this(out, Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE, SharedPool.INSTANCE);
+    }
+
+    /**
+     * Creates a stream.
+     *
+     * @param out       the underlying output stream
+     * @param level     the compression level, 0-9 or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param blockSize the number of input bytes per gzip member
+     * @param executor  the executor that compresses the blocks
+     */
+    public ParallelGzipOutputStream(OutputStream out, int level, int blockSize,
+            ExecutorService executor) {
+        super(out);
+        this.executor = executor;
+        this.level = level;
+        this.blockSize = blockSize;
+        this.maxPending = 2 * PROCESSORS;
+        this.slots = executor == SharedPool.INSTANCE ? SharedPool.SLOTS : new Semaphore(maxPending);
+        this.block = new byte[blockSize];
+    }
+
+
+    /**
+     * Sets the listener that learns where each member starts.
+     *
+     * @param listener the listener, or {@code null}
+     */
+    public void setMemberListener(MemberListener listener) {
+        this.listener = listener;
+    }
+
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[count++] = (byte) b;
+        if (count == blockSize) {
+            submitBlock();
+        }
+    }
+
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int n = Math.min(len, blockSize - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+
+    /**
+     * Compresses the buffered input as a member of its own, writes all pending members and
+     * flushes the underlying stream. Frequent flushing produces small members and degrades the
+     * compression ratio.
+     *
+     * @throws IOException if writing fails
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (count > 0) {
+            submitBlock();
+        }
+        drain(0);
+        out.flush();
+    }
+
+
+    /**
+     * Writes the remaining members without closing the underlying stream. An empty input yields
+     * a single empty member, so that the output is always a valid gzip file.
+     *
+     * @throws IOException if writing fails
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (count > 0 || !membersWritten && pending.isEmpty()) {
+            submitBlock();
+        }
+        drain(0);
+        finished = true;
+        block = null;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            for (Future<byte[]> f : pending) {
+                f.cancel(true);
+            }
+            slots.release(pending.size());
+            pending.clear();
+            pendingPositions.clear();
+            out.close();
+        }
+    }
+
+
+    private void submitBlock() throws IOException {
+        acquireSlot();
+        byte[] data = block;
+        int length = count;
+        int lvl = level;
+        try {
+            pending.add(executor.submit(() -> compressMember(data, length, lvl)));
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+        pendingPositions.add(submitted);
+        submitted += length;
+        block = new byte[blockSize];
+        count = 0;
+        drain(maxPending - 1);
+    }
+
+
+    /**
+     * Takes a slot for a block in flight, writing out this stream's own members to free one while
+     * it has any, so that a stream waits for other streams only when it holds no slot itself.
+     */
+    private void acquireSlot() throws IOException {
+        while (!slots.tryAcquire()) {
+            if (!pending.isEmpty()) {
+                drain(pending.size() - 1);
+                continue;
+            }
+            try {
+                slots.acquire();
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while compressing", e);
+            }
+        }
+    }
+
+
+    /**
+     * Writes completed members in order until at most {@code remaining} are pending.
+     */
+    private void drain(int remaining) throws IOException {
+        while (pending.size() > remaining) {
+            Future<byte[]> head = pending.poll();
+            long position = pendingPositions.poll();
+            try {
+                byte[] member = head.get();
+                if (listener != null) {
+                    listener.member(position, written);
+                }
+                out.write(member);
+                written += member.length;
+                membersWritten = true;
+            } catch (ExecutionException e) {
+                throw new IOException("Compression failed", e.getCause());
+            } catch (InterruptedException e) {
+                head.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while compressing", e);
+            } finally {
+                slots.release();
+            }
+        }
+    }
+
+
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("Stream finished");
+        }
+    }
+
+
+    /**
+     * Compresses a block into a complete gzip member.
+     *
+     * @param data   the block
+     * @param length the number of bytes of the block
+     * @param level  the compression level
+     * @return the member
+     */
+    static byte[] compressMember(byte[] data, int length, int level) {
+        ByteArrayOutputStream member = new ByteArrayOutputStream(length / 3 + 64);
+        // ID1 ID2 CM=deflate FLG=0 MTIME=0 XFL=0 OS=unknown
+        member.write(new byte[] {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff}, 0, 10);
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            byte[] buffer = new byte[1 << 16];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                member.write(buffer, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        writeIntLE(member, (int) crc.getValue());
+        writeIntLE(member, length);
+        return member.toByteArray();
+    }
+
+
+    private static void writeIntLE(ByteArrayOutputStream out, int v) {
+        out.write(v);
+        out.write(v >>> 8);
+        out.write(v >>> 16);
+        out.write(v >>> 24);
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.github.oogasawa.utility.security.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * An input stream that reads its source on a dedicated background thread.
+ * <p>
+ * The background thread fills a bounded queue of chunks while the consumer processes the previous
+ * ones, so expensive work done by the source — typically inflating a {@code .gz} file — runs in
+ * parallel with the work done by the consumer, such as parsing. At most {@code depth} chunks are
+ * buffered, which bounds the memory used regardless of the size of the source.
+ * <p>
+ * An {@link IOException} thrown by the source is rethrown to the consumer at the position where
+ * it occurred. Closing this stream stops the background thread and closes the source.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    /** Marks the end of the source. */
+    private static final byte[] END = new byte[0];
+
+    /** Carries a failure of the source to the consumer. */
+    private record Failure(IOException exception) { }
+
+    private final BlockingQueue<Object> queue;
+
+    private final Thread producer;
+
+    private byte[] current = new byte[0];
+
+    private int position = 0;
+
+    private boolean finished = false;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Starts reading the source in the background with 64 KiB chunks and a queue depth of 16.
+     *
+     * @param source the stream to read ahead
+     * @param name   the name of the background thread
+     */
+    public ReadAheadInputStream(InputStream source, String name) {
+        this(source, 1 << 16, 16, name);
+    }
+
+    /**
+     * Starts reading the source in the background.
+     *
+     * @param source    the stream to read ahead
+     * @param chunkSize the number of bytes read per chunk
+     * @param depth     the maximum number of chunks buffered
+     * @param name      the name of the background thread
+     */
+    public ReadAheadInputStream(InputStream source, int chunkSize, int depth, String name) {
+        this.queue = new ArrayBlockingQueue<>(depth);
+        this.producer = new Thread(() -> produce(source, chunkSize), name);
+        this.producer.setDaemon(true);
+        this.producer.start();
+    }
+
+
+    private void produce(InputStream source, int chunkSize) {
+        try (source) {
+            while (!closed) {
+                byte[] chunk = source.readNBytes(chunkSize);
+                if (chunk.length == 0) {
+                    queue.put(END);
+                    return;
+                }
+                queue.put(chunk);
+            }
+        } catch (IOException e) {
+            offerQuietly(new Failure(e));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private void offerQuietly(Object item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Makes the next chunk current if the current one is used up.
+     *
+     * @return {@code false} at the end of the source
+     */
+    private boolean fill() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (position >= current.length) {
+            if (finished) {
+                return false;
+            }
+            Object item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for data", e);
+            }
+            if (item instanceof Failure failure) {
+                finished = true;
+                throw failure.exception();
+            }
+            current = (byte[]) item;
+            position = 0;
+            if (current == END) {
+                finished = true;
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return current[position++] & 0xff;
+    }
+
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+
+    @Override
+    public int available() {
+        return current.length - position;
+    }
+
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            producer.interrupt();
+            queue.clear();
+            current = new byte[0];
+        }
+    }
+
+}
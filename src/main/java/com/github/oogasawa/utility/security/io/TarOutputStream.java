@@ -0,0 +1,281 @@
+package com.github.oogasawa.utility.security.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * An output stream that writes regular files in the POSIX tar format.
+ * <p>
+ * Each file is started with {@link #putNextEntry(String, long, long)}, which writes its ustar
+ * header, followed by exactly the announced number of bytes and {@link #closeEntry()}, which pads
+ * the data to the 512-byte block size. Names longer than 100 bytes or not in ASCII, and sizes of
+ * 8 GiB or more, are stored in a pax extended header before the entry, as {@code tar} of GNU and
+ * BSD write and read them. {@link #finish()} writes the end-of-archive marker.
+ * <p>
+ * The stream does not buffer; wrap the underlying stream in a
+ * {@link java.io.BufferedOutputStream} when it is not buffered itself. Like other output streams,
+ * an instance is not thread-safe.
+ */
+public class TarOutputStream extends FilterOutputStream {
+
+    /** The size of a tar block. */
+    public static final int BLOCK_SIZE = 512;
+
+    /** The size of a tar record; archives are padded to a multiple of it, as {@code tar} does. */
+    private static final int RECORD_SIZE = 20 * BLOCK_SIZE;
+
+    /** The largest size that fits into the octal size field of a ustar header. */
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+    private static final byte[] ZEROS = new byte[BLOCK_SIZE];
+
+    private long written = 0;
+
+    private long entryRemaining = 0;
+
+    private long entrySize = 0;
+
+    private boolean inEntry = false;
+
+    private boolean finished = false;
+
+
+    /**
+     * Creates a tar stream.
+     *
+     * @param out the underlying output stream
+     */
+    public TarOutputStream(OutputStream out) {
+        super(out);
+    }
+
+
+    /**
+     * Starts a regular file with mode 0644, owned by uid and gid 0.
+     *
+     * @param name        the path of the file in the archive, with {@code /} as separator
+     * @param size        the number of bytes that follow
+     * @param mtimeMillis the modification time in milliseconds since the epoch
+     * @throws IOException if an entry is still open, or writing fails
+     */
+    public void putNextEntry(String name, long size, long mtimeMillis) throws IOException {
+        ensureOpen();
+        if (inEntry) {
+            throw new IOException("The previous entry is not closed");
+        }
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative size: " + size);
+        }
+        long mtime = Math.max(0, mtimeMillis / 1000);
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+
+        Map<String, String> pax = new LinkedHashMap<>();
+        if (nameBytes.length > 100 || !isAscii(nameBytes)) {
+            pax.put("path", name);
+        }
+        if (size > MAX_OCTAL_SIZE) {
+            pax.put("size", Long.toString(size));
+        }
+        if (!pax.isEmpty()) {
+            byte[] records = paxRecords(pax);
+            writeBlock(header(asciiPrefix(name, "PaxHeaders/"), records.length, mtime, (byte) 'x'));
+            writeRaw(records, 0, records.length);
+            pad(records.length);
+        }
+
+        writeBlock(header(pax.containsKey("path") ? asciiPrefix(name, "") : name,
+                size > MAX_OCTAL_SIZE ? 0 : size, mtime, (byte) '0'));
+        inEntry = true;
+        entrySize = size;
+        entryRemaining = size;
+    }
+
+
+    /**
+     * Ends the current entry and pads it to the block size.
+     *
+     * @throws IOException if fewer bytes than announced were written, or writing fails
+     */
+    public void closeEntry() throws IOException {
+        ensureOpen();
+        if (!inEntry) {
+            return;
+        }
+        if (entryRemaining != 0) {
+            throw new IOException("Entry is " + entryRemaining + " bytes short of its size " + entrySize);
+        }
+        pad(entrySize);
+        inEntry = false;
+    }
+
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len > entryRemaining) {
+            throw new IOException("Writing " + len + " bytes exceeds the size of the entry by "
+                    + (len - entryRemaining));
+        }
+        writeRaw(b, off, len);
+        entryRemaining -= len;
+    }
+
+
+    /**
+     * Writes the end-of-archive marker, two zero blocks, and pads the archive to a whole record,
+     * without closing the underlying stream.
+     *
+     * @throws IOException if an entry is still open, or writing fails
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (inEntry) {
+            throw new IOException("The last entry is not closed");
+        }
+        writeRaw(ZEROS, 0, BLOCK_SIZE);
+        writeRaw(ZEROS, 0, BLOCK_SIZE);
+        while (written % RECORD_SIZE != 0) {
+            writeRaw(ZEROS, 0, BLOCK_SIZE);
+        }
+        out.flush();
+        finished = true;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+
+    private void writeRaw(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        written += len;
+    }
+
+
+    private void writeBlock(byte[] block) throws IOException {
+        writeRaw(block, 0, BLOCK_SIZE);
+    }
+
+
+    private void pad(long length) throws IOException {
+        int rest = (int) (length % BLOCK_SIZE);
+        if (rest != 0) {
+            writeRaw(ZEROS, 0, BLOCK_SIZE - rest);
+        }
+    }
+
+
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("Archive finished");
+        }
+    }
+
+
+    /**
+     * Returns a ustar header block.
+     */
+    private static byte[] header(String name, long size, long mtime, byte type) {
+        byte[] h = new byte[BLOCK_SIZE];
+        byte[] n = name.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(n, 0, h, 0, Math.min(n.length, 100));
+        octal(h, 100, 8, 0644);
+        octal(h, 108, 8, 0);
+        octal(h, 116, 8, 0);
+        octal(h, 124, 12, size);
+        octal(h, 136, 12, mtime);
+        h[156] = type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, h, 257, 6);
+        h[263] = '0';
+        h[264] = '0';
+        System.arraycopy("root".getBytes(StandardCharsets.US_ASCII), 0, h, 265, 4);
+        System.arraycopy("root".getBytes(StandardCharsets.US_ASCII), 0, h, 297, 4);
+
+        // the checksum is computed with its own field filled with spaces
+        for (int i = 148; i < 156; i++) {
+            h[i] = ' ';
+        }
+        long sum = 0;
+        for (byte b : h) {
+            sum += b & 0xff;
+        }
+        octal(h, 148, 7, sum);
+        return h;
+    }
+
+
+    /**
+     * Writes a NUL-terminated, zero-padded octal number into a header field.
+     */
+    private static void octal(byte[] h, int offset, int length, long value) {
+        String s = Long.toOctalString(value);
+        int digits = length - 1;
+        for (int i = 0; i < digits; i++) {
+            int j = s.length() - digits + i;
+            h[offset + i] = (byte) (j < 0 ? '0' : s.charAt(j));
+        }
+        h[offset + digits] = 0;
+    }
+
+
+    /**
+     * Encodes pax records of the form {@code "<length> <key>=<value>\n"}, where the length
+     * counts the whole record including its own digits.
+     */
+    private static byte[] paxRecords(Map<String, String> records) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> e : records.entrySet()) {
+            int body = (" " + e.getKey() + "=" + e.getValue() + "\n").getBytes(StandardCharsets.UTF_8).length;
+            int length = body + Integer.toString(body).length();
+            if (Integer.toString(length).length() != Integer.toString(body).length()) {
+                length++;
+            }
+            sb.append(length).append(' ').append(e.getKey()).append('=').append(e.getValue()).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Returns an ASCII stand-in of at most 100 characters for a name stored in a pax header,
+     * for readers that do not understand pax.
+     */
+    private static String asciiPrefix(String name, String prefix) {
+        StringBuilder sb = new StringBuilder(prefix);
+        for (int i = 0; i < name.length() && sb.length() < 100; i++) {
+            char c = name.charAt(i);
+            sb.append(c >= 0x20 && c < 0x7f ? c : '_');
+        }
+        return sb.toString();
+    }
+
+
+    private static boolean isAscii(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b < 0x20 || b == 0x7f) { // bytes >= 0x80 are negative
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,384 @@
+package com.github.oogasawa.utility.security.ioc;
+
+import com.github.oogasawa.utility.security.log.LogInputs;
+import com.github.oogasawa.utility.security.sketch.BloomFilter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A compiled set of indicators of compromise: a {@link BloomFilter} that rules out almost every
+ * token of a log at the cost of one memory access, and the sorted indicators themselves, which
+ * confirm the rare tokens that pass the filter, so no match is reported in error.
+ * <p>
+ * A set is compiled once from indicator lists into a single file ({@link #compile}) and opened
+ * for scanning ({@link #open}). Only the filter, about 2.2 bytes per indicator at the default
+ * false positive rate, and a sparse index of every {@value #SPARSE}th indicator are loaded into
+ * memory; the indicators are memory-mapped and searched where the filter lets a token through.
+ * Millions of indicators therefore take tens of megabytes of heap instead of the gigabytes of a
+ * {@code HashSet<String>}.
+ * <p>
+ * The lists are text files, plain or gzip-compressed, with one indicator per line in the first
+ * field (separated by a comma, semicolon or whitespace). Empty lines and lines starting with
+ * {@code #} are skipped. The indicators are normalized by {@link IndicatorType#normalize}, and
+ * IPv4 ranges in CIDR notation are expanded up to {@value #MAX_CIDR_ADDRESSES} addresses; other
+ * values are counted as rejected.
+ * <p>
+ * An open set is thread-safe.
+ */
+public class IndicatorSet implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndicatorSet.class);
+
+    /** The default false positive rate of the filter. */
+    public static final double DEFAULT_FPP = 0.001;
+
+    /** The number of indicators per entry of the sparse index. */
+    static final int SPARSE = 64;
+
+    /** The largest IPv4 range that is expanded into its addresses. */
+    static final int MAX_CIDR_ADDRESSES = 1 << 16;
+
+    private static final int MAGIC = 0x494f4353; // "IOCS"
+
+    private static final int VERSION = 1;
+
+    /**
+     * The outcome of a compilation.
+     *
+     * @param indicators the number of distinct indicators
+     * @param counts     the number of distinct indicators by {@link IndicatorType} ordinal
+     * @param rejected   the number of listed values that are not supported indicators
+     * @param bytes      the size of the compiled file
+     */
+    public record Stats(long indicators, long[] counts, long rejected, long bytes) {
+    }
+
+    private final FileChannel channel;
+
+    private final BloomFilter filter;
+
+    private final MappedByteBuffer entries;
+
+    private final int[] sparse;
+
+    private final long[] counts;
+
+
+    private IndicatorSet(FileChannel channel, BloomFilter filter, MappedByteBuffer entries, int[] sparse,
+            long[] counts) {
+        this.channel = channel;
+        this.filter = filter;
+        this.entries = entries;
+        this.sparse = sparse;
+        this.counts = counts;
+    }
+
+
+    /**
+     * Compiles indicator lists into a set file.
+     *
+     * @param lists the indicator lists
+     * @param out   the compiled file
+     * @param fpp   the false positive rate of the filter
+     * @return the statistics of the compilation
+     * @throws IOException if a list cannot be read or the file cannot be written
+     */
+    public static Stats compile(List<Path> lists, Path out, double fpp) throws IOException {
+        List<String> values = new ArrayList<>();
+        long rejected = 0;
+        for (Path list : lists) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(LogInputs.open(list), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String field = firstField(line);
+                    if (field.isEmpty() || field.startsWith("#")) {
+                        continue;
+                    }
+                    if (!add(field, values)) {
+                        rejected++;
+                    }
+                }
+            }
+        }
+        values.sort(null);
+
+        // deduplicate in place
+        int n = 0;
+        for (String v : values) {
+            if (n == 0 || !v.equals(values.get(n - 1))) {
+                values.set(n++, v);
+            }
+        }
+        values = values.subList(0, n);
+
+        BloomFilter filter = new BloomFilter(n, fpp);
+        long[] counts = new long[IndicatorType.values().length];
+        int[] sparse = new int[(n + SPARSE - 1) / SPARSE];
+        long length = 0;
+        for (int i = 0; i < n; i++) {
+            String v = values.get(i);
+            byte[] b = v.getBytes(StandardCharsets.US_ASCII);
+            filter.add(b, 0, b.length);
+            counts[IndicatorType.of(v).ordinal()]++;
+            if (i % SPARSE == 0) {
+                sparse[i / SPARSE] = (int) length;
+            }
+            length += b.length + 1;
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Too many indicators for one set: " + n);
+            }
+        }
+
+        try (DataOutputStream o = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(out), 1 << 16))) {
+            o.writeInt(MAGIC);
+            o.writeInt(VERSION);
+            o.writeLong(length);
+            for (long c : counts) {
+                o.writeLong(c);
+            }
+            filter.writeTo(o);
+            o.writeInt(sparse.length);
+            for (int offset : sparse) {
+                o.writeInt(offset);
+            }
+            for (String v : values) {
+                o.write(v.getBytes(StandardCharsets.US_ASCII));
+                o.write('\n');
+            }
+        }
+        logger.info("Compiled {} indicators ({} rejected) into {}", n, rejected, out);
+        return new Stats(n, counts, rejected, Files.size(out));
+    }
+
+
+    /**
+     * Opens a compiled set.
+     *
+     * @param file the file written by {@link #compile}
+     * @return the set, to be closed after use
+     * @throws IOException if the file cannot be read or is not a compiled set
+     */
+    public static IndicatorSet open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a compiled indicator set: " + file);
+            }
+            long length = in.readLong();
+            long[] counts = new long[IndicatorType.values().length];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = in.readLong();
+            }
+            BloomFilter filter = BloomFilter.readFrom(in);
+            int[] sparse = new int[in.readInt()];
+            for (int i = 0; i < sparse.length; i++) {
+                sparse[i] = in.readInt();
+            }
+            long start = channel.size() - length;
+            if (length < 0 || length > Integer.MAX_VALUE || start < 0) {
+                throw new IOException("Corrupt indicator set: " + file);
+            }
+            MappedByteBuffer entries = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            return new IndicatorSet(channel, filter, entries, sparse, counts);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Tests a token against the filter.
+     *
+     * @param hash the {@link com.github.oogasawa.utility.security.sketch.Hashing#hash64(byte[], int, int)}
+     *             of the token in normal form
+     * @return {@code false} if the token is certainly not an indicator
+     */
+    public boolean mightContain(long hash) {
+        return filter.mightContain(hash);
+    }
+
+
+    /**
+     * Checks whether a token is an indicator, by searching the sorted indicators.
+     *
+     * @param b     the bytes of the token in normal form
+     * @param start the start of the token
+     * @param end   the end of the token, exclusive
+     * @return {@code true} if the token is an indicator
+     */
+    public boolean verify(byte[] b, int start, int end) {
+        // the last block whose first indicator is not greater than the token
+        int lo = 0;
+        int hi = sparse.length - 1;
+        if (hi < 0 || compare(b, start, end, sparse[0]) < 0) {
+            return false;
+        }
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (compare(b, start, end, sparse[mid]) >= 0) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        int offset = sparse[lo];
+        int limit = entries.limit();
+        for (int i = 0; i < SPARSE && offset < limit; i++) {
+            int c = compare(b, start, end, offset);
+            if (c == 0) {
+                return true;
+            }
+            if (c < 0) {
+                return false;
+            }
+            while (entries.get(offset) != '\n') {
+                offset++;
+            }
+            offset++;
+        }
+        return false;
+    }
+
+
+    /**
+     * Checks whether a token is an indicator.
+     *
+     * @param b     the bytes of the token in normal form
+     * @param start the start of the token
+     * @param end   the end of the token, exclusive
+     * @return {@code true} if the token is an indicator
+     */
+    public boolean contains(byte[] b, int start, int end) {
+        return filter.mightContain(b, start, end) && verify(b, start, end);
+    }
+
+
+    /**
+     * Returns the number of indicators.
+     *
+     * @return the number of distinct indicators
+     */
+    public long size() {
+        long n = 0;
+        for (long c : counts) {
+            n += c;
+        }
+        return n;
+    }
+
+
+    /**
+     * Returns the number of indicators of a type.
+     *
+     * @param type the type
+     * @return the number of distinct indicators
+     */
+    public long count(IndicatorType type) {
+        return counts[type.ordinal()];
+    }
+
+
+    /**
+     * Returns the heap memory of the filter.
+     *
+     * @return the number of bytes
+     */
+    public long filterBytes() {
+        return filter.byteSize();
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+
+    /**
+     * Compares a token with the indicator at an offset of the mapped indicators.
+     */
+    private int compare(byte[] b, int start, int end, int offset) {
+        for (int i = start; ; i++, offset++) {
+            byte e = entries.get(offset);
+            if (e == '\n') {
+                return i < end ? 1 : 0;
+            }
+            if (i == end) {
+                return -1;
+            }
+            if (b[i] != e) {
+                return (b[i] & 0xff) - (e & 0xff);
+            }
+        }
+    }
+
+
+    /**
+     * Normalizes a listed value and adds its indicators.
+     *
+     * @return {@code false} if the value is not a supported indicator
+     */
+    private static boolean add(String field, List<String> values) {
+        int slash = field.indexOf('/');
+        if (slash > 0 && field.indexOf("://") < 0) {
+            return addCidr(field.substring(0, slash).trim(), field.substring(slash + 1).trim(), values);
+        }
+        String v = IndicatorType.normalize(field);
+        if (v == null) {
+            return false;
+        }
+        values.add(v);
+        return true;
+    }
+
+
+    private static boolean addCidr(String address, String prefix, List<String> values) {
+        int[] octets = IndicatorType.parseIpv4(address);
+        int bits;
+        try {
+            bits = Integer.parseInt(prefix);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (octets == null || bits < 0 || bits > 32 || (1L << (32 - bits)) > MAX_CIDR_ADDRESSES) {
+            return false;
+        }
+        long base = ((long) octets[0] << 24 | octets[1] << 16 | octets[2] << 8 | octets[3])
+                & (0xffffffffL << (32 - bits)) & 0xffffffffL;
+        for (long a = base; a < base + (1L << (32 - bits)); a++) {
+            values.add((a >>> 24) + "." + (a >>> 16 & 255) + "." + (a >>> 8 & 255) + "." + (a & 255));
+        }
+        return true;
+    }
+
+
+    private static String firstField(String line) {
+        String s = line.strip();
+        int end = 0;
+        while (end < s.length() && ",;\t ".indexOf(s.charAt(end)) < 0) {
+            end++;
+        }
+        return s.substring(0, end);
+    }
+
+}
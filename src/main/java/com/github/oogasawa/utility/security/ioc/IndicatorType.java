@@ -0,0 +1,307 @@
+package com.github.oogasawa.utility.security.ioc;
+
+import java.util.Locale;
+
+
+/**
+ * The kinds of indicators of compromise that can be matched against the tokens of a log, and
+ * their normal forms.
+ * <p>
+ * Indicators are normalized to the form in which they appear in logs: lower case, IPv4
+ * addresses without leading zeros, IPv6 addresses compressed as in RFC 5952, domains without a
+ * wildcard label or trailing dot. Defanged notations such as {@code evil[.]com} and
+ * {@code hxxp://} are undone, and of a URL only the host is kept.
+ */
+public enum IndicatorType {
+
+    /** A dotted-quad IPv4 address. */
+    IPV4,
+
+    /** An IPv6 address. */
+    IPV6,
+
+    /** A domain name, which also matches its subdomains. */
+    DOMAIN,
+
+    /** An MD5, SHA-1, SHA-256 or SHA-512 hash in hex. */
+    HASH;
+
+    /** The maximum length of a domain name. */
+    static final int MAX_DOMAIN = 253;
+
+
+    /**
+     * Returns the type of a normalized indicator.
+     *
+     * @param value the indicator in normal form
+     * @return the type, or {@code null} if the value is not an indicator
+     */
+    public static IndicatorType of(String value) {
+        if (isIpv4(value)) {
+            return IPV4;
+        }
+        if (isHash(value)) {
+            return HASH;
+        }
+        if (value.indexOf(':') >= 0) {
+            return compressIpv6(value) != null ? IPV6 : null;
+        }
+        return isDomain(value) ? DOMAIN : null;
+    }
+
+
+    /**
+     * Brings an indicator from a list into normal form.
+     *
+     * @param raw the indicator as listed, e.g. {@code hxxps://Evil[.]example.com/payload}
+     * @return the normal form, e.g. {@code evil.example.com}, or {@code null} if the value is not
+     *         an indicator of a supported type
+     */
+    public static String normalize(String raw) {
+        String v = raw.trim();
+        if (v.length() >= 2 && (v.charAt(0) == '"' || v.charAt(0) == '\'') && v.charAt(v.length() - 1) == v.charAt(0)) {
+            v = v.substring(1, v.length() - 1).trim();
+        }
+        v = v.replace("[.]", ".").replace("(.)", ".").replace("{.}", ".").replace("[dot]", ".")
+                .replace("[:]", ":").toLowerCase(Locale.ROOT);
+        if (v.startsWith("hxxp")) {
+            v = "http" + v.substring(4);
+        }
+        int scheme = v.indexOf("://");
+        if (scheme >= 0) {
+            v = v.substring(scheme + 3);
+            int end = 0;
+            while (end < v.length() && "/?#".indexOf(v.charAt(end)) < 0) {
+                end++;
+            }
+            v = v.substring(0, end);
+            int at = v.lastIndexOf('@');
+            if (at >= 0) {
+                v = v.substring(at + 1);
+            }
+            if (v.startsWith("[")) {
+                int close = v.indexOf(']');
+                v = close > 0 ? v.substring(1, close) : v;
+            } else if (v.indexOf(':') == v.lastIndexOf(':') && v.indexOf(':') >= 0) {
+                v = v.substring(0, v.indexOf(':')); // a port
+            }
+        } else if (v.length() > 2 && v.startsWith("[") && v.endsWith("]")) {
+            v = v.substring(1, v.length() - 1); // a bracketed IPv6 address
+        }
+        if (v.startsWith("*.")) {
+            v = v.substring(2);
+        }
+        while (v.endsWith(".")) {
+            v = v.substring(0, v.length() - 1);
+        }
+        if (v.isEmpty()) {
+            return null;
+        }
+
+        String ipv4 = canonicalIpv4(v);
+        if (ipv4 != null) {
+            return ipv4;
+        }
+        if (isHash(v)) {
+            return v;
+        }
+        if (v.indexOf(':') >= 0) {
+            return compressIpv6(v);
+        }
+        return isDomain(v) ? v : null;
+    }
+
+
+    /**
+     * Returns an IPv4 address without leading zeros, or {@code null} if the value is not one.
+     */
+    static String canonicalIpv4(String v) {
+        int[] octets = parseIpv4(v);
+        if (octets == null) {
+            return null;
+        }
+        return octets[0] + "." + octets[1] + "." + octets[2] + "." + octets[3];
+    }
+
+
+    /**
+     * Parses a dotted-quad IPv4 address.
+     *
+     * @return the four octets, or {@code null} if the value is not an address
+     */
+    static int[] parseIpv4(String v) {
+        String[] parts = v.split("\\.", -1);
+        if (parts.length != 4) {
+            return null;
+        }
+        int[] octets = new int[4];
+        for (int i = 0; i < 4; i++) {
+            String p = parts[i];
+            if (p.isEmpty() || p.length() > 3) {
+                return null;
+            }
+            int n = 0;
+            for (int j = 0; j < p.length(); j++) {
+                char c = p.charAt(j);
+                if (c < '0' || c > '9') {
+                    return null;
+                }
+                n = n * 10 + (c - '0');
+            }
+            if (n > 255) {
+                return null;
+            }
+            octets[i] = n;
+        }
+        return octets;
+    }
+
+
+    private static boolean isIpv4(String v) {
+        return v.equals(canonicalIpv4(v));
+    }
+
+
+    private static boolean isHash(String v) {
+        int n = v.length();
+        if (n != 32 && n != 40 && n != 64 && n != 128) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            char c = v.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static boolean isDomain(String v) {
+        if (v.length() > MAX_DOMAIN || v.indexOf('.') < 0 || v.startsWith(".") || v.contains("..")) {
+            return false;
+        }
+        boolean letter = false;
+        for (int i = 0; i < v.length(); i++) {
+            char c = v.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                letter = true;
+            } else if (!(c >= '0' && c <= '9' || c == '.' || c == '-' || c == '_')) {
+                return false;
+            }
+        }
+        return letter;
+    }
+
+
+    /**
+     * Compresses an IPv6 address as in RFC 5952: hex groups without leading zeros and the
+     * longest run of two or more zero groups replaced by {@code ::}. An embedded IPv4 address
+     * in the last 32 bits is kept in dotted form.
+     *
+     * @return the compressed address, or {@code null} if the value is not an address
+     */
+    static String compressIpv6(String v) {
+        int zone = v.indexOf('%');
+        if (zone >= 0) {
+            v = v.substring(0, zone);
+        }
+        String ipv4 = null;
+        int lastColon = v.lastIndexOf(':');
+        if (lastColon >= 0 && v.indexOf('.', lastColon) > 0) {
+            ipv4 = canonicalIpv4(v.substring(lastColon + 1));
+            if (ipv4 == null) {
+                return null;
+            }
+            v = v.substring(0, lastColon + 1) + "0:0";
+        }
+        int groups = 8;
+        int[] g = new int[groups];
+        int gap = v.indexOf("::");
+        if (gap >= 0 && v.indexOf("::", gap + 1) >= 0) {
+            return null;
+        }
+        String[] head = gap >= 0 ? split(v.substring(0, gap)) : split(v);
+        String[] tail = gap >= 0 ? split(v.substring(gap + 2)) : new String[0];
+        if (head == null || tail == null || head.length + tail.length > (gap >= 0 ? groups - 1 : groups)
+                || gap < 0 && head.length != groups) {
+            return null;
+        }
+        for (int i = 0; i < head.length; i++) {
+            g[i] = hexGroup(head[i]);
+        }
+        for (int i = 0; i < tail.length; i++) {
+            g[groups - tail.length + i] = hexGroup(tail[i]);
+        }
+        for (int x : g) {
+            if (x < 0) {
+                return null;
+            }
+        }
+
+        int last = ipv4 != null ? 6 : 8;
+        int bestStart = -1;
+        int bestLength = 1;
+        for (int i = 0; i < last; ) {
+            if (g[i] != 0) {
+                i++;
+                continue;
+            }
+            int j = i;
+            while (j < last && g[j] == 0) {
+                j++;
+            }
+            if (j - i > bestLength) {
+                bestStart = i;
+                bestLength = j - i;
+            }
+            i = j;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < last; i++) {
+            if (i == bestStart) {
+                sb.append("::");
+                i += bestLength - 1;
+                continue;
+            }
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ':') {
+                sb.append(':');
+            }
+            sb.append(Integer.toHexString(g[i]));
+        }
+        if (ipv4 != null) {
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ':') {
+                sb.append(':');
+            }
+            sb.append(ipv4);
+        }
+        return sb.toString();
+    }
+
+
+    private static String[] split(String s) {
+        if (s.isEmpty()) {
+            return new String[0];
+        }
+        String[] parts = s.split(":", -1);
+        for (String p : parts) {
+            if (p.isEmpty()) {
+                return null;
+            }
+        }
+        return parts;
+    }
+
+
+    private static int hexGroup(String s) {
+        if (s.length() > 4) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(s, 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+}
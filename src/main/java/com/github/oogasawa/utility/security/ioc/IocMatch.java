@@ -0,0 +1,16 @@
+package com.github.oogasawa.utility.security.ioc;
+
+import java.nio.file.Path;
+
+
+/**
+ * A line of a log that contains an indicator of compromise.
+ *
+ * @param file      the log file
+ * @param line      the number of the line, starting at 1
+ * @param indicator the indicator in normal form
+ * @param type      the type of the indicator
+ * @param text      the line, without its line feed
+ */
+public record IocMatch(Path file, long line, String indicator, IndicatorType type, String text) {
+}
@@ -0,0 +1,453 @@
+package com.github.oogasawa.utility.security.ioc;
+
+import com.github.oogasawa.utility.security.log.EvidenceManifest;
+import com.github.oogasawa.utility.security.log.LogInputs;
+import com.github.oogasawa.utility.security.sketch.Hashing;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Searches collected logs for the indicators of an {@link IndicatorSet}.
+ * <p>
+ * The files, plain or gzip-compressed, are scanned in parallel, one file per thread. Each line
+ * is split into tokens of the characters that make up addresses, domains and hashes, in place
+ * in the read buffer; only the tokens shaped like an indicator are lowercased into a scratch
+ * buffer, hashed and tested against the Bloom filter of the set, so that scanning allocates
+ * nothing but the matches. A token is:
+ * <ul>
+ * <li>an IPv4 address or a domain if it contains a dot, e.g. {@code 203.0.113.7} or
+ *     {@code cdn.evil.example}; for a domain, the domains it belongs to are tested as well,
+ *     {@code evil.example} in this case;</li>
+ * <li>an IPv6 address if it contains two colons or more; other tokens with a colon are split at
+ *     it, so that {@code 203.0.113.7:443} and {@code user=evil.example:} are found;</li>
+ * <li>a hash if it consists of 32, 40, 64 or 128 hex digits.</li>
+ * </ul>
+ * The few tokens that pass the filter are verified against the indicators themselves, so no
+ * match is reported in error. IPv6 addresses are matched in their compressed form as in
+ * RFC 5952, in which they are written by most programs.
+ */
+public class IocScanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(IocScanner.class);
+
+    /**
+     * The outcome of a scan.
+     *
+     * @param files          the number of files scanned
+     * @param bytes          the number of uncompressed bytes scanned
+     * @param lines          the number of lines scanned
+     * @param candidates     the number of tokens tested against the filter
+     * @param filterHits     the number of tokens that passed the filter
+     * @param falsePositives the number of tokens that passed the filter but are not indicators
+     * @param matches        the number of lines that contain an indicator
+     * @param elapsedNanos   the wall-clock time of the scan
+     * @param indicators     the number of matching lines per indicator, most frequent first
+     */
+    public record Report(long files, long bytes, long lines, long candidates, long filterHits,
+            long falsePositives, long matches, long elapsedNanos, List<Map.Entry<String, Long>> indicators) {
+
+        /**
+         * Formats the report as text, with at most {@code top} indicators.
+         *
+         * @param top the maximum number of indicators
+         * @return the report
+         */
+        public String format(int top) {
+            StringBuilder sb = new StringBuilder();
+            double seconds = Math.max(elapsedNanos, 1) / 1e9;
+            sb.append(String.format("Scanned %d files, %d lines (%.1f MB) in %.2f s: %.1f MB/s%n",
+                    files, lines, bytes / 1e6, seconds, bytes / 1e6 / seconds));
+            sb.append(String.format("Tokens tested: %d, passed the filter: %d, false positives: %d%n",
+                    candidates, filterHits, falsePositives));
+            sb.append(String.format("Matching lines: %d, distinct indicators: %d%n", matches, indicators.size()));
+            if (!indicators.isEmpty()) {
+                sb.append(String.format("%nTop indicators:%n"));
+                for (Map.Entry<String, Long> e : indicators.subList(0, Math.min(top, indicators.size()))) {
+                    sb.append(String.format("  %10d  %s%n", e.getValue(), e.getKey()));
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+
+    /**
+     * Sets the number of files scanned in parallel.
+     *
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+
+    /**
+     * Expands input specifications into the files to scan: a directory stands for the files
+     * below it except the checksum files and the sign-off of an evidence manifest; any other
+     * specification is resolved by {@link LogInputs#resolve}.
+     *
+     * @param specs the paths, directories or glob patterns given on the command line
+     * @return the files
+     * @throws IOException if a directory cannot be searched
+     */
+    public static List<Path> resolve(List<String> specs) throws IOException {
+        return LogInputs.resolve(specs, name -> !name.endsWith("SUMS") && !name.equals(EvidenceManifest.SIGNOFF_FILE));
+    }
+
+
+    /**
+     * Scans files for the indicators of a set.
+     *
+     * @param files    the files, plain or gzip-compressed
+     * @param set      the indicators
+     * @param consumer receives the matching lines, in the order of the lines of each file; it is
+     *                 called by the scanning threads, one call at a time
+     * @return the report
+     * @throws IOException if a file cannot be read
+     */
+    public Report scan(List<Path> files, IndicatorSet set, Consumer<IocMatch> consumer) throws IOException {
+        long start = System.nanoTime();
+
+        // the largest files first, so that no thread starts a large file last
+        List<Path> ordered = new ArrayList<>(files);
+        ordered.sort(Comparator.comparingLong(IocScanner::sizeOf).reversed());
+
+        Consumer<IocMatch> serialized = m -> {
+            synchronized (consumer) {
+                consumer.accept(m);
+            }
+        };
+        Tokenizer total = new Tokenizer(set, null, m -> { });
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, ordered.size())));
+        try {
+            CompletionService<Tokenizer> results = new ExecutorCompletionService<>(pool);
+            for (Path file : ordered) {
+                results.submit(() -> scan(file, set, serialized));
+            }
+            for (int i = 0; i < ordered.size(); i++) {
+                total.add(results.take().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException u) {
+                throw new IOException(u.getMessage(), u.getCause());
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        List<Map.Entry<String, Long>> indicators = new ArrayList<>(total.counts.entrySet());
+        indicators.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        logger.info("Found {} matching lines in {} files", total.matches, files.size());
+        return new Report(files.size(), total.bytes, total.lines, total.candidates, total.filterHits,
+                total.falsePositives, total.matches, System.nanoTime() - start, indicators);
+    }
+
+
+    private static Tokenizer scan(Path file, IndicatorSet set, Consumer<IocMatch> consumer) {
+        Tokenizer tokenizer = new Tokenizer(set, file, consumer);
+        try (InputStream in = LogInputs.open(file)) {
+            tokenizer.scan(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(file + ": " + e.getMessage(), e);
+        }
+        logger.debug("{}: {} lines, {} matches", file, tokenizer.lines, tokenizer.matches);
+        return tokenizer;
+    }
+
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+
+    /**
+     * Splits the lines of one file into tokens and tests them. Not thread-safe.
+     */
+    static final class Tokenizer {
+
+        /** The shortest token tested, e.g. {@code a.io}. */
+        private static final int MIN_TOKEN = 4;
+
+        /** The longest token tested, longer than any domain or hash. */
+        private static final int MAX_TOKEN = 255;
+
+        private static final byte OTHER = 0;
+        private static final byte DIGIT = 1;
+        private static final byte HEX_LETTER = 2;
+        private static final byte LETTER = 3;
+        private static final byte DOT = 4;
+        private static final byte COLON = 5;
+        private static final byte DASH = 6;
+
+        private static final byte[] CLASS = new byte[256];
+
+        static {
+            for (int c = '0'; c <= '9'; c++) {
+                CLASS[c] = DIGIT;
+            }
+            for (int c = 'a'; c <= 'z'; c++) {
+                CLASS[c] = c <= 'f' ? HEX_LETTER : LETTER;
+                CLASS[c - 'a' + 'A'] = CLASS[c];
+            }
+            CLASS['.'] = DOT;
+            CLASS[':'] = COLON;
+            CLASS['-'] = DASH;
+            CLASS['_'] = DASH;
+        }
+
+        private final IndicatorSet set;
+
+        private final Path file;
+
+        private final Consumer<IocMatch> consumer;
+
+        private final byte[] scratch = new byte[MAX_TOKEN];
+
+        private final Map<String, Long> counts = new HashMap<>();
+
+        private long bytes = 0;
+        private long lines = 0;
+        private long candidates = 0;
+        private long filterHits = 0;
+        private long falsePositives = 0;
+        private long matches = 0;
+
+        // the first indicator found on the current line
+        private String found;
+
+
+        Tokenizer(IndicatorSet set, Path file, Consumer<IocMatch> consumer) {
+            this.set = set;
+            this.file = file;
+            this.consumer = consumer;
+        }
+
+
+        void scan(InputStream in) throws IOException {
+            byte[] buffer = new byte[1 << 20];
+            int length = 0;
+            while (true) {
+                if (length == buffer.length) {
+                    // a line longer than the buffer
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                int n = in.read(buffer, length, buffer.length - length);
+                if (n < 0) {
+                    break;
+                }
+                bytes += n;
+                int scanned = length;
+                length += n;
+
+                int lineStart = 0;
+                for (int i = scanned; i < length; i++) {
+                    if (buffer[i] == '\n') {
+                        line(buffer, lineStart, i);
+                        lineStart = i + 1;
+                    }
+                }
+                System.arraycopy(buffer, lineStart, buffer, 0, length - lineStart);
+                length -= lineStart;
+            }
+            if (length > 0) {
+                line(buffer, 0, length);
+            }
+        }
+
+
+        /**
+         * Tests the tokens of a line and reports the line if one of them is an indicator.
+         */
+        void line(byte[] b, int start, int end) {
+            lines++;
+            found = null;
+            int i = start;
+            while (i < end) {
+                if (CLASS[b[i] & 0xff] == OTHER) {
+                    i++;
+                    continue;
+                }
+                int tokenStart = i;
+                while (i < end && CLASS[b[i] & 0xff] != OTHER) {
+                    i++;
+                }
+                token(b, tokenStart, i);
+            }
+            if (found != null) {
+                matches++;
+                counts.merge(found, 1L, Long::sum);
+                if (end > start && b[end - 1] == '\r') {
+                    end--;
+                }
+                consumer.accept(new IocMatch(file, lines, found, IndicatorType.of(found),
+                        new String(b, start, end - start, StandardCharsets.UTF_8)));
+            }
+        }
+
+
+        private void token(byte[] b, int start, int end) {
+            int colons = 0;
+            boolean gap = false;
+            boolean dot = false;
+            boolean nonHex = false;
+            for (int i = start; i < end; i++) {
+                byte cls = CLASS[b[i] & 0xff];
+                if (cls == COLON) {
+                    colons++;
+                    gap |= i > start && b[i - 1] == ':';
+                }
+                dot |= cls == DOT;
+                nonHex |= cls != DIGIT && cls != HEX_LETTER;
+            }
+            if (colons == 0 && !dot && (nonHex || !isHashLength(end - start))) {
+                return; // most tokens: words, numbers, process names
+            }
+            if (gap || colons == 7 || colons == 6 && b[end - 1] != ':' && indexOf(b, start, end, (byte) '.') > 0) {
+                // an IPv6 address, possibly with an embedded IPv4 address; a time such as
+                // 10:00:01 is not one
+                candidate(b, start, end);
+            }
+            if (colons == 0 || colons == 1) {
+                int piece = start;
+                for (int i = start; i <= end; i++) {
+                    if (i == end || b[i] == ':') {
+                        candidate(b, piece, i);
+                        piece = i + 1;
+                    }
+                }
+            }
+        }
+
+
+        /**
+         * Tests a piece of a token that may be an IPv4 address, a domain, an IPv6 address or a
+         * hash, after trimming the punctuation around it.
+         */
+        private void candidate(byte[] b, int start, int end) {
+            while (start < end && (CLASS[b[start] & 0xff] == DOT || CLASS[b[start] & 0xff] == DASH)) {
+                start++;
+            }
+            while (end > start && (CLASS[b[end - 1] & 0xff] == DOT || CLASS[b[end - 1] & 0xff] == DASH)) {
+                end--;
+            }
+            int n = end - start;
+            if (n < MIN_TOKEN || n > MAX_TOKEN) {
+                return;
+            }
+            boolean dot = false;
+            boolean colon = false;
+            boolean letter = false;
+            boolean nonHex = false;
+            for (int i = 0; i < n; i++) {
+                byte c = b[start + i];
+                byte cls = CLASS[c & 0xff];
+                dot |= cls == DOT;
+                colon |= cls == COLON;
+                letter |= cls == LETTER || cls == HEX_LETTER;
+                nonHex |= cls != DIGIT && cls != HEX_LETTER;
+                scratch[i] = c >= 'A' && c <= 'Z' ? (byte) (c + 32) : c;
+            }
+            if (colon) {
+                if (!hasLetter(0, n, LETTER)) {
+                    probe(0, n);
+                }
+            } else if (dot) {
+                // the domain and the domains it belongs to, down to two labels
+                int from = 0;
+                while (from >= 0 && found == null) {
+                    probe(from, n);
+                    if (!letter) {
+                        break; // an IPv4 address has no parent
+                    }
+                    int next = indexOf(scratch, from, n, (byte) '.') + 1;
+                    from = next > 0 && indexOf(scratch, next, n, (byte) '.') > 0 ? next : -1;
+                }
+            } else if (!nonHex && isHashLength(n)) {
+                probe(0, n);
+            }
+        }
+
+
+        private void probe(int start, int end) {
+            if (found != null) {
+                return; // one indicator per line is enough to report it
+            }
+            candidates++;
+            if (!set.mightContain(Hashing.hash64(scratch, start, end))) {
+                return;
+            }
+            filterHits++;
+            if (set.verify(scratch, start, end)) {
+                found = new String(scratch, start, end - start, StandardCharsets.US_ASCII);
+            } else {
+                falsePositives++;
+            }
+        }
+
+
+        private static boolean isHashLength(int n) {
+            return n == 32 || n == 40 || n == 64 || n == 128;
+        }
+
+
+        private boolean hasLetter(int start, int end, byte letterClass) {
+            for (int i = start; i < end; i++) {
+                if (CLASS[scratch[i] & 0xff] == letterClass) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+
+        private static int indexOf(byte[] b, int from, int to, byte c) {
+            for (int i = from; i < to; i++) {
+                if (b[i] == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+
+        private void add(Tokenizer other) {
+            bytes += other.bytes;
+            lines += other.lines;
+            candidates += other.candidates;
+            filterHits += other.filterHits;
+            falsePositives += other.falsePositives;
+            matches += other.matches;
+            other.counts.forEach((k, v) -> counts.merge(k, v, Long::sum));
+        }
+    }
+
+}
@@ -0,0 +1,672 @@
+package com.github.oogasawa.utility.security.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A content-addressed store of the collected files: each file is split into chunks by
+ * {@link Chunker}, every distinct chunk is stored once, and the file itself is replaced by a
+ * recipe that lists its chunks. Files that share content, such as {@code access.log.1} and
+ * {@code access.log-20250622} of the same day, or the same file collected again, therefore take
+ * the space of their common chunks only once.
+ * <p>
+ * The chunks are kept in the directory {@value #DIRECTORY} of the destination directory, in
+ * pack files written by one copy each and never modified once complete. A pack is a sequence of
+ * records of a SHA-256 hash, the lengths and the chunk, deflated unless that does not make it
+ * smaller; an index of the records is written next to it when it is complete, and rebuilt from
+ * the pack if it is missing. All indexes are loaded when the store is opened, so a chunk is
+ * looked up in memory. Because packs only grow and complete packs never change, copying a store
+ * to an archive host with {@code rsync} transfers only the new packs and recipes.
+ * <p>
+ * A recipe is a text file under the renamed name of the collected file:
+ * <pre>
+ * LOGCAS 1
+ * pack pack-3f2a9c0d1e4b5a67
+ * &lt;SHA-256 of the chunk&gt; &lt;length&gt; &lt;offset in the pack&gt;
+ * ...
+ * end &lt;length of the file&gt; &lt;SHA-256 of the file&gt;
+ * </pre>
+ * {@link #restore(Path)} streams the original content back from a recipe, checking the hash of
+ * every chunk and of the whole content, and {@link LogInputs#open(Path)} does so transparently,
+ * so the log commands read a store as if the files were there.
+ * <p>
+ * A store is thread-safe: files are written into it by concurrent copies, each with a pack of
+ * its own. A copy that refers to a chunk in a pack still being written by another copy forces
+ * that pack to disk before its recipe is complete, so a recipe never refers to a chunk that
+ * could be lost in a crash.
+ */
+public class ChunkStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkStore.class);
+
+    /** The directory of the packs, in the destination directory. */
+    public static final String DIRECTORY = ".chunks";
+
+    /** The first line of a recipe. */
+    static final String MAGIC = "LOGCAS 1";
+
+    private static final String PACK_SUFFIX = ".pack";
+
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static final int INDEX_MAGIC = 0x4c434958; // "LCIX"
+
+    /** The length of the header of a record: the hash, both lengths and the codec. */
+    private static final int HEADER = 32 + 4 + 4 + 1;
+
+    private static final byte STORED = 0;
+
+    private static final byte DEFLATED = 1;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /** The SHA-256 hash of a chunk. */
+    private record ChunkId(long a, long b, long c, long d) {
+
+        static ChunkId of(byte[] hash) {
+            ByteBuffer buffer = ByteBuffer.wrap(hash);
+            return new ChunkId(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+        }
+    }
+
+    /** Where a chunk is stored. */
+    private record Location(String pack, long offset, int length) {
+    }
+
+    private final Path dir;
+
+    private final Map<ChunkId, Location> chunks = new ConcurrentHashMap<>();
+
+    // the packs being written, by name
+    private final Map<String, Pack> open = new ConcurrentHashMap<>();
+
+    private final LongAdder storedChunks = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+    private final LongAdder packedBytes = new LongAdder();
+    private final LongAdder reusedChunks = new LongAdder();
+    private final LongAdder reusedBytes = new LongAdder();
+
+
+    private ChunkStore(Path dir) {
+        this.dir = dir;
+    }
+
+
+    /**
+     * Opens the store of a destination directory, creating it if necessary, and loads the
+     * indexes of its packs.
+     *
+     * @param destDir the destination directory
+     * @return the store
+     * @throws IOException if the store cannot be created or read
+     */
+    public static ChunkStore open(Path destDir) throws IOException {
+        ChunkStore store = new ChunkStore(Files.createDirectories(destDir.resolve(DIRECTORY)));
+        int packs = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(store.dir, "*" + PACK_SUFFIX)) {
+            for (Path pack : entries) {
+                store.load(pack);
+                packs++;
+            }
+        }
+        logger.info("Opened {} with {} chunks in {} packs", store.dir, store.chunks.size(), packs);
+        return store;
+    }
+
+
+    /**
+     * Returns a stream that stores the content written to it and writes its recipe to another
+     * stream when it is closed, which also closes the other stream. The returned stream is not
+     * thread-safe.
+     *
+     * @param recipe the stream of the recipe
+     * @return the stream of the content
+     */
+    public OutputStream writer(OutputStream recipe) {
+        return new ChunkWriter(recipe);
+    }
+
+
+    /**
+     * Returns the number of distinct chunks in the store.
+     *
+     * @return the number of chunks
+     */
+    public long chunks() {
+        return chunks.size();
+    }
+
+
+    /**
+     * Returns a one-line summary of the content stored so far.
+     *
+     * @return the summary
+     */
+    public String summary() {
+        long stored = storedBytes.sum();
+        long reused = reusedBytes.sum();
+        return String.format("Stored %d new chunks (%.1f MB, %.1f MB packed), reused %d chunks (%.1f MB): "
+                + "%.1f %% of the content deduplicated", storedChunks.sum(), stored / 1e6, packedBytes.sum() / 1e6,
+                reusedChunks.sum(), reused / 1e6, stored + reused == 0 ? 0.0 : 100.0 * reused / (stored + reused));
+    }
+
+
+    /**
+     * Checks whether a stream starts with a recipe, without consuming it.
+     *
+     * @param in a stream that supports {@link InputStream#mark(int)}
+     * @return {@code true} if the stream is a recipe
+     * @throws IOException if the stream cannot be read
+     */
+    public static boolean isRecipe(InputStream in) throws IOException {
+        byte[] magic = (MAGIC + "\n").getBytes(StandardCharsets.US_ASCII);
+        in.mark(magic.length);
+        byte[] head = in.readNBytes(magic.length);
+        in.reset();
+        return Arrays.equals(head, magic);
+    }
+
+
+    /**
+     * Streams the original content of a file back from its recipe. The store is looked up in
+     * the directory of the recipe and its parents, so that the recipes of a fleet, in one
+     * subdirectory per host, share the store of the fleet.
+     *
+     * @param recipe the recipe
+     * @return the content; reading it throws an {@link IOException} if a chunk is missing or
+     *         does not match its hash
+     * @throws IOException if the recipe or the store cannot be found
+     */
+    public static InputStream restore(Path recipe) throws IOException {
+        Path parent = recipe.toAbsolutePath().getParent();
+        while (parent != null && !Files.isDirectory(parent.resolve(DIRECTORY))) {
+            parent = parent.getParent();
+        }
+        if (parent == null) {
+            throw new NoSuchFileException(recipe + ": no " + DIRECTORY + " directory above the recipe");
+        }
+        BufferedReader reader = Files.newBufferedReader(recipe, StandardCharsets.US_ASCII);
+        try {
+            if (!MAGIC.equals(reader.readLine())) {
+                throw new IOException(recipe + " is not a recipe");
+            }
+        } catch (IOException e) {
+            reader.close();
+            throw e;
+        }
+        return new ChunkReader(recipe, parent.resolve(DIRECTORY), reader);
+    }
+
+
+    /**
+     * Adds the records of a pack to the chunks, from its index or else from the pack itself.
+     */
+    private void load(Path pack) throws IOException {
+        String name = packName(pack);
+        Path index = dir.resolve(name + INDEX_SUFFIX);
+        if (Files.exists(index)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index), 1 << 16))) {
+                if (in.readInt() == INDEX_MAGIC) {
+                    int count = in.readInt();
+                    byte[] hash = new byte[32];
+                    for (int i = 0; i < count; i++) {
+                        in.readFully(hash);
+                        long offset = in.readLong();
+                        int length = in.readInt();
+                        chunks.putIfAbsent(ChunkId.of(hash), new Location(name, offset, length));
+                    }
+                    return;
+                }
+            } catch (IOException e) {
+                logger.warn("Rebuilding the index of {}: {}", pack, e.toString());
+            }
+        }
+
+        // an incomplete pack, or one without index: read the headers of its records; a record
+        // cut short by a crash is ignored
+        try (FileChannel channel = FileChannel.open(pack, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long offset = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            byte[] hash = new byte[32];
+            while (offset + HEADER <= size) {
+                header.clear();
+                channel.read(header, offset);
+                header.flip();
+                header.get(hash);
+                int length = header.getInt();
+                int stored = header.getInt();
+                if (offset + HEADER + stored > size) {
+                    break;
+                }
+                chunks.putIfAbsent(ChunkId.of(hash), new Location(name, offset, length));
+                offset += HEADER + stored;
+            }
+        }
+    }
+
+
+    private static String packName(Path pack) {
+        String file = pack.getFileName().toString();
+        return file.substring(0, file.length() - PACK_SUFFIX.length());
+    }
+
+
+    /**
+     * A pack being written by one copy. Other copies may force it to disk.
+     */
+    private final class Pack {
+
+        private final String name;
+
+        private final FileChannel channel;
+
+        // the entries of the index, written when the pack is complete
+        private final ByteArrayOutputStream entries = new ByteArrayOutputStream(1 << 12);
+
+        private final DataOutputStream index = new DataOutputStream(entries);
+
+        private long size = 0;
+
+        private int count = 0;
+
+        private boolean sealed = false;
+
+        Pack() throws IOException {
+            this.name = "pack-" + HexFormat.of().toHexDigits(RANDOM.nextLong());
+            this.channel = FileChannel.open(dir.resolve(name + PACK_SUFFIX), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+            open.put(name, this);
+        }
+
+        /**
+         * Appends a record and returns its offset.
+         */
+        long append(byte[] hash, int length, byte codec, byte[] data, int dataLength) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.put(hash).putInt(length).putInt(dataLength).put(codec).flip();
+            long offset = size;
+            ByteBuffer[] record = {header, ByteBuffer.wrap(data, 0, dataLength)};
+            while (record[1].hasRemaining()) {
+                channel.write(record);
+            }
+            size += HEADER + dataLength;
+            index.write(hash);
+            index.writeLong(offset);
+            index.writeInt(length);
+            count++;
+            return offset;
+        }
+
+        /**
+         * Forces the records written so far to disk, unless the pack is complete.
+         */
+        synchronized void force() throws IOException {
+            if (!sealed) {
+                channel.force(false);
+            }
+        }
+
+        /**
+         * Forces the pack to disk, closes it and writes its index.
+         */
+        synchronized void seal() throws IOException {
+            try {
+                channel.force(true);
+            } finally {
+                sealed = true;
+                channel.close();
+                open.remove(name);
+            }
+            Path index = dir.resolve(name + INDEX_SUFFIX);
+            Path temp = dir.resolve("." + name + INDEX_SUFFIX);
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(count);
+                entries.writeTo(out);
+            }
+            Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+
+    /**
+     * Splits the content written to it into chunks, stores the new ones in a pack of its own and
+     * writes the recipe.
+     */
+    private final class ChunkWriter extends OutputStream {
+
+        private final Writer recipe;
+
+        private final MessageDigest chunkDigest = CollectionManifest.newDigest(CollectionManifest.SHA_256);
+
+        private final MessageDigest contentDigest = CollectionManifest.newDigest(CollectionManifest.SHA_256);
+
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+        private final byte[] buffer = new byte[4 * Chunker.MAX_SIZE];
+
+        private byte[] packed = new byte[Chunker.MAX_SIZE + 1024];
+
+        private int start = 0;
+
+        private int end = 0;
+
+        private long length = 0;
+
+        private Pack pack;
+
+        // the pack of the last line of the recipe
+        private String recipePack;
+
+        private boolean started = false;
+
+        // the packs of other copies that recipe refers to while they are written
+        private final Set<Pack> referenced = new LinkedHashSet<>();
+
+        private boolean closed = false;
+
+        ChunkWriter(OutputStream recipe) {
+            this.recipe = new BufferedWriter(new OutputStreamWriter(recipe, StandardCharsets.US_ASCII), 1 << 16);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            start();
+            while (len > 0) {
+                if (end == buffer.length) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                }
+                int n = Math.min(len, buffer.length - end);
+                System.arraycopy(b, off, buffer, end, n);
+                end += n;
+                off += n;
+                len -= n;
+                while (end - start >= Chunker.MAX_SIZE) {
+                    start += chunk(start, Chunker.cut(buffer, start, end - start));
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                start();
+                while (end > start) {
+                    start += chunk(start, Chunker.cut(buffer, start, end - start));
+                }
+                if (pack != null) {
+                    pack.seal();
+                }
+                for (Pack other : referenced) {
+                    other.force();
+                }
+                recipe.write("end " + length + " " + HexFormat.of().formatHex(contentDigest.digest()) + "\n");
+            } finally {
+                deflater.end();
+                recipe.close();
+            }
+        }
+
+        private void start() throws IOException {
+            if (!started) {
+                recipe.write(MAGIC + "\n");
+                started = true;
+            }
+        }
+
+        /**
+         * Stores a chunk unless it is stored already, and adds it to the recipe.
+         */
+        private int chunk(int offset, int n) throws IOException {
+            chunkDigest.update(buffer, offset, n);
+            byte[] hash = chunkDigest.digest();
+            contentDigest.update(buffer, offset, n);
+            length += n;
+
+            ChunkId id = ChunkId.of(hash);
+            Location location = chunks.get(id);
+            if (location == null) {
+                if (pack == null) {
+                    pack = new Pack();
+                }
+                deflater.reset();
+                deflater.setInput(buffer, offset, n);
+                deflater.finish();
+                int packedLength = deflater.deflate(packed, 0, packed.length);
+                byte codec = DEFLATED;
+                byte[] data = packed;
+                if (!deflater.finished() || packedLength >= n) {
+                    codec = STORED;
+                    data = Arrays.copyOfRange(buffer, offset, offset + n);
+                    packedLength = n;
+                }
+                location = new Location(pack.name, pack.append(hash, n, codec, data, packedLength), n);
+                // published only once written, so that others refer to it only then
+                chunks.putIfAbsent(id, location);
+                storedChunks.increment();
+                storedBytes.add(n);
+                packedBytes.add(HEADER + packedLength);
+            } else {
+                Pack other = open.get(location.pack());
+                if (other != null && other != pack) {
+                    referenced.add(other);
+                }
+                reusedChunks.increment();
+                reusedBytes.add(n);
+            }
+
+            if (!location.pack().equals(recipePack)) {
+                recipe.write("pack " + location.pack() + "\n");
+                recipePack = location.pack();
+            }
+            recipe.write(HexFormat.of().formatHex(hash) + " " + n + " " + location.offset() + "\n");
+            return n;
+        }
+    }
+
+
+    /**
+     * Streams the content of a recipe, chunk by chunk, checking the hashes.
+     */
+    private static final class ChunkReader extends InputStream {
+
+        private final Path recipePath;
+
+        private final Path dir;
+
+        private final BufferedReader recipe;
+
+        private final Map<String, FileChannel> packs = new HashMap<>();
+
+        private final MessageDigest chunkDigest = CollectionManifest.newDigest(CollectionManifest.SHA_256);
+
+        private final MessageDigest contentDigest = CollectionManifest.newDigest(CollectionManifest.SHA_256);
+
+        private final Inflater inflater = new Inflater(true);
+
+        private String pack;
+
+        private byte[] chunk = new byte[0];
+
+        private byte[] packed = new byte[0];
+
+        private int position = 0;
+
+        private int limit = 0;
+
+        private long length = 0;
+
+        private boolean finished = false;
+
+        ChunkReader(Path recipePath, Path dir, BufferedReader recipe) {
+            this.recipePath = recipePath;
+            this.dir = dir;
+            this.recipe = recipe;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !next()) {
+                return -1;
+            }
+            return chunk[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == limit && !next()) {
+                return -1;
+            }
+            int n = Math.min(len, limit - position);
+            System.arraycopy(chunk, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            recipe.close();
+            for (FileChannel channel : packs.values()) {
+                channel.close();
+            }
+        }
+
+        /**
+         * Reads the next chunk of the recipe.
+         */
+        private boolean next() throws IOException {
+            while (!finished) {
+                String line = recipe.readLine();
+                if (line == null) {
+                    throw new IOException(recipePath + ": the recipe is incomplete");
+                }
+                String[] fields = line.split(" ");
+                if (fields[0].equals("pack") && fields.length == 2) {
+                    pack = fields[1];
+                } else if (fields[0].equals("end") && fields.length == 3) {
+                    finished = true;
+                    String hash = HexFormat.of().formatHex(contentDigest.digest());
+                    if (Long.parseLong(fields[1]) != length || !fields[2].equals(hash)) {
+                        throw new IOException(recipePath + ": the restored content does not match the recipe");
+                    }
+                } else if (fields.length == 3 && pack != null) {
+                    read(fields[0], Integer.parseInt(fields[1]), Long.parseLong(fields[2]));
+                    return true;
+                } else {
+                    throw new IOException(recipePath + ": invalid recipe line: " + line);
+                }
+            }
+            return false;
+        }
+
+        private void read(String hash, int n, long offset) throws IOException {
+            FileChannel channel = packs.get(pack);
+            if (channel == null) {
+                channel = FileChannel.open(dir.resolve(pack + PACK_SUFFIX), StandardOpenOption.READ);
+                packs.put(pack, channel);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            readFully(channel, header, offset);
+            byte[] stored = new byte[32];
+            header.flip().get(stored);
+            int rawLength = header.getInt();
+            int packedLength = header.getInt();
+            byte codec = header.get();
+            if (rawLength != n || !HexFormat.of().formatHex(stored).equals(hash)) {
+                throw new IOException(recipePath + ": chunk " + hash + " not found in " + pack + " at " + offset);
+            }
+            if (chunk.length < n) {
+                chunk = new byte[Math.max(n, Chunker.MAX_SIZE)];
+            }
+            if (codec == STORED) {
+                readFully(channel, ByteBuffer.wrap(chunk, 0, n), offset + HEADER);
+            } else {
+                if (packed.length < packedLength) {
+                    packed = new byte[packedLength];
+                }
+                readFully(channel, ByteBuffer.wrap(packed, 0, packedLength), offset + HEADER);
+                inflater.reset();
+                inflater.setInput(packed, 0, packedLength);
+                try {
+                    if (inflater.inflate(chunk, 0, n) != n) {
+                        throw new IOException(recipePath + ": chunk " + hash + " is truncated");
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException(recipePath + ": chunk " + hash + " is corrupt", e);
+                }
+            }
+            chunkDigest.update(chunk, 0, n);
+            if (!MessageDigest.isEqual(chunkDigest.digest(), HexFormat.of().parseHex(hash))) {
+                throw new IOException(recipePath + ": chunk " + hash + " is corrupt");
+            }
+            contentDigest.update(chunk, 0, n);
+            length += n;
+            position = 0;
+            limit = n;
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of a pack");
+                }
+            }
+        }
+    }
+
+}
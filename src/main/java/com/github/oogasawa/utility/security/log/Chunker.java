@@ -0,0 +1,82 @@
+package com.github.oogasawa.utility.security.log;
+
+import java.util.SplittableRandom;
+
+
+/**
+ * Splits content into chunks at positions determined by the content itself, so that the same
+ * content is split into the same chunks wherever it occurs in a file (FastCDC, Xia et al. 2016).
+ * <p>
+ * A rolling gear hash is computed over the bytes, one shift and one add per byte, and a chunk
+ * ends where the top bits of the hash are all zero. The hash of a position depends on the last
+ * 64 bytes only, so a boundary depends on the content around it and not on its offset: content
+ * inserted or removed in one place changes the chunks there, and the following chunks are found
+ * again. As in FastCDC, the first {@link #MIN_SIZE} bytes of a chunk are not examined, and a
+ * boundary is harder to meet before {@link #AVERAGE_SIZE} and easier after it, which keeps the
+ * sizes close to the average; no chunk is longer than {@link #MAX_SIZE}.
+ * <p>
+ * The gear table is generated from a fixed seed. Changing the seed or the sizes would split
+ * content differently from the chunks already stored, and so defeat deduplication against them.
+ */
+final class Chunker {
+
+    /** The smallest chunk, except the last one of a content. */
+    static final int MIN_SIZE = 2 << 10;
+
+    /** The usual size of a chunk. */
+    static final int AVERAGE_SIZE = 8 << 10;
+
+    /** The largest chunk. */
+    static final int MAX_SIZE = 64 << 10;
+
+    // 15 bits before the average size and 11 after, around the 13 bits of 8 KiB
+    private static final long MASK_HARD = -1L << (64 - 15);
+    private static final long MASK_EASY = -1L << (64 - 11);
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x6c6f67636173L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+
+    private Chunker() {
+    }
+
+
+    /**
+     * Returns the length of the chunk at the start of a range of content.
+     *
+     * @param b      the content
+     * @param offset the start of the chunk
+     * @param length the number of bytes available; if fewer than {@link #MAX_SIZE}, they are
+     *               taken to be the end of the content
+     * @return the length of the chunk, at most {@code length}
+     */
+    static int cut(byte[] b, int offset, int length) {
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+        int n = Math.min(length, MAX_SIZE);
+        int normal = Math.min(n, AVERAGE_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[b[offset + i] & 0xff];
+            if ((hash & MASK_HARD) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < n; i++) {
+            hash = (hash << 1) + GEAR[b[offset + i] & 0xff];
+            if ((hash & MASK_EASY) == 0) {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+
+}
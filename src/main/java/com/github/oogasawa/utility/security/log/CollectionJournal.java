@@ -0,0 +1,233 @@
+package com.github.oogasawa.utility.security.log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The append-only progress journal of a collection run, kept in the file {@value #FILE_NAME} of
+ * the destination directory while the run is in progress.
+ * <p>
+ * Before a file is copied, a {@code begin} record is appended. The copy is written to a temporary
+ * name ({@link #tempName(String)}), forced to disk and atomically renamed to its final name, and
+ * then a {@code done} record with the size, modification time and digests of the source and the
+ * mode of the copy is appended, so that the destination directory never holds a partial file
+ * under a final name.
+ * When the run completes, the {@link CollectionManifest} is saved and the journal is deleted.
+ * <p>
+ * If a run is interrupted, the next run {@link #open(Path, CollectionManifest) opens} the journal
+ * and replays it: files with a {@code done} record are recorded in the manifest, so they are
+ * skipped as unchanged without being read or hashed again, and the temporary files of copies that
+ * only have a {@code begin} record are deleted, so those files are copied again.
+ * <p>
+ * Records are written as they happen and the journal is forced to disk at most once per second,
+ * so that journaling does not cost a disk flush per file. A crash may lose the last records; their
+ * files are then simply copied again. A torn last line is ignored.
+ */
+public class CollectionJournal implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CollectionJournal.class);
+
+    /** The name of the journal file in the destination directory. */
+    public static final String FILE_NAME = ".collection-journal.tsv";
+
+    /** The minimum interval between two flushes of the journal to disk. */
+    private static final long FORCE_INTERVAL_NANOS = 1_000_000_000L;
+
+    private static final String BEGIN = "begin";
+
+    private static final String DONE = "done";
+
+    private final Path file;
+
+    private final FileChannel channel;
+
+    private final int resumed;
+
+    private final int discarded;
+
+    private long lastForce = System.nanoTime();
+
+
+    private CollectionJournal(Path file, FileChannel channel, int resumed, int discarded) {
+        this.file = file;
+        this.channel = channel;
+        this.resumed = resumed;
+        this.discarded = discarded;
+    }
+
+
+    /**
+     * Opens the journal of a destination directory, replaying the journal of an interrupted run
+     * into the manifest first.
+     *
+     * @param destDir  the destination directory
+     * @param manifest the manifest of the destination directory
+     * @return the journal, to which the records of this run are appended
+     * @throws IOException if the journal cannot be read or opened
+     */
+    public static CollectionJournal open(Path destDir, CollectionManifest manifest) throws IOException {
+        Path file = destDir.resolve(FILE_NAME);
+        int resumed = 0;
+        int discarded = 0;
+
+        if (Files.exists(file)) {
+            Set<String> inFlight = new HashSet<>();
+            Map<String, CollectionManifest.Entry> done = new TreeMap<>();
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] f = line.split("\t", -1);
+                    if (f.length >= 2 && f[0].equals(BEGIN)) {
+                        inFlight.add(f[1]);
+                        done.remove(f[1]);
+                    } else if (f.length == 9 && f[0].equals(DONE)) {
+                        // the empty last field shows that the line was written completely
+                        try {
+                            done.put(f[1], new CollectionManifest.Entry(f[1], f[2], Long.parseLong(f[3]),
+                                    Long.parseLong(f[4]), CollectionManifest.parseSha256(f[5]),
+                                    CollectionManifest.parseDigests(f[6]),
+                                    CollectionManifest.parseMode(f[7])));
+                            inFlight.remove(f[1]);
+                        } catch (NumberFormatException e) {
+                            logger.warn("Ignoring malformed journal line: {}", line);
+                        }
+                    } else {
+                        logger.warn("Ignoring malformed journal line: {}", line);
+                    }
+                }
+            }
+
+            for (CollectionManifest.Entry entry : done.values()) {
+                if (Files.exists(destDir.resolve(entry.destName()))) {
+                    manifest.record(entry);
+                    resumed++;
+                }
+            }
+            for (String destName : inFlight) {
+                Path temp = destDir.resolve(tempName(destName));
+                Files.deleteIfExists(TimeIndex.pathOf(temp));
+                if (Files.deleteIfExists(temp)) {
+                    discarded++;
+                }
+            }
+            if (resumed > 0 || discarded > 0) {
+                logger.info("Resuming an interrupted collection: {} files done, {} partial copies discarded",
+                        resumed, discarded);
+            }
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        return new CollectionJournal(file, channel, resumed, discarded);
+    }
+
+
+    /**
+     * Returns the temporary name under which a file is copied before it is renamed to its final
+     * name.
+     *
+     * @param destName the final name of the copy
+     * @return the temporary name
+     */
+    public static String tempName(String destName) {
+        return "." + destName + ".part";
+    }
+
+
+    /**
+     * Returns the number of files that the interrupted run had completed.
+     *
+     * @return the number of resumed files
+     */
+    public int resumed() {
+        return resumed;
+    }
+
+
+    /**
+     * Returns the number of partial copies of the interrupted run that were deleted.
+     *
+     * @return the number of discarded copies
+     */
+    public int discarded() {
+        return discarded;
+    }
+
+
+    /**
+     * Records that a copy starts.
+     *
+     * @param destName the final name of the copy
+     * @param source   the source file
+     * @throws IOException if the record cannot be written
+     */
+    public void begin(String destName, Path source) throws IOException {
+        append(BEGIN + "\t" + destName + "\t" + source.toAbsolutePath() + "\n", false);
+    }
+
+
+    /**
+     * Records that a copy has been renamed to its final name.
+     *
+     * @param entry the manifest entry of the copy
+     * @throws IOException if the record cannot be written
+     */
+    public void done(CollectionManifest.Entry entry) throws IOException {
+        append(DONE + "\t" + entry.destName() + "\t" + entry.source() + "\t" + entry.size() + "\t"
+                + entry.mtime() + "\t" + CollectionManifest.formatSha256(entry.sha256()) + "\t"
+                + CollectionManifest.formatDigests(entry.otherDigests()) + "\t"
+                + CollectionManifest.formatMode(entry.mode()) + "\t\n", true);
+    }
+
+
+    /**
+     * Closes the journal and deletes it. Call this after the manifest has been saved.
+     *
+     * @throws IOException if the journal cannot be deleted
+     */
+    public void commit() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+    }
+
+
+    /**
+     * Forces the journal to disk and closes it, leaving it in place for the next run.
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+
+    private synchronized void append(String record, boolean mayForce) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        long now = System.nanoTime();
+        if (mayForce && now - lastForce >= FORCE_INTERVAL_NANOS) {
+            channel.force(false);
+            lastForce = now;
+        }
+    }
+
+}
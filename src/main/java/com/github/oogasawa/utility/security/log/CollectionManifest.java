@@ -0,0 +1,325 @@
+package com.github.oogasawa.utility.security.log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The record of the files collected into a destination directory, kept in the file
+ * {@value #FILE_NAME} of that directory.
+ * <p>
+ * Each line holds the destination name, the source path, the size and modification time of the
+ * source when it was collected, the SHA-256 hash of the collected content, or {@code -} if the
+ * content was not hashed, further digests of the content as {@code algorithm=hex} pairs separated
+ * by {@code ;}, if any, and the mode in which the content was written, e.g. redacted with a
+ * certain key, or {@code -} for an unchanged copy, all separated by tabs.
+ * A source whose path, size and modification time are unchanged, whose copy still exists and was
+ * written in the current mode, is not collected again, so rotated logs that never change are read
+ * only once.
+ * <p>
+ * Entries may be looked up and recorded concurrently. Call {@link #save()} after a run.
+ */
+public class CollectionManifest {
+
+    private static final Logger logger = LoggerFactory.getLogger(CollectionManifest.class);
+
+    /** The name of the manifest file in the destination directory. */
+    public static final String FILE_NAME = ".collection-manifest.tsv";
+
+    /** The JDK name of the SHA-256 algorithm, which is computed first whenever digests are. */
+    public static final String SHA_256 = "SHA-256";
+
+    private static final String HEADER = "# dest\tsource\tsize\tmtime\tsha256\tother digests\tmode";
+
+    /**
+     * One collected file.
+     *
+     * @param destName the name of the copy in the destination directory
+     * @param source   the absolute path of the source
+     * @param size     the size of the source in bytes
+     * @param mtime    the modification time of the source in milliseconds since the epoch
+     * @param sha256   the hex-encoded SHA-256 hash of the collected content, or {@code null} if
+     *                 the content was not hashed
+     * @param otherDigests further hex-encoded digests of the content by algorithm name, e.g.
+     *                 {@code SHA-512/256}
+     * @param mode     the mode in which the content was written, e.g. {@code redact=<fingerprint>},
+     *                 or {@code null} if it was copied unchanged
+     */
+    public record Entry(String destName, String source, long size, long mtime, String sha256,
+            Map<String, String> otherDigests, String mode) {
+
+        /**
+         * Constructs an entry with the SHA-256 hash only.
+         *
+         * @param destName the name of the copy in the destination directory
+         * @param source   the absolute path of the source
+         * @param size     the size of the source in bytes
+         * @param mtime    the modification time of the source in milliseconds since the epoch
+         * @param sha256   the hex-encoded SHA-256 hash of the collected content, or {@code null}
+         */
+        public Entry(String destName, String source, long size, long mtime, String sha256) {
+            this(destName, source, size, mtime, sha256, Map.of(), null);
+        }
+
+        /**
+         * Returns the hex-encoded digest of the content for an algorithm.
+         *
+         * @param algorithm the JDK name of the algorithm, e.g. {@code SHA-256}
+         * @return the digest, or {@code null} if it has not been computed
+         */
+        public String digest(String algorithm) {
+            return SHA_256.equals(algorithm) ? sha256 : otherDigests.get(algorithm);
+        }
+    }
+
+    private final Path destDir;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+
+    private CollectionManifest(Path destDir) {
+        this.destDir = destDir;
+    }
+
+
+    /**
+     * Loads the manifest of a destination directory. A missing manifest yields an empty one;
+     * malformed lines are ignored, so their files are collected again.
+     *
+     * @param destDir the destination directory
+     * @return the manifest
+     * @throws IOException if the manifest exists but cannot be read
+     */
+    public static CollectionManifest load(Path destDir) throws IOException {
+        CollectionManifest manifest = new CollectionManifest(destDir);
+        Path file = destDir.resolve(FILE_NAME);
+        if (!Files.exists(file)) {
+            return manifest;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] f = line.split("\t", -1);
+                if (f.length < 5 || f.length > 7) {
+                    logger.warn("Ignoring malformed manifest line: {}", line);
+                    continue;
+                }
+                try {
+                    manifest.entries.put(f[0], new Entry(f[0], f[1], Long.parseLong(f[2]),
+                            Long.parseLong(f[3]), parseSha256(f[4]), f.length >= 6 ? parseDigests(f[5]) : Map.of(),
+                            f.length == 7 ? parseMode(f[6]) : null));
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring malformed manifest line: {}", line);
+                }
+            }
+        }
+        return manifest;
+    }
+
+
+    /**
+     * Checks whether a source has already been collected under the given name, in the given
+     * mode, and has not changed since. Only metadata is compared; neither file is read.
+     *
+     * @param destName the name of the copy in the destination directory
+     * @param source   the source file
+     * @param size     the current size of the source
+     * @param mtime    the current modification time of the source in milliseconds
+     * @param mode     the mode in which the content is written, or {@code null} if it is copied
+     *                 unchanged
+     * @return {@code true} if the file need not be collected again
+     */
+    public boolean isUnchanged(String destName, Path source, long size, long mtime, String mode) {
+        Entry entry = entries.get(destName);
+        return entry != null
+                && entry.size() == size
+                && entry.mtime() == mtime
+                && entry.source().equals(source.toAbsolutePath().toString())
+                && Objects.equals(entry.mode(), mode)
+                && Files.exists(destDir.resolve(destName));
+    }
+
+
+    /**
+     * Records a collected file, replacing an earlier entry of the same name.
+     *
+     * @param entry the entry to record
+     */
+    public void record(Entry entry) {
+        entries.put(entry.destName(), entry);
+    }
+
+
+    /**
+     * Returns the entry of a destination name.
+     *
+     * @param destName the name of the copy in the destination directory
+     * @return the entry, or {@code null} if the name has not been collected
+     */
+    public Entry get(String destName) {
+        return entries.get(destName);
+    }
+
+
+    /**
+     * Writes the manifest, sorted by destination name, through a temporary file that replaces
+     * the previous manifest atomically.
+     *
+     * @throws IOException if the manifest cannot be written
+     */
+    public void save() throws IOException {
+        Map<String, Entry> sorted = new TreeMap<>(entries);
+        Path file = destDir.resolve(FILE_NAME);
+        Path tmp = destDir.resolve(FILE_NAME + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            out.newLine();
+            for (Entry e : sorted.values()) {
+                out.write(e.destName() + "\t" + e.source() + "\t" + e.size() + "\t" + e.mtime()
+                        + "\t" + formatSha256(e.sha256()) + "\t" + formatDigests(e.otherDigests())
+                        + "\t" + formatMode(e.mode()));
+                out.newLine();
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /**
+     * Returns the entries sorted by destination name.
+     *
+     * @return the entries
+     */
+    public Collection<Entry> entries() {
+        return new TreeMap<>(entries).values();
+    }
+
+
+    /**
+     * Parses a SHA-256 field, in which {@code -} stands for content that was not hashed.
+     */
+    static String parseSha256(String field) {
+        return field.isEmpty() || field.equals("-") ? null : field;
+    }
+
+
+    /**
+     * Formats a SHA-256 hash as a field, writing {@code -} for content that was not hashed.
+     */
+    static String formatSha256(String sha256) {
+        return sha256 == null ? "-" : sha256;
+    }
+
+
+    /**
+     * Parses a mode field, in which {@code -} stands for content copied unchanged.
+     */
+    static String parseMode(String field) {
+        return field.isEmpty() || field.equals("-") ? null : field;
+    }
+
+
+    /**
+     * Formats a mode as a field, writing {@code -} for content copied unchanged.
+     */
+    static String formatMode(String mode) {
+        return mode == null ? "-" : mode;
+    }
+
+
+    /**
+     * Parses digests in the form {@code algorithm=hex;algorithm=hex}.
+     */
+    static Map<String, String> parseDigests(String field) {
+        Map<String, String> digests = new TreeMap<>();
+        for (String pair : field.split(";")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                digests.put(pair.substring(0, eq), pair.substring(eq + 1));
+            }
+        }
+        return digests;
+    }
+
+
+    /**
+     * Formats digests in the form {@code algorithm=hex;algorithm=hex}, sorted by algorithm.
+     */
+    static String formatDigests(Map<String, String> digests) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> d : new TreeMap<>(digests).entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(d.getKey()).append('=').append(d.getValue());
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * Computes the hex-encoded SHA-256 hash of a file.
+     *
+     * @param file the file to hash
+     * @return the hash
+     * @throws IOException if the file cannot be read
+     */
+    public static String sha256(Path file) throws IOException {
+        MessageDigest digest = newSha256();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+
+    /**
+     * Returns a new SHA-256 message digest.
+     *
+     * @return the digest
+     */
+    static MessageDigest newSha256() {
+        return newDigest(SHA_256);
+    }
+
+
+    /**
+     * Returns a new message digest of the given algorithm.
+     *
+     * @param algorithm the JDK name of the algorithm
+     * @return the digest
+     * @throws IllegalArgumentException if the algorithm is not available
+     */
+    static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unknown digest algorithm: " + algorithm, e);
+        }
+    }
+
+}
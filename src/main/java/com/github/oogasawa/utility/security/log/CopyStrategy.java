@@ -0,0 +1,226 @@
+package com.github.oogasawa.utility.security.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Locale;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The ways a collected log file can be placed into the destination directory.
+ */
+public enum CopyStrategy {
+
+    /**
+     * Copies with {@link Files#copy(Path, Path, java.nio.file.CopyOption...)}, as the collector
+     * always did.
+     */
+    COPY {
+        @Override
+        long copy(Path source, Path target) throws IOException {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+            return Files.size(target);
+        }
+    },
+
+    /**
+     * Copies with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+     * which lets the kernel move the data between the files (e.g. with {@code sendfile} or
+     * {@code copy_file_range} on Linux) instead of through buffers in user space.
+     */
+    TRANSFER {
+        @Override
+        long copy(Path source, Path target) throws IOException {
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                    FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+                            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    long n = in.transferTo(position, size - position, out);
+                    if (n <= 0) {
+                        break; // the source was truncated while copying
+                    }
+                    position += n;
+                }
+                return position;
+            }
+        }
+    },
+
+    /**
+     * Creates a hard link to the source, which copies no data at all. The destination then
+     * shares its content with the source, which is fine for rotated logs that are never written
+     * again. When the file system does not support hard links, or the source is on another file
+     * system, the file is copied with {@link #TRANSFER} instead.
+     */
+    HARDLINK {
+        @Override
+        long copy(Path source, Path target) throws IOException {
+            if (link(source, target)) {
+                return Files.size(target);
+            }
+            return TRANSFER.copy(source, target);
+        }
+    };
+
+    private static final Logger logger = LoggerFactory.getLogger(CopyStrategy.class);
+
+    private static final int BUFFER_SIZE = 1 << 18;
+
+
+    /**
+     * Places the source file at the target path, replacing an existing file.
+     *
+     * @param source the file to copy
+     * @param target the path of the copy
+     * @return the number of bytes of the copy
+     * @throws IOException if the file cannot be copied
+     */
+    abstract long copy(Path source, Path target) throws IOException;
+
+
+    /**
+     * Places the source file at the target path and feeds its content to the given digests, so
+     * that the file is read only once.
+     * <p>
+     * Hashing needs the bytes in user space, so {@link #COPY} and {@link #TRANSFER} copy through
+     * a buffer and update the digests on the way. {@link #HARDLINK} reads the linked file once
+     * to hash it, instead of copying it.
+     *
+     * @param source  the file to copy
+     * @param target  the path of the copy
+     * @param digests the digests to update with the content; none for a plain copy
+     * @return the number of bytes of the copy
+     * @throws IOException if the file cannot be copied
+     */
+    long copy(Path source, Path target, List<MessageDigest> digests) throws IOException {
+        return copy(source, target, digests, IoThrottle.UNLIMITED);
+    }
+
+
+    /**
+     * Places the source file at the target path, feeds its content to the given digests and
+     * reads it at the rate the throttle allows.
+     * <p>
+     * An active throttle needs to see every read, so {@link #COPY} and {@link #TRANSFER} then copy
+     * through a buffer even without digests. A hard link reads nothing unless it is hashed.
+     *
+     * @param source   the file to copy
+     * @param target   the path of the copy
+     * @param digests  the digests to update with the content; none for a plain copy
+     * @param throttle the throttle of the reads
+     * @return the number of bytes of the copy
+     * @throws IOException if the file cannot be copied
+     */
+    long copy(Path source, Path target, List<MessageDigest> digests, IoThrottle throttle)
+            throws IOException {
+        if (digests.isEmpty() && !throttle.isActive()) {
+            return copy(source, target);
+        }
+        if (this == HARDLINK && link(source, target)) {
+            return digests.isEmpty() ? Files.size(target) : hash(target, digests, throttle);
+        }
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long total = 0;
+            int n;
+            while ((n = throttle.read(in, buffer)) >= 0) {
+                for (MessageDigest digest : digests) {
+                    digest.update(buffer.array(), 0, n);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+                total += n;
+            }
+            return total;
+        }
+    }
+
+
+    /**
+     * Feeds the content of a file to the given digests.
+     *
+     * @param file    the file to hash
+     * @param digests the digests to update
+     * @return the number of bytes read
+     * @throws IOException if the file cannot be read
+     */
+    static long hash(Path file, List<MessageDigest> digests) throws IOException {
+        return hash(file, digests, IoThrottle.UNLIMITED);
+    }
+
+
+    /**
+     * Feeds the content of a file to the given digests, reading it at the rate the throttle
+     * allows.
+     *
+     * @param file     the file to hash
+     * @param digests  the digests to update
+     * @param throttle the throttle of the reads
+     * @return the number of bytes read
+     * @throws IOException if the file cannot be read
+     */
+    static long hash(Path file, List<MessageDigest> digests, IoThrottle throttle) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long total = 0;
+            int n;
+            while ((n = throttle.read(in, buffer)) >= 0) {
+                for (MessageDigest digest : digests) {
+                    digest.update(buffer.array(), 0, n);
+                }
+                buffer.clear();
+                total += n;
+            }
+            return total;
+        }
+    }
+
+
+    /**
+     * Replaces the target with a hard link to the source, or to the file a symbolic link points
+     * to.
+     *
+     * @return {@code false} if the link cannot be created, e.g. across file systems
+     */
+    private static boolean link(Path source, Path target) throws IOException {
+        Path existing = Files.isSymbolicLink(source) ? source.toRealPath() : source;
+        try {
+            Files.deleteIfExists(target);
+            Files.createLink(target, existing);
+            return true;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            logger.debug("Cannot link {} to {} ({}); copying instead", target, existing, e.toString());
+            return false;
+        }
+    }
+
+
+    /**
+     * Returns the strategy of the given name, ignoring case.
+     *
+     * @param name {@code copy}, {@code transfer} or {@code hardlink}
+     * @return the strategy
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static CopyStrategy of(String name) {
+        return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+
+}
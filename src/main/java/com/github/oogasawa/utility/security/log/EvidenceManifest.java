@@ -0,0 +1,144 @@
+package com.github.oogasawa.utility.security.log;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Writes the integrity evidence of a destination directory from its {@link CollectionManifest}.
+ * <p>
+ * For every digest algorithm a checksum file in the format of {@code sha256sum} is written, e.g.
+ * {@code SHA256SUMS} or {@code SHA512-256SUMS}, so that the collection can be verified with
+ * {@code sha256sum -c SHA256SUMS} in the destination directory. The hashes are taken from the
+ * manifest, where they were computed while the files were copied, so writing the evidence does
+ * not read the collected files again; only the copies collected without evidence are hashed.
+ * <p>
+ * The sign-off file {@value #SIGNOFF_FILE} records who collected the files, where from and when,
+ * together with the SHA-256 hash of each checksum file, so that the evidence set is fixed by a
+ * single short record which can be signed or filed with the audit trail.
+ */
+public class EvidenceManifest {
+
+    /** The name of the sign-off file in the destination directory. */
+    public static final String SIGNOFF_FILE = "EVIDENCE-SIGNOFF.txt";
+
+    /**
+     * Returns the name of the checksum file of an algorithm, e.g. {@code SHA256SUMS} for
+     * {@code SHA-256} and {@code SHA512-256SUMS} for {@code SHA-512/256}.
+     *
+     * @param algorithm the JDK name of the algorithm
+     * @return the file name
+     */
+    public static String checksumFileName(String algorithm) {
+        return algorithm.replace("SHA-", "SHA").replace('/', '-') + "SUMS";
+    }
+
+
+    /**
+     * Writes the checksum files and the sign-off file.
+     * <p>
+     * Entries whose copy no longer exists are left out. If an entry lacks the digest of an
+     * algorithm, because it was collected without evidence or before that algorithm was
+     * requested, the copy is hashed once and the digest is recorded in the manifest; save the
+     * manifest afterwards.
+     *
+     * @param destDir    the destination directory
+     * @param manifest   the manifest of the destination directory
+     * @param algorithms the digest algorithms, SHA-256 first
+     * @param sourceDir  the collected source directory, recorded in the sign-off
+     * @param collectedBy the user and host that collected the files, recorded in the sign-off
+     * @throws IOException if a file cannot be written, or a copy cannot be hashed
+     */
+    public static void write(Path destDir, CollectionManifest manifest, List<String> algorithms,
+            Path sourceDir, String collectedBy) throws IOException {
+        List<CollectionManifest.Entry> entries = new ArrayList<>();
+        for (CollectionManifest.Entry entry : manifest.entries()) {
+            if (!Files.exists(destDir.resolve(entry.destName()))) {
+                continue;
+            }
+            entries.add(completeDigests(destDir, manifest, entry, algorithms));
+        }
+
+        Map<String, String> checksumFileHashes = new LinkedHashMap<>();
+        for (String algorithm : algorithms) {
+            String name = checksumFileName(algorithm);
+            StringBuilder sb = new StringBuilder();
+            for (CollectionManifest.Entry entry : entries) {
+                sb.append(entry.digest(algorithm)).append("  ").append(entry.destName()).append('\n');
+            }
+            byte[] content = sb.toString().getBytes(StandardCharsets.UTF_8);
+            writeAtomically(destDir.resolve(name), content);
+
+            MessageDigest sha256 = CollectionManifest.newSha256();
+            checksumFileHashes.put(name, HexFormat.of().formatHex(sha256.digest(content)));
+        }
+
+        StringBuilder signoff = new StringBuilder();
+        signoff.append("collected-by: ").append(collectedBy).append('\n')
+                .append("collected-at: ").append(Instant.now().truncatedTo(ChronoUnit.SECONDS)).append('\n')
+                .append("source: ").append(sourceDir.toAbsolutePath()).append('\n')
+                .append("files: ").append(entries.size()).append('\n');
+        for (Map.Entry<String, String> e : checksumFileHashes.entrySet()) {
+            signoff.append("sha256(").append(e.getKey()).append("): ").append(e.getValue()).append('\n');
+        }
+        writeAtomically(destDir.resolve(SIGNOFF_FILE), signoff.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * Returns the entry with the digests of all algorithms, hashing the copy if one is missing.
+     */
+    private static CollectionManifest.Entry completeDigests(Path destDir, CollectionManifest manifest,
+            CollectionManifest.Entry entry, List<String> algorithms) throws IOException {
+        List<String> missing = new ArrayList<>();
+        for (String algorithm : algorithms) {
+            if (entry.digest(algorithm) == null) {
+                missing.add(algorithm);
+            }
+        }
+        if (missing.isEmpty()) {
+            return entry;
+        }
+
+        List<MessageDigest> digests = new ArrayList<>();
+        for (String algorithm : missing) {
+            digests.add(CollectionManifest.newDigest(algorithm));
+        }
+        CopyStrategy.hash(destDir.resolve(entry.destName()), digests);
+
+        String sha256 = entry.sha256();
+        Map<String, String> other = new HashMap<>(entry.otherDigests());
+        for (int i = 0; i < missing.size(); i++) {
+            String hex = HexFormat.of().formatHex(digests.get(i).digest());
+            if (missing.get(i).equals(CollectionManifest.SHA_256)) {
+                sha256 = hex;
+            } else {
+                other.put(missing.get(i), hex);
+            }
+        }
+        CollectionManifest.Entry completed = new CollectionManifest.Entry(entry.destName(),
+                entry.source(), entry.size(), entry.mtime(), sha256, other, entry.mode());
+        manifest.record(completed);
+        return completed;
+    }
+
+
+    private static void writeAtomically(Path file, byte[] content) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, content);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
@@ -0,0 +1,179 @@
+package com.github.oogasawa.utility.security.log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A fixed pool of workers shared by several lanes, e.g. one per host, which takes tasks from the
+ * lanes in turn.
+ * <p>
+ * Every lane has its own bounded queue. The workers serve the lanes that have queued tasks round
+ * robin, one task at a time, so a host with thousands of files cannot starve a host with a few:
+ * each gets an equal share of the workers while it has work. Submitting to a full lane waits,
+ * which throttles the traversal of that host only. The wait is managed, so that a fork/join pool
+ * that submits from its workers may start another worker meanwhile.
+ */
+final class FairExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(FairExecutor.class);
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition hasWork = lock.newCondition();
+
+    /** The lanes with queued tasks, in the order they are served. */
+    private final ArrayDeque<Lane> ready = new ArrayDeque<>();
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    private final int laneCapacity;
+
+    private boolean shutdown = false;
+
+
+    /**
+     * Starts the workers.
+     *
+     * @param threads      the number of workers
+     * @param laneCapacity the number of tasks a lane queues before submitting waits
+     */
+    FairExecutor(int threads, int laneCapacity) {
+        this.laneCapacity = laneCapacity;
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(this::work, "fair-" + i);
+            t.setDaemon(true);
+            t.start();
+            workers.add(t);
+        }
+    }
+
+
+    /**
+     * Returns a new lane.
+     *
+     * @param name the name of the lane, for diagnostics
+     * @return the lane
+     */
+    Executor lane(String name) {
+        return new Lane(name, laneCapacity);
+    }
+
+
+    /**
+     * Lets the workers finish the queued tasks and stop.
+     */
+    void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            hasWork.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    private void work() {
+        while (true) {
+            Runnable task;
+            Lane lane;
+            lock.lock();
+            try {
+                while (ready.isEmpty()) {
+                    if (shutdown) {
+                        return;
+                    }
+                    hasWork.awaitUninterruptibly();
+                }
+                lane = ready.poll();
+                task = lane.tasks.poll();
+                if (lane.tasks.isEmpty()) {
+                    lane.ready = false;
+                } else {
+                    ready.addLast(lane);
+                }
+            } finally {
+                lock.unlock();
+            }
+            lane.slots.release();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("Task of {} failed", lane.name, e);
+            }
+        }
+    }
+
+
+    /**
+     * A queue of tasks served by the shared workers.
+     */
+    private final class Lane implements Executor {
+
+        private final String name;
+
+        private final Semaphore slots;
+
+        /** The queued tasks, guarded by the lock of the executor. */
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        /** Whether the lane is in the ready queue, guarded by the lock of the executor. */
+        private boolean ready = false;
+
+        /** Takes a slot of the lane, waiting for one if the lane is full. */
+        private final ForkJoinPool.ManagedBlocker slot = new ForkJoinPool.ManagedBlocker() {
+            @Override
+            public boolean isReleasable() {
+                return slots.tryAcquire();
+            }
+
+            @Override
+            public boolean block() throws InterruptedException {
+                slots.acquire();
+                return true;
+            }
+        };
+
+        Lane(String name, int capacity) {
+            this.name = name;
+            this.slots = new Semaphore(capacity);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    ForkJoinPool.managedBlock(slot);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            lock.lock();
+            try {
+                tasks.add(task);
+                if (!ready) {
+                    ready = true;
+                    FairExecutor.this.ready.addLast(this);
+                }
+                hasWork.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,223 @@
+package com.github.oogasawa.utility.security.log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Collects the logs of many hosts in one process, e.g. their {@code /var/log} directories mounted
+ * over NFS or extracted from backups.
+ * <p>
+ * Every host is collected by a {@link LogCollector} of its own into the subdirectory of the
+ * destination directory named after the host, with the host name in the renamed files, as if
+ * {@code log:rename -n host} had been run for each host. All hosts are collected at the same
+ * time, but they share one traversal pool and one pool of copy workers. The copy workers take the
+ * files of the hosts in turn ({@link FairExecutor}), so every host that still has files gets an
+ * equal share of them, and a large host does not delay the small ones. The limit of concurrent
+ * copies per source device applies to all hosts together.
+ * <p>
+ * The hosts and their source directories are read from a file ({@link #hostsFromFile(Path)}) or
+ * follow a directory convention ({@link #hostsFromDirectory(Path, String)}).
+ */
+public class FleetCollector {
+
+    private static final Logger logger = LoggerFactory.getLogger(FleetCollector.class);
+
+    /**
+     * The outcome of a fleet collection.
+     *
+     * @param hosts       the counters of each collected host, by host name
+     * @param failedHosts the error of each host that could not be collected, by host name
+     * @param total       the sum of the counters of all hosts, with the wall-clock time of the
+     *                    whole run
+     */
+    public record Result(Map<String, LogCollector.Stats> hosts, Map<String, String> failedHosts,
+            LogCollector.Stats total) {
+    }
+
+    private final LogCollector.Builder template;
+
+
+    /**
+     * Constructs a fleet collector.
+     *
+     * @param template the settings of the collection; its destination directory is the parent of
+     *                 the per-host directories and its server name is not used. Archives are
+     *                 not supported.
+     * @throws IllegalArgumentException if the template writes an archive
+     */
+    public FleetCollector(LogCollector.Builder template) {
+        if (template.archive() != null) {
+            throw new IllegalArgumentException("Fleet collection writes to a directory, not an archive");
+        }
+        this.template = template;
+    }
+
+
+    /**
+     * Returns the hosts of a directory in which every subdirectory is named after a host, e.g.
+     * {@code /mnt/logs/web01} or, with the sub-path {@code var/log}, {@code /backup/web01/var/log}.
+     * Subdirectories without the sub-path are skipped.
+     *
+     * @param root    the directory of the hosts
+     * @param subPath the path of the logs within the directory of a host, or {@code null} or an
+     *                empty string if the host directory itself holds the logs
+     * @return the source directories by host name, sorted by name
+     * @throws IOException if the directory cannot be listed
+     */
+    public static Map<String, Path> hostsFromDirectory(Path root, String subPath) throws IOException {
+        Map<String, Path> hosts = new TreeMap<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path hostDir : entries) {
+                Path source = subPath == null || subPath.isEmpty() ? hostDir : hostDir.resolve(subPath);
+                if (Files.isDirectory(source)) {
+                    hosts.put(hostDir.getFileName().toString(), source);
+                } else {
+                    logger.warn("Skipped {}: {} does not exist", hostDir, source);
+                }
+            }
+        }
+        return hosts;
+    }
+
+
+    /**
+     * Reads hosts from a file with one host per line: the host name and its source directory,
+     * separated by white space. Empty lines and lines starting with {@code #} are ignored, and
+     * relative directories are resolved against the directory of the file.
+     *
+     * @param file the file
+     * @return the source directories by host name, in the order of the file
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a line is malformed or a host is listed twice
+     */
+    public static Map<String, Path> hostsFromFile(Path file) throws IOException {
+        Map<String, Path> hosts = new LinkedHashMap<>();
+        Path base = file.toAbsolutePath().getParent();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] f = line.split("\\s+", 2);
+                if (f.length != 2) {
+                    throw new IllegalArgumentException(file + ":" + lineNumber + ": expected a host name and a directory");
+                }
+                if (hosts.put(f[0], base.resolve(f[1])) != null) {
+                    throw new IllegalArgumentException(file + ":" + lineNumber + ": duplicate host " + f[0]);
+                }
+            }
+        }
+        return hosts;
+    }
+
+
+    /**
+     * Collects all hosts concurrently. A host whose source directory or destination cannot be
+     * used is reported in {@link Result#failedHosts()} while the others are collected.
+     *
+     * @param hosts the source directories by host name
+     * @return the outcome
+     * @throws IllegalArgumentException if a host name cannot be used as a directory name
+     */
+    public Result collect(Map<String, Path> hosts) {
+        for (String host : hosts.keySet()) {
+            if (host.isEmpty() || host.contains("/") || host.contains("\\") || host.equals(".")
+                    || host.equals("..")) {
+                throw new IllegalArgumentException("Invalid host name: " + host);
+            }
+        }
+
+        long start = System.nanoTime();
+        int threads = Math.max(1, template.threads());
+        FairExecutor copyWorkers = new FairExecutor(threads, 2 * threads);
+        ForkJoinPool walkPool = new ForkJoinPool(threads);
+        // hosts whose directories are on the same device, e.g. one NFS export, share its limit
+        ConcurrentMap<Object, Semaphore> deviceSlots = new ConcurrentHashMap<>();
+        // every host waits for its copies on a thread of its own, which costs little as a
+        // virtual thread
+        ExecutorService coordinators = Executors.newVirtualThreadPerTaskExecutor();
+
+        Map<String, Future<LogCollector.Stats>> futures = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<String, Path> host : hosts.entrySet()) {
+                Path destDir = template.destDir().resolve(host.getKey());
+                LogCollector collector = template.copyFor(host.getKey(), destDir)
+                        .copyExecutor(copyWorkers.lane(host.getKey()))
+                        .walkPool(walkPool)
+                        .deviceSlots(deviceSlots)
+                        .build();
+                Path source = host.getValue();
+                futures.put(host.getKey(), coordinators.submit(() -> {
+                    if (!Files.isDirectory(source)) {
+                        throw new IOException("Source directory does not exist: " + source);
+                    }
+                    Files.createDirectories(destDir);
+                    return collector.collect(source);
+                }));
+            }
+
+            Map<String, LogCollector.Stats> stats = new LinkedHashMap<>();
+            Map<String, String> failedHosts = new LinkedHashMap<>();
+            for (Map.Entry<String, Future<LogCollector.Stats>> f : futures.entrySet()) {
+                try {
+                    stats.put(f.getKey(), f.getValue().get());
+                } catch (ExecutionException e) {
+                    logger.error("Failed to collect {}", f.getKey(), e.getCause());
+                    failedHosts.put(f.getKey(), String.valueOf(e.getCause().getMessage()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failedHosts.put(f.getKey(), "interrupted");
+                }
+            }
+            return new Result(Collections.unmodifiableMap(stats), Collections.unmodifiableMap(failedHosts),
+                    total(new ArrayList<>(stats.values()), System.nanoTime() - start));
+        } finally {
+            coordinators.shutdown();
+            walkPool.shutdown();
+            copyWorkers.shutdown();
+        }
+    }
+
+
+    private static LogCollector.Stats total(List<LogCollector.Stats> stats, long elapsedNanos) {
+        long scanned = 0;
+        long copied = 0;
+        long skipped = 0;
+        long bytes = 0;
+        long failed = 0;
+        for (LogCollector.Stats s : stats) {
+            scanned += s.scannedFiles();
+            copied += s.copiedFiles();
+            skipped += s.skippedFiles();
+            bytes += s.copiedBytes();
+            failed += s.failedFiles();
+        }
+        return new LogCollector.Stats(scanned, copied, skipped, bytes, failed, elapsedNanos);
+    }
+
+}
@@ -0,0 +1,354 @@
+package com.github.oogasawa.utility.security.log;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Limits the rate at which the collection reads source files, so that collecting on a busy
+ * production host takes only the spare I/O capacity.
+ * <p>
+ * Two token buckets cap the bytes read per second and the files started per second; a limit of
+ * {@code 0} means no limit. A request that exceeds the tokens available runs the bucket into debt
+ * and the caller sleeps until the debt is repaid, so a large read is never refused, only delayed,
+ * and the long-term rate is exact. The buckets hold at most a tenth of a second of tokens, so an
+ * idle phase does not allow a burst afterwards.
+ * <p>
+ * If adaptive, the throttle also watches the latency of the read calls it passes through. Their
+ * moving average is compared with the lowest average seen recently, which stands for an idle
+ * disk. When the average rises above {@value #CONGESTION_FACTOR} times that baseline, and above
+ * {@value #MIN_CONGESTED_LATENCY_MICROS} µs, other processes are competing for the disk and the
+ * byte rate is halved, down to a sixteenth of its start; while the latency stays normal it is
+ * raised again by a tenth of its start every half second. This is the additive-increase,
+ * multiplicative-decrease scheme of TCP congestion control, applied to disk latency. Without a
+ * byte limit, the first back-off starts from the throughput measured in the last interval.
+ * <p>
+ * Instances are thread-safe and shared by all copy workers of a collection.
+ */
+public class IoThrottle {
+
+    private static final Logger logger = LoggerFactory.getLogger(IoThrottle.class);
+
+    /** A throttle that never waits. */
+    public static final IoThrottle UNLIMITED = new IoThrottle(0, 0, false);
+
+    /** The ratio of the average latency to its baseline above which the disk is congested. */
+    static final double CONGESTION_FACTOR = 4.0;
+
+    /** The average latency below which the disk is never considered congested. */
+    static final long MIN_CONGESTED_LATENCY_MICROS = 1000;
+
+    /** The interval between two adjustments of the adaptive rate. */
+    private static final long ADJUST_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    /** The weight of a new sample in the moving average of the latency. */
+    private static final double EWMA_WEIGHT = 0.1;
+
+    /** Reads are normalized to this size when their latency is averaged. */
+    private static final int LATENCY_UNIT = 1 << 16;
+
+    private final TokenBucket bytes;
+
+    private final TokenBucket files;
+
+    private final long maxBytesPerSecond;
+
+    private final boolean adaptive;
+
+    private final LongAdder waitedNanos = new LongAdder();
+
+    private final LongAdder bytesRead = new LongAdder();
+
+    // the state of the adaptive control, guarded by this
+    private double averageLatency = -1;
+    private double baselineLatency = Double.MAX_VALUE;
+    private long lastAdjust = System.nanoTime();
+    private long bytesAtLastAdjust = 0;
+    private double startRate = 0;
+    private int backOffs = 0;
+
+
+    /**
+     * Constructs a throttle.
+     *
+     * @param maxBytesPerSecond the maximum bytes read per second, or {@code 0} for no limit
+     * @param maxFilesPerSecond the maximum files started per second, or {@code 0} for no limit
+     * @param adaptive          whether the byte rate backs off when the read latency rises
+     */
+    public IoThrottle(long maxBytesPerSecond, double maxFilesPerSecond, boolean adaptive) {
+        if (maxBytesPerSecond < 0 || maxFilesPerSecond < 0) {
+            throw new IllegalArgumentException("Negative rate");
+        }
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.bytes = new TokenBucket(maxBytesPerSecond, 1 << 16);
+        this.files = new TokenBucket(maxFilesPerSecond, 1);
+        this.adaptive = adaptive;
+        this.startRate = maxBytesPerSecond;
+    }
+
+
+    /**
+     * Parses a rate such as {@code 50M}, {@code 512k} or {@code 1G}; the suffixes are binary
+     * multiples and case-insensitive, and {@code 0} means no limit.
+     *
+     * @param rate the rate
+     * @return the rate in bytes per second
+     * @throws NumberFormatException if the rate is malformed
+     */
+    public static long parseBytes(String rate) {
+        String s = rate.trim().toUpperCase(Locale.ROOT);
+        if (s.endsWith("B")) {
+            s = s.substring(0, s.length() - 1);
+        }
+        long unit = 1;
+        if (!s.isEmpty()) {
+            switch (s.charAt(s.length() - 1)) {
+                case 'K' -> unit = 1L << 10;
+                case 'M' -> unit = 1L << 20;
+                case 'G' -> unit = 1L << 30;
+                default -> unit = 1;
+            }
+        }
+        if (unit != 1) {
+            s = s.substring(0, s.length() - 1);
+        }
+        double value = Double.parseDouble(s);
+        if (value < 0) {
+            throw new NumberFormatException("Negative rate: " + rate);
+        }
+        return (long) (value * unit);
+    }
+
+
+    /**
+     * Checks whether the throttle can ever wait.
+     *
+     * @return {@code true} if a limit is set or the throttle is adaptive
+     */
+    public boolean isActive() {
+        return bytes.rate > 0 || files.rate > 0 || adaptive;
+    }
+
+
+    /**
+     * Waits until another file may be started.
+     */
+    public void acquireFile() {
+        sleep(files.reserve(1));
+    }
+
+
+    /**
+     * Reads from a channel, measuring the latency of the read and then waiting until the bytes
+     * read are within the byte rate.
+     *
+     * @param channel the channel to read from
+     * @param buffer  the buffer to read into
+     * @return the number of bytes read, or {@code -1} at the end of the channel
+     * @throws IOException if reading fails
+     */
+    public int read(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        if (!isActive()) {
+            return channel.read(buffer);
+        }
+        long start = System.nanoTime();
+        int n = channel.read(buffer);
+        completed(start, n);
+        return n;
+    }
+
+
+    /**
+     * Returns a stream whose reads are throttled like {@link #read(ReadableByteChannel, ByteBuffer)}.
+     *
+     * @param in the stream to throttle
+     * @return the throttled stream, or {@code in} itself if the throttle is not active
+     */
+    public InputStream wrap(InputStream in) {
+        if (!isActive()) {
+            return in;
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                long start = System.nanoTime();
+                int b = super.read();
+                completed(start, b < 0 ? -1 : 1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                long start = System.nanoTime();
+                int n = super.read(b, off, len);
+                completed(start, n);
+                return n;
+            }
+        };
+    }
+
+
+    /**
+     * Returns the total time that readers have waited.
+     *
+     * @return the waiting time in nanoseconds
+     */
+    public long waitedNanos() {
+        return waitedNanos.sum();
+    }
+
+
+    /**
+     * Returns the current byte rate, which the adaptive control may have lowered.
+     *
+     * @return the rate in bytes per second, or {@code 0} if reads are not limited
+     */
+    public long currentBytesPerSecond() {
+        return (long) bytes.rate;
+    }
+
+
+    /**
+     * Returns a one-line summary of the throttling.
+     *
+     * @return the summary
+     */
+    public String summary() {
+        return String.format("Throttled for %.1f s, %d back-offs, byte limit now %s",
+                waitedNanos() / 1e9, backOffs,
+                bytes.rate > 0 ? String.format("%.1f MB/s", bytes.rate / 1e6) : "none");
+    }
+
+
+    private void completed(long start, int n) {
+        long now = System.nanoTime();
+        if (n <= 0) {
+            return;
+        }
+        bytesRead.add(n);
+        if (adaptive) {
+            observe(now - start, n, now);
+        }
+        sleep(bytes.reserve(n));
+    }
+
+
+    /**
+     * Feeds the latency of a read to the adaptive control, and adjusts the byte rate every
+     * {@link #ADJUST_INTERVAL_NANOS}.
+     */
+    private synchronized void observe(long latency, int n, long now) {
+        double normalized = n >= LATENCY_UNIT ? latency * (double) LATENCY_UNIT / n : latency;
+        averageLatency = averageLatency < 0 ? normalized
+                : averageLatency + EWMA_WEIGHT * (normalized - averageLatency);
+        if (now - lastAdjust < ADJUST_INTERVAL_NANOS) {
+            return;
+        }
+
+        long read = bytesRead.sum();
+        double throughput = (read - bytesAtLastAdjust) * 1e9 / (now - lastAdjust);
+        bytesAtLastAdjust = read;
+        lastAdjust = now;
+        // the baseline follows the lowest average, and slowly forgets it so that it can rise
+        // when the disk itself gets slower, e.g. after the page cache is exhausted
+        baselineLatency = Math.min(baselineLatency * 1.05, averageLatency);
+
+        boolean congested = averageLatency > CONGESTION_FACTOR * baselineLatency
+                && averageLatency > TimeUnit.MICROSECONDS.toNanos(MIN_CONGESTED_LATENCY_MICROS);
+        if (congested) {
+            if (startRate == 0) {
+                startRate = Math.max(throughput, 1 << 20);
+            }
+            double rate = bytes.rate > 0 ? bytes.rate : startRate;
+            bytes.setRate(Math.max(rate / 2, startRate / 16));
+            backOffs++;
+            logger.debug("Read latency {} µs, baseline {} µs: byte rate lowered to {} B/s",
+                    (long) (averageLatency / 1000), (long) (baselineLatency / 1000), (long) bytes.rate);
+        } else if (bytes.rate > 0 && bytes.rate < startRate) {
+            double rate = bytes.rate + startRate / 10;
+            if (rate >= startRate) {
+                // back at the start; without a configured limit, reads are unlimited again
+                rate = maxBytesPerSecond > 0 ? maxBytesPerSecond : 0;
+                if (maxBytesPerSecond == 0) {
+                    startRate = 0;
+                }
+            }
+            bytes.setRate(rate);
+        }
+    }
+
+
+    private void sleep(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        waitedNanos.add(nanos);
+        long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(remaining);
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+
+    /**
+     * A token bucket that may run into debt.
+     */
+    private static final class TokenBucket {
+
+        private final double minCapacity;
+
+        private volatile double rate;
+
+        private double tokens;
+
+        private long last = System.nanoTime();
+
+        TokenBucket(double rate, double minCapacity) {
+            this.rate = rate;
+            this.minCapacity = minCapacity;
+            this.tokens = capacity();
+        }
+
+        private double capacity() {
+            return Math.max(rate / 10, minCapacity);
+        }
+
+        synchronized void setRate(double rate) {
+            refill();
+            this.rate = rate;
+            tokens = Math.min(tokens, capacity());
+        }
+
+        /**
+         * Takes tokens and returns how long the caller has to wait before using them.
+         */
+        synchronized long reserve(double amount) {
+            if (rate <= 0) {
+                return 0;
+            }
+            refill();
+            tokens -= amount;
+            return tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            if (rate > 0) {
+                tokens = Math.min(capacity(), tokens + (now - last) / 1e9 * rate);
+            }
+            last = now;
+        }
+    }
+
+}
@@ -0,0 +1,336 @@
+package com.github.oogasawa.utility.security.log;
+
+import com.github.oogasawa.utility.security.io.ParallelGzipOutputStream;
+import com.github.oogasawa.utility.security.io.TarOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Streams collected files into a single tar archive, optionally gzip-compressed, through a
+ * bounded pipeline of buffers.
+ * <p>
+ * Files are {@link #add(Path, String) added} by any thread and queued. A reader thread opens
+ * them one after the other and reads their content into a fixed set of buffers, which a writer
+ * thread writes into the archive and hands back to the reader. Reading the next buffers thus
+ * overlaps with writing and compressing the previous ones, while the memory in use never exceeds
+ * {@value #BUFFERS} buffers of {@value #BUFFER_SIZE} bytes. When the buffers run out the reader
+ * waits, and when the queue of files is full {@link #add(Path, String)} waits, so a slow archive
+ * host slows the whole collection down instead of filling the memory.
+ * <p>
+ * The size written into the header of an entry is the size of the file when it is opened. If the
+ * file grows while it is read, only that many bytes are archived; if it shrinks or cannot be read
+ * to the end, the entry is padded with zeros, so that the archive stays valid, and the file is
+ * reported as failed.
+ */
+final class LogArchiver {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogArchiver.class);
+
+    /** The size of a buffer of the pipeline. */
+    static final int BUFFER_SIZE = 1 << 20;
+
+    /** The number of buffers of the pipeline. */
+    static final int BUFFERS = 8;
+
+    /** The number of files queued for the reader. */
+    private static final int QUEUED_FILES = 256;
+
+    /**
+     * Receives the outcome of each archived file, on the writer thread.
+     */
+    interface Listener {
+
+        /**
+         * Called when a file has been archived completely.
+         *
+         * @param file  the archived file
+         * @param bytes the number of bytes of the file in the archive
+         */
+        void archived(Path file, long bytes);
+
+        /**
+         * Called when a file could not be archived, or only in part.
+         *
+         * @param file the file
+         * @param e    the cause
+         */
+        void failed(Path file, IOException e);
+    }
+
+    /** An item passed from the reader to the writer. */
+    private sealed interface Item permits Header, Chunk, EntryEnd, EndOfArchive {
+    }
+
+    private record Header(String name, long size, long mtime) implements Item {
+    }
+
+    private record Chunk(byte[] buffer, int length) implements Item {
+    }
+
+    private record EntryEnd(Path file, long size, IOException error) implements Item {
+    }
+
+    private record EndOfArchive() implements Item {
+    }
+
+    private record Job(Path file, String name) {
+    }
+
+    private static final Job NO_MORE_FILES = new Job(null, null);
+
+    private final BlockingQueue<Job> jobs = new ArrayBlockingQueue<>(QUEUED_FILES);
+
+    private final BlockingQueue<Item> filled = new ArrayBlockingQueue<>(BUFFERS + 3);
+
+    private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(BUFFERS);
+
+    private final TarOutputStream tar;
+
+    private final ParallelGzipOutputStream gzip;
+
+    private final OutputStream buffered;
+
+    private final Listener listener;
+
+    private final IoThrottle throttle;
+
+    private final Thread reader;
+
+    private final Thread writer;
+
+    private volatile IOException writeError;
+
+
+    /**
+     * Starts the reader and writer threads of an archive.
+     *
+     * @param out      the stream the archive is written to, which is flushed but not closed
+     * @param gzip     whether the archive is gzip-compressed, with {@link ParallelGzipOutputStream}
+     * @param listener receives the outcome of each file
+     * @param throttle the throttle of the reads from the files
+     */
+    LogArchiver(OutputStream out, boolean gzip, Listener listener, IoThrottle throttle) {
+        this.buffered = new BufferedOutputStream(out, 1 << 16);
+        this.gzip = gzip ? new ParallelGzipOutputStream(buffered) : null;
+        this.tar = new TarOutputStream(gzip ? this.gzip : buffered);
+        this.listener = listener;
+        this.throttle = throttle;
+        for (int i = 0; i < BUFFERS; i++) {
+            free.add(new byte[BUFFER_SIZE]);
+        }
+        this.reader = new Thread(this::readLoop, "archive-reader");
+        this.writer = new Thread(this::writeLoop, "archive-writer");
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+    }
+
+
+    /**
+     * Queues a file for the archive, waiting while the queue is full.
+     *
+     * @param file the file to archive
+     * @param name the name of the file in the archive
+     */
+    void add(Path file, String name) {
+        try {
+            jobs.put(new Job(file, name));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Archives the queued files, writes the end of the archive and flushes the output.
+     *
+     * @throws IOException if the archive could not be written
+     */
+    void finish() throws IOException {
+        try {
+            jobs.put(NO_MORE_FILES);
+            reader.join();
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the archive", e);
+        }
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+
+
+    private void readLoop() {
+        try {
+            while (true) {
+                Job job = jobs.take();
+                if (job == NO_MORE_FILES) {
+                    break;
+                }
+                if (writeError == null) {
+                    read(job);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // always release the writer, which waits for the end of the archive
+            try {
+                filled.put(new EndOfArchive());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    /**
+     * Reads one file into the pipeline: its header, exactly as many bytes as the header announces
+     * and the end of the entry.
+     */
+    private void read(Job job) throws InterruptedException {
+        FileChannel channel;
+        long size;
+        long mtime;
+        throttle.acquireFile();
+        try {
+            channel = FileChannel.open(job.file(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            filled.put(new EntryEnd(job.file(), -1, e));
+            return;
+        }
+        try (channel) {
+            try {
+                size = channel.size();
+                mtime = Files.getLastModifiedTime(job.file()).toMillis();
+            } catch (IOException e) {
+                filled.put(new EntryEnd(job.file(), -1, e));
+                return;
+            }
+            filled.put(new Header(job.name(), size, mtime));
+
+            IOException error = null;
+            long remaining = size;
+            while (remaining > 0) {
+                byte[] buffer = free.take();
+                int length = (int) Math.min(buffer.length, remaining);
+                int n = 0;
+                if (error == null) {
+                    try {
+                        ByteBuffer bb = ByteBuffer.wrap(buffer, 0, length);
+                        while (bb.hasRemaining() && throttle.read(channel, bb) >= 0) {
+                            // read until the buffer is full or the file ends
+                        }
+                        n = bb.position();
+                        if (n < length) {
+                            error = new IOException("File shrank while archiving: " + (size - remaining + n)
+                                    + " of " + size + " bytes");
+                        }
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                }
+                Arrays.fill(buffer, n, length, (byte) 0);
+                filled.put(new Chunk(buffer, length));
+                remaining -= length;
+            }
+            filled.put(new EntryEnd(job.file(), size, error));
+        } catch (IOException e) {
+            // closing a read-only channel
+            logger.warn("Failed to close {}", job.file(), e);
+        }
+    }
+
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                Item item = filled.take();
+                if (item instanceof EndOfArchive) {
+                    break;
+                }
+                try {
+                    if (writeError == null) {
+                        write(item);
+                    } else {
+                        discard(item);
+                    }
+                } catch (IOException e) {
+                    writeError = e;
+                    discard(item);
+                }
+            }
+            if (writeError == null) {
+                try {
+                    tar.finish();
+                    if (gzip != null) {
+                        gzip.finish();
+                    }
+                    buffered.flush();
+                } catch (IOException e) {
+                    writeError = e;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private void write(Item item) throws IOException {
+        switch (item) {
+            case Header h -> tar.putNextEntry(h.name(), h.size(), h.mtime());
+            case Chunk c -> {
+                tar.write(c.buffer(), 0, c.length());
+                free.add(c.buffer());
+            }
+            case EntryEnd end -> {
+                if (end.size() >= 0) {
+                    tar.closeEntry();
+                }
+                report(end);
+            }
+            case EndOfArchive eoa -> {
+                // handled by the loop
+            }
+        }
+    }
+
+
+    /**
+     * Recycles the buffer of an item after the archive has failed, so that the reader can
+     * drain its queue.
+     */
+    private void discard(Item item) {
+        if (item instanceof Chunk c) {
+            free.add(c.buffer());
+        } else if (item instanceof EntryEnd end) {
+            listener.failed(end.file(), writeError);
+        }
+    }
+
+
+    private void report(EntryEnd end) {
+        if (end.error() == null) {
+            logger.info("Archived: {}", end.file());
+            listener.archived(end.file(), end.size());
+        } else {
+            listener.failed(end.file(), end.error());
+        }
+    }
+
+}
@@ -0,0 +1,915 @@
+package com.github.oogasawa.utility.security.log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A parallel engine that collects log files from a directory tree.
+ * <p>
+ * The tree is traversed by a work-stealing {@link ForkJoinPool}: every directory is a task that
+ * lists its entries, forks a subtask per subdirectory and decides for each file whether it is
+ * collected, using the same rules as {@link LogFileProcessor}. The files to collect are handed to
+ * a bounded pool of copy workers; when its queue is full, the traversing thread copies the file
+ * itself, so traversal never runs far ahead of copying. In addition, the number of concurrent
+ * copies from the same source device is limited, so that a slow NFS mount or a single disk is not
+ * flooded while other devices are idle.
+ * <p>
+ * The destination set is the same as that of a serial walk with {@link LogFileProcessor}. If two
+ * source files map to the same destination name, the first one claimed is copied and the other
+ * is reported as skipped.
+ * <p>
+ * Unless disabled with {@link Builder#incremental(boolean)}, files that the
+ * {@link CollectionManifest} of the destination directory records with the same source, size and
+ * modification time are skipped without being read, and every copied file is recorded there.
+ * Only the size and modification time are needed to detect changes, so the content is hashed only
+ * when {@link Builder#evidence(boolean) evidence} or {@link Builder#extraDigests(List) further
+ * digests} are requested, and otherwise the {@link CopyStrategy} copies in the kernel or links
+ * without reading. The SHA-256 hash and the further digests are then computed from the bytes as
+ * they are copied, by the copy worker of each file, so hashing adds no I/O and runs in parallel
+ * across files.
+ * <p>
+ * Each copy is written under a temporary name and renamed to its final name once it is complete
+ * and on disk, with its progress recorded in a {@link CollectionJournal}. A run that is
+ * interrupted, e.g. by a reboot or a full disk, is resumed by the next run: the files it
+ * completed are skipped without being read again and its partial copies are discarded.
+ * <p>
+ * The reads from the source files can be limited in bytes and files per second by an
+ * {@link IoThrottle}, which can also back off by itself when the disk latency rises, so that
+ * collecting on a busy host does not disturb its services.
+ * <p>
+ * With {@link Builder#index(boolean)}, a {@link TimeIndex} is written next to every copy, so that
+ * a time window can later be read from the collected files with {@link LogMerger#setRange(long, long)}
+ * without reading them whole.
+ * <p>
+ * With {@link Builder#redactor(Redactor)}, addresses, email addresses and user names in the
+ * content are replaced with keyed pseudonyms on the way to the copies, so that the collection can
+ * be handed to auditors as it is. The manifest records a fingerprint of the key with every copy,
+ * so copies made without redaction, or with another key, are collected again.
+ * <p>
+ * With {@link Builder#store(ChunkStore)}, the content of the copies is split into chunks that are
+ * stored once in a {@link ChunkStore}, and a recipe takes the place of each copy, so that rotated
+ * files collected under several names, or collected again, take little space; the manifest then
+ * records the hashes of the recipes, which record the hashes of the content. Whole copies are
+ * collected into the store when it is turned on, and recipes are replaced with whole copies when
+ * it is turned off, since the manifest records the mode of every copy.
+ * <p>
+ * With {@link Builder#archive(OutputStream)}, the files are not copied into the destination
+ * directory but streamed, under their renamed names, into a single tar archive by a
+ * {@link LogArchiver}. The traversal stays parallel; the archive is written by one reader and one
+ * writer thread. No manifest is kept for an archive, so every run archives all files.
+ * <p>
+ * A {@link FleetCollector} runs one collector per host at the same time, with the traversal pool
+ * and the copy workers shared by all of them.
+ */
+public class LogCollector {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogCollector.class);
+
+    /** The default number of concurrent copies from one device. */
+    public static final int DEFAULT_PER_DEVICE_LIMIT = 4;
+
+    /**
+     * The counters of a collection run.
+     *
+     * @param scannedFiles the number of non-directory entries examined
+     * @param copiedFiles  the number of files copied
+     * @param skippedFiles the number of files skipped because they were collected unchanged
+     *                     before
+     * @param copiedBytes  the number of bytes copied
+     * @param failedFiles  the number of files and directories that could not be processed
+     * @param elapsedNanos the wall-clock time of the run
+     */
+    public record Stats(long scannedFiles, long copiedFiles, long skippedFiles, long copiedBytes,
+            long failedFiles, long elapsedNanos) {
+
+        /**
+         * Returns the number of copied files per second.
+         *
+         * @return files per second
+         */
+        public double filesPerSecond() {
+            return copiedFiles / seconds();
+        }
+
+        /**
+         * Returns the number of copied bytes per second.
+         *
+         * @return bytes per second
+         */
+        public double bytesPerSecond() {
+            return copiedBytes / seconds();
+        }
+
+        /**
+         * Returns a one-line human-readable summary.
+         *
+         * @return the summary
+         */
+        public String summary() {
+            return String.format(
+                    "Collected %d of %d files (%.1f MB) in %.2f s: %.1f files/s, %.1f MB/s, %d unchanged, %d failed",
+                    copiedFiles, scannedFiles, copiedBytes / 1e6, seconds(), filesPerSecond(),
+                    bytesPerSecond() / 1e6, skippedFiles, failedFiles);
+        }
+
+        private double seconds() {
+            return Math.max(elapsedNanos, 1) / 1e9;
+        }
+    }
+
+
+    /**
+     * Configures and creates a {@link LogCollector}.
+     */
+    public static final class Builder {
+
+        private final String serverName;
+        private final Path destDir;
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private int perDeviceLimit = DEFAULT_PER_DEVICE_LIMIT;
+        private CopyStrategy copyStrategy = CopyStrategy.COPY;
+        private boolean incremental = true;
+        private boolean evidence = false;
+        private boolean compress = false;
+        private boolean index = false;
+        private Redactor redactor = null;
+        private ChunkStore store = null;
+        private LogFileClassifier classifier = LogFileClassifier.DEFAULT;
+        private OutputStream archive = null;
+        private IoThrottle throttle = IoThrottle.UNLIMITED;
+        private Executor copyExecutor = null;
+        private ForkJoinPool walkPool = null;
+        private ConcurrentMap<Object, Semaphore> deviceSlots = null;
+        private List<String> extraDigests = List.of();
+
+        private Builder(String serverName, Path destDir) {
+            this.serverName = serverName;
+            this.destDir = destDir;
+        }
+
+        /**
+         * Sets the number of traversal threads and of copy workers. The default is the number of
+         * available processors.
+         *
+         * @param threads the number of threads
+         * @return this builder
+         */
+        public Builder threads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of concurrent copies from one source device. The default is
+         * {@value LogCollector#DEFAULT_PER_DEVICE_LIMIT}.
+         *
+         * @param perDeviceLimit the limit
+         * @return this builder
+         */
+        public Builder perDeviceLimit(int perDeviceLimit) {
+            this.perDeviceLimit = perDeviceLimit;
+            return this;
+        }
+
+        /**
+         * Sets how files are placed into the destination directory. The default is
+         * {@link CopyStrategy#COPY}.
+         *
+         * @param copyStrategy the strategy
+         * @return this builder
+         */
+        public Builder copyStrategy(CopyStrategy copyStrategy) {
+            this.copyStrategy = copyStrategy;
+            return this;
+        }
+
+        /**
+         * Sets whether files recorded unchanged in the {@link CollectionManifest} of the
+         * destination directory are skipped. The default is {@code true}; with {@code false}
+         * every file is copied again, and the manifest is rewritten.
+         *
+         * @param incremental whether unchanged files are skipped
+         * @return this builder
+         */
+        public Builder incremental(boolean incremental) {
+            this.incremental = incremental;
+            return this;
+        }
+
+        /**
+         * Sets whether the integrity evidence is written to the destination directory after the
+         * run; see {@link EvidenceManifest}. The content is then hashed while it is copied. The
+         * default is {@code false}.
+         *
+         * @param evidence whether the evidence is written
+         * @return this builder
+         */
+        public Builder evidence(boolean evidence) {
+            this.evidence = evidence;
+            return this;
+        }
+
+        /**
+         * Sets digest algorithms computed in addition to SHA-256 while copying, e.g.
+         * {@code SHA-512/256}, which is faster than SHA-256 on 64-bit processors without SHA
+         * instructions. The content is then hashed while it is copied, and the digests are
+         * recorded in the manifest and written as evidence.
+         *
+         * @param algorithms the JDK names of the algorithms
+         * @return this builder
+         * @throws IllegalArgumentException if an algorithm is not available
+         */
+        public Builder extraDigests(List<String> algorithms) {
+            for (String algorithm : algorithms) {
+                CollectionManifest.newDigest(algorithm);
+            }
+            this.extraDigests = List.copyOf(algorithms);
+            return this;
+        }
+
+        /**
+         * Sets whether uncompressed log files are gzip-compressed in parallel blocks while they
+         * are copied, with {@code .gz} appended to their names. Already compressed files are
+         * copied unchanged. The default is {@code false}.
+         *
+         * @param compress whether uncompressed files are compressed
+         * @return this builder
+         */
+        public Builder compress(boolean compress) {
+            this.compress = compress;
+            return this;
+        }
+
+        /**
+         * Sets whether a {@link TimeIndex} is written next to every copied file, so that time
+         * windows can be read from the collected files without reading them whole. Files
+         * compressed while they are copied are indexed on the way. The default is
+         * {@code false}.
+         *
+         * @param index whether the copies are indexed
+         * @return this builder
+         */
+        public Builder index(boolean index) {
+            this.index = index;
+            return this;
+        }
+
+        /**
+         * Sets the redactor that replaces personal data in the content of the copies with
+         * pseudonyms; see {@link Redactor}. Redacted files are always rewritten, whatever the
+         * copy strategy, and gzip-compressed files are compressed again. Redaction is not
+         * supported for archives. The default is {@code null}, which copies the content
+         * unchanged.
+         *
+         * @param redactor the redactor, or {@code null}
+         * @return this builder
+         */
+        public Builder redactor(Redactor redactor) {
+            this.redactor = redactor;
+            return this;
+        }
+
+        /**
+         * Sets the store into which the content of the copies is written, chunk by chunk, with a
+         * recipe of the chunks in place of each copy, so that content collected more than once is
+         * stored once. Uncompressed files are then not compressed as a whole, since the store
+         * compresses the chunks, and the copies cannot be {@link #index(boolean) indexed}.
+         *
+         * @param store the store, e.g. {@link ChunkStore#open(Path)} of the destination
+         *              directory, or {@code null} to write the copies whole
+         * @return this builder
+         */
+        public Builder store(ChunkStore store) {
+            this.store = store;
+            return this;
+        }
+
+        /**
+         * Sets the rules that select the collected files and extract their dates. The default is
+         * {@link LogFileClassifier#DEFAULT}.
+         *
+         * @param classifier the classifier
+         * @return this builder
+         */
+        public Builder classifier(LogFileClassifier classifier) {
+            this.classifier = classifier;
+            return this;
+        }
+
+        /**
+         * Streams the collected files into a tar archive written to the given stream, instead of
+         * copying them into the destination directory, which is then not used and may be
+         * {@code null}. With {@link #compress(boolean)} the whole archive is gzip-compressed and
+         * the files keep their names. Incremental collection and evidence manifests apply to
+         * the destination directory only and are ignored. The stream is flushed but not closed.
+         *
+         * @param out the stream of the archive, e.g. a file or {@link System#out}
+         * @return this builder
+         */
+        public Builder archive(OutputStream out) {
+            this.archive = out;
+            return this;
+        }
+
+        /**
+         * Sets the throttle of the reads from the source files, which limits the bytes and files
+         * per second, and may back off when the disk latency rises. The default is
+         * {@link IoThrottle#UNLIMITED}.
+         *
+         * @param throttle the throttle
+         * @return this builder
+         */
+        public Builder throttle(IoThrottle throttle) {
+            this.throttle = throttle;
+            return this;
+        }
+
+        /**
+         * Makes the collector copy with the given executor, which is shared with other
+         * collectors, instead of a pool of its own.
+         *
+         * @param copyExecutor the executor of the copies
+         * @return this builder
+         */
+        Builder copyExecutor(Executor copyExecutor) {
+            this.copyExecutor = copyExecutor;
+            return this;
+        }
+
+        /**
+         * Makes the collector traverse with the given pool, which is shared with other
+         * collectors, instead of a pool of its own.
+         *
+         * @param walkPool the pool of the traversal
+         * @return this builder
+         */
+        Builder walkPool(ForkJoinPool walkPool) {
+            this.walkPool = walkPool;
+            return this;
+        }
+
+        /**
+         * Makes the collector take the slots of the source devices from the given map, which is
+         * shared with other collectors, so that the limit per device holds for all of them.
+         *
+         * @param deviceSlots the slots by device
+         * @return this builder
+         */
+        Builder deviceSlots(ConcurrentMap<Object, Semaphore> deviceSlots) {
+            this.deviceSlots = deviceSlots;
+            return this;
+        }
+
+        /**
+         * Returns a builder with the settings of this one for another server and destination
+         * directory. The throttle is shared, not copied.
+         *
+         * @param serverName the server name to append to the renamed files
+         * @param destDir    the destination directory
+         * @return the new builder
+         */
+        Builder copyFor(String serverName, Path destDir) {
+            Builder b = new Builder(serverName, destDir);
+            b.threads = threads;
+            b.perDeviceLimit = perDeviceLimit;
+            b.copyStrategy = copyStrategy;
+            b.incremental = incremental;
+            b.evidence = evidence;
+            b.compress = compress;
+            b.index = index;
+            b.redactor = redactor;
+            b.store = store;
+            b.classifier = classifier;
+            b.extraDigests = extraDigests;
+            b.archive = archive;
+            b.throttle = throttle;
+            return b;
+        }
+
+        /**
+         * Returns the classifier of the file names.
+         *
+         * @return the classifier
+         */
+        LogFileClassifier classifier() {
+            return classifier;
+        }
+
+        /**
+         * Returns the number of threads.
+         *
+         * @return the number of threads
+         */
+        int threads() {
+            return threads;
+        }
+
+        /**
+         * Returns the stream of the archive.
+         *
+         * @return the stream, or {@code null} if files are copied into the destination directory
+         */
+        OutputStream archive() {
+            return archive;
+        }
+
+        /**
+         * Returns the destination directory.
+         *
+         * @return the destination directory, or {@code null} if an archive is written instead
+         */
+        public Path destDir() {
+            return destDir;
+        }
+
+        /**
+         * Creates the collector.
+         *
+         * @return the collector
+         * @throws IllegalStateException if an archive is to be redacted or written into a store, or
+         *                               the copies in a store are to be indexed
+         */
+        public LogCollector build() {
+            if (redactor != null && archive != null) {
+                throw new IllegalStateException("Redaction is not supported for archives");
+            }
+            if (store != null && (archive != null || index)) {
+                throw new IllegalStateException("A chunk store cannot be used with an archive or time indexes");
+            }
+            return new LogCollector(this);
+        }
+    }
+
+
+    private final LogFileProcessor processor;
+
+    private final String serverName;
+
+    private final Path destDir;
+
+    private final int threads;
+
+    private final int perDeviceLimit;
+
+    private final boolean incremental;
+
+    private final boolean evidence;
+
+    private final OutputStream archive;
+
+    private final boolean compressArchive;
+
+    private final IoThrottle throttle;
+
+    private final Redactor redactor;
+
+    private final ChunkStore store;
+
+    private final Executor sharedCopyExecutor;
+
+    private final ForkJoinPool sharedWalkPool;
+
+    /** The mode in which the content of the copies is written, as recorded in the manifest. */
+    private final String mode;
+
+    /** The digest algorithms computed while copying, SHA-256 first, or none if no digest is needed. */
+    private final List<String> algorithms;
+
+    /** The slots of the source devices, possibly shared with other collectors. */
+    private final ConcurrentMap<Object, Semaphore> deviceSlots;
+
+    private final ConcurrentHashMap<String, Path> claimedNames = new ConcurrentHashMap<>();
+
+    private final LongAdder scanned = new LongAdder();
+    private final LongAdder copied = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private Executor copyExecutor;
+
+    private Phaser pendingCopies;
+
+    private CollectionManifest manifest;
+
+    private LogArchiver archiver;
+
+    private CollectionJournal journal;
+
+
+    private LogCollector(Builder builder) {
+        this.processor = new LogFileProcessor(builder.serverName, builder.destDir,
+                builder.copyStrategy, builder.compress && builder.archive == null, builder.classifier,
+                builder.index && builder.archive == null, builder.redactor, builder.store);
+        this.serverName = builder.serverName;
+        this.destDir = builder.destDir;
+        this.threads = Math.max(1, builder.threads);
+        this.perDeviceLimit = Math.max(1, builder.perDeviceLimit);
+        this.incremental = builder.incremental;
+        this.evidence = builder.evidence;
+        this.archive = builder.archive;
+        this.compressArchive = builder.compress && builder.archive != null;
+        this.throttle = builder.throttle;
+        this.redactor = builder.redactor;
+        this.store = builder.store;
+        this.sharedCopyExecutor = builder.copyExecutor;
+        this.sharedWalkPool = builder.walkPool;
+        this.deviceSlots = builder.deviceSlots != null ? builder.deviceSlots : new ConcurrentHashMap<>();
+        this.mode = outputMode(builder.redactor, builder.store);
+        List<String> algorithms = new ArrayList<>();
+        if (builder.evidence || !builder.extraDigests.isEmpty()) {
+            algorithms.add(CollectionManifest.SHA_256);
+            for (String algorithm : builder.extraDigests) {
+                if (!algorithms.contains(algorithm)) {
+                    algorithms.add(algorithm);
+                }
+            }
+        }
+        this.algorithms = List.copyOf(algorithms);
+    }
+
+
+    /**
+     * Returns the mode in which the content of the copies is written, e.g.
+     * {@code store,redact=<fingerprint>}, or {@code null} if it is copied unchanged.
+     */
+    private static String outputMode(Redactor redactor, ChunkStore store) {
+        List<String> parts = new ArrayList<>();
+        if (store != null) {
+            parts.add("store");
+        }
+        if (redactor != null) {
+            parts.add("redact=" + redactor.fingerprint());
+        }
+        return parts.isEmpty() ? null : String.join(",", parts);
+    }
+
+
+    /**
+     * Returns a builder of a collector.
+     *
+     * @param serverName the server name to append to the renamed files
+     * @param destDir    the destination directory, which must exist when collecting, or
+     *                   {@code null} if an {@link Builder#archive(OutputStream) archive} is written
+     * @return the builder
+     */
+    public static Builder builder(String serverName, Path destDir) {
+        return new Builder(serverName, destDir);
+    }
+
+
+    /**
+     * Collects the log files below the given directory. A collector runs one collection at a
+     * time.
+     *
+     * @param sourceDir the root directory to scan for log files
+     * @return the counters of the run
+     * @throws IOException if the manifest cannot be read or written, or the archive cannot be
+     *         written
+     */
+    public synchronized Stats collect(Path sourceDir) throws IOException {
+        return run(sourceDir, () -> {
+            ForkJoinPool walkPool = sharedWalkPool != null ? sharedWalkPool : new ForkJoinPool(threads);
+            try {
+                walkPool.invoke(new DirectoryTask(sourceDir));
+            } finally {
+                if (walkPool != sharedWalkPool) {
+                    walkPool.shutdown();
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Collects the given files, e.g. files that have just been rotated, as if they had been
+     * found by a traversal of the source directory. Files that are not collected, or unchanged
+     * since they were collected, are skipped as in a traversal.
+     *
+     * @param sourceDir the root directory of the files, recorded in the evidence sign-off
+     * @param files     the files
+     * @return the counters of the run
+     * @throws IOException if the manifest cannot be read or written, or the archive cannot be
+     *         written
+     */
+    public synchronized Stats collect(Path sourceDir, Collection<Path> files) throws IOException {
+        return run(sourceDir, () -> {
+            for (Path file : files) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    failed(file, e);
+                    continue;
+                }
+                if (!attrs.isDirectory()) {
+                    offer(file, attrs, null);
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Runs a collection: prepares the manifest, the journal or the archive, lets the traversal
+     * offer the files, waits for their copies and saves the manifest.
+     */
+    private Stats run(Path sourceDir, Runnable traversal) throws IOException {
+        long start = System.nanoTime();
+        scanned.reset();
+        copied.reset();
+        skipped.reset();
+        bytes.reset();
+        failed.reset();
+        claimedNames.clear();
+        manifest = archive == null ? CollectionManifest.load(destDir) : null;
+        journal = archive == null ? CollectionJournal.open(destDir, manifest) : null;
+        archiver = archive == null ? null : new LogArchiver(archive, compressArchive, new LogArchiver.Listener() {
+            @Override
+            public void archived(Path file, long size) {
+                bytes.add(size);
+                copied.increment();
+            }
+
+            @Override
+            public void failed(Path file, IOException e) {
+                LogCollector.this.failed(file, e);
+            }
+        }, throttle);
+
+        ThreadPoolExecutor copyPool = null;
+        if (sharedCopyExecutor == null) {
+            copyPool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        copyExecutor = copyPool != null ? copyPool : sharedCopyExecutor;
+        pendingCopies = new Phaser(1);
+        try {
+            traversal.run();
+        } finally {
+            pendingCopies.arriveAndAwaitAdvance();
+            if (copyPool != null) {
+                copyPool.shutdown();
+            }
+        }
+        if (archiver != null) {
+            archiver.finish();
+        } else {
+            try {
+                if (evidence) {
+                    EvidenceManifest.write(destDir, manifest, algorithms, sourceDir,
+                            System.getProperty("user.name") + "@" + serverName);
+                }
+                manifest.save();
+                journal.commit();
+            } finally {
+                journal.close();
+            }
+        }
+
+        if (throttle.isActive()) {
+            logger.info(throttle.summary());
+        }
+        if (redactor != null) {
+            logger.info(redactor.summary());
+        }
+        if (store != null) {
+            logger.info(store.summary());
+        }
+
+        return new Stats(scanned.sum(), copied.sum(), skipped.sum(), bytes.sum(), failed.sum(),
+                System.nanoTime() - start);
+    }
+
+
+    /**
+     * Lists one directory, forks its subdirectories and dispatches the files to collect.
+     */
+    private final class DirectoryTask extends RecursiveAction {
+
+        private final Path dir;
+
+        DirectoryTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subtasks = new ArrayList<>();
+            Semaphore slots = null;
+
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class,
+                                LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        failed(entry, e);
+                        continue;
+                    }
+
+                    if (attrs.isDirectory()) {
+                        DirectoryTask task = new DirectoryTask(entry);
+                        task.fork();
+                        subtasks.add(task);
+                        continue;
+                    }
+
+                    slots = offer(entry, attrs, slots);
+                }
+            } catch (IOException e) {
+                failed(dir, e);
+            }
+
+            for (DirectoryTask task : subtasks) {
+                task.join();
+            }
+        }
+    }
+
+
+    /**
+     * Decides whether a file found by a traversal is collected, and if so dispatches its copy or
+     * queues it for the archive.
+     *
+     * @param entry the file
+     * @param attrs the attributes of the file, not following symbolic links
+     * @param slots the copy slots of the device of the directory of the file, or {@code null} if
+     *              not looked up yet
+     * @return the copy slots of the device, if looked up, or {@code slots}
+     */
+    private Semaphore offer(Path entry, BasicFileAttributes attrs, Semaphore slots) {
+        scanned.increment();
+        String renamed = processor.targetName(entry, attrs);
+        if (renamed == null) {
+            return slots;
+        }
+        Path previous = claimedNames.putIfAbsent(renamed, entry);
+        if (previous != null) {
+            logger.warn("Skipped {}: {} is already collected from {}", entry, renamed,
+                    previous);
+            return slots;
+        }
+        BasicFileAttributes source = attrs;
+        try {
+            if (attrs.isSymbolicLink()) {
+                source = Files.readAttributes(entry, BasicFileAttributes.class);
+            }
+        } catch (IOException e) {
+            failed(entry, e);
+            return slots;
+        }
+        if (archiver != null) {
+            archiver.add(entry, renamed);
+            return slots;
+        }
+        if (incremental && manifest.isUnchanged(renamed, entry, source.size(),
+                source.lastModifiedTime().toMillis(), mode)) {
+            skipped.increment();
+            return slots;
+        }
+        if (slots == null) {
+            slots = deviceSlots.computeIfAbsent(deviceOf(entry.getParent()),
+                    k -> new Semaphore(perDeviceLimit));
+        }
+        Semaphore deviceSlot = slots;
+        BasicFileAttributes sourceAttrs = source;
+        dispatch(() -> copy(entry, sourceAttrs, renamed, deviceSlot));
+        return slots;
+    }
+
+
+    /**
+     * Hands a copy to the copy executor, and counts it until it is done.
+     */
+    private void dispatch(Runnable copy) {
+        pendingCopies.register();
+        try {
+            copyExecutor.execute(() -> {
+                try {
+                    copy.run();
+                } finally {
+                    pendingCopies.arriveAndDeregister();
+                }
+            });
+        } catch (RuntimeException e) {
+            pendingCopies.arriveAndDeregister();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Copies a file to its temporary name while holding a slot of its source device, forces it to
+     * disk, renames it to its final name and records it in the journal and the manifest.
+     */
+    private void copy(Path file, BasicFileAttributes attrs, String renamed, Semaphore deviceSlot) {
+        throttle.acquireFile();
+        try {
+            deviceSlot.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // counted as failed, so that the totals account for every scanned file
+            failed(file, new InterruptedIOException("Interrupted while waiting for the source device"));
+            return;
+        }
+        Path temp = destDir.resolve(CollectionJournal.tempName(renamed));
+        Path tempIndex = TimeIndex.pathOf(temp);
+        try {
+            List<MessageDigest> digests = new ArrayList<>(algorithms.size());
+            for (String algorithm : algorithms) {
+                digests.add(CollectionManifest.newDigest(algorithm));
+            }
+            journal.begin(renamed, file);
+            Files.deleteIfExists(temp);
+            long size = processor.copy(file, temp.getFileName().toString(), digests, throttle);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ)) {
+                channel.force(true);
+            }
+            Files.move(temp, destDir.resolve(renamed), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            if (Files.exists(tempIndex)) {
+                Files.move(tempIndex, TimeIndex.pathOf(destDir.resolve(renamed)),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            String sha256 = digests.isEmpty() ? null : HexFormat.of().formatHex(digests.get(0).digest());
+            Map<String, String> others = new TreeMap<>();
+            for (int i = 1; i < digests.size(); i++) {
+                others.put(algorithms.get(i), HexFormat.of().formatHex(digests.get(i).digest()));
+            }
+            CollectionManifest.Entry entry = new CollectionManifest.Entry(renamed,
+                    file.toAbsolutePath().toString(), attrs.size(), attrs.lastModifiedTime().toMillis(),
+                    sha256, others, mode);
+            journal.done(entry);
+            manifest.record(entry);
+            bytes.add(size);
+            copied.increment();
+        } catch (IOException e) {
+            failed(file, e);
+            try {
+                Files.deleteIfExists(temp);
+                Files.deleteIfExists(tempIndex);
+            } catch (IOException e2) {
+                logger.warn("Failed to delete {}", temp, e2);
+            }
+        } finally {
+            deviceSlot.release();
+        }
+    }
+
+
+    /**
+     * Returns a key identifying the device of a directory: the {@code unix:dev} attribute where
+     * available, which costs a single stat call, and the file store otherwise.
+     */
+    private static Object deviceOf(Path dir) {
+        try {
+            return Files.getAttribute(dir, "unix:dev");
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            try {
+                return Files.getFileStore(dir);
+            } catch (IOException e2) {
+                return dir.getRoot() == null ? "" : dir.getRoot();
+            }
+        }
+    }
+
+
+    private void failed(Path path, IOException e) {
+        failed.increment();
+        logger.error("Failed to collect {}", path, e);
+    }
+
+}
@@ -0,0 +1,192 @@
+package com.github.oogasawa.utility.security.log;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+
+/**
+ * Classifies log file names with a single precompiled regular expression.
+ * <p>
+ * The exclude rules, the include rules and the extraction of the rotation date are combined into
+ * one pattern of the form
+ *
+ * <pre>{@code
+ * (?:(?=.*?(?<date>DATE)))?+(?:(?<exclude>EXCLUDE1|EXCLUDE2...)|(?<include>INCLUDE1|INCLUDE2...))
+ * }</pre>
+ *
+ * which is matched once against the whole file name. Exclude rules take precedence because their
+ * alternative is tried first; the optional lookahead captures the first date in the name on the
+ * way, and is possessive so that a name which is not a target is not matched a second time
+ * without it. The default rules are those that {@link LogFileFilter} and {@link LogFileNameHelper} have
+ * always applied.
+ * <p>
+ * Rules can be loaded from a YAML file:
+ *
+ * <pre>{@code
+ * exclude:
+ *   - '.*(\.log(\.\d+)?|-nigscHP2)(\.gz)?'
+ * include:
+ *   - '.*\.(gz|txt)'
+ *   - '.*\.(sa\d+|sar\d+|dmesg(\.\d+)?(\.gz)?)'
+ * date: '\d{8}'
+ * }</pre>
+ *
+ * Every rule must match the whole file name. {@code date} is optional and defaults to eight
+ * digits. Instances are immutable and thread-safe.
+ */
+public class LogFileClassifier {
+
+    /** The default pattern of a rotation date in a file name. */
+    static final String DEFAULT_DATE = "\\d{8}";
+
+    /** The default exclude rules. */
+    static final List<String> DEFAULT_EXCLUDES = List.of(
+            ".*(\\.log(\\.\\d+)?|-nigscHP2)(\\.gz)?");
+
+    /** The default include rules. */
+    static final List<String> DEFAULT_INCLUDES = List.of(
+            ".*\\.(log|log\\.\\d+|gz|txt)",
+            ".*\\.(sa\\d+|sar\\d+|dmesg(\\.\\d+)?(\\.gz)?)",
+            ".*journal.*\\.log(\\.\\d+)?(\\.gz)?");
+
+    /** The classifier with the default rules. */
+    public static final LogFileClassifier DEFAULT =
+            new LogFileClassifier(DEFAULT_INCLUDES, DEFAULT_EXCLUDES, DEFAULT_DATE);
+
+    /**
+     * The result of classifying a file name.
+     *
+     * @param fileName the classified file name
+     * @param target   whether the file is collected, i.e. matches an include rule and no exclude
+     *                 rule
+     * @param date     the first rotation date in the name, or {@code null}; only extracted for
+     *                 targets
+     */
+    public record Classification(String fileName, boolean target, String date) {
+
+        /**
+         * Returns the name under which the file is collected, or {@code null} if the file is
+         * not a target or has no date in its name.
+         *
+         * @param serverName the server name to append
+         * @return the renamed file name, or {@code null}
+         */
+        public String renamedName(String serverName) {
+            if (!target || date == null) {
+                return null;
+            }
+            return LogFileNameHelper.buildNewFileName(fileName, date, serverName);
+        }
+    }
+
+    private final Pattern pattern;
+
+
+    /**
+     * Constructs a classifier from rules.
+     *
+     * @param includes the regular expressions of collected file names
+     * @param excludes the regular expressions of file names never collected
+     * @param date     the regular expression of a rotation date
+     * @throws PatternSyntaxException if a rule is not a valid regular expression
+     */
+    public LogFileClassifier(List<String> includes, List<String> excludes, String date) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("(?:(?=.*?(?<date>").append(date).append(")))?+(?:");
+        if (!excludes.isEmpty()) {
+            sb.append("(?<exclude>").append(alternation(excludes)).append(")|");
+        }
+        sb.append("(?<include>").append(includes.isEmpty() ? "(?!)" : alternation(includes)).append("))");
+        this.pattern = Pattern.compile(sb.toString());
+    }
+
+
+    /**
+     * Loads a classifier from a YAML file with the lists {@code include} and {@code exclude} and
+     * the optional string {@code date}.
+     *
+     * @param yamlFile the rules file
+     * @return the classifier
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file is not a valid rules file
+     */
+    public static LogFileClassifier load(Path yamlFile) throws IOException {
+        Object doc;
+        try (Reader reader = Files.newBufferedReader(yamlFile, StandardCharsets.UTF_8)) {
+            doc = new Yaml(new SafeConstructor(new LoaderOptions())).load(reader);
+        }
+        if (!(doc instanceof Map<?, ?> map)) {
+            throw new IllegalArgumentException(yamlFile + ": expected a mapping with include and exclude");
+        }
+
+        List<String> includes = stringList(map.get("include"), yamlFile, "include");
+        List<String> excludes = stringList(map.get("exclude"), yamlFile, "exclude");
+        Object date = map.get("date");
+        if (date != null && !(date instanceof String)) {
+            throw new IllegalArgumentException(yamlFile + ": date must be a string");
+        }
+        try {
+            return new LogFileClassifier(includes, excludes, date == null ? DEFAULT_DATE : (String) date);
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException(yamlFile + ": invalid rule: " + e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * Classifies a file name in a single match.
+     *
+     * @param fileName the file name without directory
+     * @return the classification
+     */
+    public Classification classify(String fileName) {
+        Matcher m = pattern.matcher(fileName);
+        if (!m.matches() || m.start("include") < 0) {
+            return new Classification(fileName, false, null);
+        }
+        return new Classification(fileName, true, m.group("date"));
+    }
+
+
+    private static String alternation(List<String> rules) {
+        StringBuilder sb = new StringBuilder();
+        for (String rule : rules) {
+            if (sb.length() > 0) {
+                sb.append('|');
+            }
+            sb.append("(?:").append(rule).append(')');
+        }
+        return sb.toString();
+    }
+
+
+    private static List<String> stringList(Object value, Path file, String key) {
+        List<String> list = new ArrayList<>();
+        if (value == null) {
+            return list;
+        }
+        if (!(value instanceof List<?> items)) {
+            throw new IllegalArgumentException(file + ": " + key + " must be a list");
+        }
+        for (Object item : items) {
+            if (!(item instanceof String s)) {
+                throw new IllegalArgumentException(file + ": " + key + " must be a list of strings");
+            }
+            list.add(s);
+        }
+        return list;
+    }
+
+}
@@ -3,6 +3,8 @@ package com.github.oogasawa.utility.security.log;
 import java.nio.file.attribute.FileTime;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * A utility class for handling log file name transformations, such as
@@ -11,6 +13,9 @@ import java.util.Date;
  */
 class LogFileNameHelper {
 
+    /** Eight digits, assumed to be a date in yyyyMMdd format. */
+    private static final Pattern DATE_PATTERN = Pattern.compile("\\d{8}");
+
     /**
      * Extracts an 8-digit date (yyyyMMdd format) from a log file name if present.
      *
@@ -21,11 +26,8 @@ class LogFileNameHelper {
      * @return the extracted date string (yyyyMMdd), or {@code null} if no date is found
      */
     public static String extractDateFromFileName(String fileName) {
-        String datePattern = ".*?(\\d{8}).*";
-        if (fileName.matches(datePattern)) {
-            return fileName.replaceAll(datePattern, "$1");
-        }
-        return null;
+        Matcher m = DATE_PATTERN.matcher(fileName);
+        return m.find() ? m.group() : null;
     }
 
     /**
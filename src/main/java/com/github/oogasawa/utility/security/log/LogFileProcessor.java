@@ -1,13 +1,22 @@
 package com.github.oogasawa.utility.security.log;
 
+import com.github.oogasawa.utility.security.io.ParallelGzipOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
-import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,15 +39,79 @@ public class LogFileProcessor extends SimpleFileVisitor<Path> {
     /** The destination directory where renamed files are copied. */
     private final Path destDir;
 
+    /** How files are placed into the destination directory. */
+    private final CopyStrategy copyStrategy;
+
+    /** Whether uncompressed files are gzip-compressed while they are copied. */
+    private final boolean compress;
+
+    /** The rules that select the collected files and extract their dates. */
+    private final LogFileClassifier classifier;
+
+    /** Whether a {@link TimeIndex} is written next to every copy. */
+    private final boolean index;
+
+    /** The redactor of the content of the copies, or {@code null}. */
+    private final Redactor redactor;
+
+    /** The store of the content of the copies, or {@code null} to write the copies whole. */
+    private final ChunkStore store;
+
+    /** File name suffixes of already compressed files, which are never compressed again. */
+    private static final List<String> COMPRESSED_SUFFIXES = List.of(".gz", ".xz", ".bz2", ".zst");
+
     /**
-     * Constructs a new LogFileProcessor instance.
+     * Constructs a new LogFileProcessor instance that copies the files selected by the default
+     * rules unchanged.
      *
      * @param serverName the name of the server, used in renamed files
      * @param destDir the destination directory to copy renamed files to
      */
     LogFileProcessor(String serverName, Path destDir) {
+        this(serverName, destDir, CopyStrategy.COPY, false, LogFileClassifier.DEFAULT, false, null, null);
+    }
+
+    /**
+     * Constructs a new LogFileProcessor instance with the given options.
+     *
+     * <p>With compression, a file that is not already compressed is written through a
+     * {@link ParallelGzipOutputStream} and {@code .gz} is appended to its renamed name; the copy
+     * strategy then does not apply to it. Compressed files such as {@code .gz} are placed
+     * unchanged with the copy strategy.</p>
+     *
+     * <p>With indexing, a {@link TimeIndex} is written next to every copy. A file compressed
+     * while it is copied is indexed on the way, with the offsets of its gzip members; any other
+     * file is indexed by reading the copy once more, right after it was written.</p>
+     *
+     * <p>With a redactor, the content of every file is rewritten by it on the way to the copy,
+     * and the copy strategy does not apply. A gzip-compressed file is inflated, redacted and
+     * compressed again, so that its copy is compressed as well; files compressed otherwise,
+     * e.g. {@code .xz}, and binary files cannot be redacted and are not copied.</p>
+     *
+     * <p>With a store, the content of every file is split into chunks stored once in the store,
+     * and a recipe of the chunks is written under the renamed name instead of the file itself;
+     * the copy strategy and compression do not apply, since the chunks are compressed by the
+     * store, and the copies cannot be indexed.</p>
+     *
+     * @param serverName the name of the server, used in renamed files
+     * @param destDir the destination directory to copy renamed files to
+     * @param copyStrategy how files are placed into the destination directory
+     * @param compress whether uncompressed files are gzip-compressed
+     * @param classifier the rules that select the collected files
+     * @param index whether the copies are indexed by time
+     * @param redactor the redactor of the content, or {@code null} to copy the content unchanged
+     * @param store the store of the content, or {@code null} to write the copies whole
+     */
+    LogFileProcessor(String serverName, Path destDir, CopyStrategy copyStrategy, boolean compress,
+            LogFileClassifier classifier, boolean index, Redactor redactor, ChunkStore store) {
         this.serverName = serverName;
         this.destDir = destDir;
+        this.copyStrategy = copyStrategy;
+        this.compress = compress;
+        this.classifier = classifier;
+        this.index = index;
+        this.redactor = redactor;
+        this.store = store;
     }
 
     /**
@@ -54,23 +127,236 @@ public class LogFileProcessor extends SimpleFileVisitor<Path> {
      */
     @Override
     public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-        if (!Files.isRegularFile(file))
-            return FileVisitResult.CONTINUE;
+        String renamedFile = targetName(file, attrs);
+        if (renamedFile != null) {
+            copy(file, renamedFile);
+        }
+
+        return FileVisitResult.CONTINUE;
+    }
+
+
+    /**
+     * Returns the name under which a file is collected, or {@code null} if the file is not
+     * collected.
+     *
+     * @param file the path to the file being visited
+     * @param attrs file attributes including last modified time
+     * @return the renamed file name, or {@code null}
+     */
+    String targetName(Path file, BasicFileAttributes attrs) {
+        // The attributes describe a symbolic link itself; only then is the target looked up.
+        if (!attrs.isRegularFile() && !(attrs.isSymbolicLink() && Files.isRegularFile(file)))
+            return null;
 
         String fileName = file.getFileName().toString();
-        String renamedFile = getRenamedFileIfTarget(fileName, attrs.lastModifiedTime(), serverName);
+        String renamed = renamedName(classifier.classify(fileName), serverName);
+        if (renamed != null && compresses(fileName)) {
+            renamed += ".gz";
+        }
+        return renamed;
+    }
 
-        
-        if (renamedFile != null) {
-            Path destFile = destDir.resolve(renamedFile);
-            Files.copy(file, destFile, StandardCopyOption.REPLACE_EXISTING);
-            logger.info("Copied: {} → {}", file, destFile);
+
+    /**
+     * Checks whether a file is compressed while it is copied.
+     *
+     * @param fileName the original file name
+     * @return {@code true} if compression is enabled, the file is not compressed yet and the
+     *         content is not written into a store
+     */
+    boolean compresses(String fileName) {
+        if (!compress || store != null) {
+            return false;
+        }
+        for (String suffix : COMPRESSED_SUFFIXES) {
+            if (fileName.endsWith(suffix)) {
+                return false;
+            }
         }
+        return true;
+    }
 
-        return FileVisitResult.CONTINUE;
+
+    /**
+     * Copies a file into the destination directory under the given name.
+     *
+     * @param file the file to copy
+     * @param renamedFile the name of the copy in the destination directory
+     * @return the number of bytes copied
+     * @throws IOException if an I/O error occurs while copying the file
+     */
+    long copy(Path file, String renamedFile) throws IOException {
+        return copy(file, renamedFile, List.of());
+    }
+
+
+    /**
+     * Copies a file into the destination directory under the given name, feeding its content to
+     * the given digests on the way.
+     *
+     * @param file the file to copy
+     * @param renamedFile the name of the copy in the destination directory
+     * @param digests the digests to update with the content of the file as it is written to the
+     *        destination, i.e. after compression
+     * @return the number of bytes read from the file
+     * @throws IOException if an I/O error occurs while copying the file
+     */
+    long copy(Path file, String renamedFile, List<MessageDigest> digests) throws IOException {
+        return copy(file, renamedFile, digests, IoThrottle.UNLIMITED);
+    }
+
+
+    /**
+     * Copies a file into the destination directory under the given name, feeding its content to
+     * the given digests on the way and reading it at the rate the throttle allows.
+     *
+     * @param file the file to copy
+     * @param renamedFile the name of the copy in the destination directory
+     * @param digests the digests to update with the content of the file as it is written to the
+     *        destination, i.e. after compression
+     * @param throttle the throttle of the reads from the file
+     * @return the number of bytes read from the file
+     * @throws IOException if an I/O error occurs while copying the file
+     */
+    long copy(Path file, String renamedFile, List<MessageDigest> digests, IoThrottle throttle)
+            throws IOException {
+        Path destFile = destDir.resolve(renamedFile);
+        long size;
+        if (store != null || redactor != null || compresses(file.getFileName().toString())) {
+            size = rewrite(file, destFile, digests, throttle);
+        } else {
+            size = copyStrategy.copy(file, destFile, digests, throttle);
+            if (index) {
+                try {
+                    TimeIndex.build(destFile, ZoneId.systemDefault()).save(destFile);
+                } catch (IOException e) {
+                    logger.warn("Failed to index {}: {}", destFile, e.toString());
+                }
+            }
+        }
+        logger.info("Copied: {} → {}", file, destFile);
+        return size;
     }
  
 
+    /**
+     * Writes a copy of a file through a stream: gzip-compressed if the file is compressed while
+     * it is copied, or if it is redacted and was compressed; redacted if enabled; indexed on the
+     * way if enabled; into the store, with its recipe as the copy, if there is one. If the copy
+     * fails, the partial copy is deleted.
+     */
+    private long rewrite(Path file, Path destFile, List<MessageDigest> digests,
+            IoThrottle throttle) throws IOException {
+        String fileName = file.getFileName().toString();
+        boolean gzip = compresses(fileName);
+        if (redactor != null && !fileName.endsWith(".gz")) {
+            for (String suffix : COMPRESSED_SUFFIXES) {
+                if (fileName.endsWith(suffix)) {
+                    throw new IOException("Cannot redact a compressed file other than gzip: " + file);
+                }
+            }
+        }
+        long size = 0;
+        TimeIndexer indexer = null;
+        boolean created = false;
+        boolean complete = false;
+        try (InputStream source = new BufferedInputStream(throttle.wrap(Files.newInputStream(file)), 1 << 16);
+                OutputStream target = Files.newOutputStream(destFile)) {
+            created = true;
+            OutputStream sink = target;
+            for (MessageDigest digest : digests) {
+                sink = new DigestOutputStream(sink, digest);
+            }
+            if (store != null) {
+                sink = store.writer(sink);
+            }
+            InputStream in = source;
+            if (redactor != null && LogInputs.isGzip(source)) {
+                in = new GZIPInputStream(source, 1 << 16);
+                gzip = true;
+            }
+            if (index) {
+                indexer = new TimeIndexer(LogInputs.referenceDate(destFile, ZoneId.systemDefault()),
+                        ZoneId.systemDefault(), TimeIndex.DEFAULT_INTERVAL);
+            }
+            OutputStream out;
+            if (gzip) {
+                ParallelGzipOutputStream gz = new ParallelGzipOutputStream(new BufferedOutputStream(sink, 1 << 16));
+                gz.setMemberListener(indexer);
+                out = gz;
+            } else {
+                out = new BufferedOutputStream(sink, 1 << 16);
+            }
+            if (indexer != null) {
+                out = new Tee(indexer, out);
+            }
+            if (redactor != null) {
+                out = redactor.wrap(out);
+            }
+            try (OutputStream o = out) {
+                if (indexer == null && redactor == null) {
+                    size = in.transferTo(o);
+                } else {
+                    byte[] buffer = new byte[1 << 16];
+                    int n;
+                    while ((n = in.read(buffer)) >= 0) {
+                        o.write(buffer, 0, n);
+                        size += n;
+                    }
+                }
+            }
+            complete = true;
+        } finally {
+            // a partial copy is not left behind
+            if (created && !complete) {
+                Files.deleteIfExists(destFile);
+            }
+        }
+        if (indexer != null) {
+            try {
+                indexer.finish(Files.size(destFile), gzip).save(destFile);
+            } catch (IOException e) {
+                logger.warn("Failed to index {}: {}", destFile, e.toString());
+            }
+        }
+        return size;
+    }
+
+
+    /**
+     * Writes to a {@link TimeIndexer} and on to a stream.
+     */
+    private static final class Tee extends OutputStream {
+
+        private final TimeIndexer indexer;
+
+        private final OutputStream out;
+
+        Tee(TimeIndexer indexer, OutputStream out) {
+            this.indexer = indexer;
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            indexer.write(b);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            indexer.write(b, off, len);
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+
     /**
      * Determines whether a given log file should be renamed and returns the new name if applicable.
      *
@@ -87,18 +373,20 @@ public class LogFileProcessor extends SimpleFileVisitor<Path> {
      */
     public static String getRenamedFileIfTarget(String originalFileName, FileTime modifiedTime,
             String serverName) {
-        if (!LogFileFilter.isTarget(originalFileName))
-            return null;
+        return renamedName(LogFileClassifier.DEFAULT.classify(originalFileName), serverName);
+    }
 
-        String datePart = LogFileNameHelper.extractDateFromFileName(originalFileName);
 
-        // Skip files without a date in the name (e.g., "auth.log")
-        if (datePart == null)
-            return null;
-
-        String renamedFileName =
-                LogFileNameHelper.buildNewFileName(originalFileName, datePart, serverName);
-        logger.info(String.format("Rename from %s to %s", originalFileName, renamedFileName));
+    /**
+     * Returns the renamed name of a classified file, or {@code null} if the file is not a target
+     * or has no date in its name (e.g., "auth.log").
+     */
+    private static String renamedName(LogFileClassifier.Classification classification,
+            String serverName) {
+        String renamedFileName = classification.renamedName(serverName);
+        if (renamedFileName != null) {
+            logger.info(String.format("Rename from %s to %s", classification.fileName(), renamedFileName));
+        }
         return renamedFileName;
     }
 
@@ -0,0 +1,176 @@
+package com.github.oogasawa.utility.security.log;
+
+import com.github.oogasawa.utility.security.io.ReadAheadInputStream;
+import com.github.oogasawa.utility.security.usn.DigestInputs;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+
+/**
+ * Helpers for locating and opening collected log files, as written by {@code log:rename} and
+ * the other collection commands.
+ */
+public class LogInputs {
+
+    /** The date in the name of a rotated or collected file. */
+    private static final Pattern FILE_DATE = Pattern.compile("(?<!\\d)(20\\d{6})(?!\\d)");
+
+    /** The date of a collected file name and the host name appended after it. */
+    private static final Pattern HOST = Pattern.compile("(?<!\\d)\\d{8}(?!\\d)[^_]*_(.+)$");
+
+    /**
+     * Expands input specifications into the log files to read: a directory stands for the
+     * regular files below it whose names are accepted by {@code names}, sorted by path, leaving
+     * out hidden files such as partial copies and {@link TimeIndex time indexes}, and the files in
+     * hidden directories such as the packs of a {@link ChunkStore}; any other
+     * specification is resolved by {@link DigestInputs#resolve(List)}, so that it may be a glob
+     * pattern.
+     *
+     * @param specs the paths, directories or glob patterns given on the command line
+     * @param names accepts the file names to read from directories
+     * @return the files
+     * @throws IOException if a directory cannot be searched
+     */
+    public static List<Path> resolve(List<String> specs, Predicate<String> names) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String spec : specs) {
+            Path path = Path.of(spec);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> paths = Files.walk(path)) {
+                    paths.filter(Files::isRegularFile)
+                            .filter(p -> !isHidden(path.relativize(p)))
+                            .filter(p -> names.test(p.getFileName().toString()))
+                            .sorted()
+                            .forEach(files::add);
+                }
+            } else {
+                files.addAll(DigestInputs.resolve(List.of(spec)));
+            }
+        }
+        return files;
+    }
+
+
+    private static boolean isHidden(Path relative) {
+        for (Path name : relative) {
+            if (name.toString().startsWith(".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Opens a log file, inflating it on a background thread if it starts with the gzip magic
+     * number. The name is not relied on, because collected files carry the host name after
+     * {@code .gz}. A recipe of a {@link ChunkStore} is read as the file it stands for.
+     *
+     * @param file the file
+     * @return a buffered stream of the (decompressed) content
+     * @throws IOException if the file cannot be opened
+     */
+    public static InputStream open(Path file) throws IOException {
+        InputStream in = openStored(file, 1 << 16);
+        if (isGzip(in)) {
+            return new ReadAheadInputStream(new GZIPInputStream(in, 1 << 16), "inflate-" + file.getFileName());
+        }
+        return in;
+    }
+
+
+    /**
+     * Opens a collected file as it was stored before compression, if any: the file itself, or
+     * the content restored from it if it is a recipe of a {@link ChunkStore}.
+     *
+     * @param file       the file
+     * @param bufferSize the size of the buffer of the stream
+     * @return a buffered stream that supports {@link InputStream#mark(int)}
+     * @throws IOException if the file cannot be opened, or it is a recipe and its store cannot be
+     *                     found
+     */
+    public static InputStream openStored(Path file, int bufferSize) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file), bufferSize);
+        try {
+            if (ChunkStore.isRecipe(in)) {
+                in.close();
+                in = new BufferedInputStream(ChunkStore.restore(file), bufferSize);
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+
+
+    /**
+     * Checks whether a stream starts with the gzip magic number, without consuming it.
+     *
+     * @param in a stream that supports {@link InputStream#mark(int)}
+     * @return {@code true} if the stream is gzip-compressed
+     * @throws IOException if the stream cannot be read
+     */
+    public static boolean isGzip(InputStream in) throws IOException {
+        in.mark(2);
+        int b1 = in.read();
+        int b2 = in.read();
+        in.reset();
+        return b1 == 0x1f && b2 == 0x8b;
+    }
+
+
+    /**
+     * Returns the date that determines the year of traditional syslog timestamps in a file: the
+     * date in the file name, e.g. {@code auth.log-20250622.gz}, or else the modification date of
+     * the file.
+     *
+     * @param file the file
+     * @param zone the time zone of the modification date
+     * @return the date
+     */
+    public static LocalDate referenceDate(Path file, ZoneId zone) {
+        Matcher m = FILE_DATE.matcher(file.getFileName().toString());
+        if (m.find()) {
+            try {
+                return LocalDate.parse(m.group(1), DateTimeFormatter.BASIC_ISO_DATE);
+            } catch (DateTimeParseException e) {
+                // not a date after all
+            }
+        }
+        try {
+            return LocalDate.ofInstant(Files.getLastModifiedTime(file).toInstant(), zone);
+        } catch (IOException e) {
+            return LocalDate.now(zone);
+        }
+    }
+
+
+    /**
+     * Returns the host name of a collected file: the part of the name after the date and the
+     * following underscore, e.g. {@code web01} for {@code access.log-20250622.gz_web01} or
+     * {@code access.log_20250622_web01}.
+     *
+     * @param file the file
+     * @return the host name, or {@code null} if the name is not that of a collected file
+     */
+    public static String hostOf(Path file) {
+        Matcher m = HOST.matcher(file.getFileName().toString());
+        return m.find() ? m.group(1) : null;
+    }
+
+}
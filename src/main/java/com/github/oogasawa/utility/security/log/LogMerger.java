@@ -0,0 +1,714 @@
+package com.github.oogasawa.utility.security.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Merges collected log files of many hosts and rotations into one timeline.
+ * <p>
+ * Each file is assumed to be in time order, as syslog files are, and the files are merged with a
+ * heap of their current records keyed by time and by the position of the file in the input
+ * list, so that records of the same time keep the order of the inputs. The timestamps are
+ * converted by {@link SyslogTimestamps}, so files with traditional and ISO 8601 timestamps, e.g.
+ * {@code auth.log} next to a {@code journalctl -o short-iso-precise} export, interleave
+ * correctly. A line without a timestamp, such as the continuation of a multi-line message,
+ * stays with the line before it.
+ * <p>
+ * Only a buffer per input is held in memory. When there are more inputs than may be open at
+ * once, limited by {@link #setMaxOpenFiles(int)} and by {@link #setMemoryBudget(long)} divided by
+ * the memory of an open input, the inputs are merged in groups into sorted runs in a temporary
+ * directory, and the runs are merged in turn, so thousands of inputs take a few passes instead
+ * of thousands of file handles. Should the operating system still refuse to open a file for
+ * lack of handles, the group size is halved and the group merged again.
+ * <p>
+ * With {@link #setRange(long, long)}, only the records of a time window are merged. A file with
+ * a {@link TimeIndex}, as written by the collector, is then read only from the index entry
+ * before the window to the one after it, and not at all if the window misses it; a file without
+ * an index is read whole and filtered.
+ */
+public class LogMerger {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogMerger.class);
+
+    private static final int BUFFER = 1 << 16;
+
+    /** The estimated memory of an open input: the read and line buffers and the inflater. */
+    private static final long INPUT_MEMORY = 4L * BUFFER;
+
+    private static final DateTimeFormatter OFFSET = DateTimeFormatter.ofPattern("xxx");
+
+    /** The prefixes of the names of the files merged from a directory. */
+    private static final List<String> NAMES = List.of("auth.log", "syslog", "kern.log", "messages", "secure",
+            "daemon.log", "journal");
+
+    /**
+     * The outcome of a merge.
+     *
+     * @param inputs       the number of input files
+     * @param lines        the number of lines read from the inputs
+     * @param bytes        the number of (uncompressed) bytes read from the inputs
+     * @param records      the number of records written, lines with their continuation lines
+     * @param passes       the number of passes that spilled runs to disk
+     * @param runs         the number of runs spilled
+     * @param elapsedNanos the wall-clock time of the merge
+     */
+    public record Stats(int inputs, long lines, long bytes, long records, int passes, int runs, long elapsedNanos) {
+    }
+
+    private ZoneId zone = ZoneId.systemDefault();
+
+    private int maxOpenFiles = 256;
+
+    private long memoryBudget = 256L << 20;
+
+    private Path tempDir = null;
+
+    private boolean normalize = false;
+
+    private boolean label = false;
+
+    private long from = SyslogTimestamps.NONE;
+
+    private long to = Long.MAX_VALUE;
+
+    // statistics of the merge in progress
+    private long lines;
+    private long bytes;
+
+
+    /**
+     * Sets the time zone of timestamps without an offset, and of normalized timestamps.
+     *
+     * @param zone the time zone
+     */
+    public void setZone(ZoneId zone) {
+        this.zone = zone;
+    }
+
+
+    /**
+     * Sets the maximum number of inputs open at once.
+     *
+     * @param maxOpenFiles the number of files, at least 2
+     */
+    public void setMaxOpenFiles(int maxOpenFiles) {
+        this.maxOpenFiles = Math.max(2, maxOpenFiles);
+    }
+
+
+    /**
+     * Sets the memory that the buffers of the open inputs may take.
+     *
+     * @param memoryBudget the budget in bytes
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+
+    /**
+     * Sets the directory in which runs are spilled.
+     *
+     * @param tempDir the directory, or {@code null} for the default temporary directory
+     */
+    public void setTempDir(Path tempDir) {
+        this.tempDir = tempDir;
+    }
+
+
+    /**
+     * Sets whether timestamps are rewritten as ISO 8601 with microseconds and an offset, e.g.
+     * {@code 2025-06-22T06:25:01.000000+09:00}, so that the timeline has a single format.
+     *
+     * @param normalize {@code true} to rewrite timestamps
+     */
+    public void setNormalize(boolean normalize) {
+        this.normalize = normalize;
+    }
+
+
+    /**
+     * Sets whether each record is prefixed with the host of its file, or the file name if the
+     * name has no host, which tells apart the sources of messages that do not name their host.
+     *
+     * @param label {@code true} to prefix records
+     */
+    public void setLabel(boolean label) {
+        this.label = label;
+    }
+
+
+    /**
+     * Restricts the merge to the records of a time window. Lines before the first timestamp of
+     * a file are then left out.
+     *
+     * @param from the start of the window, inclusive, in microseconds since the epoch
+     * @param to   the end of the window, exclusive
+     */
+    public void setRange(long from, long to) {
+        this.from = from;
+        this.to = to;
+    }
+
+
+    /**
+     * Expands input specifications into the files to merge: a directory stands for the files
+     * below it whose names start with {@code auth.log}, {@code syslog}, {@code kern.log},
+     * {@code messages}, {@code secure}, {@code daemon.log} or {@code journal}; any other
+     * specification is resolved by {@link LogInputs#resolve}.
+     *
+     * @param specs the paths, directories or glob patterns given on the command line
+     * @return the files
+     * @throws IOException if a directory cannot be searched
+     */
+    public static List<Path> resolve(List<String> specs) throws IOException {
+        return LogInputs.resolve(specs, name -> NAMES.stream().anyMatch(name::startsWith));
+    }
+
+
+    /**
+     * Merges files into a stream, one record per line.
+     *
+     * @param files the files, plain or gzip-compressed, each in time order
+     * @param out   the stream to write to; not closed
+     * @return the statistics of the merge
+     * @throws IOException if a file cannot be read or the output cannot be written
+     */
+    public Stats merge(List<Path> files, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        lines = 0;
+        bytes = 0;
+        List<Input> inputs = new ArrayList<>();
+        for (Path file : files) {
+            inputs.add(new Input(file, false));
+        }
+
+        int fanIn = (int) Math.max(2, Math.min(maxOpenFiles, memoryBudget / INPUT_MEMORY));
+        int passes = 0;
+        int runs = 0;
+        long records;
+        Path spillDir = null;
+        try {
+            while (true) {
+                if (inputs.size() <= fanIn) {
+                    try {
+                        records = mergeGroup(inputs, new TextSink(out));
+                        break;
+                    } catch (TooManyOpenFiles e) {
+                        fanIn = reduce(fanIn, e);
+                        continue;
+                    }
+                }
+
+                if (spillDir == null) {
+                    spillDir = tempDir == null ? Files.createTempDirectory("log-merge")
+                            : Files.createTempDirectory(tempDir, "log-merge");
+                }
+                List<Input> next = new ArrayList<>();
+                int i = 0;
+                while (i < inputs.size()) {
+                    List<Input> group = inputs.subList(i, Math.min(i + fanIn, inputs.size()));
+                    Path run = spillDir.resolve("run-" + passes + "-" + next.size());
+                    try (DataOutputStream o = new DataOutputStream(
+                            new BufferedOutputStream(Files.newOutputStream(run), BUFFER))) {
+                        mergeGroup(group, new RunSink(o));
+                    } catch (TooManyOpenFiles e) {
+                        Files.deleteIfExists(run);
+                        fanIn = reduce(fanIn, e);
+                        continue;
+                    }
+                    for (Input input : group) {
+                        if (input.run()) {
+                            Files.delete(input.path());
+                        }
+                    }
+                    next.add(new Input(run, true));
+                    i += group.size();
+                    runs++;
+                }
+                logger.info("Spilled {} inputs into {} runs", inputs.size(), next.size());
+                inputs = next;
+                passes++;
+            }
+        } finally {
+            if (spillDir != null) {
+                delete(spillDir);
+            }
+        }
+        out.flush();
+        return new Stats(files.size(), lines, bytes, records, passes, runs, System.nanoTime() - start);
+    }
+
+
+    /**
+     * Returns the group size to retry with after the operating system refused to open a file.
+     */
+    private static int reduce(int fanIn, TooManyOpenFiles e) throws IOException {
+        if (fanIn == 2) {
+            throw new IOException("Cannot open even two files at once", e.getCause());
+        }
+        int reduced = Math.max(2, Math.min(fanIn, e.opened) / 2);
+        logger.warn("Too many open files after {} inputs; merging {} at a time", e.opened, reduced);
+        return reduced;
+    }
+
+
+    /**
+     * Merges a group of inputs, all opened at once, into a sink.
+     *
+     * @return the number of records written
+     */
+    private long mergeGroup(List<Input> group, Sink sink) throws IOException {
+        Source[] heap = new Source[group.size()];
+        int size = 0;
+        try {
+            for (int i = 0; i < group.size(); i++) {
+                Input input = group.get(i);
+                Source source;
+                try {
+                    source = input.run() ? new RunSource(input.path(), i) : new LogSource(input.path(), i);
+                } catch (FileSystemException e) {
+                    if (e.getReason() != null && e.getReason().contains("Too many open files")) {
+                        throw new TooManyOpenFiles(size, e);
+                    }
+                    throw e;
+                }
+                heap[size++] = source;
+                if (!source.advance()) {
+                    source.close();
+                    heap[--size] = null;
+                }
+            }
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(heap, size, i);
+            }
+
+            long records = 0;
+            while (size > 0) {
+                Source top = heap[0];
+                sink.write(top.time, top.record.bytes, top.record.length);
+                records++;
+                if (!top.advance()) {
+                    top.close();
+                    heap[0] = heap[--size];
+                    heap[size] = null;
+                }
+                siftDown(heap, size, 0);
+            }
+            return records;
+        } finally {
+            for (int i = 0; i < size; i++) {
+                heap[i].close();
+            }
+        }
+    }
+
+
+    private boolean ranged() {
+        return from != SyslogTimestamps.NONE || to != Long.MAX_VALUE;
+    }
+
+
+    private static void siftDown(Source[] heap, int size, int i) {
+        Source s = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].before(heap[child])) {
+                child++;
+            }
+            if (!heap[child].before(s)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = s;
+    }
+
+
+    private static void delete(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            logger.warn("Cannot delete {}: {}", dir, e.getMessage());
+        }
+    }
+
+
+    /**
+     * An input of a merge: a log file or a spilled run.
+     */
+    private record Input(Path path, boolean run) {
+    }
+
+
+    /**
+     * Signals that a group could not be opened for lack of file handles.
+     */
+    private static final class TooManyOpenFiles extends IOException {
+
+        private final int opened;
+
+        TooManyOpenFiles(int opened, FileSystemException cause) {
+            super(cause);
+            this.opened = opened;
+        }
+    }
+
+
+    /**
+     * A growable byte array.
+     */
+    private static final class Bytes {
+
+        private byte[] bytes = new byte[256];
+
+        private int length = 0;
+
+        void append(byte[] b, int start, int end) {
+            ensure(end - start);
+            System.arraycopy(b, start, bytes, length, end - start);
+            length += end - start;
+        }
+
+        void append(byte b) {
+            ensure(1);
+            bytes[length++] = b;
+        }
+
+        private void ensure(int n) {
+            if (length + n > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + n));
+            }
+        }
+    }
+
+
+    /**
+     * The current record of an input.
+     */
+    private abstract static class Source {
+
+        /** The position of the input in its group, which breaks ties. */
+        private final int order;
+
+        long time;
+
+        Bytes record = new Bytes();
+
+        Source(int order) {
+            this.order = order;
+        }
+
+        /**
+         * Moves to the next record.
+         *
+         * @return {@code false} at the end of the input
+         */
+        abstract boolean advance() throws IOException;
+
+        abstract void close() throws IOException;
+
+        boolean before(Source other) {
+            return time < other.time || (time == other.time && order < other.order);
+        }
+    }
+
+
+    /**
+     * Reads the records of a log file: a line with a timestamp and the lines without one that
+     * follow it.
+     */
+    private final class LogSource extends Source {
+
+        private final InputStream in;
+
+        private final SyslogTimestamps timestamps;
+
+        private final byte[] prefix;
+
+        private byte[] buffer = new byte[BUFFER];
+        private int position = 0;
+        private int limit = 0;
+        private int scanned = 0;
+        private boolean eof = false;
+        /** The number of bytes left to read before the end of the window. */
+        private long remaining = Long.MAX_VALUE;
+        private int lineStart;
+        private int lineEnd;
+
+        /** The next record, already read to find the end of the current one. */
+        private Bytes pending = new Bytes();
+        private long pendingTime;
+        private boolean hasPending = false;
+        private boolean started = false;
+
+        // the last second normalized, as most records repeat it
+        private long cachedSecond = Long.MIN_VALUE;
+        private byte[] cachedDateTime;
+        private byte[] cachedOffset;
+
+        LogSource(Path file, int order) throws IOException {
+            super(order);
+            TimeIndex index = ranged() ? TimeIndex.load(file) : null;
+            ZoneId fileZone = zone;
+            if (index != null) {
+                // read in the zone of the index, or the times would not agree with it
+                fileZone = index.zone();
+                TimeIndex.Entry entry = index.seek(from);
+                long end = index.end(to);
+                if (!index.overlaps(from, to) || end <= entry.position()) {
+                    this.in = InputStream.nullInputStream();
+                } else {
+                    this.in = index.open(file, entry);
+                    this.remaining = end == Long.MAX_VALUE ? Long.MAX_VALUE : end - entry.position();
+                }
+            } else {
+                InputStream raw = LogInputs.openStored(file, BUFFER);
+                try {
+                    this.in = LogInputs.isGzip(raw) ? new GZIPInputStream(raw, BUFFER) : raw;
+                } catch (IOException e) {
+                    raw.close();
+                    throw e;
+                }
+            }
+            this.timestamps = new SyslogTimestamps(LogInputs.referenceDate(file, fileZone), fileZone);
+            String host = LogInputs.hostOf(file);
+            this.prefix = label ? ((host != null ? host : file.getFileName().toString()) + " ")
+                    .getBytes(StandardCharsets.UTF_8) : null;
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            while (next()) {
+                if (time >= from && time < to) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Moves to the next record, whether in the window or not.
+         */
+        private boolean next() throws IOException {
+            if (!started) {
+                started = true;
+                if (!nextLine()) {
+                    return false;
+                }
+                long t = timestamps.parse(buffer, lineStart, lineEnd);
+                // leading lines without a timestamp go first
+                pendingTime = t;
+                format(pending, t);
+                hasPending = true;
+            }
+            if (!hasPending) {
+                return false;
+            }
+            Bytes current = pending;
+            pending = record;
+            record = current;
+            time = pendingTime;
+            hasPending = false;
+
+            while (nextLine()) {
+                long t = timestamps.parse(buffer, lineStart, lineEnd);
+                if (t == SyslogTimestamps.NONE) {
+                    record.append((byte) '\n');
+                    record.append(buffer, lineStart, lineEnd);
+                } else {
+                    format(pending, t);
+                    pendingTime = t;
+                    hasPending = true;
+                    break;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Writes the current line into a record, normalizing and labeling it as configured.
+         */
+        private void format(Bytes target, long t) {
+            target.length = 0;
+            if (prefix != null) {
+                target.append(prefix, 0, prefix.length);
+            }
+            if (normalize && t != SyslogTimestamps.NONE) {
+                appendTimestamp(target, t);
+                target.append(buffer, timestamps.end(), lineEnd);
+            } else {
+                target.append(buffer, lineStart, lineEnd);
+            }
+        }
+
+        private void appendTimestamp(Bytes target, long micros) {
+            long second = Math.floorDiv(micros, 1_000_000L);
+            if (second != cachedSecond) {
+                cachedSecond = second;
+                var time = Instant.ofEpochSecond(second).atZone(zone);
+                cachedDateTime = DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(time.toLocalDateTime().withNano(0))
+                        .getBytes(StandardCharsets.US_ASCII);
+                cachedOffset = OFFSET.format(time).getBytes(StandardCharsets.US_ASCII);
+            }
+            target.append(cachedDateTime, 0, cachedDateTime.length);
+            target.append((byte) '.');
+            int fraction = (int) Math.floorMod(micros, 1_000_000L);
+            for (int divisor = 100_000; divisor > 0; divisor /= 10) {
+                target.append((byte) ('0' + fraction / divisor % 10));
+            }
+            target.append(cachedOffset, 0, cachedOffset.length);
+        }
+
+        /**
+         * Reads the next line into {@link #lineStart} and {@link #lineEnd}, without the line
+         * terminator.
+         */
+        private boolean nextLine() throws IOException {
+            while (true) {
+                for (int i = scanned; i < limit; i++) {
+                    if (buffer[i] == '\n') {
+                        lineStart = position;
+                        lineEnd = i > position && buffer[i - 1] == '\r' ? i - 1 : i;
+                        position = i + 1;
+                        scanned = position;
+                        lines++;
+                        return true;
+                    }
+                }
+                scanned = limit;
+                if (eof) {
+                    if (position < limit) {
+                        lineStart = position;
+                        lineEnd = limit;
+                        position = limit;
+                        lines++;
+                        return true;
+                    }
+                    return false;
+                }
+                if (position > 0) {
+                    System.arraycopy(buffer, position, buffer, 0, limit - position);
+                    limit -= position;
+                    scanned -= position;
+                    position = 0;
+                }
+                if (limit == buffer.length) {
+                    // a line longer than the buffer
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                int n = remaining == 0 ? -1
+                        : in.read(buffer, limit, (int) Math.min(buffer.length - limit, remaining));
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    limit += n;
+                    bytes += n;
+                    remaining -= n;
+                }
+            }
+        }
+
+        @Override
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Reads the records of a spilled run.
+     */
+    private static final class RunSource extends Source {
+
+        private final DataInputStream in;
+
+        RunSource(Path run, int order) throws IOException {
+            super(order);
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), BUFFER));
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            try {
+                time = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            int length = in.readInt();
+            record.length = 0;
+            record.ensure(length);
+            in.readFully(record.bytes, 0, length);
+            record.length = length;
+            return true;
+        }
+
+        @Override
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Receives the merged records.
+     */
+    private interface Sink {
+
+        void write(long time, byte[] b, int length) throws IOException;
+    }
+
+
+    /**
+     * Writes records as lines of text.
+     */
+    private record TextSink(OutputStream out) implements Sink {
+
+        @Override
+        public void write(long time, byte[] b, int length) throws IOException {
+            out.write(b, 0, length);
+            out.write('\n');
+        }
+    }
+
+
+    /**
+     * Writes records with their times, to be merged again.
+     */
+    private record RunSink(DataOutputStream out) implements Sink {
+
+        @Override
+        public void write(long time, byte[] b, int length) throws IOException {
+            out.writeLong(time);
+            out.writeInt(length);
+            out.write(b, 0, length);
+        }
+    }
+
+}
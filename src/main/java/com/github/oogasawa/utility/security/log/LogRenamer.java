@@ -1,10 +1,12 @@
 package com.github.oogasawa.utility.security.log;
 
 import java.io.IOException;
+import java.io.PrintStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,21 +26,67 @@ public class LogRenamer {
      * and processes log files that match known patterns. Each matched log file will be copied
      * to the destination directory with a modified file name that includes the server name and date.</p>
      *
+     * <p>The files are collected by a {@link LogCollector} with one thread per available
+     * processor and the default per-device limit.</p>
+     *
      * @param serverName The server name to append to renamed log files
      * @param sourceDir  The root directory to scan for log files
      * @param destDir    The destination directory to write renamed files
      */
     public void rename(String serverName, Path sourceDir, Path destDir) {
+        rename(sourceDir, LogCollector.builder(serverName, destDir));
+    }
+
+
+    /**
+     * Starts the log renaming process with a configured collector, and prints the number of
+     * collected files and the throughput when done, to stderr if the files are archived to
+     * stdout.
+     *
+     * @param sourceDir The root directory to scan for log files
+     * @param collector The configuration of the collection, including the destination directory
+     */
+    public void rename(Path sourceDir, LogCollector.Builder collector) {
         try {
             if (!Files.isDirectory(sourceDir)) {
                 System.err.println("Source directory does not exist: " + sourceDir);
                 System.exit(2);
             }
 
-            Files.createDirectories(destDir);
+            if (collector.destDir() != null) {
+                Files.createDirectories(collector.destDir());
+            }
 
-            LogFileProcessor processor = new LogFileProcessor(serverName, destDir);
-            Files.walkFileTree(sourceDir, processor);
+            LogCollector.Stats stats = collector.build().collect(sourceDir);
+            // an archive streamed to stdout must not be followed by the summary
+            PrintStream report = collector.archive() == System.out ? System.err : System.out;
+            report.println(stats.summary());
+
+        } catch (IOException e) {
+            logger.error("IOException occurred during log file processing.", e);
+        }
+    }
+
+    /**
+     * Collects the log files of many hosts concurrently with a {@link FleetCollector}, into one
+     * subdirectory of the destination directory per host, and prints the summary of each host
+     * and of the whole fleet when done.
+     *
+     * @param hosts     the source directories by host name
+     * @param collector The configuration of the collection; its destination directory receives
+     *                  the host directories
+     */
+    public void renameFleet(Map<String, Path> hosts, LogCollector.Builder collector) {
+        if (hosts.isEmpty()) {
+            System.err.println("No hosts to collect.");
+            return;
+        }
+        try {
+            Files.createDirectories(collector.destDir());
+            FleetCollector.Result result = new FleetCollector(collector).collect(hosts);
+            result.hosts().forEach((host, stats) -> System.out.println(host + ": " + stats.summary()));
+            result.failedHosts().forEach((host, error) -> System.out.println(host + ": failed: " + error));
+            System.out.println("Total of " + result.hosts().size() + " hosts: " + result.total().summary());
 
         } catch (IOException e) {
             logger.error("IOException occurred during log file processing.", e);
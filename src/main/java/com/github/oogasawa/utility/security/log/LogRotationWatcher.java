@@ -0,0 +1,243 @@
+package com.github.oogasawa.utility.security.log;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Watches a log directory tree and collects rotated log files as soon as they appear, instead of
+ * waiting for the next scheduled {@code log:rename} run, so that the window in which a rotated
+ * file could be altered before its hash is recorded is a few seconds.
+ * <p>
+ * Every directory of the tree is registered with a {@link WatchService}, including directories
+ * created later. A created or modified file whose name the {@link LogFileClassifier} of the
+ * collection accepts is marked pending; the names of active logs such as {@code syslog} are
+ * rejected without touching the file, so their constant writes cost one name match each.
+ * A pending file is collected once it has had no event for {@link #setDebounceMillis(long) the
+ * debounce period}, because {@code logrotate} may still be compressing it or a rename may arrive
+ * as several events. The pending files that became quiet together are collected by one
+ * {@link LogCollector#collect(Path, java.util.Collection)} run, which copies, hashes and records
+ * them in the manifest of the destination directory exactly like a full run.
+ * <p>
+ * When the watcher starts, and whenever the event queue overflows, the whole tree is collected
+ * once, which picks up files rotated while the watcher was not running; unchanged files are
+ * skipped by the manifest without being read. Between events the watcher sleeps in the
+ * {@link WatchService}, so an idle watcher costs no CPU.
+ */
+public class LogRotationWatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogRotationWatcher.class);
+
+    /** The collector of the rotated files. */
+    private final LogCollector collector;
+
+    /** The classifier of the file names, to ignore events of files that are not collected. */
+    private final LogFileClassifier classifier;
+
+    /** The root of the watched tree. */
+    private final Path sourceDir;
+
+    /** The destination directory, which is not watched if it is inside the tree. */
+    private final Path destDir;
+
+    /** How long a file must have no events before it is collected. */
+    private long debounceMillis = 2_000;
+
+    /** The watched directories by their watch keys. */
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+
+    /** The time of the last event of the files waiting to be collected. */
+    private final Map<Path, Long> pending = new HashMap<>();
+
+    /** Whether the whole tree is collected at the next opportunity. */
+    private boolean sweep = true;
+
+
+    /**
+     * Constructs a new watcher.
+     *
+     * @param sourceDir the root directory of the log files
+     * @param collector the configuration of the collection into a destination directory
+     * @throws IllegalArgumentException if the collection writes an archive
+     */
+    public LogRotationWatcher(Path sourceDir, LogCollector.Builder collector) {
+        if (collector.archive() != null) {
+            throw new IllegalArgumentException("Watching collects into a directory, not an archive");
+        }
+        this.sourceDir = sourceDir.toAbsolutePath().normalize();
+        this.destDir = collector.destDir().toAbsolutePath().normalize();
+        this.classifier = collector.classifier();
+        this.collector = collector.build();
+    }
+
+
+    /**
+     * Sets how long a file must have no events before it is collected.
+     *
+     * @param debounceMillis the quiet period in milliseconds
+     */
+    public void setDebounceMillis(long debounceMillis) {
+        this.debounceMillis = debounceMillis;
+    }
+
+
+    /**
+     * Watches the tree and collects rotated files until the thread is interrupted.
+     *
+     * @throws IOException if the tree cannot be watched or the manifest cannot be written
+     */
+    public void watch() throws IOException {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            // register before the first sweep, so that no rotation falls between the two
+            register(watchService, sourceDir);
+            logger.info("Watching {} ({} directories) for rotated logs.", sourceDir, directories.size());
+
+            while (!Thread.currentThread().isInterrupted()) {
+                if (sweep) {
+                    sweep = false;
+                    LogCollector.Stats stats = collector.collect(sourceDir);
+                    logger.info("Full sweep: {}", stats.summary());
+                }
+                WatchKey key = watchService.poll(Math.min(debounceMillis, 500), TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    handle(watchService, key, System.currentTimeMillis());
+                    key = watchService.poll();
+                }
+                processPending(System.currentTimeMillis());
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Marks the files of the events of a watch key pending, and watches new directories.
+     */
+    private void handle(WatchService watchService, WatchKey key, long now) throws IOException {
+        Path dir = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                logger.warn("Missed events of {}; the tree is swept again.", dir);
+                sweep = true;
+                continue;
+            }
+            Path entry = dir.resolve((Path) event.context());
+            if (Files.isDirectory(entry)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    // files may have been created before the directory was registered
+                    register(watchService, entry);
+                    markPending(entry, now);
+                }
+            } else {
+                fileChanged(entry, now);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+
+    /**
+     * Marks a file pending if it is collected, or postpones its collection if it is pending.
+     *
+     * @param file the created or modified file
+     * @param now  the time of the event in milliseconds
+     */
+    void fileChanged(Path file, long now) {
+        if (classifier.classify(file.getFileName().toString()).target()) {
+            pending.put(file, now);
+        }
+    }
+
+
+    /**
+     * Collects the pending files that have been quiet long enough.
+     *
+     * @param now the current time in milliseconds
+     * @return the counters of the collection, or {@code null} if no file was ready
+     * @throws IOException if the manifest cannot be read or written
+     */
+    LogCollector.Stats processPending(long now) throws IOException {
+        List<Path> ready = pending.entrySet().stream()
+                .filter(e -> now - e.getValue() >= debounceMillis)
+                .map(Map.Entry::getKey)
+                .sorted()
+                .toList();
+        if (ready.isEmpty()) {
+            return null;
+        }
+        ready.forEach(pending::remove);
+        // a file may have been rotated away again, e.g. by a rotation count of zero
+        ready = ready.stream().filter(Files::exists).toList();
+        if (ready.isEmpty()) {
+            return null;
+        }
+
+        LogCollector.Stats stats = collector.collect(sourceDir, ready);
+        logger.info("Rotated: {}", stats.summary());
+        return stats;
+    }
+
+
+    /**
+     * Registers a directory and its subdirectories, except the destination directory.
+     */
+    private void register(WatchService watchService, Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (dir.toAbsolutePath().normalize().equals(destDir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                directories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                logger.warn("Cannot watch {}", file, e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+
+    /**
+     * Marks the collected files below a directory pending.
+     */
+    private void markPending(Path root, long now) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                fileChanged(file, now);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+}
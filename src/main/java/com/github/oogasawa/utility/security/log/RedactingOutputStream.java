@@ -0,0 +1,604 @@
+package com.github.oogasawa.utility.security.log;
+
+import com.github.oogasawa.utility.security.sketch.Hashing;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HexFormat;
+import javax.crypto.Mac;
+
+
+/**
+ * The stream of a {@link Redactor}: scans the lines written to it for personal data and writes
+ * them with the data replaced by pseudonyms.
+ * <p>
+ * The bytes are buffered until a line is complete, and each line is split into tokens by a
+ * table of byte classes, without decoding it. Text between replacements is written on as it
+ * is, in one write per buffer, so the cost over a plain copy is about one table lookup per
+ * byte. The pseudonyms are cached in a two-way set-associative table keyed by a hash of the value,
+ * with least-recently-used replacement: a hit costs a hash and a comparison and allocates
+ * nothing, and a miss evicts an entry, so the cache never holds more than its size.
+ */
+final class RedactingOutputStream extends OutputStream {
+
+    /** The longest line buffered; a longer line is redacted in pieces of this size. */
+    private static final int MAX_LINE = 1 << 20;
+
+    /** The number of bytes checked for NUL bytes, which mark a binary file. */
+    private static final int BINARY_CHECK = 8192;
+
+    private static final byte IPV4 = 1;
+    private static final byte IPV6 = 2;
+    private static final byte EMAIL = 3;
+    private static final byte USER = 4;
+
+    // the classes of the bytes of tokens, as bits, so that a token is classified while it is
+    // delimited: letters, digits and . : _ - @ + % $
+    private static final byte DIGIT = 1;
+    private static final byte LETTER = 2;
+    private static final byte DOT = 4;
+    private static final byte COLON = 8;
+    private static final byte AT = 16;
+    private static final byte SYMBOL = 32;
+
+    private static final byte[] CLASS = new byte[256];
+
+    static {
+        for (int c = '0'; c <= '9'; c++) {
+            CLASS[c] = DIGIT;
+        }
+        for (int c = 'a'; c <= 'z'; c++) {
+            CLASS[c] = LETTER;
+            CLASS[c - 'a' + 'A'] = LETTER;
+        }
+        CLASS['.'] = DOT;
+        CLASS[':'] = COLON;
+        CLASS['@'] = AT;
+        for (char c : "_-+%$".toCharArray()) {
+            CLASS[c] = SYMBOL;
+        }
+    }
+
+    private static final byte[][] USER_KEYS = keywords("user", "ruser", "logname", "acct");
+
+    private static final byte[][] NOT_USERS = keywords("invalid", "illegal", "user");
+
+    private static final byte[] FOR = keywords("for")[0];
+    private static final byte[] FROM = keywords("from")[0];
+    private static final byte[] BY = keywords("by")[0];
+    private static final byte[] SUDO = keywords("sudo:")[0];
+    private static final byte[] HOME = keywords("home")[0];
+    private static final byte[] UID = keywords("(uid=")[0];
+
+    private static final byte[] EMAIL_DOMAIN = "@pseudonym.invalid".getBytes(StandardCharsets.US_ASCII);
+
+    private final Redactor redactor;
+
+    private final OutputStream out;
+
+    private final Mac mac;
+
+    private byte[] buffer = new byte[1 << 16];
+
+    private int length = 0;
+
+    /** The end of the bytes of the buffer written to {@link #out}. */
+    private int emitted;
+
+    private boolean checked = false;
+
+    private final long[] cacheHashes;
+    private final byte[][] cacheValues;
+    private final byte[][] cachePseudonyms;
+
+    private final byte[] scratch = new byte[256];
+
+    private long values = 0;
+
+    private long computed = 0;
+
+
+    RedactingOutputStream(Redactor redactor, OutputStream out, int cacheSize) {
+        this.redactor = redactor;
+        this.out = out;
+        this.mac = redactor.newMac();
+        this.cacheHashes = new long[cacheSize];
+        this.cacheValues = new byte[cacheSize][];
+        this.cachePseudonyms = new byte[cacheSize][];
+    }
+
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (length == buffer.length) {
+                if (buffer.length < MAX_LINE) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                } else {
+                    // a line too long to buffer
+                    redact(0, length);
+                    length = 0;
+                }
+            }
+            int n = Math.min(len, buffer.length - length);
+            System.arraycopy(b, off, buffer, length, n);
+            int scanned = length;
+            length += n;
+            off += n;
+            len -= n;
+            process(scanned);
+        }
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (length > 0) {
+                redact(0, length);
+                length = 0;
+            }
+            redactor.count(values, computed);
+            values = 0;
+            computed = 0;
+        } finally {
+            out.close();
+        }
+    }
+
+
+    /**
+     * Redacts the complete lines of the buffer and keeps the rest.
+     *
+     * @param scanned the number of bytes at the start of the buffer already known to hold no
+     *                line feed
+     */
+    private void process(int scanned) throws IOException {
+        int end = -1;
+        for (int i = length - 1; i >= scanned; i--) {
+            if (buffer[i] == '\n') {
+                end = i + 1;
+                break;
+            }
+        }
+        if (end < 0) {
+            return;
+        }
+        redact(0, end);
+        System.arraycopy(buffer, end, buffer, 0, length - end);
+        length -= end;
+    }
+
+
+    /**
+     * Redacts the lines of a range of the buffer and writes them.
+     */
+    private void redact(int start, int end) throws IOException {
+        if (!checked) {
+            for (int i = start; i < Math.min(end, start + BINARY_CHECK); i++) {
+                if (buffer[i] == 0) {
+                    throw new IOException("Binary content cannot be redacted");
+                }
+            }
+            checked = true;
+        }
+        emitted = start;
+        int lineStart = start;
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == '\n') {
+                line(lineStart, i);
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart < end) {
+            line(lineStart, end);
+        }
+        out.write(buffer, emitted, end - emitted);
+    }
+
+
+    /**
+     * Replaces the personal data of a line.
+     */
+    private void line(int start, int end) throws IOException {
+        byte[] b = buffer;
+        int prevStart = -1;
+        int prevEnd = -1;
+        int i = start;
+        while (i < end) {
+            if (CLASS[b[i] & 0xff] == 0) {
+                i++;
+                continue;
+            }
+            int s = i;
+            int classes = 0;
+            byte c;
+            while (i < end && (c = CLASS[b[i] & 0xff]) != 0) {
+                classes |= c;
+                i++;
+            }
+            token(s, i, classes, start, end, prevStart, prevEnd);
+            prevStart = s;
+            prevEnd = i;
+        }
+    }
+
+
+    private void token(int s, int e, int classes, int lineStart, int lineEnd, int prevStart, int prevEnd)
+            throws IOException {
+        byte[] b = buffer;
+        if ((classes & AT) != 0) {
+            int at = e - 1;
+            while (b[at] != '@') {
+                at--;
+            }
+            int domainEnd = at > s ? emailDomainEnd(at + 1, e) : -1;
+            if (domainEnd > 0 && isLocalPart(s, at)) {
+                replace(s, domainEnd, EMAIL);
+                return;
+            }
+        }
+
+        int colons = 0;
+        if ((classes & COLON) != 0 && (classes & (DIGIT | LETTER)) != 0) {
+            for (int i = s; i < e; i++) {
+                if (b[i] == ':') {
+                    colons++;
+                }
+            }
+        }
+        boolean ip = false;
+        if (colons >= 2) {
+            int end = e;
+            for (int i = s; i < e; i++) {
+                if (b[i] == '%') {
+                    end = i; // a zone
+                    break;
+                }
+            }
+            if (end - s >= 3 && isIpv6(s, end)) {
+                replace(s, end, IPV6);
+                return;
+            }
+        }
+        if ((classes & (DIGIT | DOT)) == (DIGIT | DOT)) {
+            for (int p = s; p < e; p++) {
+                if (p > s && b[p - 1] != ':' && b[p - 1] != '@') {
+                    continue;
+                }
+                int end = ipv4End(p, e);
+                if (end > 0) {
+                    replace(p, end, IPV4);
+                    ip = true;
+                    p = end;
+                }
+            }
+        }
+        if (ip) {
+            return;
+        }
+
+        if (isUserContext(s, e, lineStart, lineEnd, prevStart, prevEnd)) {
+            int end = e;
+            while (end > s && (b[end - 1] == '.' || b[end - 1] == ':')) {
+                end--;
+            }
+            if (end > s) {
+                replace(s, end, USER);
+            }
+        }
+    }
+
+
+    /**
+     * Checks whether a token stands where logs name a user.
+     */
+    private boolean isUserContext(int s, int e, int lineStart, int lineEnd, int prevStart, int prevEnd) {
+        byte[] b = buffer;
+        // key=value and key="value"
+        int eq = s - 1;
+        if (eq > lineStart && (b[eq] == '"' || b[eq] == '\'')) {
+            eq--;
+        }
+        if (eq > lineStart && b[eq] == '=') {
+            int k = eq;
+            while (k > lineStart && CLASS[b[k - 1] & 0xff] != 0) {
+                k--;
+            }
+            for (byte[] key : USER_KEYS) {
+                if (equalsIgnoreCase(k, eq, key)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (prevStart < 0 || prevEnd - prevStart < 2 || prevEnd - prevStart > 5) {
+            return false; // not one of the words before a user name
+        }
+        if (b[prevEnd] == '/' && prevEnd + 1 == s) {
+            // /home/<user>
+            return equalsIgnoreCase(prevStart, prevEnd, HOME) && prevStart > lineStart && b[prevStart - 1] == '/';
+        }
+        if (!spaces(prevEnd, s)) {
+            return false;
+        }
+        if (equalsIgnoreCase(prevStart, prevEnd, USER_KEYS[0])) {
+            // Invalid user <user>, for user <user>
+            return true;
+        }
+        if (equalsIgnoreCase(prevStart, prevEnd, FOR)) {
+            // Accepted password for <user> from
+            for (byte[] word : NOT_USERS) {
+                if (equalsIgnoreCase(s, e, word)) {
+                    return false;
+                }
+            }
+            int f = e;
+            while (f < lineEnd && b[f] == ' ') {
+                f++;
+            }
+            return f > e && startsWith(f, lineEnd, FROM) && (f + FROM.length == lineEnd || b[f + FROM.length] == ' ');
+        }
+        if (equalsIgnoreCase(prevStart, prevEnd, BY)) {
+            // by <user>(uid=0)
+            return startsWith(e, lineEnd, UID);
+        }
+        if (equalsIgnoreCase(prevStart, prevEnd, SUDO)) {
+            // sudo:   <user> : TTY=pts/0
+            return e + 3 <= lineEnd && b[e] == ' ' && b[e + 1] == ':' && b[e + 2] == ' ';
+        }
+        return false;
+    }
+
+
+    /**
+     * Writes the text before a value and the pseudonym of the value.
+     */
+    private void replace(int s, int e, byte type) throws IOException {
+        byte[] pseudonym = pseudonym(s, e, type);
+        out.write(buffer, emitted, s - emitted);
+        out.write(pseudonym);
+        emitted = e;
+        values++;
+    }
+
+
+    private byte[] pseudonym(int s, int e, byte type) {
+        long hash = Hashing.hash64(buffer, s, e, type);
+        // two ways per set, the most recently used first, so that two recurring values do not
+        // evict each other
+        int set = (int) hash & (cacheHashes.length - 2);
+        for (int slot = set; slot < set + 2; slot++) {
+            byte[] cached = cacheValues[slot];
+            if (cached != null && cacheHashes[slot] == hash
+                    && Arrays.equals(cached, 0, cached.length, buffer, s, e)) {
+                byte[] pseudonym = cachePseudonyms[slot];
+                if (slot != set) {
+                    moveDown(set);
+                    cacheHashes[set] = hash;
+                    cacheValues[set] = cached;
+                    cachePseudonyms[set] = pseudonym;
+                }
+                return pseudonym;
+            }
+        }
+
+        mac.update(type);
+        if (type == USER) {
+            mac.update(buffer, s, e - s); // user names are case-sensitive
+        } else {
+            byte[] lower = e - s <= scratch.length ? scratch : new byte[e - s];
+            for (int i = s; i < e; i++) {
+                byte c = buffer[i];
+                lower[i - s] = c >= 'A' && c <= 'Z' ? (byte) (c + 32) : c;
+            }
+            mac.update(lower, 0, e - s);
+        }
+        byte[] d = mac.doFinal();
+        String text = switch (type) {
+            case IPV4 -> (0xf0 | d[0] & 0x0f) + "." + (d[1] & 0xff) + "." + (d[2] & 0xff) + "." + (d[3] & 0xff);
+            case IPV6 -> {
+                StringBuilder sb = new StringBuilder("fd").append(HexFormat.of().toHexDigits(d[0]));
+                for (int g = 0; g < 7; g++) {
+                    sb.append(':').append(Integer.toHexString((d[1 + 2 * g] & 0xff) << 8 | d[2 + 2 * g] & 0xff));
+                }
+                yield sb.toString();
+            }
+            case EMAIL -> "u-" + HexFormat.of().formatHex(d, 0, 6) + new String(EMAIL_DOMAIN, StandardCharsets.US_ASCII);
+            default -> "u-" + HexFormat.of().formatHex(d, 0, 6);
+        };
+        byte[] pseudonym = text.getBytes(StandardCharsets.US_ASCII);
+        moveDown(set);
+        cacheHashes[set] = hash;
+        cacheValues[set] = Arrays.copyOfRange(buffer, s, e);
+        cachePseudonyms[set] = pseudonym;
+        computed++;
+        return pseudonym;
+    }
+
+
+    /**
+     * Moves the first entry of a set to the second slot, evicting the least recently used one.
+     */
+    private void moveDown(int set) {
+        cacheHashes[set + 1] = cacheHashes[set];
+        cacheValues[set + 1] = cacheValues[set];
+        cachePseudonyms[set + 1] = cachePseudonyms[set];
+    }
+
+
+    /**
+     * Returns the end of the IPv4 address at a position, or -1 if there is none.
+     */
+    private int ipv4End(int p, int e) {
+        byte[] b = buffer;
+        int i = p;
+        for (int octet = 0; octet < 4; octet++) {
+            if (octet > 0) {
+                if (i >= e || b[i] != '.') {
+                    return -1;
+                }
+                i++;
+            }
+            int v = 0;
+            int digits = 0;
+            while (i < e && digits < 4 && b[i] >= '0' && b[i] <= '9') {
+                v = v * 10 + (b[i++] - '0');
+                digits++;
+            }
+            if (digits == 0 || digits > 3 || v > 255) {
+                return -1;
+            }
+        }
+        if (i + 1 < e && b[i] == '.' && b[i + 1] >= '0' && b[i + 1] <= '9') {
+            return -1; // a longer dotted number, e.g. an OID
+        }
+        return i;
+    }
+
+
+    /**
+     * Checks whether a range is an IPv6 address, possibly with an IPv4 address in its last 32
+     * bits.
+     */
+    private boolean isIpv6(int s, int e) {
+        byte[] b = buffer;
+        int groups = 0;
+        boolean gap = false;
+        int i = s;
+        if (e - s >= 2 && b[s] == ':' && b[s + 1] == ':') {
+            gap = true;
+            i += 2;
+        }
+        while (i < e) {
+            int j = i;
+            while (j < e && j - i < 5 && isHex(b[j])) {
+                j++;
+            }
+            if (j < e && b[j] == '.') {
+                if (ipv4End(i, e) != e) {
+                    return false;
+                }
+                groups += 2;
+                break;
+            }
+            if (j == i || j - i > 4) {
+                return false;
+            }
+            groups++;
+            i = j;
+            if (i == e) {
+                break;
+            }
+            if (b[i] != ':') {
+                return false;
+            }
+            i++;
+            if (i < e && b[i] == ':') {
+                if (gap) {
+                    return false;
+                }
+                gap = true;
+                i++;
+            } else if (i == e) {
+                return false;
+            }
+        }
+        // a gap at the end needs two groups before it, so that words such as "dead::" are kept
+        boolean trailingGap = gap && b[e - 1] == ':' && !(b[s] == ':');
+        return gap ? groups <= 7 && (!trailingGap || groups >= 2) : groups == 8;
+    }
+
+
+    private int emailDomainEnd(int s, int e) {
+        byte[] b = buffer;
+        while (e > s && (b[e - 1] == '.' || b[e - 1] == ':' || b[e - 1] == '-')) {
+            e--;
+        }
+        int dots = 0;
+        int label = 0;
+        boolean letters = true;
+        for (int i = s; i < e; i++) {
+            byte c = b[i];
+            if (c == '.') {
+                if (label == 0) {
+                    return -1;
+                }
+                dots++;
+                label = 0;
+                letters = true;
+            } else if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z') {
+                label++;
+            } else if (c >= '0' && c <= '9' || c == '-') {
+                label++;
+                letters = false;
+            } else {
+                return -1;
+            }
+        }
+        // a dot and a top-level domain of letters
+        return dots > 0 && label >= 2 && letters ? e : -1;
+    }
+
+
+    private boolean isLocalPart(int s, int e) {
+        for (int i = s; i < e; i++) {
+            byte c = buffer[i];
+            if (c == ':' || c == '@') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private boolean spaces(int s, int e) {
+        for (int i = s; i < e; i++) {
+            if (buffer[i] != ' ' && buffer[i] != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private boolean startsWith(int s, int e, byte[] word) {
+        return e - s >= word.length && equalsIgnoreCase(s, s + word.length, word);
+    }
+
+
+    private boolean equalsIgnoreCase(int s, int e, byte[] word) {
+        if (e - s != word.length) {
+            return false;
+        }
+        for (int i = 0; i < word.length; i++) {
+            byte c = buffer[s + i];
+            if ((c >= 'A' && c <= 'Z' ? c + 32 : c) != word[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static boolean isHex(byte c) {
+        return c >= '0' && c <= '9' || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F';
+    }
+
+
+    private static byte[][] keywords(String... words) {
+        byte[][] bytes = new byte[words.length][];
+        for (int i = 0; i < words.length; i++) {
+            bytes[i] = words[i].getBytes(StandardCharsets.US_ASCII);
+        }
+        return bytes;
+    }
+
+}
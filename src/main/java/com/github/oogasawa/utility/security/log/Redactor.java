@@ -0,0 +1,168 @@
+package com.github.oogasawa.utility.security.log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.LongAdder;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+
+/**
+ * Replaces personal data in log lines with keyed pseudonyms while the logs are collected, so that
+ * collected evidence can be handed to auditors without a second pass over the files.
+ * <p>
+ * The content is rewritten line by line by a byte-level scanner (see {@link #wrap(OutputStream)}),
+ * which replaces:
+ * <ul>
+ * <li>IPv4 addresses, with an address in {@code 240.0.0.0/4}, which is reserved and never
+ *     routed;</li>
+ * <li>IPv6 addresses, with an address in {@code fd00::/8}, the unique local addresses;</li>
+ * <li>email addresses, with {@code u-<hex>@pseudonym.invalid};</li>
+ * <li>user names where the log names them as such, with {@code u-<hex>}: after {@code user},
+ *     e.g. {@code Invalid user bob from}, between {@code for} and {@code from}, e.g.
+ *     {@code Accepted password for bob from}, as the value of {@code user=}, {@code ruser=},
+ *     {@code USER=}, {@code logname=} and {@code acct=}, before {@code (uid=} after {@code by},
+ *     as the user of a {@code sudo} line, and after {@code /home/} in paths.</li>
+ * </ul>
+ * A pseudonym is derived from an HMAC-SHA256 of the value under a secret key, so the same value
+ * gets the same pseudonym in every file, on every host and in every run with the same key, and
+ * the events of one client or user can still be correlated, while the value cannot be recovered
+ * without the key, not even by trying all IPv4 addresses. Pseudonyms keep the syntax of the
+ * values, so the collected logs remain readable by the log commands. An IPv4 pseudonym has 28
+ * bits, so among many thousands of addresses a few may share one.
+ * <p>
+ * A redactor is thread-safe; each stream it wraps has a cache of its own of recent pseudonyms,
+ * bounded in size, so that recurring values are not hashed again.
+ */
+public class Redactor {
+
+    /** The default number of pseudonyms cached per stream. */
+    public static final int DEFAULT_CACHE_SIZE = 1 << 16;
+
+    /** The shortest key accepted. */
+    static final int MIN_KEY_LENGTH = 16;
+
+    private static final String HMAC = "HmacSHA256";
+
+    /** The message whose MAC identifies the key. */
+    private static final byte[] FINGERPRINT_MESSAGE = "log-redaction-key".getBytes(StandardCharsets.US_ASCII);
+
+    private final SecretKeySpec key;
+
+    private final int cacheSize;
+
+    private final LongAdder redacted = new LongAdder();
+
+    private final LongAdder hashed = new LongAdder();
+
+
+    /**
+     * Constructs a redactor.
+     *
+     * @param key       the secret key, at least {@value #MIN_KEY_LENGTH} bytes
+     * @param cacheSize the number of pseudonyms cached per stream, rounded up to a power of two
+     * @throws IllegalArgumentException if the key is too short
+     */
+    public Redactor(byte[] key, int cacheSize) {
+        if (key.length < MIN_KEY_LENGTH) {
+            throw new IllegalArgumentException("The redaction key must have at least " + MIN_KEY_LENGTH
+                    + " bytes, but has " + key.length);
+        }
+        this.key = new SecretKeySpec(key.clone(), HMAC);
+        this.cacheSize = Math.max(2, Integer.highestOneBit(Math.max(1, cacheSize - 1)) << 1);
+    }
+
+
+    /**
+     * Creates a redactor with the key read from a file, e.g. one made with
+     * {@code head -c 32 /dev/urandom > redact.key}.
+     *
+     * @param keyFile the file of the key; its whole content is the key
+     * @return the redactor
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the key is too short
+     */
+    public static Redactor load(Path keyFile) throws IOException {
+        return new Redactor(Files.readAllBytes(keyFile), DEFAULT_CACHE_SIZE);
+    }
+
+
+    /**
+     * Returns a stream that writes the content written to it, with its personal data replaced,
+     * to another stream. Lines are rewritten as they are completed; the rest is written when the
+     * stream is closed, which also closes the other stream. The returned stream is not
+     * thread-safe.
+     *
+     * @param out the stream of the redacted content
+     * @return the redacting stream
+     */
+    public OutputStream wrap(OutputStream out) {
+        return new RedactingOutputStream(this, out, cacheSize);
+    }
+
+
+    /**
+     * Returns a fingerprint of the key: the first 8 bytes of the MAC of a constant message, in
+     * hex. Copies redacted with the same key have the same fingerprint, while the key cannot be
+     * recovered from it.
+     *
+     * @return the fingerprint
+     */
+    public String fingerprint() {
+        byte[] mac = newMac().doFinal(FINGERPRINT_MESSAGE);
+        return HexFormat.of().formatHex(mac, 0, 8);
+    }
+
+
+    /**
+     * Returns the number of values replaced so far by all streams.
+     *
+     * @return the number of values
+     */
+    public long redacted() {
+        return redacted.sum();
+    }
+
+
+    /**
+     * Returns a one-line summary of the values replaced.
+     *
+     * @return the summary
+     */
+    public String summary() {
+        long n = redacted.sum();
+        long h = hashed.sum();
+        return String.format("Redacted %d values (%d pseudonyms computed, %.1f %% from cache)", n, h,
+                n == 0 ? 0.0 : 100.0 * (n - h) / n);
+    }
+
+
+    /**
+     * Creates the MAC of a stream.
+     */
+    Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(key);
+            return mac;
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException(HMAC + " is not available", e);
+        }
+    }
+
+
+    /**
+     * Counts the values replaced and the pseudonyms computed by a stream.
+     */
+    void count(long values, long computed) {
+        redacted.add(values);
+        hashed.add(computed);
+    }
+
+}
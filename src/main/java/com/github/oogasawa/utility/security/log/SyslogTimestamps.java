@@ -0,0 +1,226 @@
+package com.github.oogasawa.utility.security.log;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
+
+
+/**
+ * Converts the timestamps at the start of syslog lines to microseconds since the epoch, working
+ * on the raw bytes.
+ * <p>
+ * Two families of formats are understood:
+ * <ul>
+ *   <li>the traditional {@code Jun 22 06:25:01} of rsyslog and {@code journalctl -o short},
+ *       which is local time without a year, and</li>
+ *   <li>ISO 8601 as written by rsyslog's high-precision template and
+ *       {@code journalctl -o short-iso} or {@code short-iso-precise}:
+ *       {@code 2025-06-22T06:25:01[.fraction][Z|+09:00|+0900]}, where a space may replace the
+ *       {@code T} and a missing offset means local time.</li>
+ * </ul>
+ * The year of a traditional timestamp is taken from a reference date, normally the rotation
+ * date of the file: a month later than the reference month belongs to the previous year, so a
+ * file rotated in January still places its December lines in the right year.
+ * <p>
+ * The last day and local hour converted are cached, as consecutive lines mostly repeat them. An
+ * instance is therefore not thread-safe; use one per file.
+ */
+public class SyslogTimestamps {
+
+    /** Returned for a line that does not start with a valid timestamp. */
+    public static final long NONE = Long.MIN_VALUE;
+
+    private static final byte[] MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec".getBytes(StandardCharsets.US_ASCII);
+
+    private final int referenceYear;
+
+    private final int referenceMonth;
+
+    private final ZoneRules zone;
+
+    private int cachedDay = -1;
+    private long cachedEpochDay;
+    private long cachedLocalHour = Long.MIN_VALUE;
+    private int cachedOffset;
+
+    private int end;
+
+
+    /**
+     * Constructs a converter.
+     *
+     * @param reference the date that determines the year of traditional timestamps
+     * @param zone      the time zone of timestamps without an offset
+     */
+    public SyslogTimestamps(LocalDate reference, ZoneId zone) {
+        this.referenceYear = reference.getYear();
+        this.referenceMonth = reference.getMonthValue();
+        this.zone = zone.getRules();
+    }
+
+
+    /**
+     * Converts the timestamp at the start of a line.
+     *
+     * @param b     the bytes of the line
+     * @param start the start of the line
+     * @param end   the end of the line
+     * @return the time in microseconds since the epoch, or {@link #NONE} if the line does not
+     *         start with a valid timestamp
+     */
+    public long parse(byte[] b, int start, int end) {
+        if (end - start >= 19 && b[start + 4] == '-') {
+            return iso(b, start, end);
+        }
+        if (end - start >= 15 && b[start + 3] == ' ') {
+            return traditional(b, start, end);
+        }
+        return NONE;
+    }
+
+
+    /**
+     * Returns the end of the timestamp last converted successfully.
+     *
+     * @return the position after the timestamp
+     */
+    public int end() {
+        return end;
+    }
+
+
+    /**
+     * Converts a traditional timestamp, {@code MMM dd HH:mm:ss} in local time.
+     */
+    private long traditional(byte[] b, int s, int lineEnd) {
+        int month = month(b, s);
+        if (month < 0 || b[s + 6] != ' ' || b[s + 9] != ':' || b[s + 12] != ':') {
+            return NONE;
+        }
+        int day = (b[s + 4] == ' ' ? 0 : digit(b[s + 4])) * 10 + digit(b[s + 5]);
+        int hour = digit(b[s + 7]) * 10 + digit(b[s + 8]);
+        int minute = digit(b[s + 10]) * 10 + digit(b[s + 11]);
+        int second = digit(b[s + 13]) * 10 + digit(b[s + 14]);
+        if ((day | hour | minute | second) < 0 || day == 0 || day > 31) {
+            return NONE;
+        }
+        int year = month > referenceMonth ? referenceYear - 1 : referenceYear;
+        long epochDay = epochDay(year, month, day);
+        if (epochDay == NONE) {
+            return NONE;
+        }
+        this.end = s + 15;
+        return (local(epochDay * 86400 + hour * 3600 + minute * 60 + second)) * 1_000_000L;
+    }
+
+
+    /**
+     * Converts an ISO 8601 timestamp, {@code yyyy-MM-dd(T| )HH:mm:ss[.fraction][Z|+hh:mm|+hhmm]}.
+     */
+    private long iso(byte[] b, int s, int lineEnd) {
+        if (b[s + 7] != '-' || (b[s + 10] != 'T' && b[s + 10] != ' ') || b[s + 13] != ':' || b[s + 16] != ':') {
+            return NONE;
+        }
+        int year = digit(b[s]) * 1000 + digit(b[s + 1]) * 100 + digit(b[s + 2]) * 10 + digit(b[s + 3]);
+        int month = digit(b[s + 5]) * 10 + digit(b[s + 6]);
+        int day = digit(b[s + 8]) * 10 + digit(b[s + 9]);
+        int hour = digit(b[s + 11]) * 10 + digit(b[s + 12]);
+        int minute = digit(b[s + 14]) * 10 + digit(b[s + 15]);
+        int second = digit(b[s + 17]) * 10 + digit(b[s + 18]);
+        if ((year | month | day | hour | minute | second) < 0 || month < 1 || month > 12 || day < 1 || day > 31) {
+            return NONE;
+        }
+        int i = s + 19;
+        long micros = 0;
+        if (i < lineEnd && (b[i] == '.' || b[i] == ',')) {
+            i++;
+            int digits = 0;
+            while (i < lineEnd && digit(b[i]) >= 0) {
+                if (digits < 6) {
+                    micros = micros * 10 + digit(b[i]);
+                    digits++;
+                }
+                i++;
+            }
+            for (; digits < 6; digits++) {
+                micros *= 10;
+            }
+        }
+        long epochDay = epochDay(year, month, day);
+        if (epochDay == NONE) {
+            return NONE;
+        }
+        long seconds = epochDay * 86400 + hour * 3600 + minute * 60 + second;
+        if (i < lineEnd && b[i] == 'Z') {
+            i++;
+        } else if (i + 5 <= lineEnd && (b[i] == '+' || b[i] == '-')) {
+            boolean colon = i + 6 <= lineEnd && b[i + 3] == ':';
+            int hh = digit(b[i + 1]) * 10 + digit(b[i + 2]);
+            int mm = colon ? digit(b[i + 4]) * 10 + digit(b[i + 5]) : digit(b[i + 3]) * 10 + digit(b[i + 4]);
+            if ((hh | mm) < 0) {
+                return NONE;
+            }
+            int offset = hh * 3600 + mm * 60;
+            seconds -= b[i] == '-' ? -offset : offset;
+            i += colon ? 6 : 5;
+        } else {
+            seconds = local(seconds);
+        }
+        this.end = i;
+        return seconds * 1_000_000L + micros;
+    }
+
+
+    /**
+     * Converts local seconds since the epoch to UTC.
+     */
+    private long local(long local) {
+        long localHour = Math.floorDiv(local, 3600);
+        if (localHour != cachedLocalHour) {
+            cachedLocalHour = localHour;
+            cachedOffset = zone.getOffset(LocalDateTime.ofEpochSecond(localHour * 3600, 0, ZoneOffset.UTC))
+                    .getTotalSeconds();
+        }
+        return local - cachedOffset;
+    }
+
+
+    /**
+     * Returns the epoch day of a date, or {@link #NONE} if the date does not exist.
+     */
+    private long epochDay(int year, int month, int day) {
+        int key = (year * 13 + month) * 32 + day;
+        if (key != cachedDay) {
+            try {
+                cachedEpochDay = LocalDate.of(year, month, day).toEpochDay();
+            } catch (DateTimeException e) {
+                cachedEpochDay = NONE;
+            }
+            cachedDay = key;
+        }
+        return cachedEpochDay;
+    }
+
+
+    /**
+     * Returns the month of an English three-letter abbreviation, from 1, or -1.
+     */
+    private static int month(byte[] b, int s) {
+        for (int i = 0; i < MONTHS.length; i += 3) {
+            if (b[s] == MONTHS[i] && b[s + 1] == MONTHS[i + 1] && b[s + 2] == MONTHS[i + 2]) {
+                return i / 3 + 1;
+            }
+        }
+        return -1;
+    }
+
+
+    private static int digit(byte b) {
+        return b >= '0' && b <= '9' ? b - '0' : -1000;
+    }
+
+}
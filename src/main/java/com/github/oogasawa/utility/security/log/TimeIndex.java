@@ -0,0 +1,335 @@
+package com.github.oogasawa.utility.security.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A sparse index from the timestamps of a log file to positions in it, kept in a hidden file
+ * next to the log file ({@link #pathOf(Path)}), so that a time window can be read without
+ * reading the whole file.
+ * <p>
+ * The index holds an entry at the first record starting after every
+ * {@value #DEFAULT_INTERVAL} bytes of (uncompressed) content. Besides the position of the record,
+ * an entry holds the latest time of the records before it and the earliest time of the records
+ * from it on. As these are running maxima and minima, they never decrease along the file, and
+ * the entries to start and stop reading a window are found by binary search, exactly even if
+ * the lines are slightly out of order.
+ * <p>
+ * A plain file is read from the position of an entry. A gzip file is read from the start of the
+ * member that contains the entry: the files compressed by the collector consist of independent
+ * members of {@value com.github.oogasawa.utility.security.io.ParallelGzipOutputStream#DEFAULT_BLOCK_SIZE}
+ * bytes, whose offsets are recorded while they are written, so at most one member is
+ * decompressed in vain. Other gzip files, such as those rotated by {@code logrotate}, are a
+ * single member; their index still tells which files hold the window and where it ends, but
+ * they are decompressed from the start.
+ * <p>
+ * The index records the size of the file it describes and is ignored when the file has
+ * changed.
+ */
+public class TimeIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(TimeIndex.class);
+
+    /** The number of content bytes between entries. */
+    public static final int DEFAULT_INTERVAL = 1 << 18;
+
+    /** The extension of index files. */
+    public static final String SUFFIX = ".tidx";
+
+    private static final int MAGIC = 0x54494458; // "TIDX"
+
+    private static final int VERSION = 1;
+
+    /**
+     * A position at which the file can be read.
+     *
+     * @param position  the position of the record in the (uncompressed) content
+     * @param offset    the position in the file at which to start reading: the record itself
+     *                  in a plain file, the start of its member in a gzip file
+     * @param skip      the number of content bytes between {@code offset} and the record
+     * @param maxBefore the latest time of the records before this one, in microseconds since
+     *                  the epoch, or {@link SyslogTimestamps#NONE} if there are none
+     * @param minAfter  the earliest time of this record and the ones after it, or
+     *                  {@link Long#MAX_VALUE} if none has a timestamp
+     */
+    public record Entry(long position, long offset, long skip, long maxBefore, long minAfter) {
+    }
+
+    private final long size;
+
+    private final boolean gzip;
+
+    private final ZoneId zone;
+
+    private final long first;
+
+    private final long last;
+
+    private final List<Entry> entries;
+
+
+    /**
+     * Constructs an index.
+     *
+     * @param size    the size of the indexed file
+     * @param gzip    whether the file is gzip-compressed
+     * @param zone    the time zone in which timestamps without an offset were read
+     * @param first   the earliest time in the file, or {@link SyslogTimestamps#NONE}
+     * @param last    the latest time in the file, or {@link SyslogTimestamps#NONE}
+     * @param entries the entries by position, starting at position 0
+     */
+    TimeIndex(long size, boolean gzip, ZoneId zone, long first, long last, List<Entry> entries) {
+        this.size = size;
+        this.gzip = gzip;
+        this.zone = zone;
+        this.first = first;
+        this.last = last;
+        this.entries = List.copyOf(entries);
+    }
+
+
+    /**
+     * Returns the path of the index of a file: a hidden file in the same directory, so that it
+     * is not taken for a log file.
+     *
+     * @param file the log file
+     * @return the path of its index
+     */
+    public static Path pathOf(Path file) {
+        return file.resolveSibling("." + file.getFileName() + SUFFIX);
+    }
+
+
+    /**
+     * Reads a file and builds its index.
+     *
+     * @param file the file, plain or gzip-compressed
+     * @param zone the time zone of timestamps without an offset
+     * @return the index
+     * @throws IOException if the file cannot be read
+     */
+    public static TimeIndex build(Path file, ZoneId zone) throws IOException {
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            boolean gzip = LogInputs.isGzip(raw);
+            TimeIndexer indexer = new TimeIndexer(LogInputs.referenceDate(file, zone), zone, DEFAULT_INTERVAL);
+            try (InputStream in = gzip ? new GZIPInputStream(raw, 1 << 16) : raw) {
+                in.transferTo(indexer);
+            }
+            if (gzip) {
+                indexer.member(0, 0);
+            }
+            return indexer.finish(Files.size(file), gzip);
+        }
+    }
+
+
+    /**
+     * Loads the index of a file.
+     *
+     * @param file the log file
+     * @return the index, or {@code null} if there is none, it cannot be read or the file has
+     *         changed since it was built
+     */
+    public static TimeIndex load(Path file) {
+        Path path = pathOf(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                logger.warn("Ignoring {}: not a time index", path);
+                return null;
+            }
+            long size = in.readLong();
+            if (size != Files.size(file)) {
+                logger.warn("Ignoring {}: {} has changed since it was indexed", path, file);
+                return null;
+            }
+            boolean gzip = in.readBoolean();
+            ZoneId zone = ZoneId.of(in.readUTF());
+            long first = in.readLong();
+            long last = in.readLong();
+            int n = in.readInt();
+            List<Entry> entries = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                entries.add(new Entry(in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+            }
+            if (entries.isEmpty()) {
+                return null;
+            }
+            return new TimeIndex(size, gzip, zone, first, last, entries);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | DateTimeException e) {
+            logger.warn("Ignoring {}: {}", path, e.toString());
+            return null;
+        }
+    }
+
+
+    /**
+     * Writes the index next to the file it describes.
+     *
+     * @param file the log file
+     * @throws IOException if the index cannot be written
+     */
+    public void save(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(pathOf(file))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(size);
+            out.writeBoolean(gzip);
+            out.writeUTF(zone.getId());
+            out.writeLong(first);
+            out.writeLong(last);
+            out.writeInt(entries.size());
+            for (Entry e : entries) {
+                out.writeLong(e.position());
+                out.writeLong(e.offset());
+                out.writeLong(e.skip());
+                out.writeLong(e.maxBefore());
+                out.writeLong(e.minAfter());
+            }
+        }
+    }
+
+
+    /**
+     * Checks whether the file may hold records in a time window.
+     *
+     * @param from the start of the window, inclusive, in microseconds since the epoch
+     * @param to   the end of the window, exclusive
+     * @return {@code false} if no record of the file lies in the window
+     */
+    public boolean overlaps(long from, long to) {
+        return first != SyslogTimestamps.NONE && first < to && last >= from;
+    }
+
+
+    /**
+     * Returns the entry at which to start reading a window: the last one before which all
+     * records are earlier than the window.
+     *
+     * @param from the start of the window, inclusive
+     * @return the entry
+     */
+    public Entry seek(long from) {
+        int lo = 0;
+        int hi = entries.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (entries.get(mid).maxBefore() < from) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return entries.get(lo);
+    }
+
+
+    /**
+     * Returns the content position at which to stop reading a window: that of the first entry
+     * from which on all records are later than the window.
+     *
+     * @param to the end of the window, exclusive
+     * @return the position, or {@link Long#MAX_VALUE} to read to the end
+     */
+    public long end(long to) {
+        int lo = 0;
+        int hi = entries.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (entries.get(mid).minAfter() >= to) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo < entries.size() ? entries.get(lo).position() : Long.MAX_VALUE;
+    }
+
+
+    /**
+     * Opens a file at an entry, positioned at the record of the entry.
+     *
+     * @param file  the file of this index
+     * @param entry an entry of this index
+     * @return the content from the record on
+     * @throws IOException if the file cannot be read
+     */
+    public InputStream open(Path file, Entry entry) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        InputStream in;
+        try {
+            channel.position(entry.offset());
+            in = new BufferedInputStream(Channels.newInputStream(channel), 1 << 16);
+            if (gzip) {
+                in = new GZIPInputStream(in, 1 << 16);
+            }
+            in.skipNBytes(entry.skip());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return in;
+    }
+
+
+    /**
+     * Returns the time zone in which timestamps without an offset were read when the index was
+     * built, which is the zone to read the file in for the times to agree.
+     *
+     * @return the time zone
+     */
+    public ZoneId zone() {
+        return zone;
+    }
+
+
+    /**
+     * Returns the entries.
+     *
+     * @return the entries by position
+     */
+    public List<Entry> entries() {
+        return entries;
+    }
+
+
+    /**
+     * Returns the earliest time in the file.
+     *
+     * @return the time in microseconds since the epoch, or {@link SyslogTimestamps#NONE}
+     */
+    public long first() {
+        return first;
+    }
+
+
+    /**
+     * Returns the latest time in the file.
+     *
+     * @return the time in microseconds since the epoch, or {@link SyslogTimestamps#NONE}
+     */
+    public long last() {
+        return last;
+    }
+
+}
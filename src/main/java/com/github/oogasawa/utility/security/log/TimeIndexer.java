@@ -0,0 +1,199 @@
+package com.github.oogasawa.utility.security.log;
+
+import com.github.oogasawa.utility.security.io.ParallelGzipOutputStream;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Builds a {@link TimeIndex} from the content of a log file as it is written, e.g. while the
+ * file is copied, so that indexing needs no pass of its own.
+ * <p>
+ * The content is written to this stream uncompressed. When the file is compressed by a
+ * {@link ParallelGzipOutputStream}, this indexer is also its {@link ParallelGzipOutputStream.MemberListener},
+ * and the entries are mapped to the members that contain them when the index is finished. The
+ * members are reported by the thread that writes the content, so no synchronization is needed.
+ */
+final class TimeIndexer extends OutputStream implements ParallelGzipOutputStream.MemberListener {
+
+    /** The number of bytes at the start of a line that are enough to hold a timestamp. */
+    private static final int HEAD = 64;
+
+    private final SyslogTimestamps timestamps;
+
+    private final ZoneId zone;
+
+    private final int interval;
+
+    /** The number of content bytes written so far. */
+    private long position = 0;
+
+    /** Whether the start of the current line is still being collected. */
+    private boolean atHead = true;
+
+    private final byte[] head = new byte[HEAD];
+
+    private int headLength = 0;
+
+    private long lineStart = 0;
+
+    private long nextEntry;
+
+    private long first = Long.MAX_VALUE;
+
+    private long last = SyslogTimestamps.NONE;
+
+    /** The earliest time since the last entry. */
+    private long segmentMin = Long.MAX_VALUE;
+
+    // the entries found so far: position, latest time before, earliest time up to the next one
+    private final List<long[]> marks = new ArrayList<>();
+
+    // the members reported so far: content position, file offset
+    private final List<long[]> members = new ArrayList<>();
+
+
+    /**
+     * Constructs an indexer.
+     *
+     * @param reference the date that determines the year of traditional timestamps
+     * @param zone      the time zone of timestamps without an offset
+     * @param interval  the number of content bytes between entries
+     */
+    TimeIndexer(LocalDate reference, ZoneId zone, int interval) {
+        this.timestamps = new SyslogTimestamps(reference, zone);
+        this.zone = zone;
+        this.interval = interval;
+        this.nextEntry = interval;
+        marks.add(new long[] {0, SyslogTimestamps.NONE, Long.MAX_VALUE});
+    }
+
+
+    @Override
+    public void write(int b) {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        int end = off + len;
+        int i = off;
+        while (i < end) {
+            if (!atHead) {
+                int nl = indexOf(b, i, end);
+                if (nl < 0) {
+                    break;
+                }
+                i = nl + 1;
+                atHead = true;
+                headLength = 0;
+                lineStart = position + (i - off);
+                continue;
+            }
+            if (headLength == 0) {
+                // the usual case: the head lies within the buffer
+                int limit = Math.min(end, i + HEAD);
+                int nl = indexOf(b, i, limit);
+                if (nl >= 0 || limit - i == HEAD) {
+                    record(timestamps.parse(b, i, nl >= 0 ? nl : limit));
+                    atHead = false;
+                    i = nl >= 0 ? nl : limit;
+                    continue;
+                }
+            }
+            while (i < end && b[i] != '\n' && headLength < HEAD) {
+                head[headLength++] = b[i++];
+            }
+            if (i < end) {
+                record(timestamps.parse(head, 0, headLength));
+                atHead = false;
+            }
+        }
+        position += len;
+    }
+
+
+    /**
+     * Records the start of a gzip member.
+     */
+    @Override
+    public void member(long position, long offset) {
+        members.add(new long[] {position, offset});
+    }
+
+
+    /**
+     * Finishes the index, after all content has been written.
+     *
+     * @param size the size of the written file
+     * @param gzip whether the file is gzip-compressed, in which case all members must have been
+     *             reported
+     * @return the index
+     */
+    TimeIndex finish(long size, boolean gzip) {
+        if (atHead && headLength > 0) {
+            record(timestamps.parse(head, 0, headLength));
+            atHead = false;
+        }
+        marks.get(marks.size() - 1)[2] = segmentMin;
+
+        List<TimeIndex.Entry> entries = new ArrayList<>(marks.size());
+        long minAfter = Long.MAX_VALUE;
+        long[] minAfters = new long[marks.size()];
+        for (int k = marks.size() - 1; k >= 0; k--) {
+            minAfter = Math.min(minAfter, marks.get(k)[2]);
+            minAfters[k] = minAfter;
+        }
+        int member = 0;
+        for (int k = 0; k < marks.size(); k++) {
+            long markPosition = marks.get(k)[0];
+            long offset = markPosition;
+            long skip = 0;
+            if (gzip) {
+                while (member + 1 < members.size() && members.get(member + 1)[0] <= markPosition) {
+                    member++;
+                }
+                long[] m = members.isEmpty() ? new long[] {0, 0} : members.get(member);
+                offset = m[1];
+                skip = markPosition - m[0];
+            }
+            entries.add(new TimeIndex.Entry(markPosition, offset, skip, marks.get(k)[1], minAfters[k]));
+        }
+        return new TimeIndex(size, gzip, zone, first == Long.MAX_VALUE ? SyslogTimestamps.NONE : first,
+                last, entries);
+    }
+
+
+    /**
+     * Takes note of the timestamp of the line that starts at {@link #lineStart}.
+     */
+    private void record(long time) {
+        if (time == SyslogTimestamps.NONE) {
+            return; // a continuation line stays with its record
+        }
+        if (lineStart >= nextEntry) {
+            marks.get(marks.size() - 1)[2] = segmentMin;
+            marks.add(new long[] {lineStart, last, Long.MAX_VALUE});
+            segmentMin = Long.MAX_VALUE;
+            nextEntry = (lineStart / interval + 1) * interval;
+        }
+        segmentMin = Math.min(segmentMin, time);
+        first = Math.min(first, time);
+        last = Math.max(last, time);
+    }
+
+
+    private static int indexOf(byte[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,180 @@
+package com.github.oogasawa.utility.security.search;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Finds any of a set of literal patterns in bytes in one pass, whatever the number of patterns
+ * (Aho and Corasick 1975).
+ * <p>
+ * The automaton is compiled into a deterministic one: every state has a transition for every
+ * byte, with the failure links already followed, so that scanning costs one table lookup per
+ * byte and never backtracks. The bytes that occur in no pattern share one column of the table,
+ * as do upper and lower case letters when case is ignored, so the table has only as many
+ * columns as the patterns have distinct bytes and stays small even for thousands of patterns.
+ * Transitions into a state that completes a pattern are stored negated, so that the scan tests
+ * for a match with the sign of the next state.
+ * <p>
+ * Patterns are matched as UTF-8 bytes; case is folded for ASCII letters only. Patterns must not
+ * contain a line feed, so that a match never spans two lines of a log and the automaton returns
+ * to its initial state at the end of every line. An automaton is immutable and may be used by
+ * any number of threads.
+ */
+public class AhoCorasick {
+
+    private final byte[] classes = new byte[256];
+
+    private final int stride;
+
+    // transitions, indexed by state * stride + class, to the next state * stride; negated if
+    // the next state completes a pattern
+    private final int[] delta;
+
+    private final int states;
+
+
+    /**
+     * Compiles an automaton.
+     *
+     * @param patterns   the patterns, not empty
+     * @param ignoreCase {@code true} to match ASCII letters regardless of case
+     * @throws IllegalArgumentException if there is no pattern, or a pattern is empty or contains
+     *                                  a line feed
+     */
+    public AhoCorasick(List<String> patterns, boolean ignoreCase) {
+        if (patterns.isEmpty()) {
+            throw new IllegalArgumentException("No patterns");
+        }
+        byte[][] keys = new byte[patterns.size()][];
+        for (int i = 0; i < keys.length; i++) {
+            String p = patterns.get(i);
+            if (p.isEmpty() || p.indexOf('\n') >= 0) {
+                throw new IllegalArgumentException("Patterns must be nonempty and on one line: \"" + p + "\"");
+            }
+            keys[i] = p.getBytes(StandardCharsets.UTF_8);
+        }
+
+        // class 0 for the bytes in no pattern, then one class per byte that occurs
+        int n = 1;
+        for (byte[] key : keys) {
+            for (byte b : key) {
+                int c = fold(b & 0xff, ignoreCase);
+                if (classes[c] == 0) {
+                    classes[c] = (byte) n++;
+                }
+            }
+        }
+        if (ignoreCase) {
+            for (int c = 'A'; c <= 'Z'; c++) {
+                classes[c] = classes[c + 32];
+            }
+        }
+        stride = n;
+
+        // the trie, with -1 for missing transitions
+        int capacity = 64;
+        int[] table = new int[capacity * stride];
+        boolean[] accepts = new boolean[capacity];
+        Arrays.fill(table, -1);
+        int count = 1;
+        for (byte[] key : keys) {
+            int s = 0;
+            for (byte b : key) {
+                int c = classOf(b);
+                if (table[s * stride + c] < 0) {
+                    if (count == capacity) {
+                        capacity *= 2;
+                        int old = table.length;
+                        table = Arrays.copyOf(table, capacity * stride);
+                        Arrays.fill(table, old, table.length, -1);
+                        accepts = Arrays.copyOf(accepts, capacity);
+                    }
+                    table[s * stride + c] = count++;
+                }
+                s = table[s * stride + c];
+            }
+            accepts[s] = true;
+        }
+        states = count;
+
+        // breadth-first, so that the failure of a state is complete before its children
+        int[] fail = new int[count];
+        int[] queue = new int[count];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < stride; c++) {
+            int t = table[c];
+            if (t < 0) {
+                table[c] = 0;
+            } else {
+                fail[t] = 0;
+                queue[tail++] = t;
+            }
+        }
+        while (head < tail) {
+            int s = queue[head++];
+            accepts[s] |= accepts[fail[s]];
+            for (int c = 0; c < stride; c++) {
+                int t = table[s * stride + c];
+                int f = table[fail[s] * stride + c];
+                if (t < 0) {
+                    table[s * stride + c] = f;
+                } else {
+                    fail[t] = f;
+                    queue[tail++] = t;
+                }
+            }
+        }
+
+        delta = new int[count * stride];
+        for (int i = 0; i < delta.length; i++) {
+            int t = table[i];
+            delta[i] = accepts[t] ? -t * stride : t * stride;
+        }
+    }
+
+
+    /**
+     * Finds the first match in a range of bytes.
+     *
+     * @param b    the bytes
+     * @param from the first byte of the range
+     * @param to   the end of the range, exclusive
+     * @return the position of the last byte of the first match, or {@code -1} if there is none
+     */
+    public int find(byte[] b, int from, int to) {
+        int[] d = delta;
+        byte[] cls = classes;
+        int state = 0;
+        for (int i = from; i < to; i++) {
+            state = d[state + (cls[b[i] & 0xff] & 0xff)];
+            if (state < 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Returns the number of states of the automaton.
+     *
+     * @return the number of states
+     */
+    public int states() {
+        return states;
+    }
+
+
+    private int classOf(byte b) {
+        return classes[b & 0xff] & 0xff;
+    }
+
+
+    private static int fold(int c, boolean ignoreCase) {
+        return ignoreCase && c >= 'A' && c <= 'Z' ? c + 32 : c;
+    }
+
+}
@@ -0,0 +1,501 @@
+package com.github.oogasawa.utility.security.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+
+/**
+ * A segment of a {@link SearchIndex}, as written by {@link SegmentWriter}: the files and blocks
+ * are held in memory, the term dictionary and the postings are read from the file as needed.
+ * <p>
+ * A term is looked up by a binary search of the sparse term index, which is held in memory,
+ * and a scan of at most {@value #RESTART} entries of the dictionary; a prefix by a scan from
+ * there to the last term that has it. Terms that may have more bytes before them can only be
+ * found by a scan of the whole dictionary, which {@link #scan} does once for all of them.
+ * <p>
+ * Not thread-safe.
+ */
+final class IndexSegment implements Closeable {
+
+    /** The start of the names of segment files. */
+    static final String PREFIX = "segment-";
+
+    /** The extension of segment files. */
+    static final String SUFFIX = ".sidx";
+
+    static final int MAGIC = 0x53494458; // "SIDX"
+
+    static final int VERSION = 1;
+
+    /** The number of dictionary entries from one entry of the sparse term index to the next. */
+    static final int RESTART = 64;
+
+    private static final int FOOTER = 7 * Long.BYTES + Integer.BYTES;
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    private final long bytes;
+
+    private final String[] keys;
+
+    private final long[] sizes;
+
+    private final long[] modified;
+
+    private final long[] lengths;
+
+    // the first block of each file, and the number of blocks at the end
+    private final int[] firstBlocks;
+
+    private final long[] positions;
+
+    private final long[] lines;
+
+    private final long termsOffset;
+
+    private final long postingsOffset;
+
+    private final long termCount;
+
+    private final byte[][] restartTerms;
+
+    private final long[] restartTermOffsets;
+
+    private final long[] restartPostingsOffsets;
+
+    private final Input postings;
+
+
+    private IndexSegment(Path path, FileChannel channel) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.bytes = channel.size();
+        if (bytes < 8 + FOOTER) {
+            throw new IOException(path + ": not a segment of a search index");
+        }
+        Input in = new Input(channel, bytes - FOOTER);
+        long filesOffset = in.readLong();
+        this.termsOffset = in.readLong();
+        long sparseOffset = in.readLong();
+        this.postingsOffset = in.readLong();
+        long fileCount = in.readLong();
+        long blockCount = in.readLong();
+        this.termCount = in.readLong();
+        in.seek(0);
+        if (in.readInt() != MAGIC || in.readInt() != VERSION || in.seek(bytes - Integer.BYTES).readInt() != MAGIC
+                || filesOffset != 8 || termsOffset < filesOffset || sparseOffset < termsOffset
+                || postingsOffset < sparseOffset || postingsOffset > bytes - FOOTER
+                || fileCount > Integer.MAX_VALUE || blockCount > Integer.MAX_VALUE) {
+            throw new IOException(path + ": not a segment of a search index, or an incomplete one");
+        }
+
+        int n = (int) fileCount;
+        keys = new String[n];
+        sizes = new long[n];
+        modified = new long[n];
+        lengths = new long[n];
+        firstBlocks = new int[n + 1];
+        positions = new long[(int) blockCount];
+        lines = new long[(int) blockCount];
+        in.seek(filesOffset);
+        int block = 0;
+        for (int f = 0; f < n; f++) {
+            byte[] name = new byte[(int) in.readVarLong()];
+            in.readFully(name, 0, name.length);
+            keys[f] = new String(name, StandardCharsets.UTF_8);
+            sizes[f] = in.readVarLong();
+            modified[f] = in.readVarLong();
+            lengths[f] = in.readVarLong();
+            long count = in.readVarLong();
+            firstBlocks[f] = block;
+            if (count > blockCount - block) {
+                throw new IOException(path + ": corrupt list of files");
+            }
+            long position = 0;
+            long line = 1;
+            for (long i = 0; i < count; i++) {
+                position += in.readVarLong();
+                line += in.readVarLong();
+                positions[block] = position;
+                lines[block] = line;
+                block++;
+            }
+        }
+        firstBlocks[n] = block;
+
+        int restarts = (int) ((termCount + RESTART - 1) / RESTART);
+        restartTerms = new byte[restarts][];
+        restartTermOffsets = new long[restarts];
+        restartPostingsOffsets = new long[restarts];
+        in.seek(sparseOffset);
+        for (int r = 0; r < restarts; r++) {
+            byte[] term = new byte[(int) in.readVarLong()];
+            in.readFully(term, 0, term.length);
+            restartTerms[r] = term;
+            restartTermOffsets[r] = in.readVarLong();
+            restartPostingsOffsets[r] = in.readVarLong();
+        }
+        this.postings = new Input(channel, postingsOffset);
+    }
+
+
+    /**
+     * Opens a segment.
+     *
+     * @param path the segment file
+     * @return the segment
+     * @throws IOException if the file cannot be read or is not a complete segment
+     */
+    static IndexSegment open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new IndexSegment(path, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Adds the blocks that may contain a term to a set, unless the term may have more bytes
+     * before it, which is left to {@link #scan}.
+     *
+     * @param term the term
+     * @param into receives the block numbers
+     * @throws IOException if the segment cannot be read
+     */
+    void lookup(Tokenizer.QueryTerm term, BitSet into) throws IOException {
+        if (term.openLeft()) {
+            throw new IllegalArgumentException("A term open on the left needs a scan");
+        }
+        byte[] key = term.term();
+        if (key.length > Tokenizer.MAX_TERM) {
+            return;
+        }
+        // the last entry of the sparse index at or before the term
+        int lo = 0;
+        int hi = restartTerms.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (Arrays.compareUnsigned(restartTerms[mid], key) <= 0) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        Cursor c = cursor(lo);
+        while (c.next()) {
+            int cmp = Arrays.compareUnsigned(c.term, 0, c.length, key, 0, key.length);
+            if (term.openRight()) {
+                if (c.length >= key.length && Arrays.equals(c.term, 0, key.length, key, 0, key.length)) {
+                    postings(c, into);
+                } else if (cmp > 0) {
+                    return;
+                }
+            } else if (cmp >= 0) {
+                if (cmp == 0) {
+                    postings(c, into);
+                }
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Reads the whole dictionary once and adds the blocks of the terms that match each of a set
+     * of terms to the set of that term.
+     *
+     * @param terms the terms
+     * @param into  receives the block numbers of each term
+     * @throws IOException if the segment cannot be read
+     */
+    void scan(List<Tokenizer.QueryTerm> terms, List<BitSet> into) throws IOException {
+        List<String> patterns = new ArrayList<>();
+        for (Tokenizer.QueryTerm t : terms) {
+            patterns.add(new String(t.term(), StandardCharsets.UTF_8));
+        }
+        AhoCorasick any = new AhoCorasick(patterns, false);
+        Cursor c = cursor(0);
+        while (c.next()) {
+            if (any.find(c.term, 0, c.length) < 0) {
+                continue;
+            }
+            for (int i = 0; i < terms.size(); i++) {
+                if (terms.get(i).matches(c.term, c.length)) {
+                    postings(c, into.get(i));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns a cursor over the dictionary, before its first term.
+     *
+     * @return the cursor
+     */
+    Cursor cursor() {
+        return cursor(0);
+    }
+
+
+    private Cursor cursor(int restart) {
+        if (restartTerms.length == 0) {
+            return new Cursor(0, termsOffset, 0);
+        }
+        return new Cursor((long) restart * RESTART, termsOffset + restartTermOffsets[restart],
+                restartPostingsOffsets[restart]);
+    }
+
+
+    /**
+     * Adds the postings of the term at a cursor to a set.
+     */
+    private void postings(Cursor c, BitSet into) throws IOException {
+        postings.seek(postingsOffset + c.postings);
+        int id = -1;
+        for (int i = 0; i < c.count; i++) {
+            id = id < 0 ? (int) postings.readVarLong() : id + (int) postings.readVarLong();
+            into.set(id);
+        }
+    }
+
+
+    /**
+     * Reads the postings of the term at a cursor.
+     *
+     * @param c   the cursor
+     * @param ids receives the block numbers, ascending; at least {@link Cursor#count()} long
+     * @throws IOException if the segment cannot be read
+     */
+    void postings(Cursor c, int[] ids) throws IOException {
+        postings.seek(postingsOffset + c.postings);
+        int id = -1;
+        for (int i = 0; i < c.count; i++) {
+            id = id < 0 ? (int) postings.readVarLong() : id + (int) postings.readVarLong();
+            ids[i] = id;
+        }
+    }
+
+
+    Path path() {
+        return path;
+    }
+
+    /** Returns the size of the segment file. */
+    long bytes() {
+        return bytes;
+    }
+
+    int files() {
+        return keys.length;
+    }
+
+    int blocks() {
+        return positions.length;
+    }
+
+    long terms() {
+        return termCount;
+    }
+
+    /** Returns the path of a file relative to the root of the index. */
+    String key(int file) {
+        return keys[file];
+    }
+
+    long size(int file) {
+        return sizes[file];
+    }
+
+    long modified(int file) {
+        return modified[file];
+    }
+
+    /** Returns the number of content bytes of a file. */
+    long contentLength(int file) {
+        return lengths[file];
+    }
+
+    int firstBlock(int file) {
+        return firstBlocks[file];
+    }
+
+    /** Returns the block after the last block of a file. */
+    int endBlock(int file) {
+        return firstBlocks[file + 1];
+    }
+
+    /** Returns the content position of a block in its file. */
+    long position(int block) {
+        return positions[block];
+    }
+
+    /** Returns the number of the first line of a block. */
+    long line(int block) {
+        return lines[block];
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+
+    /**
+     * A position in the dictionary of the segment.
+     */
+    final class Cursor {
+
+        private final Input in;
+
+        private final byte[] term = new byte[Tokenizer.MAX_TERM];
+
+        private int length = 0;
+
+        private int count = 0;
+
+        private long ordinal;
+
+        // the position of the postings of the current term, and of the next one
+        private long postings = 0;
+        private long nextPostings;
+
+        private Cursor(long ordinal, long position, long postings) {
+            this.in = new Input(channel, position);
+            this.ordinal = ordinal;
+            this.nextPostings = postings;
+        }
+
+        /**
+         * Moves to the next term.
+         *
+         * @return {@code false} if there is none
+         * @throws IOException if the segment cannot be read
+         */
+        boolean next() throws IOException {
+            if (ordinal == termCount) {
+                return false;
+            }
+            int shared = (int) in.readVarLong();
+            int rest = (int) in.readVarLong();
+            if (shared > length || shared + rest > term.length) {
+                throw new IOException(path + ": corrupt term dictionary");
+            }
+            in.readFully(term, shared, rest);
+            length = shared + rest;
+            count = (int) in.readVarLong();
+            postings = nextPostings;
+            nextPostings = postings + in.readVarLong();
+            ordinal++;
+            return true;
+        }
+
+        /** Returns the bytes of the term; valid up to {@link #length()}. */
+        byte[] term() {
+            return term;
+        }
+
+        int length() {
+            return length;
+        }
+
+        /** Returns the number of blocks that contain the term. */
+        int count() {
+            return count;
+        }
+    }
+
+
+    /**
+     * A buffered reader of a file channel at a position of its own, with variable-length
+     * integers.
+     */
+    private static final class Input {
+
+        private final FileChannel channel;
+
+        private final byte[] buffer = new byte[1 << 14];
+
+        private final ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+
+        // the position in the file of the start of the buffer
+        private long start;
+
+        private int position = 0;
+
+        private int limit = 0;
+
+        Input(FileChannel channel, long position) {
+            this.channel = channel;
+            this.start = position;
+        }
+
+        Input seek(long to) {
+            if (to >= start && to <= start + limit) {
+                position = (int) (to - start);
+            } else {
+                start = to;
+                position = 0;
+                limit = 0;
+            }
+            return this;
+        }
+
+        private int read() throws IOException {
+            if (position == limit) {
+                start += limit;
+                position = 0;
+                limit = 0;
+                wrapped.clear();
+                int n = channel.read(wrapped, start);
+                if (n <= 0) {
+                    throw new IOException("Unexpected end of a segment of a search index");
+                }
+                limit = n;
+            }
+            return buffer[position++] & 0xff;
+        }
+
+        long readVarLong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = read();
+                v |= (long) (b & 0x7f) << shift;
+                if (b < 0x80) {
+                    return v;
+                }
+            }
+            throw new IOException("Corrupt number in a segment of a search index");
+        }
+
+        int readInt() throws IOException {
+            return (read() << 24) | (read() << 16) | (read() << 8) | read();
+        }
+
+        long readLong() throws IOException {
+            return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+        }
+
+        void readFully(byte[] b, int offset, int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                b[offset + i] = (byte) read();
+            }
+        }
+    }
+
+}
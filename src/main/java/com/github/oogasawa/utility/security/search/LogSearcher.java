@@ -0,0 +1,580 @@
+package com.github.oogasawa.utility.security.search;
+
+import com.github.oogasawa.utility.security.log.EvidenceManifest;
+import com.github.oogasawa.utility.security.log.LogInputs;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Searches collected logs, plain or gzip-compressed, for lines that contain any of a set of
+ * literal patterns or match any of a set of regular expressions, like {@code zgrep} but over
+ * all files at once.
+ * <p>
+ * The files are searched in parallel, one file per thread, the largest first, so that a
+ * collection of many files keeps all processors busy to the end. A compressed file is inflated
+ * on a thread of its own while the previous chunk is searched (see {@link LogInputs#open}).
+ * Within a file, the search runs over the read buffer rather than line by line: literal
+ * patterns are found with an {@link AhoCorasick} automaton in one pass whatever their number,
+ * regular expressions with one {@link Matcher} over the bytes of the buffer; only when a match
+ * is found are the boundaries of its line located, its number counted and the line and its
+ * context decoded. Lines are therefore never copied unless they are reported.
+ * <p>
+ * Regular expressions are matched against the bytes of the logs as if they were ISO-8859-1, so
+ * a literal character outside ASCII in an expression matches its UTF-8 bytes, but a character
+ * class or case folding applies to ASCII only. A match that starts on a line reports that line.
+ * Files that look binary, such as {@code wtmp}, are skipped.
+ * <p>
+ * With a {@link SearchIndex}, a search for literal patterns reads only the runs of blocks of the
+ * indexed files that may contain a pattern, each from its own position and first line number,
+ * and skips the indexed files that cannot contain one; files that are not indexed, or have
+ * changed since, are read whole.
+ */
+public class LogSearcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogSearcher.class);
+
+    /** The number of bytes at the start of a file checked for binary content. */
+    private static final int BINARY_CHECK = 8192;
+
+    /**
+     * The outcome of a search.
+     *
+     * @param files        the number of files searched
+     * @param binary       the number of files skipped as binary
+     * @param indexed      the number of files searched through the index, only where they may
+     *                     match
+     * @param bytes        the number of uncompressed bytes searched
+     * @param lines        the number of lines searched
+     * @param matches      the number of matching lines
+     * @param elapsedNanos the wall-clock time of the search
+     */
+    public record Report(long files, long binary, long indexed, long bytes, long lines, long matches,
+            long elapsedNanos) {
+
+        /**
+         * Formats the report as text.
+         *
+         * @return the report
+         */
+        public String format() {
+            double seconds = Math.max(elapsedNanos, 1) / 1e9;
+            return String.format("Searched %d files (%d binary skipped, %d through the index), %d lines (%.1f MB) "
+                    + "in %.2f s: %.1f MB/s%nMatching lines: %d%n",
+                    files, binary, indexed, lines, bytes / 1e6, seconds, bytes / 1e6 / seconds, matches);
+        }
+    }
+
+    private final AhoCorasick literals;
+
+    private final List<String> patterns;
+
+    private final Pattern regex;
+
+    private SearchIndex index;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private int before = 0;
+
+    private int after = 0;
+
+
+    /**
+     * Constructs a searcher. If there are only literal patterns, they are found with an
+     * Aho-Corasick automaton; otherwise all patterns are combined into one regular expression.
+     *
+     * @param literals   the literal patterns
+     * @param regexes    the regular expressions
+     * @param ignoreCase {@code true} to match ASCII letters regardless of case
+     * @throws IllegalArgumentException if there is no pattern, a literal pattern is empty or
+     *                                  contains a line feed, or an expression is invalid
+     */
+    public LogSearcher(List<String> literals, List<String> regexes, boolean ignoreCase) {
+        if (regexes.isEmpty()) {
+            this.literals = new AhoCorasick(literals, ignoreCase);
+            this.patterns = List.copyOf(literals);
+            this.regex = null;
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String r : regexes) {
+            sb.append(sb.isEmpty() ? "" : "|").append("(?:").append(r).append(')');
+        }
+        for (String l : literals) {
+            sb.append('|').append(Pattern.quote(l));
+        }
+        String bytes = new String(sb.toString().getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+        this.literals = null;
+        this.patterns = null;
+        this.regex = Pattern.compile(bytes, Pattern.MULTILINE | (ignoreCase ? Pattern.CASE_INSENSITIVE : 0));
+    }
+
+
+    /**
+     * Sets the number of files searched in parallel.
+     *
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+
+    /**
+     * Sets the number of lines reported around each matching line.
+     *
+     * @param before the number of lines before it
+     * @param after  the number of lines after it
+     */
+    public void setContext(int before, int after) {
+        this.before = before;
+        this.after = after;
+    }
+
+
+    /**
+     * Sets the index through which to search for literal patterns. Searches for regular
+     * expressions read every file.
+     *
+     * @param index the index, or {@code null} to read every file
+     */
+    public void setIndex(SearchIndex index) {
+        this.index = index;
+    }
+
+
+    /**
+     * Expands input specifications into the files to search: a directory stands for the files
+     * below it except the checksum files and the sign-off of an evidence manifest; any other
+     * specification is resolved by {@link LogInputs#resolve}.
+     *
+     * @param specs the paths, directories or glob patterns given on the command line
+     * @return the files
+     * @throws IOException if a directory cannot be searched
+     */
+    public static List<Path> resolve(List<String> specs) throws IOException {
+        return LogInputs.resolve(specs, name -> !name.endsWith("SUMS") && !name.equals(EvidenceManifest.SIGNOFF_FILE));
+    }
+
+
+    /**
+     * Searches files.
+     *
+     * @param files    the files, plain or gzip-compressed
+     * @param consumer receives the matches as they are found, in the order of the lines of each
+     *                 file; it is called by the searching threads, one call at a time
+     * @return the report
+     * @throws IOException if a file cannot be read
+     */
+    public Report search(List<Path> files, Consumer<SearchMatch> consumer) throws IOException {
+        long start = System.nanoTime();
+
+        // the largest files first, so that no thread starts a large file last
+        List<Path> ordered = new ArrayList<>(files);
+        ordered.sort(Comparator.comparingLong(LogSearcher::sizeOf).reversed());
+
+        // the ranges of the indexed files that may match
+        Map<Path, List<SearchIndex.Range>> plan = index != null && patterns != null
+                ? index.plan(files, patterns, before > 0 || after > 0 ? 1 : 0)
+                : Map.of();
+
+        Consumer<SearchMatch> serialized = m -> {
+            synchronized (consumer) {
+                consumer.accept(m);
+            }
+        };
+        long binary = 0;
+        long bytes = 0;
+        long lines = 0;
+        long matches = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, ordered.size())));
+        try {
+            CompletionService<Result> results = new ExecutorCompletionService<>(pool);
+            for (Path file : ordered) {
+                results.submit(() -> search(file, plan.get(file), serialized));
+            }
+            for (int i = 0; i < ordered.size(); i++) {
+                Result r = results.take().get();
+                binary += r.binary() ? 1 : 0;
+                bytes += r.bytes();
+                lines += r.lines();
+                matches += r.matches();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException u) {
+                throw new IOException(u.getMessage(), u.getCause());
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        logger.info("Found {} matching lines in {} files", matches, files.size());
+        return new Report(files.size(), binary, plan.size(), bytes, lines, matches, System.nanoTime() - start);
+    }
+
+
+    /**
+     * What was searched in a file.
+     */
+    private record Result(boolean binary, long bytes, long lines, long matches) {
+    }
+
+
+    /**
+     * Searches a file, whole or only some ranges of it.
+     */
+    private Result search(Path file, List<SearchIndex.Range> ranges, Consumer<SearchMatch> consumer) {
+        try {
+            if (ranges == null) {
+                FileSearch search = new FileSearch(file, consumer, 1, true);
+                try (InputStream in = LogInputs.open(file)) {
+                    search.search(in, Long.MAX_VALUE);
+                }
+                logger.debug("{}: {} lines, {} matches", file, search.lines, search.matches);
+                return new Result(search.binary, search.bytes, search.lines, search.matches);
+            }
+            if (ranges.isEmpty()) {
+                logger.debug("{}: no block may match", file);
+                return new Result(false, 0, 0, 0);
+            }
+            long bytes = 0;
+            long lines = 0;
+            long matches = 0;
+            try (SearchIndex.RangeReader reader = new SearchIndex.RangeReader(file)) {
+                for (SearchIndex.Range range : ranges) {
+                    FileSearch search = new FileSearch(file, consumer, range.line(), range.position() == 0);
+                    search.search(reader.seek(range), range.length());
+                    reader.advance(search.bytes);
+                    bytes += search.bytes;
+                    lines += search.lines;
+                    matches += search.matches;
+                }
+            }
+            logger.debug("{}: {} ranges, {} lines, {} matches", file, ranges.size(), lines, matches);
+            return new Result(false, bytes, lines, matches);
+        } catch (IOException e) {
+            throw new UncheckedIOException(file + ": " + e.getMessage(), e);
+        }
+    }
+
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+
+    /**
+     * The bytes of a buffer as the characters of ISO-8859-1, for a {@link Matcher}.
+     */
+    private record Latin1(byte[] b, int offset, int length) implements CharSequence {
+
+        @Override
+        public char charAt(int index) {
+            return (char) (b[offset + index] & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new Latin1(b, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(b, offset, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+
+    /**
+     * Searches one file, or a range of whole lines of it. Not thread-safe.
+     * <p>
+     * The buffer holds the lines not yet searched and, for the context before the next match,
+     * the last lines searched; complete lines are searched as they are read. Offsets into the
+     * buffer are moved back whenever the buffer is compacted.
+     */
+    private final class FileSearch {
+
+        private final Path file;
+
+        private final String host;
+
+        private final Consumer<SearchMatch> consumer;
+
+        private final long firstLine;
+
+        private final boolean checkBinary;
+
+        private byte[] buffer = new byte[1 << 20];
+
+        private int length = 0;
+
+        private Matcher matcher;
+
+        // the line numbers are counted lazily, up to the line that starts at counted
+        private int counted = 0;
+        private long lineNumber;
+
+        // the end of the last line reported, as a match or as context
+        private int reported = 0;
+
+        // the match waiting for the lines after it, and where they start
+        private SearchMatch pending;
+        private List<String> pendingAfter;
+        private int afterFrom;
+
+        private boolean binary = false;
+        private long bytes = 0;
+        private long lines = 0;
+        private long matches = 0;
+
+
+        FileSearch(Path file, Consumer<SearchMatch> consumer, long firstLine, boolean checkBinary) {
+            this.file = file;
+            this.host = LogInputs.hostOf(file);
+            this.consumer = consumer;
+            this.firstLine = firstLine;
+            this.checkBinary = checkBinary;
+            this.lineNumber = firstLine;
+        }
+
+
+        /**
+         * Searches the content of a stream, up to a number of bytes.
+         */
+        void search(InputStream in, long maxBytes) throws IOException {
+            int searched = 0;
+            while (bytes < maxBytes) {
+                if (length == buffer.length) {
+                    // a line, or the context before it, longer than the buffer
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    matcher = null;
+                }
+                int n = in.read(buffer, length, (int) Math.min(buffer.length - length, maxBytes - bytes));
+                if (n < 0) {
+                    break;
+                }
+                if (checkBinary && bytes == 0 && isBinary(n)) {
+                    binary = true;
+                    logger.debug("{}: binary, skipped", file);
+                    return;
+                }
+                bytes += n;
+                length += n;
+
+                int limit = lastLineFeed(searched, length) + 1;
+                if (limit > searched) {
+                    search(searched, limit);
+                    searched = compact(limit);
+                }
+            }
+            if (length > searched) {
+                search(searched, length); // the last line has no line feed
+            }
+            contextAfter(length);
+            emit();
+            count(length);
+            lines = lineNumber - firstLine + (length > 0 && buffer[length - 1] != '\n' ? 1 : 0);
+        }
+
+
+        private boolean isBinary(int n) {
+            for (int i = 0; i < Math.min(n, BINARY_CHECK); i++) {
+                if (buffer[i] == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+
+        /**
+         * Searches complete lines, {@code from} being the start of one.
+         */
+        private void search(int from, int to) {
+            int p = from;
+            while (p < to) {
+                int hit = find(p, to);
+                if (hit < 0) {
+                    return;
+                }
+                int lineStart = hit;
+                while (lineStart > p && buffer[lineStart - 1] != '\n') {
+                    lineStart--;
+                }
+                int lineEnd = indexOf(hit, to);
+                match(lineStart, lineEnd);
+                p = lineEnd + 1;
+            }
+        }
+
+
+        /**
+         * Returns a position on the first matching line, or {@code -1} if there is none.
+         */
+        private int find(int from, int to) {
+            if (literals != null) {
+                return literals.find(buffer, from, to);
+            }
+            if (matcher == null) {
+                matcher = regex.matcher(new Latin1(buffer, 0, buffer.length));
+            }
+            matcher.region(from, to);
+            return matcher.find() ? Math.min(matcher.start(), to - 1) : -1;
+        }
+
+
+        private void match(int lineStart, int lineEnd) {
+            matches++;
+            contextAfter(lineStart);
+            emit();
+
+            long number = count(lineStart);
+            List<String> linesBefore = new ArrayList<>();
+            int s = lineStart;
+            while (linesBefore.size() < before && s > reported) {
+                int e = s - 1;
+                s = e;
+                while (s > reported && buffer[s - 1] != '\n') {
+                    s--;
+                }
+                linesBefore.add(0, text(s, e));
+            }
+            pending = new SearchMatch(file, host, number, text(lineStart, lineEnd), linesBefore, List.of());
+            pendingAfter = new ArrayList<>();
+            afterFrom = Math.min(lineEnd + 1, length);
+            reported = afterFrom;
+            if (after == 0) {
+                emit();
+            }
+        }
+
+
+        /**
+         * Adds the lines up to a position to the context after the pending match, and reports it
+         * once its context is complete.
+         */
+        private void contextAfter(int to) {
+            if (pending == null) {
+                return;
+            }
+            while (pendingAfter.size() < after && afterFrom < to) {
+                int e = indexOf(afterFrom, to);
+                pendingAfter.add(text(afterFrom, e));
+                afterFrom = Math.min(e + 1, to);
+                reported = afterFrom;
+            }
+            if (pendingAfter.size() == after) {
+                emit();
+            }
+        }
+
+
+        private void emit() {
+            if (pending != null) {
+                consumer.accept(new SearchMatch(pending.file(), pending.host(), pending.line(), pending.text(),
+                        pending.before(), pendingAfter));
+                pending = null;
+            }
+        }
+
+
+        /**
+         * Discards the searched lines but those needed as context before the next match.
+         *
+         * @param limit the end of the searched lines
+         * @return the new end of the searched lines
+         */
+        private int compact(int limit) {
+            contextAfter(limit);
+            int keep = limit;
+            for (int k = 0; k < before && keep > 0; k++) {
+                keep = lastLineFeed(0, keep - 1) + 1;
+            }
+            count(keep);
+            System.arraycopy(buffer, keep, buffer, 0, length - keep);
+            length -= keep;
+            counted -= keep;
+            reported = Math.max(0, reported - keep);
+            afterFrom -= keep;
+            return limit - keep;
+        }
+
+
+        /**
+         * Counts the lines up to a line start, unless they have been counted, and returns the
+         * number of the line where the count ends.
+         */
+        private long count(int to) {
+            byte[] b = buffer;
+            long n = 0;
+            for (int i = counted; i < to; i++) {
+                if (b[i] == '\n') {
+                    n++;
+                }
+            }
+            counted = Math.max(counted, to);
+            lineNumber += n;
+            return lineNumber;
+        }
+
+
+        private String text(int start, int end) {
+            if (end > start && buffer[end - 1] == '\r') {
+                end--;
+            }
+            return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+        }
+
+
+        /**
+         * Returns the position of the first line feed at or after a position, or {@code to}.
+         */
+        private int indexOf(int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (buffer[i] == '\n') {
+                    return i;
+                }
+            }
+            return to;
+        }
+
+
+        private int lastLineFeed(int from, int to) {
+            for (int i = to - 1; i >= from; i--) {
+                if (buffer[i] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+}
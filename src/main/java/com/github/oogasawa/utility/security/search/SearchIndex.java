@@ -0,0 +1,781 @@
+package com.github.oogasawa.utility.security.search;
+
+import com.github.oogasawa.utility.security.log.LogInputs;
+import com.github.oogasawa.utility.security.log.TimeIndex;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An inverted index of collected logs, from the terms of their lines to the blocks of the
+ * files that contain them, so that a search reads only the blocks that may match instead of
+ * every file.
+ * <p>
+ * The index is a directory of immutable segments ({@link IndexSegment}), each listing some
+ * files with the positions and first line numbers of their blocks of about
+ * {@value SegmentBuilder#BLOCK_SIZE} bytes, and a sorted dictionary of the terms of those
+ * blocks ({@link Tokenizer}) with the numbers of the blocks of each term, delta-encoded as
+ * variable-length integers. An {@link #update} indexes only the files that no segment holds with
+ * their current size and modification time, in parallel, one file per thread, into new
+ * segments, written whenever a thread has collected {@link #setMemory(long) enough} terms; so
+ * indexing after every collection costs only the new files. When there are more than
+ * {@value #MAX_SEGMENTS} segments, the {@value #MERGE_FACTOR} smallest are merged into one by
+ * one pass over their sorted dictionaries, leaving out the files that have changed or gone
+ * since they were indexed.
+ * <p>
+ * A literal pattern is looked up as the terms that every line containing it contains. A block
+ * may contain the pattern if it contains all of them, so the blocks to read are the
+ * intersection of their postings, and the union over the patterns. Files the index does not
+ * hold with their current size and modification time are read whole, so the index only ever
+ * saves work and never changes the result of a search. The paths of the files are recorded
+ * relative to the parent of the index directory, so that a collection can be moved with its
+ * index.
+ */
+public class SearchIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchIndex.class);
+
+    /** The name of the index directory in a collection, hidden from the readers of logs. */
+    public static final String DIRECTORY = ".search-index";
+
+    /** The number of segments above which the smallest are merged. */
+    static final int MAX_SEGMENTS = 16;
+
+    /** The number of segments merged at a time. */
+    static final int MERGE_FACTOR = 8;
+
+    /** The memory for the terms of the files being indexed, shared by the threads. */
+    public static final long DEFAULT_MEMORY = 256L << 20;
+
+    private static final String LOCK = "write.lock";
+
+    /**
+     * The outcome of an update of an index.
+     *
+     * @param files        the number of files indexed
+     * @param unchanged    the number of files skipped as already indexed
+     * @param failed       the number of files that could not be read
+     * @param bytes        the number of content bytes indexed
+     * @param blocks       the number of blocks in the index
+     * @param segments     the number of segments in the index
+     * @param merged       the number of segments merged into others
+     * @param elapsedNanos the wall-clock time of the update
+     */
+    public record Report(long files, long unchanged, long failed, long bytes, long blocks, int segments,
+            int merged, long elapsedNanos) {
+
+        /**
+         * Formats the report as text.
+         *
+         * @return the report
+         */
+        public String format() {
+            double seconds = Math.max(elapsedNanos, 1) / 1e9;
+            return String.format("Indexed %d files (%d unchanged, %d failed), %.1f MB in %.2f s: %.1f MB/s%n"
+                    + "Index: %d blocks in %d segments (%d merged)%n",
+                    files, unchanged, failed, bytes / 1e6, seconds, bytes / 1e6 / seconds, blocks, segments, merged);
+        }
+    }
+
+    /**
+     * A range of the content of a file to search: whole lines, starting with a block.
+     *
+     * @param position the position of the range in the (uncompressed) content
+     * @param line     the number of the first line of the range
+     * @param length   the number of bytes of the range
+     */
+    record Range(long position, long line, long length) {
+    }
+
+    private final Path dir;
+
+    private final Path root;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private long memory = DEFAULT_MEMORY;
+
+
+    private SearchIndex(Path dir) {
+        this.dir = dir;
+        this.root = dir.toAbsolutePath().normalize().getParent();
+    }
+
+
+    /**
+     * Opens an index, creating its directory if there is none.
+     *
+     * @param dir the index directory, e.g. {@link #DIRECTORY} in the directory of a collection
+     * @return the index
+     * @throws IOException if the directory cannot be created
+     */
+    public static SearchIndex open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        return new SearchIndex(dir);
+    }
+
+
+    /**
+     * Sets the number of files indexed in parallel.
+     *
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+
+    /**
+     * Sets the memory for the terms of the files being indexed. The more there is, the fewer
+     * and larger the segments written by an update.
+     *
+     * @param bytes the number of bytes, shared by the threads
+     */
+    public void setMemory(long bytes) {
+        this.memory = bytes;
+    }
+
+
+    /**
+     * Returns the index directory.
+     *
+     * @return the directory
+     */
+    public Path directory() {
+        return dir;
+    }
+
+
+    /**
+     * Indexes the files that the index does not hold with their current size and modification
+     * time, and merges segments if there are too many.
+     *
+     * @param files the files, plain, gzip-compressed or recipes of a chunk store
+     * @return the report
+     * @throws IOException if the index cannot be read or written, or is being updated by
+     *                     another process
+     */
+    public Report update(List<Path> files) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel lockFile = FileChannel.open(dir.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = lock(lockFile);
+            try {
+                deleteParts();
+
+                // the files whose current version is indexed
+                Map<String, List<long[]>> indexed = new HashMap<>();
+                List<IndexSegment> segments = load(true);
+                try {
+                    for (IndexSegment s : segments) {
+                        for (int f = 0; f < s.files(); f++) {
+                            indexed.computeIfAbsent(s.key(f), k -> new ArrayList<>()).add(new long[] {s.size(f), s.modified(f)});
+                        }
+                    }
+                } finally {
+                    close(segments);
+                }
+                List<Task> tasks = new ArrayList<>();
+                long unchanged = 0;
+                for (Path file : files) {
+                    BasicFileAttributes a = Files.readAttributes(file, BasicFileAttributes.class);
+                    String key = keyOf(file);
+                    long size = a.size();
+                    long modified = a.lastModifiedTime().toMillis();
+                    if (indexed.getOrDefault(key, List.of()).stream().anyMatch(v -> v[0] == size && v[1] == modified)) {
+                        unchanged++;
+                    } else {
+                        tasks.add(new Task(file, key, size, modified));
+                    }
+                }
+
+                // the largest files first, so that no thread starts a large file last
+                tasks.sort(Comparator.comparingLong(Task::size).reversed());
+                Queue<Task> queue = new ConcurrentLinkedQueue<>(tasks);
+                AtomicLong generation = new AtomicLong(lastGeneration());
+                LongAdder indexedFiles = new LongAdder();
+                LongAdder failed = new LongAdder();
+                LongAdder bytes = new LongAdder();
+                int n = Math.max(1, Math.min(threads, tasks.size()));
+                ExecutorService pool = Executors.newFixedThreadPool(n);
+                try {
+                    List<Future<?>> workers = new ArrayList<>();
+                    for (int i = 0; i < n; i++) {
+                        workers.add(pool.submit(() -> {
+                            index(queue, memory / n, generation, indexedFiles, failed, bytes);
+                            return null;
+                        }));
+                    }
+                    for (Future<?> w : workers) {
+                        w.get();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted", e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException io) {
+                        throw io;
+                    }
+                    throw new IOException(e.getCause());
+                } finally {
+                    pool.shutdownNow();
+                }
+
+                int merged = 0;
+                while (true) {
+                    List<IndexSegment> all = load(true);
+                    if (all.size() <= MAX_SEGMENTS) {
+                        close(all);
+                        break;
+                    }
+                    all.sort(Comparator.comparingLong(IndexSegment::bytes));
+                    close(all.subList(MERGE_FACTOR, all.size()));
+                    merged += merge(all.subList(0, MERGE_FACTOR), generation.incrementAndGet());
+                }
+                return report(indexedFiles.sum(), unchanged, failed.sum(), bytes.sum(), merged, start);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+
+    /**
+     * Merges all segments of the index into one, leaving out the files that have changed or
+     * gone since they were indexed.
+     *
+     * @return the report
+     * @throws IOException if the index cannot be read or written, or is being updated by
+     *                     another process
+     */
+    public Report merge() throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel lockFile = FileChannel.open(dir.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = lock(lockFile);
+            try {
+                deleteParts();
+                List<IndexSegment> all = load(true);
+                int merged = all.isEmpty() ? 0 : merge(all, lastGeneration() + 1);
+                return report(0, 0, 0, 0, merged, start);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+
+    private record Task(Path file, String key, long size, long modified) {
+    }
+
+
+    /**
+     * Indexes files from a queue into segments, on one thread.
+     */
+    private void index(Queue<Task> queue, long budget, AtomicLong generation, LongAdder files, LongAdder failed,
+            LongAdder bytes) throws IOException {
+        SegmentBuilder builder = new SegmentBuilder();
+        Task task;
+        while ((task = queue.poll()) != null) {
+            try (InputStream in = LogInputs.open(task.file())) {
+                bytes.add(builder.add(task.key(), task.size(), task.modified(), in));
+                files.increment();
+            } catch (IOException e) {
+                logger.warn("Failed to index {}: {}", task.file(), e.toString());
+                failed.increment();
+            }
+            if (builder.memory() > budget) {
+                write(builder, generation.incrementAndGet());
+                builder = new SegmentBuilder();
+            }
+        }
+        if (!builder.isEmpty()) {
+            write(builder, generation.incrementAndGet());
+        }
+    }
+
+
+    private void write(SegmentBuilder builder, long generation) throws IOException {
+        Path path = segmentPath(generation);
+        builder.write(path);
+        logger.info("Wrote {} with {} files", path, builder.files());
+    }
+
+
+    /**
+     * Merges segments into one and deletes them; closes them.
+     *
+     * @return the number of segments merged
+     */
+    private int merge(List<IndexSegment> inputs, long generation) throws IOException {
+        Path path = segmentPath(generation);
+        try {
+            int[][] blockMap = new int[inputs.size()][];
+            Set<String> kept = new HashSet<>();
+            int next = 0;
+            try (SegmentWriter writer = new SegmentWriter(path)) {
+                for (int i = 0; i < inputs.size(); i++) {
+                    IndexSegment s = inputs.get(i);
+                    int[] map = new int[s.blocks()];
+                    Arrays.fill(map, -1);
+                    for (int f = 0; f < s.files(); f++) {
+                        if (!isCurrent(s, f) || !kept.add(s.key(f))) {
+                            continue;
+                        }
+                        int first = s.firstBlock(f);
+                        int count = s.endBlock(f) - first;
+                        long[] positions = new long[count];
+                        long[] lines = new long[count];
+                        for (int b = 0; b < count; b++) {
+                            map[first + b] = next++;
+                            positions[b] = s.position(first + b);
+                            lines[b] = s.line(first + b);
+                        }
+                        writer.file(s.key(f), s.size(f), s.modified(f), s.contentLength(f), positions, lines, count);
+                    }
+                    blockMap[i] = map;
+                }
+
+                // the dictionaries in one pass, each term once with the postings of all inputs in order
+                record Head(IndexSegment.Cursor cursor, int input) {
+                }
+                PriorityQueue<Head> heads = new PriorityQueue<>((x, y) -> {
+                    int cmp = Arrays.compareUnsigned(x.cursor().term(), 0, x.cursor().length(),
+                            y.cursor().term(), 0, y.cursor().length());
+                    return cmp != 0 ? cmp : Integer.compare(x.input(), y.input());
+                });
+                for (int i = 0; i < inputs.size(); i++) {
+                    IndexSegment.Cursor c = inputs.get(i).cursor();
+                    if (c.next()) {
+                        heads.add(new Head(c, i));
+                    }
+                }
+                int[] ids = new int[1024];
+                int[] merged = new int[1024];
+                List<Head> same = new ArrayList<>();
+                while (!heads.isEmpty()) {
+                    same.clear();
+                    same.add(heads.poll());
+                    IndexSegment.Cursor first = same.get(0).cursor();
+                    while (!heads.isEmpty() && Arrays.equals(heads.peek().cursor().term(), 0, heads.peek().cursor().length(),
+                            first.term(), 0, first.length())) {
+                        same.add(heads.poll());
+                    }
+                    int count = 0;
+                    for (Head h : same) {
+                        IndexSegment.Cursor c = h.cursor();
+                        if (ids.length < c.count()) {
+                            ids = new int[c.count()];
+                        }
+                        inputs.get(h.input()).postings(c, ids);
+                        int[] map = blockMap[h.input()];
+                        for (int k = 0; k < c.count(); k++) {
+                            int id = map[ids[k]];
+                            if (id >= 0) {
+                                if (count == merged.length) {
+                                    merged = Arrays.copyOf(merged, count * 2);
+                                }
+                                merged[count++] = id;
+                            }
+                        }
+                    }
+                    if (count > 0) {
+                        writer.term(first.term(), 0, first.length(), merged, count);
+                    }
+                    for (Head h : same) {
+                        if (h.cursor().next()) {
+                            heads.add(h);
+                        }
+                    }
+                }
+                writer.finish();
+            }
+            logger.info("Merged {} segments into {} with {} files", inputs.size(), path, kept.size());
+        } finally {
+            close(inputs);
+        }
+        for (IndexSegment s : inputs) {
+            Files.deleteIfExists(s.path());
+        }
+        return inputs.size();
+    }
+
+
+    /**
+     * Checks whether a file of a segment is still as it was indexed.
+     */
+    private boolean isCurrent(IndexSegment s, int file) {
+        try {
+            BasicFileAttributes a = Files.readAttributes(pathOf(s.key(file)), BasicFileAttributes.class);
+            return a.size() == s.size(file) && a.lastModifiedTime().toMillis() == s.modified(file);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Returns the ranges of the files to search for any of a set of literal patterns: for each
+     * file that the index holds with its current size and modification time, the runs of blocks
+     * that may contain a pattern, with {@code margin} blocks around each for the context of the
+     * matches.
+     *
+     * @param files    the files to search
+     * @param patterns the literal patterns
+     * @param margin   the number of blocks before and after each block that may match
+     * @return the ranges of each indexed file, possibly none; the files left out are not
+     *         indexed and must be searched whole
+     * @throws IOException if the index cannot be read
+     */
+    Map<Path, List<Range>> plan(List<Path> files, List<String> patterns, int margin) throws IOException {
+        Map<String, Path> wanted = new HashMap<>();
+        for (Path file : files) {
+            wanted.put(keyOf(file), file);
+        }
+        List<List<Tokenizer.QueryTerm>> queries = new ArrayList<>();
+        for (String p : patterns) {
+            queries.add(Tokenizer.query(p));
+        }
+
+        Map<Path, List<Range>> plan = new HashMap<>();
+        List<IndexSegment> segments = load(false);
+        try {
+            for (IndexSegment s : segments) {
+                BitSet candidates = null;
+                for (int f = 0; f < s.files(); f++) {
+                    Path file = wanted.get(s.key(f));
+                    if (file == null || plan.containsKey(file) || !isCurrent(s, f, file)) {
+                        continue;
+                    }
+                    if (candidates == null) {
+                        candidates = candidates(s, queries);
+                    }
+                    plan.put(file, ranges(s, f, candidates, margin));
+                }
+            }
+        } finally {
+            close(segments);
+        }
+        logger.info("{} of {} files are indexed", plan.size(), files.size());
+        return plan;
+    }
+
+
+    private static boolean isCurrent(IndexSegment s, int f, Path file) {
+        try {
+            BasicFileAttributes a = Files.readAttributes(file, BasicFileAttributes.class);
+            return a.size() == s.size(f) && a.lastModifiedTime().toMillis() == s.modified(f);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Returns the blocks of a segment that may contain any of a set of patterns.
+     */
+    private static BitSet candidates(IndexSegment s, List<List<Tokenizer.QueryTerm>> queries) throws IOException {
+        BitSet all = new BitSet();
+        if (queries.stream().anyMatch(List::isEmpty)) {
+            all.set(0, s.blocks());
+            return all;
+        }
+
+        // the terms that may have more bytes before them, found in one scan of the dictionary
+        List<Tokenizer.QueryTerm> open = new ArrayList<>();
+        List<BitSet> openBlocks = new ArrayList<>();
+        for (List<Tokenizer.QueryTerm> query : queries) {
+            for (Tokenizer.QueryTerm t : query) {
+                if (t.openLeft()) {
+                    open.add(t);
+                    openBlocks.add(new BitSet());
+                }
+            }
+        }
+        if (!open.isEmpty()) {
+            s.scan(open, openBlocks);
+        }
+        BitSet overlong = new BitSet();
+        s.lookup(new Tokenizer.QueryTerm(Tokenizer.OVERLONG, false, false), overlong);
+
+        int next = 0;
+        for (List<Tokenizer.QueryTerm> query : queries) {
+            BitSet blocks = null;
+            for (Tokenizer.QueryTerm t : query) {
+                BitSet b;
+                if (t.openLeft()) {
+                    b = openBlocks.get(next++);
+                } else {
+                    b = new BitSet();
+                    s.lookup(t, b);
+                }
+                if (t.overlong()) {
+                    b.or(overlong);
+                }
+                if (blocks == null) {
+                    blocks = b;
+                } else {
+                    blocks.and(b);
+                }
+            }
+            all.or(blocks);
+        }
+        return all;
+    }
+
+
+    /**
+     * Returns the runs of candidate blocks of a file, widened by a margin.
+     */
+    private static List<Range> ranges(IndexSegment s, int f, BitSet candidates, int margin) {
+        List<Range> ranges = new ArrayList<>();
+        int first = s.firstBlock(f);
+        int end = s.endBlock(f);
+        int b = candidates.nextSetBit(first);
+        while (b >= 0 && b < end) {
+            int from = Math.max(first, b - margin);
+            int to = Math.min(end, b + margin + 1);
+            // extend the run while the next candidate is within reach
+            int n = candidates.nextSetBit(b + 1);
+            while (n >= 0 && n < end && n - margin <= to) {
+                to = Math.min(end, n + margin + 1);
+                n = candidates.nextSetBit(n + 1);
+            }
+            long position = s.position(from);
+            long stop = to < end ? s.position(to) : s.contentLength(f);
+            ranges.add(new Range(position, s.line(from), stop - position));
+            b = n;
+        }
+        return ranges;
+    }
+
+
+    /**
+     * Reads the ranges of a file in ascending order. A file with a time index is opened at the
+     * entry nearest to a range whenever that lies ahead of the current position, so that a gzip
+     * file compressed by the collector is inflated only from the member that holds the range; a
+     * plain file is skipped to each range; any other file is inflated once, from the start to
+     * the last range. Not thread-safe.
+     */
+    static final class RangeReader implements Closeable {
+
+        private final Path file;
+
+        private final TimeIndex time;
+
+        private InputStream in;
+
+        // the content position of the stream
+        private long position;
+
+        /**
+         * Prepares to read a file.
+         *
+         * @param file the file, plain, gzip-compressed or a recipe of a chunk store
+         */
+        RangeReader(Path file) {
+            this.file = file;
+            this.time = TimeIndex.load(file);
+        }
+
+        /**
+         * Returns the content of the file from a position on, which must not be before the end
+         * of what was read from the previous range.
+         *
+         * @param range the range
+         * @return the stream, positioned at the start of the range; it is closed by
+         *         {@link #close()}
+         * @throws IOException if the file cannot be read
+         */
+        InputStream seek(Range range) throws IOException {
+            long target = range.position();
+            TimeIndex.Entry entry = time != null ? entry(target) : null;
+            if (in == null || entry != null && entry.position() > position) {
+                close();
+                if (entry != null) {
+                    in = time.open(file, entry);
+                    position = entry.position();
+                } else {
+                    in = LogInputs.open(file);
+                    position = 0;
+                }
+            }
+            in.skipNBytes(target - position);
+            position = target;
+            return in;
+        }
+
+        /**
+         * Records the number of bytes read from the stream since {@link #seek}.
+         *
+         * @param bytes the number of bytes
+         */
+        void advance(long bytes) {
+            position += bytes;
+        }
+
+        private TimeIndex.Entry entry(long target) {
+            List<TimeIndex.Entry> entries = time.entries();
+            int lo = 0;
+            int hi = entries.size() - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (entries.get(mid).position() <= target) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return entries.get(lo);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+        }
+    }
+
+
+    /**
+     * Returns the key of a file in the index: its path relative to the parent of the index
+     * directory, or its absolute path if it is elsewhere.
+     */
+    private String keyOf(Path file) {
+        Path absolute = file.toAbsolutePath().normalize();
+        return absolute.startsWith(root) ? root.relativize(absolute).toString() : absolute.toString();
+    }
+
+
+    private Path pathOf(String key) {
+        Path path = Path.of(key);
+        return path.isAbsolute() ? path : root.resolve(path);
+    }
+
+
+    private Path segmentPath(long generation) {
+        return dir.resolve(String.format("%s%012d%s", IndexSegment.PREFIX, generation, IndexSegment.SUFFIX));
+    }
+
+
+    /**
+     * Opens the segments of the index, in the order of their generations.
+     *
+     * @param deleteInvalid {@code true} to delete the files that are not complete segments,
+     *                      {@code false} to ignore them
+     */
+    private List<IndexSegment> load(boolean deleteInvalid) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, IndexSegment.PREFIX + "*" + IndexSegment.SUFFIX)) {
+            stream.forEach(paths::add);
+        } catch (NoSuchFileException e) {
+            return new ArrayList<>();
+        }
+        paths.sort(null);
+        List<IndexSegment> segments = new ArrayList<>();
+        for (Path p : paths) {
+            try {
+                segments.add(IndexSegment.open(p));
+            } catch (IOException e) {
+                logger.warn("Ignoring {}: {}", p, e.getMessage());
+                if (deleteInvalid) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+        return segments;
+    }
+
+
+    private long lastGeneration() throws IOException {
+        long last = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, IndexSegment.PREFIX + "*")) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                int end = name.indexOf('.');
+                try {
+                    last = Math.max(last, Long.parseLong(name.substring(IndexSegment.PREFIX.length(), end < 0 ? name.length() : end)));
+                } catch (NumberFormatException e) {
+                    // not a segment
+                }
+            }
+        }
+        return last;
+    }
+
+
+    /**
+     * Deletes the segments left incomplete by an update that did not finish.
+     */
+    private void deleteParts() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.part")) {
+            for (Path p : stream) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+
+    private Report report(long files, long unchanged, long failed, long bytes, int merged, long start) throws IOException {
+        List<IndexSegment> segments = load(false);
+        long blocks = 0;
+        for (IndexSegment s : segments) {
+            blocks += s.blocks();
+        }
+        close(segments);
+        logger.info("Indexed {} files into {}", files, dir);
+        return new Report(files, unchanged, failed, bytes, blocks, segments.size(), merged, System.nanoTime() - start);
+    }
+
+
+    private FileLock lock(FileChannel channel) throws IOException {
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            throw new IOException(dir + " is being updated by another process");
+        }
+        return lock;
+    }
+
+
+    private static void close(List<IndexSegment> segments) throws IOException {
+        for (IndexSegment s : segments) {
+            s.close();
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.github.oogasawa.utility.security.search;
+
+import java.nio.file.Path;
+import java.util.List;
+
+
+/**
+ * A line of a log that matches a search, with the lines around it.
+ * <p>
+ * When the context of two matches overlaps, the lines between them are given once, as the
+ * context after the first match, so that printing the matches in order prints every line once.
+ *
+ * @param file   the log file
+ * @param host   the host name in the name of the file, or {@code null} if there is none
+ * @param line   the number of the matching line, starting at 1
+ * @param text   the matching line, without its line feed
+ * @param before the lines before the matching line, the nearest last
+ * @param after  the lines after the matching line, the nearest first
+ */
+public record SearchMatch(Path file, String host, long line, String text, List<String> before, List<String> after) {
+
+    /**
+     * Returns the number of the first line of the match and its context.
+     *
+     * @return the line number
+     */
+    public long firstLine() {
+        return line - before.size();
+    }
+
+
+    /**
+     * Returns the number of the last line of the match and its context.
+     *
+     * @return the line number
+     */
+    public long lastLine() {
+        return line + after.size();
+    }
+
+}
@@ -0,0 +1,313 @@
+package com.github.oogasawa.utility.security.search;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Collects the terms of files in memory, block by block, and writes them as a segment of a
+ * {@link SearchIndex}.
+ * <p>
+ * The content of a file is divided into blocks of about {@value #BLOCK_SIZE} bytes, each
+ * ending at the end of a line, and every distinct term of a block adds the number of the block
+ * to the postings of the term. The terms are kept in an open-addressing hash table whose keys
+ * are the bytes of the terms in one array, so that a token is looked up without creating an
+ * object, and a term met again in the same block costs only the lookup. The builder reports
+ * the memory it holds, so that the caller can write a segment when it grows too large.
+ * <p>
+ * Not thread-safe; each indexing thread has a builder of its own.
+ */
+final class SegmentBuilder implements Tokenizer.Sink {
+
+    /** The number of content bytes after which a block ends at the next line feed. */
+    static final int BLOCK_SIZE = 1 << 16;
+
+    /** The number of bytes at the start of a file checked for binary content. */
+    static final int BINARY_CHECK = 8192;
+
+    private record FileEntry(String key, long size, long modified, long contentLength, int firstBlock, int blocks) {
+    }
+
+    private final List<FileEntry> files = new ArrayList<>();
+
+    private long[] positions = new long[1024];
+
+    private long[] lines = new long[1024];
+
+    private int blocks = 0;
+
+    // the terms, each as its length and its bytes
+    private byte[] arena = new byte[1 << 16];
+    private int arenaLength = 0;
+
+    private int[] offsets = new int[1024];
+    private int[] hashes = new int[1024];
+    private int[][] postings = new int[1024][];
+    private int[] counts = new int[1024];
+    private int terms = 0;
+
+    // term + 1, or 0 for an empty slot
+    private int[] slots = new int[2048];
+
+    private long postingCount = 0;
+
+    private byte[] buffer = new byte[1 << 20];
+
+
+    /**
+     * Reads a file and adds its terms. A binary file is added without blocks.
+     *
+     * @param key      the path of the file relative to the root of the index
+     * @param size     the size of the file
+     * @param modified the modification time of the file in milliseconds
+     * @param in       the (decompressed) content of the file
+     * @return the number of content bytes read
+     * @throws IOException if the file cannot be read
+     */
+    long add(String key, long size, long modified, InputStream in) throws IOException {
+        int firstBlock = blocks;
+        long position = 0; // of the start of the buffer in the content
+        long line = 1; // of the start of the block
+        int start = 0;
+        int length = 0;
+        boolean eof = false;
+        while (!eof || start < length) {
+            if (!eof) {
+                if (length == buffer.length) {
+                    if (start > 0) {
+                        System.arraycopy(buffer, start, buffer, 0, length - start);
+                        position += start;
+                        length -= start;
+                        start = 0;
+                    } else {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2); // a line longer than the buffer
+                    }
+                }
+                int n = in.read(buffer, length, buffer.length - length);
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    if (position == 0 && length == 0 && isBinary(n)) {
+                        blocks = firstBlock;
+                        files.add(new FileEntry(key, size, modified, 0, firstBlock, 0));
+                        return n;
+                    }
+                    length += n;
+                }
+            }
+            // the complete blocks in the buffer
+            while (length - start > BLOCK_SIZE || eof && start < length) {
+                int end = eof ? length : -1;
+                for (int i = start + BLOCK_SIZE - 1; i < length; i++) {
+                    if (buffer[i] == '\n') {
+                        end = i + 1;
+                        break;
+                    }
+                }
+                if (end < 0) {
+                    break;
+                }
+                block(position + start, line);
+                Tokenizer.tokenize(buffer, start, end, this);
+                for (int i = start; i < end; i++) {
+                    if (buffer[i] == '\n') {
+                        line++;
+                    }
+                }
+                start = end;
+                if (eof && end == length) {
+                    break;
+                }
+            }
+        }
+        long contentLength = position + length;
+        files.add(new FileEntry(key, size, modified, contentLength, firstBlock, blocks - firstBlock));
+        return contentLength;
+    }
+
+
+    private boolean isBinary(int n) {
+        for (int i = 0; i < Math.min(n, BINARY_CHECK); i++) {
+            if (buffer[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private void block(long position, long line) {
+        if (blocks == positions.length) {
+            positions = Arrays.copyOf(positions, blocks * 2);
+            lines = Arrays.copyOf(lines, blocks * 2);
+        }
+        positions[blocks] = position;
+        lines[blocks] = line;
+        blocks++;
+    }
+
+
+    @Override
+    public void token(byte[] b, int from, int to) {
+        int n = to - from;
+        if (n > Tokenizer.MAX_TERM) {
+            from = to;
+            n = 0; // listed under the empty term
+        }
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + Tokenizer.lower(b[i]);
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+
+        int mask = slots.length - 1;
+        int slot = h & mask;
+        int term;
+        while (true) {
+            int s = slots[slot];
+            if (s == 0) {
+                term = insert(b, from, n, h, slot);
+                break;
+            }
+            int t = s - 1;
+            if (hashes[t] == h && equals(t, b, from, n)) {
+                term = t;
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int[] p = postings[term];
+        int c = counts[term];
+        int block = blocks - 1;
+        if (c > 0 && p[c - 1] == block) {
+            return;
+        }
+        if (p == null) {
+            p = postings[term] = new int[2];
+        } else if (c == p.length) {
+            p = postings[term] = Arrays.copyOf(p, c + (c >> 1) + 1);
+        }
+        p[c] = block;
+        counts[term] = c + 1;
+        postingCount++;
+    }
+
+
+    private boolean equals(int term, byte[] b, int from, int n) {
+        int o = offsets[term];
+        if ((arena[o] & 0xff) != n) {
+            return false;
+        }
+        o++;
+        for (int i = 0; i < n; i++) {
+            if (arena[o + i] != Tokenizer.lower(b[from + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private int insert(byte[] b, int from, int n, int h, int slot) {
+        if (arenaLength + n + 1 > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaLength + n + 1));
+        }
+        if (terms == offsets.length) {
+            int capacity = terms * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            postings = Arrays.copyOf(postings, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        int t = terms++;
+        offsets[t] = arenaLength;
+        hashes[t] = h;
+        arena[arenaLength++] = (byte) n;
+        for (int i = 0; i < n; i++) {
+            arena[arenaLength++] = Tokenizer.lower(b[from + i]);
+        }
+        slots[slot] = t + 1;
+        if (terms * 2 > slots.length) {
+            rehash();
+        }
+        return t;
+    }
+
+
+    private void rehash() {
+        int[] table = new int[slots.length * 2];
+        int mask = table.length - 1;
+        for (int t = 0; t < terms; t++) {
+            int slot = hashes[t] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = t + 1;
+        }
+        slots = table;
+    }
+
+
+    /**
+     * Returns an estimate of the memory held by the terms and postings.
+     *
+     * @return the number of bytes
+     */
+    long memory() {
+        return arena.length + (long) offsets.length * 32 + slots.length * 4L + postingCount * 6 + blocks * 16L;
+    }
+
+
+    /**
+     * Checks whether no file has been added.
+     *
+     * @return {@code true} if there is nothing to write
+     */
+    boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+
+    int files() {
+        return files.size();
+    }
+
+
+    /**
+     * Writes the files and terms as a segment.
+     *
+     * @param path the file of the segment
+     * @throws IOException if the segment cannot be written
+     */
+    void write(Path path) throws IOException {
+        Integer[] order = new Integer[terms];
+        for (int i = 0; i < terms; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (x, y) -> {
+            int a = offsets[x];
+            int b = offsets[y];
+            return Arrays.compareUnsigned(arena, a + 1, a + 1 + (arena[a] & 0xff), arena, b + 1, b + 1 + (arena[b] & 0xff));
+        });
+        try (SegmentWriter writer = new SegmentWriter(path)) {
+            for (FileEntry f : files) {
+                writer.file(f.key(), f.size(), f.modified(), f.contentLength(),
+                        Arrays.copyOfRange(positions, f.firstBlock(), f.firstBlock() + f.blocks()),
+                        Arrays.copyOfRange(lines, f.firstBlock(), f.firstBlock() + f.blocks()), f.blocks());
+            }
+            for (int t : order) {
+                int o = offsets[t];
+                writer.term(arena, o + 1, arena[o] & 0xff, postings[t], counts[t]);
+            }
+            writer.finish();
+        }
+    }
+
+}
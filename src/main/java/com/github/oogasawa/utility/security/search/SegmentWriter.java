@@ -0,0 +1,309 @@
+package com.github.oogasawa.utility.security.search;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+
+/**
+ * Writes a segment of a {@link SearchIndex} to a file, which appears under its name only once
+ * it is complete.
+ * <p>
+ * The files of the segment are added first, then the terms in ascending order of their bytes,
+ * each with the ascending numbers of the blocks that contain it. The segment consists of
+ * <ol>
+ * <li>a header: the magic number and the version;</li>
+ * <li>the files: for each, its path, size, modification time, content length and the
+ *     positions and line numbers of its blocks, delta-encoded; the blocks of the segment are
+ *     numbered in this order;</li>
+ * <li>the term dictionary: for each term, the length of the prefix it shares with the previous
+ *     term, the rest of its bytes, the number of blocks that contain it and the length of its
+ *     postings; every {@value IndexSegment#RESTART}th term shares nothing, so that the
+ *     dictionary can be read from there;</li>
+ * <li>the sparse term index: every {@value IndexSegment#RESTART}th term with its positions in
+ *     the dictionary and the postings;</li>
+ * <li>the postings: for each term, its block numbers, the first as such and each other as the
+ *     difference from the previous one;</li>
+ * <li>a footer: the positions of the sections and the counts of files, blocks and terms.</li>
+ * </ol>
+ * All numbers but those of the header and the footer are unsigned variable-length integers,
+ * seven bits per byte, lowest first, as most differences fit in one or two bytes. The postings
+ * are written to a temporary file of their own while the dictionary is written, and appended
+ * at the end, so that a merge of segments streams both.
+ */
+final class SegmentWriter implements Closeable {
+
+    private final Path path;
+
+    private final Path temp;
+
+    private final Path postingsTemp;
+
+    private final Output out;
+
+    private final Output postings;
+
+    private final Output sparse = new Output(new ByteArrayOutputStream());
+
+    private long files = 0;
+
+    private long blocks = 0;
+
+    private long terms = 0;
+
+    private long termsOffset = -1;
+
+    private final byte[] previous = new byte[Tokenizer.MAX_TERM];
+
+    private int previousLength = 0;
+
+    private boolean finished = false;
+
+
+    /**
+     * Starts a segment.
+     *
+     * @param path the file of the segment
+     * @throws IOException if the file cannot be created
+     */
+    SegmentWriter(Path path) throws IOException {
+        this.path = path;
+        this.temp = path.resolveSibling(path.getFileName() + ".part");
+        this.postingsTemp = path.resolveSibling(path.getFileName() + ".postings.part");
+        this.out = new Output(Files.newOutputStream(temp));
+        try {
+            this.postings = new Output(Files.newOutputStream(postingsTemp));
+        } catch (IOException e) {
+            out.close();
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        out.writeInt(IndexSegment.MAGIC);
+        out.writeInt(IndexSegment.VERSION);
+    }
+
+
+    /**
+     * Adds a file.
+     *
+     * @param key           the path of the file relative to the root of the index
+     * @param size          the size of the file
+     * @param modified      the modification time of the file in milliseconds
+     * @param contentLength the number of (uncompressed) content bytes
+     * @param positions     the content positions of the blocks of the file
+     * @param lines         the numbers of the first lines of the blocks
+     * @param count         the number of blocks
+     * @throws IOException if the segment cannot be written
+     */
+    void file(String key, long size, long modified, long contentLength, long[] positions, long[] lines, int count)
+            throws IOException {
+        if (termsOffset >= 0) {
+            throw new IllegalStateException("Files must be added before terms");
+        }
+        byte[] name = key.getBytes(StandardCharsets.UTF_8);
+        out.writeVarLong(name.length);
+        out.write(name, 0, name.length);
+        out.writeVarLong(size);
+        out.writeVarLong(modified);
+        out.writeVarLong(contentLength);
+        out.writeVarLong(count);
+        long position = 0;
+        long line = 1;
+        for (int i = 0; i < count; i++) {
+            out.writeVarLong(positions[i] - position);
+            out.writeVarLong(lines[i] - line);
+            position = positions[i];
+            line = lines[i];
+        }
+        files++;
+        blocks += count;
+    }
+
+
+    /**
+     * Adds a term.
+     *
+     * @param b      the bytes of the term, folded to lower case
+     * @param offset the start of the term
+     * @param length the length of the term, at most {@link Tokenizer#MAX_TERM}
+     * @param ids    the numbers of the blocks that contain the term, ascending
+     * @param count  the number of blocks
+     * @throws IOException if the segment cannot be written
+     */
+    void term(byte[] b, int offset, int length, int[] ids, int count) throws IOException {
+        if (termsOffset < 0) {
+            termsOffset = out.position();
+        }
+        long postingsOffset = postings.position();
+        int previousId = -1;
+        for (int i = 0; i < count; i++) {
+            postings.writeVarLong(previousId < 0 ? ids[i] : ids[i] - previousId);
+            previousId = ids[i];
+        }
+
+        int shared = 0;
+        if (terms % IndexSegment.RESTART == 0) {
+            sparse.writeVarLong(length);
+            sparse.write(b, offset, length);
+            sparse.writeVarLong(out.position() - termsOffset);
+            sparse.writeVarLong(postingsOffset);
+        } else {
+            int max = Math.min(length, previousLength);
+            while (shared < max && previous[shared] == b[offset + shared]) {
+                shared++;
+            }
+        }
+        out.writeVarLong(shared);
+        out.writeVarLong(length - shared);
+        out.write(b, offset + shared, length - shared);
+        out.writeVarLong(count);
+        out.writeVarLong(postings.position() - postingsOffset);
+        System.arraycopy(b, offset, previous, 0, length);
+        previousLength = length;
+        terms++;
+    }
+
+
+    /**
+     * Completes the segment and moves it to its name.
+     *
+     * @throws IOException if the segment cannot be written
+     */
+    void finish() throws IOException {
+        if (termsOffset < 0) {
+            termsOffset = out.position();
+        }
+        long sparseOffset = out.position();
+        sparse.close();
+        byte[] index = ((ByteArrayOutputStream) sparse.out).toByteArray();
+        out.write(index, 0, index.length);
+
+        long postingsOffset = out.position();
+        postings.close();
+        try (InputStream in = Files.newInputStream(postingsTemp)) {
+            byte[] buffer = new byte[1 << 16];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+        out.writeLong(8);
+        out.writeLong(termsOffset);
+        out.writeLong(sparseOffset);
+        out.writeLong(postingsOffset);
+        out.writeLong(files);
+        out.writeLong(blocks);
+        out.writeLong(terms);
+        out.writeInt(IndexSegment.MAGIC);
+        out.close();
+        finished = true;
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(postingsTemp);
+    }
+
+
+    /**
+     * Discards the segment unless it has been finished.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            out.close();
+            postings.close();
+            Files.deleteIfExists(temp);
+            Files.deleteIfExists(postingsTemp);
+        }
+    }
+
+
+    /**
+     * A buffered output that counts its position and writes variable-length integers.
+     */
+    private static final class Output implements Closeable {
+
+        private final OutputStream out;
+
+        private final byte[] buffer = new byte[1 << 16];
+
+        private int length = 0;
+
+        private long flushed = 0;
+
+        private boolean closed = false;
+
+        Output(OutputStream out) {
+            this.out = out;
+        }
+
+        long position() {
+            return flushed + length;
+        }
+
+        void writeVarLong(long v) throws IOException {
+            if (length > buffer.length - 10) {
+                flush();
+            }
+            while ((v & ~0x7fL) != 0) {
+                buffer[length++] = (byte) (v | 0x80);
+                v >>>= 7;
+            }
+            buffer[length++] = (byte) v;
+        }
+
+        void writeInt(int v) throws IOException {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                write((byte) (v >>> shift));
+            }
+        }
+
+        void writeLong(long v) throws IOException {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+
+        private void write(byte b) throws IOException {
+            if (length == buffer.length) {
+                flush();
+            }
+            buffer[length++] = b;
+        }
+
+        void write(byte[] b, int offset, int n) throws IOException {
+            if (n > buffer.length - length) {
+                flush();
+                if (n > buffer.length) {
+                    out.write(b, offset, n);
+                    flushed += n;
+                    return;
+                }
+            }
+            System.arraycopy(b, offset, buffer, length, n);
+            length += n;
+        }
+
+        private void flush() throws IOException {
+            out.write(buffer, 0, length);
+            flushed += length;
+            length = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                try {
+                    flush();
+                } finally {
+                    out.close();
+                }
+            }
+        }
+    }
+
+}
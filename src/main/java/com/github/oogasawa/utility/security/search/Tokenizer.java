@@ -0,0 +1,193 @@
+package com.github.oogasawa.utility.security.search;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Splits log lines into the terms of a {@link SearchIndex}, and literal patterns into the terms
+ * that a line containing them must contain.
+ * <p>
+ * A token is a maximal run of letters, digits, bytes of multibyte UTF-8 characters and the
+ * joining characters {@code . : - _ @}, without the joining characters at its ends, so that an
+ * address such as {@code 192.0.2.1}, {@code fe80::1} or {@code bob@example.com}, a host name or
+ * a time of day is one term, while {@code sshd[812]:} gives {@code sshd} and {@code 812}. Terms
+ * are folded to ASCII lower case. A token longer than {@link #MAX_TERM} bytes is not indexed as
+ * such; the block that holds it is instead listed under the empty term, {@link #OVERLONG}.
+ * <p>
+ * A pattern may start or end within a token of the log, so the terms of a pattern are matched
+ * against the terms of the index according to what surrounds them in the pattern: a term
+ * between separators in the pattern must be a term of the index, one that runs to the end of
+ * the pattern or to a joining character must be a prefix of one, and so on
+ * ({@link QueryTerm}).
+ */
+final class Tokenizer {
+
+    /** The longest term. */
+    static final int MAX_TERM = 255;
+
+    /** The term under which the blocks with tokens longer than {@link #MAX_TERM} are listed. */
+    static final byte[] OVERLONG = new byte[0];
+
+    private static final byte SEPARATOR = 0;
+    private static final byte WORD = 1;
+    private static final byte JOINER = 2;
+
+    private static final byte[] CLASS = new byte[256];
+
+    private static final byte[] LOWER = new byte[256];
+
+    static {
+        for (int c = 0; c < 256; c++) {
+            LOWER[c] = (byte) (c >= 'A' && c <= 'Z' ? c + 32 : c);
+            if (c >= '0' && c <= '9' || c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= 0x80) {
+                CLASS[c] = WORD;
+            }
+        }
+        for (char c : ".:-_@".toCharArray()) {
+            CLASS[c] = JOINER;
+        }
+    }
+
+
+    /**
+     * Receives the tokens of a text.
+     */
+    interface Sink {
+
+        /**
+         * Receives a token.
+         *
+         * @param b    the text, not folded to lower case
+         * @param from the start of the token
+         * @param to   the end of the token; {@code to - from} may exceed {@link #MAX_TERM}
+         */
+        void token(byte[] b, int from, int to);
+    }
+
+
+    /**
+     * How a term of a pattern is matched against the terms of an index.
+     *
+     * @param term      the term, folded to lower case
+     * @param openLeft  whether a term of the index may have more bytes before it
+     * @param openRight whether a term of the index may have more bytes after it
+     */
+    record QueryTerm(byte[] term, boolean openLeft, boolean openRight) {
+
+        /**
+         * Checks whether the term may lie in a token too long to be indexed.
+         *
+         * @return {@code true} if the blocks with such tokens may contain the term
+         */
+        boolean overlong() {
+            return openLeft || openRight || term.length > MAX_TERM;
+        }
+
+        /**
+         * Checks whether a term of the index may contain this term where a line contains the
+         * pattern.
+         *
+         * @param b      the bytes of the term of the index
+         * @param length the length of the term of the index
+         * @return {@code true} if the term matches
+         */
+        boolean matches(byte[] b, int length) {
+            int n = term.length;
+            if (!openLeft && !openRight) {
+                return length == n && Arrays.equals(b, 0, n, term, 0, n);
+            }
+            if (!openLeft) {
+                return length >= n && Arrays.equals(b, 0, n, term, 0, n);
+            }
+            if (!openRight) {
+                return length >= n && Arrays.equals(b, length - n, length, term, 0, n);
+            }
+            for (int i = 0; i + n <= length; i++) {
+                if (Arrays.equals(b, i, i + n, term, 0, n)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+
+    private Tokenizer() {
+    }
+
+
+    /**
+     * Passes the tokens of a range of text to a sink.
+     *
+     * @param b    the text
+     * @param from the start of the range, at the start of a token or a separator
+     * @param to   the end of the range, at the end of a token or a separator
+     * @param sink receives the tokens
+     */
+    static void tokenize(byte[] b, int from, int to, Sink sink) {
+        byte[] cls = CLASS;
+        int i = from;
+        while (i < to) {
+            // skip to the first letter or digit
+            while (i < to && cls[b[i] & 0xff] != WORD) {
+                i++;
+            }
+            if (i == to) {
+                return;
+            }
+            int start = i;
+            int end = i;
+            while (i < to) {
+                byte c = cls[b[i] & 0xff];
+                if (c == WORD) {
+                    end = ++i;
+                } else if (c == JOINER) {
+                    i++;
+                } else {
+                    break;
+                }
+            }
+            sink.token(b, start, end);
+        }
+    }
+
+
+    /**
+     * Returns the folding of a byte to ASCII lower case.
+     *
+     * @param b a byte
+     * @return the lower-case byte
+     */
+    static byte lower(byte b) {
+        return LOWER[b & 0xff];
+    }
+
+
+    /**
+     * Returns the terms that every line containing a pattern contains, in the sense of
+     * {@link QueryTerm}. A term of the pattern that is open on either side or longer than
+     * {@link #MAX_TERM} may lie in a token too long to be indexed, so the blocks listed under
+     * {@link #OVERLONG} may contain it as well.
+     *
+     * @param pattern a literal pattern
+     * @return the terms; empty if the pattern has no term to look up, so that any line may
+     *         contain it
+     */
+    static List<QueryTerm> query(String pattern) {
+        byte[] b = pattern.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < b.length; i++) {
+            b[i] = LOWER[b[i] & 0xff];
+        }
+        List<QueryTerm> terms = new ArrayList<>();
+        tokenize(b, 0, b.length, (text, from, to) -> {
+            boolean openLeft = from == 0 || CLASS[text[from - 1] & 0xff] != SEPARATOR;
+            boolean openRight = to == text.length || CLASS[text[to] & 0xff] != SEPARATOR;
+            terms.add(new QueryTerm(Arrays.copyOfRange(text, from, to), openLeft, openRight));
+        });
+        return terms;
+    }
+
+}
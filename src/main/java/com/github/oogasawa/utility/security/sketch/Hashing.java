@@ -0,0 +1,133 @@
+package com.github.oogasawa.utility.security.sketch;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+
+/**
+ * Fast 64-bit hash functions for the sketches.
+ * <p>
+ * The functions read eight bytes (or four characters) at a time, mix each word with the
+ * multiply-rotate-multiply step of MurmurHash3 and finish with its avalanche step, so that every
+ * bit of the result depends on every bit of the input. They are not cryptographic: an attacker
+ * who controls the input can produce collisions, which for the sketches only costs accuracy.
+ */
+public final class Hashing {
+
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long C1 = 0x87c37b91114253d5L;
+
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private static final long GOLDEN = 0x9e3779b97f4a7c15L;
+
+    private Hashing() {
+    }
+
+
+    /**
+     * Hashes a range of bytes.
+     *
+     * @param b     the bytes
+     * @param start the start of the range
+     * @param end   the end of the range, exclusive
+     * @param seed  the seed, which selects one of a family of independent functions
+     * @return the hash
+     */
+    public static long hash64(byte[] b, int start, int end, long seed) {
+        long h = seed ^ ((end - start) * GOLDEN);
+        int i = start;
+        for (; i + 8 <= end; i += 8) {
+            h = round(h, (long) LONG.get(b, i));
+        }
+        long k = 0;
+        for (int shift = 0; i < end; i++, shift += 8) {
+            k |= (b[i] & 0xffL) << shift;
+        }
+        return fmix(round(h, k));
+    }
+
+
+    /**
+     * Hashes a range of bytes with seed 0.
+     *
+     * @param b     the bytes
+     * @param start the start of the range
+     * @param end   the end of the range, exclusive
+     * @return the hash
+     */
+    public static long hash64(byte[] b, int start, int end) {
+        return hash64(b, start, end, 0);
+    }
+
+
+    /**
+     * Hashes the characters of a string.
+     *
+     * @param s    the string
+     * @param seed the seed
+     * @return the hash
+     */
+    public static long hash64(CharSequence s, long seed) {
+        int length = s.length();
+        long h = seed ^ (length * GOLDEN);
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            h = round(h, s.charAt(i) | (long) s.charAt(i + 1) << 16 | (long) s.charAt(i + 2) << 32
+                    | (long) s.charAt(i + 3) << 48);
+        }
+        long k = 0;
+        for (int shift = 0; i < length; i++, shift += 16) {
+            k |= (long) s.charAt(i) << shift;
+        }
+        return fmix(round(h, k));
+    }
+
+
+    /**
+     * Hashes the characters of a string with seed 0.
+     *
+     * @param s the string
+     * @return the hash
+     */
+    public static long hash64(CharSequence s) {
+        return hash64(s, 0);
+    }
+
+
+    /**
+     * Scrambles a 64-bit value with the finalization step of MurmurHash3, e.g. to derive a
+     * further hash from a hash.
+     *
+     * @param x the value
+     * @return the scrambled value
+     */
+    public static long mix(long x) {
+        return fmix(x ^ GOLDEN);
+    }
+
+
+    private static long round(long h, long k) {
+        k *= C1;
+        k = Long.rotateLeft(k, 31);
+        k *= C2;
+        h ^= k;
+        return Long.rotateLeft(h, 27) * 5 + 0x52dce729;
+    }
+
+
+    /**
+     * The finalization mix of MurmurHash3.
+     */
+    private static long fmix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
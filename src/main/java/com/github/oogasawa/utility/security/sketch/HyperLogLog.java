@@ -0,0 +1,145 @@
+package com.github.oogasawa.utility.security.sketch;
+
+
+/**
+ * Estimates the number of distinct values of a stream in a fixed amount of memory
+ * (HyperLogLog, Flajolet et al. 2007).
+ * <p>
+ * The first {@code p} bits of the 64-bit hash of a value select one of {@code 2^p} registers,
+ * which keeps the longest run of leading zeros plus one seen in the remaining bits. The harmonic
+ * mean of {@code 2^register} estimates the cardinality with a standard error of
+ * {@code 1.04 / sqrt(2^p)}, e.g. 0.8 % for the default precision of 14, which takes 16 KiB.
+ * Small cardinalities, where many registers are still empty, are estimated by linear counting
+ * instead. As the hash has 64 bits, no correction is needed for large cardinalities.
+ * <p>
+ * Two sketches of the same precision are merged by taking the maximum of each register, so the
+ * sketches of several files or hosts can be built in parallel and combined into the sketch of
+ * their union. A sketch is not thread-safe.
+ */
+public class HyperLogLog {
+
+    /** The default precision. */
+    public static final int DEFAULT_PRECISION = 14;
+
+    private final int precision;
+
+    private final byte[] registers;
+
+
+    /**
+     * Constructs a sketch with the default precision.
+     */
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+
+    /**
+     * Constructs a sketch.
+     *
+     * @param precision the number of bits that select a register, 4 to 18
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("Precision must be between 4 and 18: " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+
+    /**
+     * Adds a value by its hash.
+     *
+     * @param hash a 64-bit hash of the value, e.g. from {@link Hashing}
+     */
+    public void add(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        // the sentinel bit bounds the run when all remaining bits are zero
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+
+    /**
+     * Adds a string.
+     *
+     * @param value the value
+     */
+    public void add(CharSequence value) {
+        add(Hashing.hash64(value));
+    }
+
+
+    /**
+     * Merges another sketch into this one, which then estimates the union of both streams.
+     *
+     * @param other a sketch of the same precision
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Precision differs: " + precision + " and " + other.precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+
+    /**
+     * Estimates the number of distinct values added.
+     *
+     * @return the estimate
+     */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += Double.longBitsToDouble((1023L - r) << 52);   // 2^-r
+            if (r == 0) {
+                zeros++;
+            }
+        }
+        double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+
+    /**
+     * Returns the relative standard error of the estimates.
+     *
+     * @return the standard error, e.g. 0.008 for 0.8 %
+     */
+    public double standardError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+
+    /**
+     * Returns the precision.
+     *
+     * @return the number of bits that select a register
+     */
+    public int precision() {
+        return precision;
+    }
+
+
+    private static double alpha(int m) {
+        return switch (m) {
+            case 16 -> 0.673;
+            case 32 -> 0.697;
+            case 64 -> 0.709;
+            default -> 0.7213 / (1 + 1.079 / m);
+        };
+    }
+
+}
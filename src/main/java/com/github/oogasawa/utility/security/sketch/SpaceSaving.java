@@ -0,0 +1,261 @@
+package com.github.oogasawa.utility.security.sketch;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Keeps the most frequent values of a stream in a fixed number of counters (Space-Saving,
+ * Metwally et al. 2005).
+ * <p>
+ * A value with a counter increments it. A new value, when all counters are taken, replaces the
+ * value of the smallest counter and inherits its count, remembering that count as its error.
+ * Every count is therefore at most {@code error} too high, and any value that occurred more
+ * than {@code n / capacity} times of {@code n} is guaranteed to have a counter. The counters are
+ * kept in a min-heap, so an update takes {@code O(log capacity)} time; the counts of the heap are
+ * kept in an array of their own, so that sifting compares adjacent memory instead of chasing a
+ * pointer per level, which matters when a stream of mostly distinct values keeps replacing the
+ * smallest counter.
+ * <p>
+ * Two sketches are merged as mergeable summaries (Agarwal et al. 2012): the counts of each value
+ * are added, a value missing from a full sketch being assumed to have that sketch's smallest
+ * count, and the largest {@code capacity} results are kept. The guarantees then hold for the
+ * union of the streams. A sketch is not thread-safe.
+ */
+public class SpaceSaving {
+
+    /**
+     * A frequent value.
+     *
+     * @param value the value
+     * @param count its estimated count, never lower than the true count
+     * @param error the maximum overestimation of the count
+     */
+    public record Item(String value, long count, long error) {
+
+        /**
+         * Returns the count that the value is guaranteed to have reached.
+         *
+         * @return {@code count - error}
+         */
+        public long guaranteed() {
+            return count - error;
+        }
+    }
+
+    private final int capacity;
+
+    private final Map<String, Counter> counters;
+
+    private final Counter[] heap;
+
+    /** The counts of the counters of {@link #heap}, at the same positions. */
+    private final long[] counts;
+
+    private int size = 0;
+
+    private long total = 0;
+
+
+    /**
+     * Constructs a sketch.
+     *
+     * @param capacity the number of counters
+     */
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+        this.heap = new Counter[capacity];
+        this.counts = new long[capacity];
+    }
+
+
+    /**
+     * Counts one occurrence of a value.
+     *
+     * @param value the value
+     */
+    public void add(String value) {
+        add(value, 1);
+    }
+
+
+    /**
+     * Counts occurrences of a value.
+     *
+     * @param value  the value
+     * @param weight the number of occurrences
+     */
+    public void add(String value, long weight) {
+        total += weight;
+        Counter c = counters.get(value);
+        if (c != null) {
+            counts[c.index] += weight;
+            siftDown(c.index);
+        } else if (size < capacity) {
+            c = new Counter(value, 0);
+            place(c, weight, size++);
+            counters.put(value, c);
+            siftUp(c.index);
+        } else {
+            c = heap[0];
+            counters.remove(c.value);
+            c.value = value;
+            c.error = counts[0];
+            counts[0] += weight;
+            counters.put(value, c);
+            siftDown(0);
+        }
+    }
+
+
+    /**
+     * Merges another sketch into this one, which then summarizes the union of both streams.
+     *
+     * @param other the other sketch
+     */
+    public void merge(SpaceSaving other) {
+        long floor = floor();
+        long otherFloor = other.floor();
+        Map<String, Item> merged = new HashMap<>(size + other.size);
+        for (int i = 0; i < size; i++) {
+            Counter c = heap[i];
+            Counter o = other.counters.get(c.value);
+            merged.put(c.value, o != null
+                    ? new Item(c.value, counts[i] + other.counts[o.index], c.error + o.error)
+                    : new Item(c.value, counts[i] + otherFloor, c.error + otherFloor));
+        }
+        for (int i = 0; i < other.size; i++) {
+            Counter o = other.heap[i];
+            if (!counters.containsKey(o.value)) {
+                merged.put(o.value, new Item(o.value, other.counts[i] + floor, o.error + floor));
+            }
+        }
+        List<Item> kept = new ArrayList<>(merged.values());
+        kept.sort(Comparator.comparingLong(Item::count).reversed());
+
+        counters.clear();
+        size = 0;
+        for (Item item : kept.subList(0, Math.min(capacity, kept.size()))) {
+            Counter c = new Counter(item.value(), item.error());
+            place(c, item.count(), size++);
+            counters.put(c.value, c);
+        }
+        // a list sorted in descending order is a max-heap; rebuild it as a min-heap
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+        total += other.total;
+    }
+
+
+    /**
+     * Returns the most frequent values.
+     *
+     * @param n the maximum number of values
+     * @return the values by descending count
+     */
+    public List<Item> top(int n) {
+        List<Item> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            items.add(new Item(heap[i].value, counts[i], heap[i].error));
+        }
+        items.sort(Comparator.comparingLong(Item::count).reversed().thenComparing(Item::value));
+        return items.subList(0, Math.min(n, items.size()));
+    }
+
+
+    /**
+     * Returns the smallest count, which bounds the count of any value without a counter.
+     *
+     * @return the smallest count, or 0 while some counters are free
+     */
+    public long floor() {
+        return size < capacity ? 0 : counts[0];
+    }
+
+
+    /**
+     * Returns the total weight of the values added.
+     *
+     * @return the number of occurrences counted
+     */
+    public long total() {
+        return total;
+    }
+
+
+    /**
+     * Returns the number of counters.
+     *
+     * @return the capacity
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+
+    private void siftUp(int i) {
+        Counter c = heap[i];
+        long count = counts[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (counts[parent] <= count) {
+                break;
+            }
+            place(heap[parent], counts[parent], i);
+            i = parent;
+        }
+        place(c, count, i);
+    }
+
+
+    private void siftDown(int i) {
+        Counter c = heap[i];
+        long count = counts[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && counts[child + 1] < counts[child]) {
+                child++;
+            }
+            if (count <= counts[child]) {
+                break;
+            }
+            place(heap[child], counts[child], i);
+            i = child;
+        }
+        place(c, count, i);
+    }
+
+
+    private void place(Counter c, long count, int i) {
+        heap[i] = c;
+        counts[i] = count;
+        c.index = i;
+    }
+
+
+    private static final class Counter {
+
+        private String value;
+
+        private long error;
+
+        private int index;
+
+        Counter(String value, long error) {
+            this.value = value;
+            this.error = error;
+        }
+    }
+
+}
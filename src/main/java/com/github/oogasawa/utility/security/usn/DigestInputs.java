@@ -0,0 +1,113 @@
+package com.github.oogasawa.utility.security.usn;
+
+import com.github.oogasawa.utility.security.io.ReadAheadInputStream;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+
+/**
+ * Helpers for locating and opening the digest inputs of a report.
+ */
+public class DigestInputs {
+
+    /**
+     * Expands input specifications into a list of paths.
+     * <p>
+     * A specification containing one of the glob characters {@code * ? [ {} is matched with
+     * {@link FileSystems#getDefault()}{@code .getPathMatcher("glob:...")} against the files below
+     * its longest directory prefix without glob characters, e.g. {@code digests/2025-*.txt.gz}
+     * or {@code archive/**.gz}. The matches of a glob are sorted by path. Any other specification
+     * is taken literally, so that missing files are reported later with a proper error.
+     *
+     * @param specs the paths or glob patterns given on the command line
+     * @return the matching paths, in the order of the specifications
+     * @throws IOException if a directory cannot be searched
+     */
+    public static List<Path> resolve(List<String> specs) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        for (String spec : specs) {
+            if (!isGlob(spec)) {
+                paths.add(Path.of(spec));
+                continue;
+            }
+
+            Path base = globBase(spec);
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + spec);
+            if (!Files.isDirectory(base)) {
+                continue;
+            }
+            try (Stream<Path> files = Files.walk(base)) {
+                files.filter(p -> !p.equals(base))
+                        .filter(p -> matcher.matches(base.toString().equals(".") ? base.relativize(p) : p))
+                        .sorted()
+                        .forEach(paths::add);
+            }
+        }
+        return paths;
+    }
+
+
+    /**
+     * Opens a digest file for reading, inflating it on a background thread if its name ends with
+     * {@code .gz}.
+     *
+     * @param path the file to open
+     * @return a buffered stream of the (decompressed) content
+     * @throws IOException if the file cannot be opened
+     */
+    public static InputStream open(Path path) throws IOException {
+        InputStream in = Files.newInputStream(path);
+        if (isGzip(path)) {
+            in = new ReadAheadInputStream(new GZIPInputStream(in, 1 << 16),
+                    "inflate-" + path.getFileName());
+        }
+        return new BufferedInputStream(in, 1 << 16);
+    }
+
+
+    /**
+     * Checks whether the file name ends with {@code .gz}.
+     *
+     * @param path the path to check
+     * @return {@code true} for gzip-compressed files
+     */
+    public static boolean isGzip(Path path) {
+        return path.getFileName().toString().endsWith(".gz");
+    }
+
+
+    private static boolean isGlob(String spec) {
+        return spec.indexOf('*') >= 0 || spec.indexOf('?') >= 0 || spec.indexOf('[') >= 0
+                || spec.indexOf('{') >= 0;
+    }
+
+
+    /**
+     * Returns the longest directory prefix of the pattern that contains no glob characters.
+     */
+    private static Path globBase(String spec) {
+        int firstGlob = spec.length();
+        for (char c : new char[] {'*', '?', '[', '{'}) {
+            int i = spec.indexOf(c);
+            if (i >= 0) {
+                firstGlob = Math.min(firstGlob, i);
+            }
+        }
+        String separator = FileSystems.getDefault().getSeparator();
+        int lastSeparator = spec.lastIndexOf(separator, firstGlob);
+        if (lastSeparator < 0) {
+            return Path.of(".");
+        }
+        return lastSeparator == 0 ? Path.of(separator) : Path.of(spec.substring(0, lastSeparator));
+    }
+
+}
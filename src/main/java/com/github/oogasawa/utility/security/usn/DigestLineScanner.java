@@ -0,0 +1,238 @@
+package com.github.oogasawa.utility.security.usn;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A line scanner that feeds a plain-text digest to a {@link USNMessageParser} directly from a
+ * memory-mapped file.
+ * <p>
+ * {@link java.io.BufferedReader#readLine()} decodes every byte of the input into a
+ * {@code String}, although most lines of a digest — mail headers, web mail noise, package
+ * lists — have no effect on the parsed entries. This scanner finds line boundaries and section
+ * prefixes on the raw bytes and decodes only the lines that can change the parser's result:
+ * <ul>
+ *   <li>{@code Subject: [} lines and section headers such as {@code Summary:} or
+ *       {@code Details:};</li>
+ *   <li>every line inside a section whose text is accumulated;</li>
+ *   <li>lines containing {@code CVE-} or {@code Ubuntu }, lines starting with {@code -}, and —
+ *       while the published date is unknown — lines containing {@code ", "} followed by a
+ *       digit.</li>
+ * </ul>
+ * Any other line would be a no-op for the parser, so skipping it yields exactly the same entries
+ * as {@link USNJsonExporter#parseUSNMessages(java.io.BufferedReader)}. Line terminators are
+ * {@code \n}, {@code \r} and {@code \r\n}, as for {@code readLine()}. Malformed UTF-8 is replaced
+ * rather than reported.
+ * <p>
+ * Files larger than the mapping window are mapped in consecutive windows; a line crossing a
+ * window boundary is re-read from the start of the next window.
+ */
+public class DigestLineScanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(DigestLineScanner.class);
+
+    /** The default size of a mapped window. */
+    static final int DEFAULT_WINDOW = 1 << 30;
+
+    private static final byte[] SUBJECT = ascii("Subject: [");
+
+    private static final byte[][] SECTION_HEADERS = {
+        ascii("Summary:"),
+        ascii("Software Description:"),
+        ascii("Details:"),
+        ascii("Update instructions:"),
+        ascii("References:"),
+        ascii("Package Information:"),
+    };
+
+    private static final byte[] CVE = ascii("CVE-");
+
+    private static final byte[] UBUNTU = ascii("Ubuntu ");
+
+    /**
+     * Counters of one scan.
+     *
+     * @param lines        the number of lines in the input
+     * @param decodedLines the number of lines decoded and passed to the parser
+     * @param bytes        the number of bytes scanned
+     */
+    public record Stats(long lines, long decodedLines, long bytes) { }
+
+    private final int windowSize;
+
+    /**
+     * Constructs a scanner with the default mapping window of 1 GiB.
+     */
+    public DigestLineScanner() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * Constructs a scanner with the given mapping window.
+     *
+     * @param windowSize the maximum number of bytes mapped at once; also the maximum line length
+     */
+    DigestLineScanner(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+
+    /**
+     * Scans a file and feeds the relevant lines to the parser. The parser is not finished, so
+     * several files may be fed to the same parser.
+     *
+     * @param file   the plain-text digest
+     * @param parser the parser to feed
+     * @return the counters of the scan
+     * @throws IOException if the file cannot be mapped or contains a line longer than the window
+     */
+    public Stats scan(Path file, USNMessageParser parser) throws IOException {
+        long lines = 0;
+        long decoded = 0;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long windowStart = 0;
+            byte[] lineBuffer = new byte[256];
+
+            while (windowStart < size) {
+                long windowLength = Math.min(windowSize, size - windowStart);
+                boolean lastWindow = windowStart + windowLength == size;
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+                int limit = (int) windowLength;
+
+                int lineStart = 0;
+                while (lineStart < limit) {
+                    int lineEnd = lineStart;
+                    byte b = 0;
+                    while (lineEnd < limit && (b = buf.get(lineEnd)) != '\n' && b != '\r') {
+                        lineEnd++;
+                    }
+
+                    int next;
+                    if (lineEnd == limit) {
+                        if (!lastWindow) {
+                            break; // re-read this line from the next window
+                        }
+                        next = limit;
+                    } else if (b == '\r') {
+                        if (lineEnd + 1 == limit && !lastWindow) {
+                            break; // a '\n' may follow in the next window
+                        }
+                        next = lineEnd + 1 < limit && buf.get(lineEnd + 1) == '\n' ? lineEnd + 2 : lineEnd + 1;
+                    } else {
+                        next = lineEnd + 1;
+                    }
+
+                    lines++;
+                    if (isRelevant(buf, lineStart, lineEnd, parser)) {
+                        int length = lineEnd - lineStart;
+                        if (lineBuffer.length < length) {
+                            lineBuffer = new byte[Math.max(length, lineBuffer.length * 2)];
+                        }
+                        buf.get(lineStart, lineBuffer, 0, length);
+                        parser.accept(new String(lineBuffer, 0, length, StandardCharsets.UTF_8));
+                        decoded++;
+                    }
+                    lineStart = next;
+                }
+
+                if (lineStart == 0 && !lastWindow) {
+                    throw new IOException("Line longer than " + windowSize + " bytes at offset "
+                            + windowStart + " in " + file);
+                }
+                windowStart += lineStart;
+            }
+
+            logger.debug("{}: decoded {} of {} lines", file, decoded, lines);
+            return new Stats(lines, decoded, size);
+        }
+    }
+
+
+    /**
+     * Decides on the raw bytes whether the parser could be affected by the line.
+     */
+    private static boolean isRelevant(MappedByteBuffer buf, int start, int end,
+            USNMessageParser parser) {
+        if (startsWith(buf, start, end, SUBJECT)) {
+            return true;
+        }
+        if (!parser.hasEntry()) {
+            return false;
+        }
+        if (parser.isAccumulating()) {
+            return true;
+        }
+        for (byte[] header : SECTION_HEADERS) {
+            if (startsWith(buf, start, end, header)) {
+                return true;
+            }
+        }
+        if (start < end && buf.get(start) == '-') {
+            return true;
+        }
+        if (contains(buf, start, end, CVE) || contains(buf, start, end, UBUNTU)) {
+            return true;
+        }
+        return parser.needsPublishedDate() && containsCommaSpaceDigit(buf, start, end);
+    }
+
+
+    private static boolean startsWith(MappedByteBuffer buf, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf.get(start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static boolean contains(MappedByteBuffer buf, int start, int end, byte[] needle) {
+        byte first = needle[0];
+        int last = end - needle.length;
+        outer:
+        for (int i = start; i <= last; i++) {
+            if (buf.get(i) != first) {
+                continue;
+            }
+            for (int j = 1; j < needle.length; j++) {
+                if (buf.get(i + j) != needle[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+
+    private static boolean containsCommaSpaceDigit(MappedByteBuffer buf, int start, int end) {
+        for (int i = start; i + 2 < end; i++) {
+            if (buf.get(i) == ',' && buf.get(i + 1) == ' ') {
+                byte d = buf.get(i + 2);
+                if (d >= '0' && d <= '9') {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
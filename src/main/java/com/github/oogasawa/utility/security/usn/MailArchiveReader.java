@@ -0,0 +1,210 @@
+package com.github.oogasawa.utility.security.usn;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Reads Ubuntu Security Notices directly from mail archives.
+ * <p>
+ * Two storage formats are supported:
+ * <ul>
+ *   <li><b>mbox</b> — a single file in which every message starts with a {@code "From "} line.
+ *       The file is streamed line by line, so archives of several gigabytes are read in constant
+ *       memory.</li>
+ *   <li><b>Maildir</b> — a directory whose {@code cur} and {@code new} subdirectories hold one
+ *       message per file. The files are decoded in parallel.</li>
+ * </ul>
+ * Each message is decoded by a {@link MimeTextExtractor} and parsed by its own
+ * {@link USNMessageParser}, without writing intermediate files.
+ */
+public class MailArchiveReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(MailArchiveReader.class);
+
+    /**
+     * Checks whether a path looks like a Maildir, i.e. a directory with a {@code cur} or
+     * {@code new} subdirectory.
+     *
+     * @param path the path to check
+     * @return {@code true} if the path is a Maildir
+     */
+    public static boolean isMaildir(Path path) {
+        return Files.isDirectory(path.resolve("cur")) || Files.isDirectory(path.resolve("new"));
+    }
+
+    /**
+     * Checks whether a file looks like an mbox file, i.e. starts with a {@code "From "} line.
+     *
+     * @param path the file to check
+     * @return {@code true} if the file starts like an mbox file
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isMbox(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] head = in.readNBytes(5);
+            return new String(head, StandardCharsets.ISO_8859_1).equals("From ");
+        }
+    }
+
+
+    /**
+     * Parses every message of an mbox stream and hands the notices to the sink in file order.
+     *
+     * @param in   the mbox stream
+     * @param sink the consumer of parsed entries
+     * @throws IOException if reading fails
+     */
+    public static void parseMbox(InputStream in, Consumer<USNEntryJson> sink) throws IOException {
+        InputStream input = in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 1 << 16);
+        ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(256);
+
+        USNMessageParser parser = new USNMessageParser(sink);
+        MimeTextExtractor message = null;
+        boolean previousBlank = true;
+        int messages = 0;
+
+        String line;
+        while ((line = readRawLine(input, lineBuffer)) != null) {
+            if (previousBlank && line.startsWith("From ")) {
+                if (message != null) {
+                    message.finish();
+                    parser.finish();
+                }
+                message = new MimeTextExtractor(parser::accept);
+                messages++;
+                previousBlank = false;
+                continue;
+            }
+            previousBlank = line.isEmpty();
+
+            if (message != null) {
+                message.accept(unescapeFrom(line));
+            }
+        }
+
+        if (message != null) {
+            message.finish();
+            parser.finish();
+        }
+        logger.info("Read {} messages from mbox.", messages);
+    }
+
+
+    /**
+     * Parses a single message file, as stored in a Maildir.
+     *
+     * @param file the message file
+     * @return the notices of the message
+     * @throws IOException if reading fails
+     */
+    public static List<USNEntryJson> parseMessageFile(Path file) throws IOException {
+        List<USNEntryJson> entries = new ArrayList<>();
+        USNMessageParser parser = new USNMessageParser(entries::add);
+        MimeTextExtractor message = new MimeTextExtractor(parser::accept);
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(256);
+            String line;
+            while ((line = readRawLine(in, lineBuffer)) != null) {
+                message.accept(line);
+            }
+        }
+        message.finish();
+        parser.finish();
+        return entries;
+    }
+
+
+    /**
+     * Parses all messages of a Maildir in parallel and hands the notices to the sink, ordered by
+     * message file name.
+     *
+     * @param maildir the Maildir directory
+     * @param sink    the consumer of parsed entries; it is called from the calling thread only
+     * @throws IOException if the directory cannot be listed or a message cannot be read
+     */
+    public static void parseMaildir(Path maildir, Consumer<USNEntryJson> sink) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String sub : List.of("cur", "new")) {
+            Path dir = maildir.resolve(sub);
+            if (Files.isDirectory(dir)) {
+                try (Stream<Path> s = Files.list(dir)) {
+                    s.filter(Files::isRegularFile).forEach(files::add);
+                }
+            }
+        }
+        files.sort((a, b) -> a.getFileName().toString().compareTo(b.getFileName().toString()));
+
+        List<List<USNEntryJson>> perFile;
+        try {
+            perFile = files.parallelStream()
+                    .map(file -> {
+                        try {
+                            return parseMessageFile(file);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        perFile.forEach(entries -> entries.forEach(sink));
+        logger.info("Read {} messages from Maildir {}.", files.size(), maildir);
+    }
+
+
+    /**
+     * Reads one raw line as ISO-8859-1, without its terminator (LF or CRLF).
+     *
+     * @return the line, or {@code null} at the end of the stream
+     */
+    static String readRawLine(InputStream in, ByteArrayOutputStream buffer) throws IOException {
+        buffer.reset();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                break;
+            }
+            buffer.write(b);
+        }
+        if (b == -1 && buffer.size() == 0) {
+            return null;
+        }
+        String line = buffer.toString(StandardCharsets.ISO_8859_1);
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+
+    /**
+     * Removes one level of mboxrd {@code ">From "} quoting.
+     */
+    private static String unescapeFrom(String line) {
+        if (line.startsWith(">")) {
+            int i = 0;
+            while (i < line.length() && line.charAt(i) == '>') {
+                i++;
+            }
+            if (line.startsWith("From ", i)) {
+                return line.substring(1);
+            }
+        }
+        return line;
+    }
+
+}
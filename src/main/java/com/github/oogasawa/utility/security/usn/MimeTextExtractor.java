@@ -0,0 +1,338 @@
+package com.github.oogasawa.utility.security.usn;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * A streaming decoder that turns the raw lines of one RFC 822 mail message into the decoded text
+ * lines a {@link USNMessageParser} understands.
+ * <p>
+ * The raw lines are pushed one at a time with {@link #accept(String)}. Each raw line must carry
+ * the message bytes unchanged, i.e. it must have been decoded with
+ * {@link StandardCharsets#ISO_8859_1}. The extractor
+ * <ul>
+ *   <li>emits the {@code Subject:} header of the message and of every embedded
+ *       {@code message/rfc822} part, so individual USN mails and MIME digests are recognized
+ *       alike;</li>
+ *   <li>walks {@code multipart/*} bodies by their boundaries, treating the parts of a
+ *       {@code multipart/digest} as embedded messages;</li>
+ *   <li>decodes {@code text/plain} parts from {@code quoted-printable} or {@code base64} on the
+ *       fly and converts them from their declared charset;</li>
+ *   <li>skips all other parts.</li>
+ * </ul>
+ * Only the current line and the headers of the current part are held in memory, so messages of
+ * any size are decoded in constant memory.
+ */
+public class MimeTextExtractor {
+
+    private static final Pattern boundaryParam =
+            Pattern.compile("boundary\\s*=\\s*(?:\"([^\"]*)\"|([^;\\s]+))", Pattern.CASE_INSENSITIVE);
+    private static final Pattern charsetParam =
+            Pattern.compile("charset\\s*=\\s*\"?([^;\"\\s]+)", Pattern.CASE_INSENSITIVE);
+
+    /** What is done with the lines of the current entity. */
+    private enum State { HEADERS, TEXT, SKIP }
+
+    /** An open multipart entity. */
+    private record Multipart(String boundary, boolean digest) { }
+
+    /** Receives the decoded text lines. */
+    private final Consumer<String> sink;
+
+    private final Deque<Multipart> multiparts = new ArrayDeque<>();
+
+    private State state = State.HEADERS;
+
+    /** The content type assumed when a part has no Content-Type header. */
+    private String defaultType = "text/plain";
+
+    private final List<String> headers = new ArrayList<>();
+
+    private Charset charset = StandardCharsets.UTF_8;
+
+    private String transferEncoding = "7bit";
+
+    /** Decoded bytes of the current text line. */
+    private final ByteArrayOutputStream lineBytes = new ByteArrayOutputStream();
+
+    /** Base64 characters not yet decoded because they do not form a complete quantum. */
+    private final StringBuilder base64Pending = new StringBuilder();
+
+    /**
+     * Constructs an extractor for one message.
+     *
+     * @param sink the consumer of decoded text lines
+     */
+    public MimeTextExtractor(Consumer<String> sink) {
+        this.sink = sink;
+    }
+
+
+    /**
+     * Processes one raw line of the message, without its line terminator.
+     *
+     * @param rawLine the raw line decoded as ISO-8859-1
+     */
+    public void accept(String rawLine) {
+        if (!multiparts.isEmpty() && rawLine.startsWith("--") && handleBoundary(rawLine)) {
+            return;
+        }
+
+        switch (state) {
+            case HEADERS -> acceptHeaderLine(rawLine);
+            case TEXT -> acceptTextLine(rawLine);
+            case SKIP -> { }
+        }
+    }
+
+
+    /**
+     * Flushes a pending partial line. Call this after the last line of the message.
+     */
+    public void finish() {
+        if (state == State.TEXT) {
+            flushText();
+        }
+        state = State.SKIP;
+    }
+
+
+    /**
+     * Checks whether the line is a boundary of an open multipart and, if so, switches to the
+     * next part or closes the multipart.
+     *
+     * @return {@code true} if the line was a boundary
+     */
+    private boolean handleBoundary(String rawLine) {
+        String line = stripTrailingWhitespace(rawLine);
+        for (Multipart multipart : multiparts) {
+            String delimiter = "--" + multipart.boundary();
+            boolean isClose = line.equals(delimiter + "--");
+            if (!isClose && !line.equals(delimiter)) {
+                continue;
+            }
+
+            if (state == State.TEXT) {
+                flushText();
+            }
+            // Close any nested multipart that ended without its closing delimiter.
+            while (multiparts.peek() != multipart) {
+                multiparts.pop();
+            }
+
+            if (isClose) {
+                multiparts.pop();
+                state = State.SKIP;
+            } else {
+                beginEntity(multipart.digest() ? "message/rfc822" : "text/plain");
+            }
+            return true;
+        }
+        return false;
+    }
+
+
+    private void beginEntity(String defaultType) {
+        this.defaultType = defaultType;
+        headers.clear();
+        state = State.HEADERS;
+    }
+
+
+    private void acceptHeaderLine(String rawLine) {
+        if (rawLine.isEmpty()) {
+            endOfHeaders();
+        } else if ((rawLine.charAt(0) == ' ' || rawLine.charAt(0) == '\t') && !headers.isEmpty()) {
+            // Folded header continuation
+            int last = headers.size() - 1;
+            headers.set(last, headers.get(last) + " " + rawLine.strip());
+        } else {
+            headers.add(rawLine);
+        }
+    }
+
+
+    /**
+     * Interprets the headers of the current entity and decides how its body is handled.
+     */
+    private void endOfHeaders() {
+        String contentType = defaultType;
+        String contentTypeHeader = null;
+        transferEncoding = "7bit";
+
+        for (String header : headers) {
+            String lower = header.toLowerCase(Locale.ROOT);
+            if (lower.startsWith("subject:")) {
+                sink.accept("Subject: " + decodeHeaderBytes(header.substring(8).strip()));
+            } else if (lower.startsWith("content-type:")) {
+                contentTypeHeader = header.substring(13).strip();
+                int semicolon = contentTypeHeader.indexOf(';');
+                contentType = (semicolon < 0 ? contentTypeHeader
+                        : contentTypeHeader.substring(0, semicolon)).strip().toLowerCase(Locale.ROOT);
+            } else if (lower.startsWith("content-transfer-encoding:")) {
+                transferEncoding = header.substring(26).strip().toLowerCase(Locale.ROOT);
+            }
+        }
+        headers.clear();
+
+        if (contentType.startsWith("multipart/")) {
+            Matcher m = contentTypeHeader == null ? null : boundaryParam.matcher(contentTypeHeader);
+            if (m != null && m.find()) {
+                String boundary = m.group(1) != null ? m.group(1) : m.group(2);
+                multiparts.push(new Multipart(boundary, contentType.equals("multipart/digest")));
+            }
+            state = State.SKIP; // preamble
+        } else if (contentType.equals("message/rfc822")) {
+            beginEntity("text/plain");
+        } else if (contentType.equals("text/plain")) {
+            charset = charsetOf(contentTypeHeader);
+            lineBytes.reset();
+            base64Pending.setLength(0);
+            state = State.TEXT;
+        } else {
+            state = State.SKIP;
+        }
+    }
+
+
+    private void acceptTextLine(String rawLine) {
+        switch (transferEncoding) {
+            case "quoted-printable" -> decodeQuotedPrintable(rawLine);
+            case "base64" -> decodeBase64(rawLine);
+            default -> {
+                appendRaw(rawLine, 0, rawLine.length());
+                emitLine();
+            }
+        }
+    }
+
+
+    private void decodeQuotedPrintable(String rawLine) {
+        String line = stripTrailingWhitespace(rawLine);
+        boolean softBreak = line.endsWith("=");
+        int end = softBreak ? line.length() - 1 : line.length();
+
+        for (int i = 0; i < end; i++) {
+            char c = line.charAt(i);
+            if (c == '=' && i + 2 < end && isHex(line.charAt(i + 1)) && isHex(line.charAt(i + 2))) {
+                lineBytes.write(Integer.parseInt(line.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                lineBytes.write(c);
+            }
+        }
+
+        if (!softBreak) {
+            emitLine();
+        }
+    }
+
+
+    private void decodeBase64(String rawLine) {
+        for (int i = 0; i < rawLine.length(); i++) {
+            char c = rawLine.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                base64Pending.append(c);
+            }
+        }
+
+        int complete = base64Pending.length() - base64Pending.length() % 4;
+        if (complete == 0) {
+            return;
+        }
+        byte[] decoded;
+        try {
+            decoded = Base64.getDecoder().decode(base64Pending.substring(0, complete));
+        } catch (IllegalArgumentException e) {
+            decoded = new byte[0];
+        }
+        base64Pending.delete(0, complete);
+
+        for (byte b : decoded) {
+            if (b == '\n') {
+                emitLine();
+            } else {
+                lineBytes.write(b);
+            }
+        }
+    }
+
+
+    private void flushText() {
+        if (lineBytes.size() > 0) {
+            emitLine();
+        }
+    }
+
+
+    private void appendRaw(String rawLine, int from, int to) {
+        for (int i = from; i < to; i++) {
+            lineBytes.write(rawLine.charAt(i));
+        }
+    }
+
+
+    /**
+     * Emits the decoded bytes of the current line, without a trailing carriage return.
+     */
+    private void emitLine() {
+        String line = lineBytes.toString(charset);
+        lineBytes.reset();
+        if (line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1);
+        }
+        sink.accept(line);
+    }
+
+
+    /**
+     * Converts a raw header value to text. Unencoded 8-bit headers are assumed to be UTF-8.
+     */
+    private static String decodeHeaderBytes(String raw) {
+        return new String(raw.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+    }
+
+
+    private static Charset charsetOf(String contentTypeHeader) {
+        if (contentTypeHeader != null) {
+            Matcher m = charsetParam.matcher(contentTypeHeader);
+            if (m.find()) {
+                try {
+                    Charset cs = Charset.forName(m.group(1));
+                    // US-ASCII text is decoded as UTF-8 to tolerate stray 8-bit bytes.
+                    return cs.equals(StandardCharsets.US_ASCII) ? StandardCharsets.UTF_8 : cs;
+                } catch (IllegalArgumentException e) {
+                    // Unknown charset: fall through to the default.
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'A' && c <= 'F') || (c >= 'a' && c <= 'f');
+    }
+
+
+    private static String stripTrailingWhitespace(String s) {
+        int end = s.length();
+        while (end > 0 && (s.charAt(end - 1) == ' ' || s.charAt(end - 1) == '\t'
+                || s.charAt(end - 1) == '\r')) {
+            end--;
+        }
+        return s.substring(0, end);
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.github.oogasawa.utility.security.usn;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+
+/**
+ * A thread-safe cache whose entries expire a fixed time after they were stored and which holds at
+ * most a fixed number of entries, evicting the least recently used one first.
+ * <p>
+ * An expired entry is dropped when it is looked up, or when it is the least recently used one as
+ * another entry is stored, so a cache that is no longer used does not hold stale entries for
+ * long. Values are looked up and stored under a short lock; computing a missing value is left to
+ * the caller, so a slow lookup does not block other keys.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+final class TimedCache<K, V> {
+
+    private record Stamped<V>(V value, long expires) {
+    }
+
+    private final long ttlNanos;
+
+    private final LongSupplier clock;
+
+    /** The entries in access order, guarded by this cache. */
+    private final LinkedHashMap<K, Stamped<V>> entries;
+
+
+    /**
+     * Constructs a cache.
+     *
+     * @param ttl     how long an entry is kept after it was stored
+     * @param maxSize the maximum number of entries
+     */
+    TimedCache(Duration ttl, int maxSize) {
+        this(ttl, maxSize, System::nanoTime);
+    }
+
+
+    /**
+     * Constructs a cache with the given clock.
+     *
+     * @param ttl     how long an entry is kept after it was stored
+     * @param maxSize the maximum number of entries
+     * @param clock   the current time in nanoseconds, e.g. {@link System#nanoTime()}
+     */
+    TimedCache(Duration ttl, int maxSize, LongSupplier clock) {
+        this.ttlNanos = ttl.toNanos();
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Stamped<V>> eldest) {
+                return size() > maxSize || isExpired(eldest.getValue());
+            }
+        };
+    }
+
+
+    /**
+     * Returns the value of a key, unless it is missing or has expired.
+     *
+     * @param key the key
+     * @return the value, or {@code null}
+     */
+    synchronized V get(K key) {
+        Stamped<V> stamped = entries.get(key);
+        if (stamped == null) {
+            return null;
+        }
+        if (isExpired(stamped)) {
+            entries.remove(key);
+            return null;
+        }
+        return stamped.value();
+    }
+
+
+    /**
+     * Stores the value of a key, replacing an earlier one.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    synchronized void put(K key, V value) {
+        entries.put(key, new Stamped<>(value, clock.getAsLong() + ttlNanos));
+    }
+
+
+    /**
+     * Returns the number of entries, including expired ones not yet dropped.
+     *
+     * @return the number of entries
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+
+    private boolean isExpired(Stamped<V> stamped) {
+        return clock.getAsLong() - stamped.expires() >= 0;
+    }
+
+}
@@ -0,0 +1,477 @@
+package com.github.oogasawa.utility.security.usn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Watches a directory of saved <i>ubuntu-security-announce</i> digests and appends the new
+ * notices to a rolling TSV report as soon as they arrive.
+ * <p>
+ * For every digest file the watcher remembers how many bytes have already been consumed, so an
+ * appended or newly created file is parsed only from where the previous pass stopped. The offset
+ * is kept together with the identity of the file (its inode, or its creation time where there is
+ * none), so a digest that is replaced by another file, even a longer one, is read again from the
+ * start. The new content is streamed from the file rather than loaded into memory. Notices
+ * already present in the report are not enriched again, and the enrichment itself goes through
+ * the caches of the shared {@link USNJsonExporter}.
+ * <p>
+ * A digest may be written in several steps. The last notice of the new content is therefore
+ * held back until it is terminated by the digest message separator or the end-of-digest footer,
+ * or until the file has been quiet for {@link #settleMillis}.
+ * <p>
+ * Reports are written to {@code usn-report-yyyyMMdd.tsv} in the report directory, one file per
+ * day. The consumed offsets are kept in {@code .usn-watch-state.properties} in the same directory,
+ * so the watcher can be restarted without reporting a notice twice.
+ */
+public class USNDigestWatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(USNDigestWatcher.class);
+
+    /** The name of the file holding the consumed offset of each digest. */
+    static final String STATE_FILE_NAME = ".usn-watch-state.properties";
+
+    /** The prefix of the rolling report files. */
+    static final String REPORT_PREFIX = "usn-report-";
+
+    /** The line separating the messages of a digest. */
+    private static final String MESSAGE_SEPARATOR = "------------------------------";
+
+    /** The footer line that ends a digest. */
+    private static final String DIGEST_FOOTER = "End of ubuntu-security-announce Digest";
+
+    /** The start of the line that begins a notice. */
+    private static final String SUBJECT = "Subject: [";
+
+    /** The exporter used to parse and enrich notices. */
+    private final USNJsonExporter exporter;
+
+    /** The directory the digests are saved into. */
+    private final Path digestDir;
+
+    /** The directory the rolling reports are written to. */
+    private final Path reportDir;
+
+    /** How long a file must stay unchanged before it is parsed. */
+    private long debounceMillis = 1_000;
+
+    /** How long a held-back trailing notice waits for its terminator before it is reported anyway. */
+    private long settleMillis = 30_000;
+
+    /** The number of bytes already consumed, keyed by digest file name. */
+    private final Properties offsets = new Properties();
+
+    /** The USN IDs already present in the reports. */
+    private final Set<String> reportedIds = new HashSet<>();
+
+    /** The time of the last change of the files waiting to be parsed. */
+    private final Map<Path, Long> pending = new HashMap<>();
+
+    /**
+     * Constructs a new watcher.
+     *
+     * @param exporter  the exporter used to parse and enrich notices
+     * @param digestDir the directory the digests are saved into
+     * @param reportDir the directory the rolling reports are written to
+     */
+    public USNDigestWatcher(USNJsonExporter exporter, Path digestDir, Path reportDir) {
+        this.exporter = exporter;
+        this.digestDir = digestDir;
+        this.reportDir = reportDir;
+    }
+
+    /**
+     * Sets how long a file must stay unchanged before it is parsed.
+     *
+     * @param debounceMillis the quiet period in milliseconds
+     */
+    public void setDebounceMillis(long debounceMillis) {
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * Sets how long an unterminated trailing notice is held back.
+     *
+     * @param settleMillis the settle period in milliseconds
+     */
+    public void setSettleMillis(long settleMillis) {
+        this.settleMillis = settleMillis;
+    }
+
+
+    /**
+     * Watches the digest directory until the thread is interrupted.
+     * <p>
+     * Files that arrived while the watcher was not running are picked up first.
+     *
+     * @throws IOException if the directory cannot be watched or the state cannot be loaded
+     */
+    public void watch() throws IOException {
+        loadState();
+
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            digestDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            logger.info("Watching {} for new digests.", digestDir);
+
+            markAllFilesPending();
+
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.poll(Math.min(debounceMillis, 500), TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            markAllFilesPending();
+                        } else {
+                            Path file = digestDir.resolve((Path) event.context());
+                            if (isDigestFile(file)) {
+                                pending.put(file, System.currentTimeMillis());
+                            }
+                        }
+                    }
+                    key.reset();
+                }
+                processPending(System.currentTimeMillis());
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Parses the pending files that have been quiet long enough. A file that cannot be processed
+     * is logged and dropped from the pending files, so it does not stop the others; it is tried
+     * again when it changes.
+     *
+     * @param now the current time in milliseconds
+     */
+    void processPending(long now) {
+        List<Path> ready = pending.entrySet().stream()
+                .filter(e -> now - e.getValue() >= debounceMillis)
+                .map(Map.Entry::getKey)
+                .sorted()
+                .collect(Collectors.toList());
+
+        for (Path file : ready) {
+            boolean flush = now - pending.get(file) >= settleMillis;
+            try {
+                if (processFile(file, flush)) {
+                    pending.remove(file);
+                }
+            } catch (IOException e) {
+                logger.error("Failed to process {}; it is retried when it changes again.", file, e);
+                pending.remove(file);
+            }
+        }
+    }
+
+
+    /**
+     * Parses the new content of a digest file and appends the new notices to today's report.
+     *
+     * @param file  the digest file
+     * @param flush {@code true} to report a trailing notice even if it is not terminated yet
+     * @return {@code false} if a trailing notice was held back, {@code true} otherwise
+     * @throws IOException if the file cannot be read or the report cannot be written
+     */
+    boolean processFile(Path file, boolean flush) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return true;
+        }
+
+        String key = file.getFileName().toString();
+        // "offset identity", or only the offset in the state of earlier versions
+        String[] state = offsets.getProperty(key, "0").split(" ", 2);
+        long offset = Long.parseLong(state[0]);
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        String identity = identity(attributes);
+        long size = attributes.size();
+        if (offset > 0 && state.length > 1 && !state[1].equals(identity)) {
+            logger.info("{} was replaced, reading it from the beginning.", file);
+            offset = 0;
+        } else if (size < offset) {
+            logger.info("{} was truncated, reading it from the beginning.", file);
+            offset = 0;
+        }
+
+        long cut;
+        try (InputStream in = open(file, offset, size)) {
+            cut = consumable(in, flush);
+        }
+
+        if (cut > 0) {
+            List<USNEntryJson> parsed;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    open(file, offset, offset + cut), StandardCharsets.UTF_8))) {
+                parsed = USNJsonExporter.parseUSNMessages(reader);
+            }
+
+            List<USNEntryJson> fresh = parsed.stream()
+                    .filter(e -> e.id != null && !reportedIds.contains(e.id))
+                    .collect(Collectors.toList());
+            List<USNEntryJson> relevant = exporter.enrichRelevant(fresh);
+            appendToReport(relevant);
+
+            fresh.forEach(e -> reportedIds.add(e.id));
+            offsets.setProperty(key, (offset + cut) + " " + identity);
+            saveState();
+
+            logger.info("{}: {} new notices, {} reported.", file.getFileName(), fresh.size(),
+                    relevant.size());
+        }
+
+        return flush || offset + cut == size;
+    }
+
+
+    /**
+     * Returns what identifies a file across renames and appends: its file key (device and inode)
+     * where the file system has one, or else its creation time.
+     *
+     * @param attributes the attributes of the file
+     * @return the identity, without spaces
+     */
+    private static String identity(BasicFileAttributes attributes) {
+        Object fileKey = attributes.fileKey();
+        String identity = fileKey != null ? fileKey.toString() : "created=" + attributes.creationTime().toMillis();
+        return identity.replace(' ', '_');
+    }
+
+
+    /**
+     * Returns the path of the report file for the given day.
+     *
+     * @param date the day of the report
+     * @return the path of the report file
+     */
+    Path reportFile(LocalDate date) {
+        return reportDir.resolve(REPORT_PREFIX + date.format(DateTimeFormatter.BASIC_ISO_DATE) + ".tsv");
+    }
+
+
+    /**
+     * Appends entries to today's report, writing the header row when the file is new.
+     *
+     * @param entries the entries to append
+     * @throws IOException if the report cannot be written
+     */
+    private void appendToReport(List<USNEntryJson> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        Files.createDirectories(reportDir);
+        Path report = reportFile(LocalDate.now());
+        boolean isNew = !Files.exists(report);
+
+        try (OutputStream out = Files.newOutputStream(report, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND)) {
+            if (isNew) {
+                out.write((USNJsonExporter.TSV_HEADER + System.lineSeparator())
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+            exporter.writeTsvRows(entries, out);
+        }
+    }
+
+
+    /**
+     * Reads new content and returns how much of it may be parsed now: the complete lines, without
+     * a trailing notice that is not yet followed by a message separator or the digest footer
+     * unless {@code flush} is set. Only the start of each line is kept while reading.
+     *
+     * @param in    the new content
+     * @param flush {@code true} to include an unterminated trailing notice
+     * @return the number of bytes that may be consumed
+     * @throws IOException if the content cannot be read
+     */
+    static long consumable(InputStream in, boolean flush) throws IOException {
+        byte[] subject = SUBJECT.getBytes(StandardCharsets.US_ASCII);
+        byte[] separator = MESSAGE_SEPARATOR.getBytes(StandardCharsets.US_ASCII);
+        byte[] footer = DIGEST_FOOTER.getBytes(StandardCharsets.US_ASCII);
+        byte[] line = new byte[Math.max(subject.length, Math.max(separator.length, footer.length))];
+        int lineLength = 0;
+
+        long lastSubject = -1;
+        boolean terminated = true;
+        long lineStart = 0;
+        long position = 0;
+        byte[] buffer = new byte[1 << 16];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            for (int i = 0; i < n; i++, position++) {
+                byte b = buffer[i];
+                if (b != '\n') {
+                    if (lineLength < line.length) {
+                        line[lineLength++] = b;
+                    }
+                    continue;
+                }
+                if (startsWith(line, lineLength, subject)) {
+                    lastSubject = lineStart;
+                    terminated = false;
+                } else if (startsWith(line, lineLength, separator) || startsWith(line, lineLength, footer)) {
+                    terminated = true;
+                }
+                lineStart = position + 1;
+                lineLength = 0;
+            }
+        }
+
+        return flush || terminated || lastSubject < 0 ? lineStart : lastSubject;
+    }
+
+
+    private static boolean startsWith(byte[] line, int length, byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Opens a range of a file as a buffered stream.
+     *
+     * @param file the file
+     * @param from the start of the range
+     * @param to   the end of the range
+     * @return the stream
+     * @throws IOException if the file cannot be opened
+     */
+    private static InputStream open(Path file, long from, long to) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ).position(from);
+        return new BufferedInputStream(new FilterInputStream(Channels.newInputStream(channel)) {
+            private long remaining = to - from;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int b = super.read();
+                if (b >= 0) {
+                    remaining--;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int n = super.read(b, off, (int) Math.min(len, remaining));
+                if (n > 0) {
+                    remaining -= n;
+                }
+                return n;
+            }
+        }, 1 << 16);
+    }
+
+
+    private boolean isDigestFile(Path file) {
+        String name = file.getFileName().toString();
+        return !name.startsWith(".") && !name.startsWith(REPORT_PREFIX)
+                && Files.isRegularFile(file);
+    }
+
+
+    private void markAllFilesPending() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(digestDir)) {
+            for (Path file : files) {
+                if (isDigestFile(file)) {
+                    try {
+                        pending.putIfAbsent(file, Files.getLastModifiedTime(file).toMillis());
+                    } catch (IOException e) {
+                        logger.warn("Cannot read {}: {}", file, e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Loads the consumed offsets and the USN IDs that are already reported.
+     *
+     * @throws IOException if the state or a report cannot be read
+     */
+    void loadState() throws IOException {
+        Path stateFile = reportDir.resolve(STATE_FILE_NAME);
+        if (Files.exists(stateFile)) {
+            try (Reader reader = Files.newBufferedReader(stateFile)) {
+                offsets.load(reader);
+            }
+        }
+
+        if (Files.isDirectory(reportDir)) {
+            try (DirectoryStream<Path> reports = Files.newDirectoryStream(reportDir,
+                    REPORT_PREFIX + "*.tsv")) {
+                for (Path report : reports) {
+                    for (String line : Files.readAllLines(report)) {
+                        int tab = line.indexOf('\t');
+                        if (tab > 0 && !line.startsWith("id\t")) {
+                            reportedIds.add(line.substring(0, tab));
+                        }
+                    }
+                }
+            }
+        }
+        logger.info("Loaded state: {} digests, {} reported notices.", offsets.size(),
+                reportedIds.size());
+    }
+
+
+    private void saveState() throws IOException {
+        Files.createDirectories(reportDir);
+        Path stateFile = reportDir.resolve(STATE_FILE_NAME);
+        Path tmp = reportDir.resolve(STATE_FILE_NAME + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp)) {
+            offsets.store(writer, "Bytes consumed per digest file");
+        }
+        Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
@@ -1,11 +1,18 @@
 package com.github.oogasawa.utility.security.usn;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.time.Duration;
 import java.util.*;
-import java.util.regex.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import org.jsoup.nodes.Document;
 import org.slf4j.Logger;
@@ -25,6 +32,32 @@ public class USNJsonExporter {
 
     private static final Logger logger = LoggerFactory.getLogger(USNJsonExporter.class);
 
+    /** How long a priority is cached: Ubuntu may re-triage a CVE at any time. */
+    public static final Duration PRIORITY_TTL = Duration.ofHours(6);
+
+    /** How long the text of a notice is cached: notices are occasionally updated. */
+    public static final Duration NOTICE_TEXT_TTL = Duration.ofHours(24);
+
+    /**
+     * Raw Ubuntu priorities keyed by CVE ID.
+     * <p>
+     * Only successful lookups are cached, so that a transient network failure is retried the
+     * next time the same CVE appears. A priority is kept for {@link #PRIORITY_TTL}, which lets a
+     * long-running instance (see {@link USNReportServer}) answer repeated reports without
+     * querying the Ubuntu CVE tracker again, while a re-triaged CVE is picked up within hours.
+     */
+    private final TimedCache<String, String> priorityCache = new TimedCache<>(PRIORITY_TTL, 10_000);
+
+    /**
+     * Lower-cased body text of the USN web pages keyed by USN ID, kept for
+     * {@link #NOTICE_TEXT_TTL}.
+     */
+    private final TimedCache<String, String> noticeTextCache = new TimedCache<>(NOTICE_TEXT_TTL, 1_000);
+
+    /** The header row of the TSV report. */
+    public static final String TSV_HEADER =
+            "id\ttitle\tpublished_date\tsummary\tseverity\treboot\tlivepatch";
+
     /**
      * Enumeration representing severity levels for CVEs, in increasing order of seriousness.
      */
@@ -76,43 +109,244 @@ public class USNJsonExporter {
      * https://lists.ubuntu.com/mailman/listinfo/ubuntu-security-announce</a>
      *
      * 
-     * @param inputPath the file path to the input plain-text USN data
+     * <p>
+     * Instead of a plain-text file, the input may also be an mbox file or a Maildir directory of
+     * the mailing list; see {@link #parseInput(Path)}.
+     *
+     * @param inputPath the path to the input USN data
      * @param format    the desired output format ("json" or "tsv")
      */
     public void report(Path inputPath, String format) {
-        try (BufferedReader reader = Files.newBufferedReader(inputPath)) {
-            List<USNEntryJson> entries = parseUSNMessages(reader);
+        report(List.of(inputPath), format);
+    }
+
 
-            List<USNEntryJson> filtered = entries.stream()
-                .filter(this::appliesToUbuntu2404)
-                .filter(this::isGenericKernelReport)
-                .collect(Collectors.toList());
+    /**
+     * Generates a single report from several inputs.
+     * <p>
+     * The inputs are parsed concurrently, each on its own thread, and gzip-compressed inputs are
+     * additionally inflated on a separate thread (see {@link DigestInputs#open(Path)}). The
+     * entries are reported in the order of the inputs.
+     *
+     * @param inputPaths the paths to the input USN data
+     * @param format     the desired output format ("json" or "tsv")
+     */
+    public void report(List<Path> inputPaths, String format) {
+        try {
+            List<USNEntryJson> parsed = parseInputs(inputPaths);
+            List<USNEntryJson> filtered = enrichRelevant(parsed);
+            writeReport(filtered, format, System.out);
 
-            for (USNEntryJson entry : filtered) {
-                assignMaxSeverity(entry);
+        } catch (IOException e) {
+            System.err.println("Failed to process security report file: " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Parses several inputs concurrently with {@link #parseInput(Path)}.
+     *
+     * @param inputPaths the paths to the input USN data
+     * @return the relevant entries of all inputs, in the order of the inputs
+     * @throws IOException if an input cannot be read
+     */
+    public List<USNEntryJson> parseInputs(List<Path> inputPaths) throws IOException {
+        if (inputPaths.size() == 1) {
+            return parseInput(inputPaths.get(0));
+        }
+
+        int threads = Math.min(inputPaths.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<USNEntryJson>>> futures = new ArrayList<>();
+            for (Path inputPath : inputPaths) {
+                futures.add(pool.submit(() -> parseInput(inputPath)));
+            }
+
+            List<USNEntryJson> entries = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
                 try {
-                    Document doc = LivepatchHtmlFetcher.fetchUsnDocument(entry.id);
-                    determineLivepatchAvailability(entry, doc);
-                    determineRebootRequirement(entry, doc); 
-                } catch (IOException e) {
-                    entry.livepatch = "NA";
-                    entry.needs_reboot = "NA";
+                    entries.addAll(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException io) {
+                        throw new IOException(inputPaths.get(i) + ": " + io.getMessage(), io);
+                    }
+                    throw new IOException(inputPaths.get(i) + ": " + e.getCause(), e.getCause());
                 }
             }
+            return entries;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing inputs", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Parses the notices of an input and keeps those relevant to Ubuntu 24.04.
+     * <p>
+     * The format of the input is detected automatically:
+     * <ul>
+     *   <li>a directory with {@code cur} or {@code new} subdirectories is read as a Maildir;</li>
+     *   <li>a file whose (decompressed) content starts with {@code "From "} is read as an mbox
+     *       file;</li>
+     *   <li>anything else is read as plain text pasted from a mail client; uncompressed plain
+     *       text is scanned from a memory-mapped file by {@link DigestLineScanner}.</li>
+     * </ul>
+     * Files whose names end with {@code .gz} are decompressed on the fly.
+     * Irrelevant notices are dropped as soon as they are parsed, so large archives do not
+     * accumulate entries that would be filtered out later.
+     *
+     * @param inputPath the path to the input USN data
+     * @return the relevant entries, not yet enriched
+     * @throws IOException if reading fails
+     */
+    public List<USNEntryJson> parseInput(Path inputPath) throws IOException {
+        List<USNEntryJson> relevant = new ArrayList<>();
+        Consumer<USNEntryJson> keepRelevant = entry -> {
+            if (isRelevant(entry)) {
+                relevant.add(entry);
+            }
+        };
+
+        if (MailArchiveReader.isMaildir(inputPath)) {
+            MailArchiveReader.parseMaildir(inputPath, keepRelevant);
+            return relevant;
+        }
 
-            if ("tsv".equalsIgnoreCase(format)) {
-                printAsTsv(filtered);
+        try (InputStream in = DigestInputs.open(inputPath)) {
+            in.mark(5);
+            boolean isMbox = new String(in.readNBytes(5), StandardCharsets.ISO_8859_1).equals("From ");
+            in.reset();
+
+            if (isMbox) {
+                MailArchiveReader.parseMbox(in, keepRelevant);
+            } else if (!DigestInputs.isGzip(inputPath)) {
+                USNMessageParser parser = new USNMessageParser(keepRelevant);
+                new DigestLineScanner().scan(inputPath, parser);
+                parser.finish();
             } else {
-                printAsJson(filtered);
+                USNMessageParser parser = new USNMessageParser(keepRelevant);
+                BufferedReader reader =
+                        new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    parser.accept(line);
+                }
+                parser.finish();
             }
+        }
+        return relevant;
+    }
 
+
+    /**
+     * Parses raw USN text, keeps the entries relevant to Ubuntu 24.04 and enriches them with
+     * severity, livepatch and reboot information.
+     * <p>
+     * Lookups against the Ubuntu web site go through the caches of this exporter, so calling
+     * this method repeatedly on the same instance only fetches pages for notices and CVEs that
+     * have not been seen before.
+     *
+     * @param reader the reader of raw USN text
+     * @return the filtered and enriched entries
+     * @throws IOException if reading fails
+     */
+    public List<USNEntryJson> buildReport(BufferedReader reader) throws IOException {
+        return enrichRelevant(parseUSNMessages(reader));
+    }
+
+
+    /**
+     * Keeps the parsed entries relevant to Ubuntu 24.04 and enriches them with severity,
+     * livepatch and reboot information.
+     *
+     * @param entries the entries returned by {@link #parseUSNMessages(BufferedReader)}
+     * @return the filtered and enriched entries
+     */
+    public List<USNEntryJson> enrichRelevant(List<USNEntryJson> entries) {
+        List<USNEntryJson> filtered = entries.stream()
+            .filter(this::isRelevant)
+            .collect(Collectors.toList());
+
+        for (USNEntryJson entry : filtered) {
+            enrich(entry);
+        }
+        return filtered;
+    }
+
+
+    /**
+     * Assigns severity, livepatch and reboot information to a single entry.
+     *
+     * @param entry the USN entry to enrich
+     */
+    void enrich(USNEntryJson entry) {
+        assignMaxSeverity(entry);
+        try {
+            String noticeText = fetchNoticeText(entry.id);
+            determineLivepatchAvailability(entry, noticeText);
+            determineRebootRequirement(entry, noticeText);
         } catch (IOException e) {
-            System.err.println("Failed to process security report file: " + e.getMessage());
+            entry.livepatch = "NA";
+            entry.needs_reboot = "NA";
+        }
+    }
+
+
+    /**
+     * Writes the entries in the given format.
+     *
+     * @param entries the entries to write
+     * @param format  the desired output format ("json" or "tsv")
+     * @param out     the stream to write to; it is flushed but not closed
+     * @throws IOException if serialization fails
+     */
+    public void writeReport(List<USNEntryJson> entries, String format, OutputStream out)
+            throws IOException {
+        if ("tsv".equalsIgnoreCase(format)) {
+            printAsTsv(entries, out);
+        } else {
+            printAsJson(entries, out);
         }
     }
+
+
+    /**
+     * Returns the lower-cased body text of the USN web page, fetching it at most once per USN ID
+     * within {@link #NOTICE_TEXT_TTL}.
+     *
+     * @param usnId the USN identifier (e.g., "USN-7513-1")
+     * @return the lower-cased text of the page body
+     * @throws IOException if the page cannot be fetched
+     */
+    private String fetchNoticeText(String usnId) throws IOException {
+        String text = noticeTextCache.get(usnId);
+        if (text == null) {
+            Document doc = LivepatchHtmlFetcher.fetchUsnDocument(usnId);
+            text = doc.body().text().toLowerCase();
+            noticeTextCache.put(usnId, text);
+        }
+        return text;
+    }
     
 
 
+    /**
+     * Checks whether a USN entry applies to Ubuntu 24.04 and is not a variant-specific kernel
+     * report.
+     *
+     * @param entry the USN entry to check
+     * @return true if the entry belongs in the report, false otherwise
+     */
+    private boolean isRelevant(USNEntryJson entry) {
+        return appliesToUbuntu2404(entry) && isGenericKernelReport(entry);
+    }
+
+
+
     /**
      * Checks whether a USN entry applies to Ubuntu 24.04 (with or without LTS label).
      *
@@ -162,11 +396,10 @@ public class USNJsonExporter {
     /**
      * Determines whether Canonical Livepatch is available for a given USN entry.
      *
-     * @param entry the USN entry to evaluate
-     * @param doc   the HTML document fetched for the USN
+     * @param entry    the USN entry to evaluate
+     * @param bodyText the lower-cased body text of the HTML document fetched for the USN
      */
-    private void determineLivepatchAvailability(USNEntryJson entry, Document doc) {
-        String bodyText = doc.body().text().toLowerCase();
+    private void determineLivepatchAvailability(USNEntryJson entry, String bodyText) {
         if (bodyText.contains("canonical livepatch is available")) {
             entry.livepatch = "yes";
         } else if (entry.title != null && entry.title.toLowerCase().contains("linux kernel")) {
@@ -188,10 +421,9 @@ public class USNJsonExporter {
      * {@code "no"}.
      *
      * @param entry the USN entry to annotate with reboot information
-     * @param doc the parsed HTML document for the corresponding USN
+     * @param text the lower-cased body text of the HTML document for the corresponding USN
      */
-    private void determineRebootRequirement(USNEntryJson entry, Document doc) {
-        String text = doc.body().text().toLowerCase();
+    private void determineRebootRequirement(USNEntryJson entry, String text) {
         if (text.contains("a reboot is required")
                 || text.contains("you need to reboot your computer")) {
             entry.needs_reboot = "yes";
@@ -220,7 +452,9 @@ public class USNJsonExporter {
     /**
      * Attempts to retrieve the Ubuntu-assigned priority level for the given CVE ID.
      * <p>
-     * This method queries the Ubuntu CVE Tracker to determine the severity of the specified CVE.
+     * This method queries the Ubuntu CVE Tracker to determine the severity of the specified CVE,
+     * unless the priority is already known from a lookup by this exporter within
+     * {@link #PRIORITY_TTL}.
      * If the request fails (due to network issues, malformed responses, or unavailable data),
      * the method logs a warning and returns {@code null} instead of throwing an exception.
      *
@@ -230,7 +464,11 @@ public class USNJsonExporter {
      */
     private PriorityLevel fetchPrioritySafely(String cveId) {
         try {
-            String rawPriority = UbuntuPriorityFetcher.fetchUbuntuPriority(cveId);
+            String rawPriority = priorityCache.get(cveId);
+            if (rawPriority == null) {
+                rawPriority = UbuntuPriorityFetcher.fetchUbuntuPriority(cveId);
+                priorityCache.put(cveId, rawPriority);
+            }
             logger.info(String.format("rawPriority: %s, %s", rawPriority, cveId));
             return PriorityLevel.fromString(rawPriority);
         } catch (Exception e) {
@@ -241,99 +479,6 @@ public class USNJsonExporter {
 
 
     
-    /**
-     * Finalizes a current USN entry by assigning accumulated details and updates.
-     *
-     * @param entry   the entry to finalize
-     * @param details the accumulated details buffer
-     * @param updates the accumulated update instructions buffer
-     * @param entries the list to which the entry is added
-     */
-    private static void finalizeCurrentEntry(USNEntryJson entry, StringBuilder details,
-            StringBuilder updates, List<USNEntryJson> entries) {
-        if (details.length() > 0)
-            entry.description = details.toString().trim();
-        if (updates.length() > 0)
-            entry.update_instructions = updates.toString().trim();
-        entries.add(entry);
-    }
-
-
-    /**
-     * Processes a single line of input and updates the fields of the given USNEntryJson object.
-     * This method detects key patterns such as the published date, release versions, software
-     * descriptions, and updates section-specific content (summary, details, instructions).
-     *
-     * @param entry the USNEntryJson object to populate
-     * @param line the current line of text to process
-     * @param inSummary true if the current line is within the summary section
-     * @param inDetails true if the current line is within the details section
-     * @param inUpdate true if the current line is within the update instructions section
-     * @param detailsBuf buffer for accumulating lines in the details section
-     * @param updateBuf buffer for accumulating lines in the update instructions section
-     */
-    private static void handleContentLine(USNEntryJson entry, String line, boolean inSummary,
-            boolean inDetails, boolean inUpdate, StringBuilder detailsBuf,
-            StringBuilder updateBuf) {
-
-        Pattern datePattern = Pattern.compile(
-                "(January|February|March|April|May|June|July|August|September|October|November|December) \\d{1,2}, \\d{4}");
-        Pattern ubuntuVerPattern = Pattern.compile("-\\s*Ubuntu (\\d{2}\\.\\d{2}(?: LTS)?)");
-        Pattern updatePattern = Pattern.compile("Ubuntu (\\d{2}\\.\\d{2}(?: LTS)?)\\s+(\\S.*)");
-        Pattern cvePattern = Pattern.compile("(CVE-\\d{4}-\\d+)");
-        Pattern softwareDescPattern = Pattern.compile("^-\\s*(.+):\\s*(.+)$");
-
-        Matcher m;
-
-        // Extract the published date if not yet set
-        if (entry.published_date == null && (m = datePattern.matcher(line)).find()) {
-            entry.published_date = parseDate(m.group(0));
-        }
-
-        // Extract Ubuntu release versions (e.g., "22.04", "20.04 LTS")
-        m = ubuntuVerPattern.matcher(line);
-        while (m.find()) {
-            String version = m.group(1);
-            if (!entry.releases.contains(version)) {
-                entry.releases.add(version);
-            }
-        }
-
-        // Also extract release versions from update lines
-        m = updatePattern.matcher(line);
-        while (m.find()) {
-            String version = m.group(1);
-            if (!entry.releases.contains(version)) {
-                entry.releases.add(version);
-            }
-        }
-
-        // Extract CVE identifiers
-        m = cvePattern.matcher(line);
-        while (m.find()) {
-            String cve = m.group(1);
-            if (!entry.cves.contains(cve)) {
-                entry.cves.add(cve);
-            }
-        }
-
-        // Extract software description (only the first occurrence)
-        if ((m = softwareDescPattern.matcher(line)).find() && entry.software_description == null) {
-            entry.software_description = m.group(1).trim() + ": " + m.group(2).trim();
-        }
-
-        // Accumulate section-specific content
-        if (inSummary) {
-            entry.summary += line.trim() + " ";
-        } else if (inDetails) {
-            detailsBuf.append(line.trim()).append(" ");
-        } else if (inUpdate) {
-            updateBuf.append(line.trim()).append(" ");
-        }
-    }
-
-    
-
     /**
      * Safely converts null strings to "NA".
      *
@@ -355,94 +500,38 @@ public class USNJsonExporter {
      */
     public static List<USNEntryJson> parseUSNMessages(BufferedReader reader) throws IOException {
         List<USNEntryJson> entries = new ArrayList<>();
-        USNEntryJson current = null;
-
-        StringBuilder detailsBuf = new StringBuilder();
-        StringBuilder updateBuf = new StringBuilder();
-        boolean inSummary = false;
-        boolean inDetails = false;
-        boolean inUpdate = false;
+        USNMessageParser parser = new USNMessageParser(entries::add);
 
         String line;
         while ((line = reader.readLine()) != null) {
-            if (line.startsWith("Subject: [")) {
-                if (current != null) {
-                    finalizeCurrentEntry(current, detailsBuf, updateBuf, entries);
-                }
-                current = startNewEntry(line);
-                inSummary = inDetails = inUpdate = false;
-                detailsBuf.setLength(0);
-                updateBuf.setLength(0);
-            } else if (current != null) {
-                if (line.startsWith("Summary:")) {
-                    inSummary = true;
-                    inDetails = inUpdate = false;
-                    current.summary = "";
-                    continue;
-                } else if (line.startsWith("Software Description:")) {
-                    inSummary = inDetails = inUpdate = false;
-                    continue;
-                } else if (line.startsWith("Details:")) {
-                    inDetails = true;
-                    inSummary = inUpdate = false;
-                    continue;
-                } else if (line.startsWith("Update instructions:")) {
-                    inUpdate = true;
-                    inDetails = inSummary = false;
-                    continue;
-                } else if (line.startsWith("References:")
-                        || line.startsWith("Package Information:")) {
-                    inSummary = inDetails = inUpdate = false;
-                    continue;
-                }
-
-                handleContentLine(current, line, inSummary, inDetails, inUpdate, detailsBuf,
-                        updateBuf);
-            }
-        }
-
-        if (current != null) {
-            finalizeCurrentEntry(current, detailsBuf, updateBuf, entries);
+            parser.accept(line);
         }
+        parser.finish();
 
         return entries;
     }
 
 
-
-    /**
-     * Parses a date string like "May 1, 2024" into ISO format ("2024-05-01").
-     *
-     * @param raw the raw date string
-     * @return ISO 8601 date string or null if parsing fails
-     */
-    private static String parseDate(String raw) {
-        try {
-            return java.time.LocalDate.parse(raw,
-                    java.time.format.DateTimeFormatter.ofPattern("MMMM d, yyyy", Locale.ENGLISH))
-                    .toString();
-        } catch (Exception e) {
-            return null;
-        }
-    }
-
-
     
     
     /**
-     * Outputs the list of USN entries in JSON format to stdout.
+     * Outputs the list of USN entries in JSON format.
      *
      * @param entries the entries to serialize
+     * @param out     the stream to write to
      * @throws IOException if serialization fails
      */
-    private void printAsJson(List<USNEntryJson> entries) throws IOException {
-        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
-        mapper.writeValue(System.out, entries);
+    private void printAsJson(List<USNEntryJson> entries, OutputStream out) throws IOException {
+        ObjectMapper mapper = new ObjectMapper()
+                .enable(SerializationFeature.INDENT_OUTPUT)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        mapper.writeValue(out, entries);
+        out.flush();
     }
 
 
     /**
-     * Outputs the list of filtered USN entries in tab-separated values (TSV) format to standard output.
+     * Outputs the list of filtered USN entries in tab-separated values (TSV) format.
      * <p>
      * The output includes a header row followed by one line per entry. Each line contains the following fields:
      * <ul>
@@ -457,10 +546,30 @@ public class USNJsonExporter {
      * Null or missing fields are replaced with {@code "NA"} to ensure consistency in the output.
      *
      * @param entries the list of USN entries to format and print
+     * @param out     the stream to write to
      */
-    private void printAsTsv(List<USNEntryJson> entries) {
+    private void printAsTsv(List<USNEntryJson> entries, OutputStream out) {
+        PrintStream ps = out instanceof PrintStream p
+                ? p
+                : new PrintStream(out, false, StandardCharsets.UTF_8);
+
         // Print header row
-        System.out.println("id\ttitle\tpublished_date\tsummary\tseverity\treboot\tlivepatch");
+        ps.println(TSV_HEADER);
+        writeTsvRows(entries, ps);
+    }
+
+
+    /**
+     * Outputs the TSV rows of the given entries without a header row, in the layout described in
+     * {@link #printAsTsv(List, OutputStream)}. This is used to append to an existing report.
+     *
+     * @param entries the list of USN entries to format and print
+     * @param out     the stream to write to
+     */
+    public void writeTsvRows(List<USNEntryJson> entries, OutputStream out) {
+        PrintStream ps = out instanceof PrintStream p
+                ? p
+                : new PrintStream(out, false, StandardCharsets.UTF_8);
 
         for (USNEntryJson entry : entries) {
             String id = nullToEmpty(entry.id);
@@ -473,31 +582,9 @@ public class USNJsonExporter {
             String livepatch = nullToEmpty(entry.livepatch);
             String needsReboot = nullToEmpty(entry.needs_reboot);
 
-            System.out.printf("%s\t%s\t%s\t%s\t%s\t%s\t%s%n", id, title, date, summary, severity, needsReboot, livepatch);
-        }
-    }
-
-    
-
-   /**
-     * Initializes a new USN entry based on the Subject line.
-     *
-     * @param line the Subject line from input
-     * @return the initialized USNEntryJson object
-     */
-    private static USNEntryJson startNewEntry(String line) {
-        USNEntryJson entry = new USNEntryJson();
-        Matcher m = Pattern.compile("^Subject: \\[(USN-[\\d-]+)] (.+)$").matcher(line);
-        if (m.find()) {
-            entry.id = m.group(1);
-            entry.title = m.group(2);
+            ps.printf("%s\t%s\t%s\t%s\t%s\t%s\t%s%n", id, title, date, summary, severity, needsReboot, livepatch);
         }
-        return entry;
+        ps.flush();
     }
 
-
-
-
-
-
 }
@@ -0,0 +1,257 @@
+package com.github.oogasawa.utility.security.usn;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * A line-oriented parser of Ubuntu Security Notice (USN) text.
+ * <p>
+ * Lines are pushed one at a time with {@link #accept(String)}, which lets the same parser be fed
+ * from a plain-text digest, from decoded MIME parts of a mail archive, or from any other source
+ * without materializing the whole text. Every completed entry is handed to the sink given to the
+ * constructor; call {@link #finish()} after the last line to complete the trailing entry.
+ * <p>
+ * A parser instance is not thread-safe; use one instance per input stream.
+ */
+public class USNMessageParser {
+
+    private static final Pattern datePattern = Pattern.compile(
+            "(January|February|March|April|May|June|July|August|September|October|November|December) \\d{1,2}, \\d{4}");
+    private static final Pattern ubuntuVerPattern = Pattern.compile("-\\s*Ubuntu (\\d{2}\\.\\d{2}(?: LTS)?)");
+    private static final Pattern updatePattern = Pattern.compile("Ubuntu (\\d{2}\\.\\d{2}(?: LTS)?)\\s+(\\S.*)");
+    private static final Pattern cvePattern = Pattern.compile("(CVE-\\d{4}-\\d+)");
+    private static final Pattern softwareDescPattern = Pattern.compile("^-\\s*(.+):\\s*(.+)$");
+    private static final Pattern subjectPattern = Pattern.compile("^Subject: \\[(USN-[\\d-]+)] (.+)$");
+
+    /** Receives every completed entry. */
+    private final Consumer<USNEntryJson> sink;
+
+    private USNEntryJson current = null;
+
+    private final StringBuilder detailsBuf = new StringBuilder();
+    private final StringBuilder updateBuf = new StringBuilder();
+    private boolean inSummary = false;
+    private boolean inDetails = false;
+    private boolean inUpdate = false;
+
+    /**
+     * Constructs a parser that hands every completed entry to the given sink.
+     *
+     * @param sink the consumer of completed entries
+     */
+    public USNMessageParser(Consumer<USNEntryJson> sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Parses the given lines into a list of entries.
+     *
+     * @param lines the lines of raw USN text
+     * @return a list of structured USNEntryJson objects
+     */
+    public static List<USNEntryJson> parse(Iterable<String> lines) {
+        List<USNEntryJson> entries = new ArrayList<>();
+        USNMessageParser parser = new USNMessageParser(entries::add);
+        for (String line : lines) {
+            parser.accept(line);
+        }
+        parser.finish();
+        return entries;
+    }
+
+
+    /**
+     * Processes a single line of input, without its line terminator.
+     *
+     * @param line the line to process
+     */
+    public void accept(String line) {
+        if (line.startsWith("Subject: [")) {
+            if (current != null) {
+                finalizeCurrentEntry();
+            }
+            current = startNewEntry(line);
+            inSummary = inDetails = inUpdate = false;
+            detailsBuf.setLength(0);
+            updateBuf.setLength(0);
+        } else if (current != null) {
+            if (line.startsWith("Summary:")) {
+                inSummary = true;
+                inDetails = inUpdate = false;
+                current.summary = "";
+                return;
+            } else if (line.startsWith("Software Description:")) {
+                inSummary = inDetails = inUpdate = false;
+                return;
+            } else if (line.startsWith("Details:")) {
+                inDetails = true;
+                inSummary = inUpdate = false;
+                return;
+            } else if (line.startsWith("Update instructions:")) {
+                inUpdate = true;
+                inDetails = inSummary = false;
+                return;
+            } else if (line.startsWith("References:")
+                    || line.startsWith("Package Information:")) {
+                inSummary = inDetails = inUpdate = false;
+                return;
+            }
+
+            handleContentLine(line);
+        }
+    }
+
+
+    /**
+     * Completes the entry being parsed, if any. The parser may be reused afterwards.
+     */
+    public void finish() {
+        if (current != null) {
+            finalizeCurrentEntry();
+            current = null;
+        }
+    }
+
+
+    /**
+     * Returns whether an entry is being parsed. Lines before the first {@code Subject: [} line
+     * are ignored.
+     *
+     * @return {@code true} if a Subject line has been seen
+     */
+    boolean hasEntry() {
+        return current != null;
+    }
+
+    /**
+     * Returns whether the lines are currently accumulated into the summary, details or update
+     * instructions.
+     *
+     * @return {@code true} inside one of those sections
+     */
+    boolean isAccumulating() {
+        return inSummary || inDetails || inUpdate;
+    }
+
+    /**
+     * Returns whether the published date of the current entry is still unknown.
+     *
+     * @return {@code true} if a date line would still be picked up
+     */
+    boolean needsPublishedDate() {
+        return current != null && current.published_date == null;
+    }
+
+
+    /**
+     * Finalizes the current USN entry by assigning accumulated details and updates, and hands it
+     * to the sink.
+     */
+    private void finalizeCurrentEntry() {
+        if (detailsBuf.length() > 0)
+            current.description = detailsBuf.toString().trim();
+        if (updateBuf.length() > 0)
+            current.update_instructions = updateBuf.toString().trim();
+        sink.accept(current);
+    }
+
+
+    /**
+     * Processes a single line of input and updates the fields of the current entry.
+     * This method detects key patterns such as the published date, release versions, software
+     * descriptions, and updates section-specific content (summary, details, instructions).
+     *
+     * @param line the current line of text to process
+     */
+    private void handleContentLine(String line) {
+        USNEntryJson entry = current;
+        Matcher m;
+
+        // Extract the published date if not yet set
+        if (entry.published_date == null && (m = datePattern.matcher(line)).find()) {
+            entry.published_date = parseDate(m.group(0));
+        }
+
+        // Extract Ubuntu release versions (e.g., "22.04", "20.04 LTS")
+        m = ubuntuVerPattern.matcher(line);
+        while (m.find()) {
+            String version = m.group(1);
+            if (!entry.releases.contains(version)) {
+                entry.releases.add(version);
+            }
+        }
+
+        // Also extract release versions from update lines
+        m = updatePattern.matcher(line);
+        while (m.find()) {
+            String version = m.group(1);
+            if (!entry.releases.contains(version)) {
+                entry.releases.add(version);
+            }
+        }
+
+        // Extract CVE identifiers
+        m = cvePattern.matcher(line);
+        while (m.find()) {
+            String cve = m.group(1);
+            if (!entry.cves.contains(cve)) {
+                entry.cves.add(cve);
+            }
+        }
+
+        // Extract software description (only the first occurrence)
+        if ((m = softwareDescPattern.matcher(line)).find() && entry.software_description == null) {
+            entry.software_description = m.group(1).trim() + ": " + m.group(2).trim();
+        }
+
+        // Accumulate section-specific content
+        if (inSummary) {
+            entry.summary += line.trim() + " ";
+        } else if (inDetails) {
+            detailsBuf.append(line.trim()).append(" ");
+        } else if (inUpdate) {
+            updateBuf.append(line.trim()).append(" ");
+        }
+    }
+
+
+    /**
+     * Parses a date string like "May 1, 2024" into ISO format ("2024-05-01").
+     *
+     * @param raw the raw date string
+     * @return ISO 8601 date string or null if parsing fails
+     */
+    private static String parseDate(String raw) {
+        try {
+            return LocalDate.parse(raw, DateTimeFormatter.ofPattern("MMMM d, yyyy", Locale.ENGLISH))
+                    .toString();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Initializes a new USN entry based on the Subject line.
+     *
+     * @param line the Subject line from input
+     * @return the initialized USNEntryJson object
+     */
+    private static USNEntryJson startNewEntry(String line) {
+        USNEntryJson entry = new USNEntryJson();
+        Matcher m = subjectPattern.matcher(line);
+        if (m.find()) {
+            entry.id = m.group(1);
+            entry.title = m.group(2);
+        }
+        return entry;
+    }
+
+}
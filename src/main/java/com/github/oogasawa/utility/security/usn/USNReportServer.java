@@ -0,0 +1,247 @@
+package com.github.oogasawa.utility.security.usn;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A long-running HTTP front end for {@link USNJsonExporter}.
+ * <p>
+ * Each {@code ubuntu:report} invocation pays JVM startup, class loading and cold caches before
+ * the first notice is enriched. This server keeps a single exporter alive, so the parser, the
+ * pooled HTTP client of {@link UbuntuPriorityFetcher} and the exporter's priority and notice
+ * caches stay warm between requests.
+ * <p>
+ * The cached data may therefore be stale: a CVE priority is served for up to
+ * {@link USNJsonExporter#PRIORITY_TTL} and the text of a notice for up to
+ * {@link USNJsonExporter#NOTICE_TEXT_TTL} after it was fetched, so a CVE that Ubuntu re-triages,
+ * or a notice that gains a livepatch, shows up in reports only after that time. Both caches are
+ * bounded in size, so a server that runs for months does not grow without limit.
+ * <p>
+ * The server exposes one endpoint, {@code /report}:
+ * <ul>
+ *   <li>{@code POST /report?format=tsv} — the request body is the raw digest text.</li>
+ *   <li>{@code GET /report?path=/path/to/digest.txt&format=json} — the digest is read from a
+ *       file on the local machine.</li>
+ * </ul>
+ * The {@code format} parameter is optional and defaults to {@code tsv}. Because the {@code path}
+ * form reads local files, it is confined to the directory given by {@link #setRoot(Path)}; without
+ * one, it is only accepted when the server listens on a loopback address.
+ */
+public class USNReportServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(USNReportServer.class);
+
+    /** The exporter shared by all requests. */
+    private final USNJsonExporter exporter;
+
+    /** The address the server listens on. */
+    private final InetSocketAddress address;
+
+    /** The number of threads handling requests. */
+    private final int threads;
+
+    /** The directory the {@code path} form may read from, or {@code null}. */
+    private Path root;
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    /**
+     * Constructs a new server.
+     *
+     * @param exporter the exporter used to build every report
+     * @param address  the address to listen on
+     * @param threads  the number of threads handling requests
+     */
+    public USNReportServer(USNJsonExporter exporter, InetSocketAddress address, int threads) {
+        this.exporter = exporter;
+        this.address = address;
+        this.threads = threads;
+    }
+
+    /**
+     * Confines the {@code path} form of requests to the files below a directory, which allows it
+     * on any address.
+     *
+     * @param root the directory, or {@code null} to accept any path on a loopback address only
+     * @throws IOException if the directory cannot be resolved
+     */
+    public void setRoot(Path root) throws IOException {
+        this.root = root == null ? null : root.toRealPath();
+    }
+
+    /**
+     * Starts listening. The method returns immediately; requests are served on background threads
+     * until {@link #stop()} is called.
+     *
+     * @throws IOException if the server socket cannot be bound
+     */
+    public void start() throws IOException {
+        server = HttpServer.create(address, 0);
+        server.createContext("/report", this::handleReport);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.start();
+        logger.info("Serving USN reports on http://{}:{}/report",
+                address.getHostString(), getPort());
+    }
+
+    /**
+     * Stops the server and releases its threads.
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(1);
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Returns the port the server is bound to, which is useful when it was started on port 0.
+     *
+     * @return the bound port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+
+    /**
+     * Handles a request to {@code /report}.
+     *
+     * @param exchange the HTTP exchange
+     * @throws IOException if the response cannot be written
+     */
+    private void handleReport(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            String format = params.getOrDefault("format", "tsv");
+
+            List<USNEntryJson> entries;
+            if ("POST".equals(exchange.getRequestMethod())) {
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+                    entries = exporter.buildReport(reader);
+                }
+            } else if ("GET".equals(exchange.getRequestMethod())) {
+                String path = params.get("path");
+                if (path == null) {
+                    sendText(exchange, 400, "Missing query parameter: path\n");
+                    return;
+                }
+                if (root == null && (address.getAddress() == null || !address.getAddress().isLoopbackAddress())) {
+                    sendText(exchange, 403, "The path parameter is only accepted on a loopback address "
+                            + "unless a root directory is set.\n");
+                    return;
+                }
+                Path inputPath = Path.of(path).toAbsolutePath().normalize();
+                if (root != null && !isBelowRoot(inputPath)) {
+                    sendText(exchange, 403, "Not below the root directory: " + path + "\n");
+                    return;
+                }
+                if (!Files.isRegularFile(inputPath)) {
+                    sendText(exchange, 404, "No such file: " + path + "\n");
+                    return;
+                }
+                try (BufferedReader reader = Files.newBufferedReader(inputPath)) {
+                    entries = exporter.buildReport(reader);
+                }
+            } else {
+                sendText(exchange, 405, "Use GET or POST.\n");
+                return;
+            }
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            exporter.writeReport(entries, format, body);
+            String contentType = "tsv".equalsIgnoreCase(format)
+                    ? "text/tab-separated-values; charset=utf-8"
+                    : "application/json; charset=utf-8";
+            send(exchange, 200, contentType, body.toByteArray());
+
+            logger.info("{} /report: {} entries in {} ms", exchange.getRequestMethod(),
+                    entries.size(), (System.nanoTime() - start) / 1_000_000);
+
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to build report.", e);
+            sendText(exchange, 500, "Failed to build report: " + e.getMessage() + "\n");
+        } finally {
+            exchange.close();
+        }
+    }
+
+
+    /**
+     * Checks whether a file lies below the root directory, following symbolic links, which may
+     * point elsewhere.
+     *
+     * @param file an absolute, normalized path
+     * @return {@code true} if the file is below the root
+     */
+    private boolean isBelowRoot(Path file) {
+        try {
+            return file.toRealPath().startsWith(root);
+        } catch (IOException e) {
+            return file.startsWith(root);
+        }
+    }
+
+
+    /**
+     * Parses a raw URL query string into a map of decoded parameters.
+     *
+     * @param rawQuery the raw query string, possibly {@code null}
+     * @return the decoded parameters
+     */
+    static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+
+    private static void sendText(HttpExchange exchange, int status, String message)
+            throws IOException {
+        send(exchange, status, "text/plain; charset=utf-8",
+                message.getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+}
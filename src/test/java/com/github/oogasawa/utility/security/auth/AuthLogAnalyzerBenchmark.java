@@ -0,0 +1,134 @@
+package com.github.oogasawa.utility.security.auth;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Compares the throughput of {@link AuthLogAnalyzer} with a per-line regular expression on
+ * synthetic auth.log files.
+ * <p>
+ * This is not a unit test and is not run by the build. Run it from the test classpath:
+ *
+ * <pre>{@code
+ * mvn -q test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.github.oogasawa.utility.security.auth.AuthLogAnalyzerBenchmark \
+ *     -Dexec.args="1024 8"
+ * }</pre>
+ *
+ * The optional arguments are the total size of the logs in MiB (default 512) and the number of
+ * files (default 4).
+ */
+public class AuthLogAnalyzerBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    private static final Pattern FAILED = Pattern.compile(
+            "^(\\w{3} [ \\d]\\d \\d\\d:\\d\\d:\\d\\d) (\\S+) sshd\\[\\d+\\]: Failed \\S+ for (?:invalid user )?(\\S+) from (\\S+)");
+
+    private static final String[] OTHER = {
+        "%s %s sshd[%d]: Connection closed by %s port 52144 [preauth]",
+        "%s %s CRON[%d]: pam_unix(cron:session): session opened for user root(uid=0) by %s",
+        "%s %s systemd-logind[%d]: New session 42 of user %s.",
+    };
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the optional size of the logs in MiB and number of files
+     * @throws IOException if the logs cannot be written or read
+     */
+    public static void main(String[] args) throws IOException {
+        long mib = args.length > 0 ? Long.parseLong(args[0]) : 512;
+        int fileCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        Path dir = Files.createTempDirectory("auth-bench");
+        try {
+            List<Path> files = new ArrayList<>();
+            long size = 0;
+            for (int i = 0; i < fileCount; i++) {
+                Path file = dir.resolve("auth.log-20250622_host" + i);
+                write(file, (mib << 20) / fileCount, i);
+                files.add(file);
+                size += Files.size(file);
+            }
+            System.out.printf("logs: %d files, %.1f MiB%n", fileCount, size / 1048576.0);
+
+            AuthLogAnalyzer analyzer = new AuthLogAnalyzer();
+            analyzer.setZone(ZoneOffset.UTC);
+            for (int round = 1; round <= ROUNDS; round++) {
+                long t0 = System.nanoTime();
+                long regexCount = 0;
+                for (Path file : files) {
+                    try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8)) {
+                        regexCount += lines.filter(l -> {
+                            Matcher m = FAILED.matcher(l);
+                            return m.find();
+                        }).count();
+                    }
+                }
+                long t1 = System.nanoTime();
+                AuthLogAnalyzer.Report report = analyzer.analyze(files);
+                long t2 = System.nanoTime();
+
+                long failed = report.counts().getOrDefault(AuthEvent.Type.FAILED, 0L);
+                if (failed != regexCount) {
+                    throw new IllegalStateException("failure count differs: " + regexCount + " vs " + failed);
+                }
+                System.out.printf("round %d: regex %7.1f MiB/s, analyzer %7.1f MiB/s (%d bursts)%n",
+                        round, mibPerSecond(size, t1 - t0), mibPerSecond(size, t2 - t1),
+                        report.addressBursts().size());
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+
+    /**
+     * Writes a day of mostly uninteresting log lines with a failure every few lines and an
+     * attack from one address every hour.
+     */
+    private static void write(Path file, long bytes, int seed) throws IOException {
+        Random random = new Random(seed);
+        String host = "host" + seed;
+        long written = 0;
+        long line = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            while (written < bytes) {
+                long second = line * 86400 / Math.max(1, bytes / 90);
+                String time = String.format("Jun 21 %02d:%02d:%02d", second / 3600 % 24, second / 60 % 60, second % 60);
+                String text;
+                if (second % 3600 < 30) {
+                    text = String.format("%s %s sshd[%d]: Failed password for invalid user admin%d from 203.0.113.%d port 22 ssh2",
+                            time, host, line % 32768, line % 50, second / 3600);
+                } else if (line % 7 == 0) {
+                    text = String.format("%s %s sshd[%d]: Failed password for root from 198.51.%d.%d port 22 ssh2",
+                            time, host, line % 32768, random.nextInt(256), random.nextInt(256));
+                } else {
+                    text = String.format(OTHER[(int) (line % OTHER.length)], time, host, line % 32768, "alice");
+                }
+                out.write(text);
+                out.write('\n');
+                written += text.length() + 1;
+                line++;
+            }
+        }
+    }
+
+
+    private static double mibPerSecond(long bytes, long nanos) {
+        return bytes / 1048576.0 / (nanos / 1e9);
+    }
+}
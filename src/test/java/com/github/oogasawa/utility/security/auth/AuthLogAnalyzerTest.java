@@ -0,0 +1,125 @@
+package com.github.oogasawa.utility.security.auth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link AuthLogAnalyzer} and {@link BurstDetector}.
+ */
+class AuthLogAnalyzerTest {
+
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("authlog");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /**
+     * Tests that a fast attack is reported as a burst with the log-in that followed it, while a
+     * slow one below the threshold is not, across a compressed collected file and a plain one.
+     */
+    @Test
+    void testBurstsAcrossFiles() throws IOException {
+        StringBuilder web = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            web.append(String.format("Jun 21 06:25:%02d web01 sshd[1]: Failed password for user%d from 203.0.113.7 port 1 ssh2%n",
+                    i, i));
+        }
+        web.append("Jun 21 06:40:00 web01 sshd[2]: Accepted password for user7 from 203.0.113.7 port 2 ssh2\n");
+        web.append("Jun 21 06:41:00 web01 sshd[3]: Accepted publickey for alice from 192.0.2.5 port 3 ssh2\n");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(dir.resolve("auth.log-20250622.gz_web01")))) {
+            out.write(web.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        StringBuilder db = new StringBuilder();
+        for (int i = 0; i < 24; i++) {
+            // one attempt every 10 seconds: 6 per minute, below the threshold
+            db.append(String.format("Jun 21 07:%02d:%02d db01 sshd[1]: Invalid user admin from 198.51.100.2 port 1%n",
+                    i / 6, i % 6 * 10));
+        }
+        db.append("Jun 21 08:00:00 db01 sudo:    alice : TTY=pts/0 ; PWD=/ ; USER=root ; COMMAND=/bin/ls\n");
+        Files.writeString(dir.resolve("auth.log-20250622_db01"), db);
+        Files.writeString(dir.resolve("syslog-20250622_db01"), db);
+
+        List<Path> files = AuthLogAnalyzer.resolve(List.of(dir.toString()));
+        assertEquals(2, files.size());
+
+        AuthLogAnalyzer analyzer = new AuthLogAnalyzer();
+        analyzer.setZone(ZoneOffset.UTC);
+        analyzer.setThreads(2);
+        AuthLogAnalyzer.Report report = analyzer.analyze(files);
+
+        assertEquals(57, report.lines());
+        assertEquals(30, report.counts().get(AuthEvent.Type.FAILED).longValue());
+        assertEquals(24, report.counts().get(AuthEvent.Type.INVALID_USER).longValue());
+        assertEquals(2, report.counts().get(AuthEvent.Type.ACCEPTED).longValue());
+        assertEquals(1, report.counts().get(AuthEvent.Type.SUDO).longValue());
+
+        assertEquals(1, report.addressBursts().size());
+        BurstDetector.Burst burst = report.addressBursts().get(0);
+        assertEquals("203.0.113.7", burst.key());
+        assertEquals(30, burst.failures());
+        assertEquals(30, burst.related().size());
+        // the slow attack is the only one on a single user, and stays below the threshold
+        assertTrue(report.userBursts().isEmpty());
+
+        assertEquals(1, report.loginsAfterBurst().size());
+        assertEquals("user7", report.loginsAfterBurst().get(0).user());
+        assertEquals("203.0.113.7", report.topAddresses().get(0).getKey());
+        assertEquals("admin", report.topUsers().get(0).getKey());
+        assertTrue(report.format(10).contains("203.0.113.7"));
+    }
+
+    /**
+     * Tests the sliding window of the burst detector: a burst opens at the threshold, ends when
+     * the failures thin out and opens again.
+     */
+    @Test
+    void testBurstDetector() {
+        BurstDetector detector = new BurstDetector(60, 6, 5);
+        for (int i = 0; i < 8; i++) {
+            detector.add("a", 1000 + i, "u" + i);
+        }
+        // 4 failures spread over 4 minutes: no window holds 5
+        for (int i = 0; i < 4; i++) {
+            detector.add("a", 2000 + i * 60, null);
+        }
+        for (int i = 0; i < 5; i++) {
+            detector.add("a", 5000 + i * 11, null);
+        }
+        List<BurstDetector.Burst> bursts = detector.finish();
+
+        assertEquals(2, bursts.size());
+        assertEquals(8, bursts.get(0).failures());
+        assertEquals(1000, bursts.get(0).start());
+        assertEquals(1007, bursts.get(0).end());
+        assertEquals(8, bursts.get(0).peak());
+        assertEquals(List.of("u0", "u1", "u2", "u3", "u4", "u5", "u6", "u7"), List.copyOf(bursts.get(0).related()));
+        assertEquals(5, bursts.get(1).failures());
+        assertEquals(5044, bursts.get(1).end());
+        assertTrue(detector.hasBurst("a"));
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.github.oogasawa.utility.security.auth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link AuthLogParser}.
+ */
+class AuthLogParserTest {
+
+    private final AuthLogParser parser = new AuthLogParser(LocalDate.of(2025, 6, 22), ZoneOffset.UTC);
+
+    private AuthEvent parse(String line) {
+        byte[] b = line.getBytes(StandardCharsets.UTF_8);
+        return parser.parse(b, 0, b.length);
+    }
+
+    private static long utc(int year, int month, int day, int hour, int minute, int second) {
+        return LocalDateTime.of(year, month, day, hour, minute, second).toEpochSecond(ZoneOffset.UTC);
+    }
+
+    /**
+     * Tests the sshd messages.
+     */
+    @Test
+    void testSshd() {
+        assertEquals(new AuthEvent(utc(2025, 6, 21, 6, 25, 1), AuthEvent.Type.FAILED, "web01", "root", "203.0.113.7"),
+                parse("Jun 21 06:25:01 web01 sshd[1234]: Failed password for root from 203.0.113.7 port 52144 ssh2"));
+        assertEquals(new AuthEvent(utc(2025, 6, 2, 6, 25, 1), AuthEvent.Type.FAILED, "web01", "admin", "2001:db8::1"),
+                parse("Jun  2 06:25:01 web01 sshd[1234]: Failed password for invalid user admin from 2001:db8::1 port 22 ssh2"));
+        assertEquals(new AuthEvent(utc(2025, 6, 21, 6, 25, 1), AuthEvent.Type.INVALID_USER, "web01", "oracle", "198.51.100.2"),
+                parse("Jun 21 06:25:01 web01 sshd[1234]: Invalid user oracle from 198.51.100.2 port 40000"));
+        assertEquals(new AuthEvent(utc(2025, 6, 21, 6, 25, 1), AuthEvent.Type.ACCEPTED, "web01", "alice", "192.0.2.5"),
+                parse("Jun 21 06:25:01 web01 sshd-session[99]: Accepted publickey for alice from 192.0.2.5 port 5000 ssh2: ED25519 SHA256:abc"));
+        // a user name chosen by the client cannot hide the address
+        assertEquals("x from 10.0.0.1", parse(
+                "Jun 21 06:25:01 web01 sshd[1]: Invalid user x from 10.0.0.1 from 198.51.100.9 port 1").user());
+        assertNull(parse("Jun 21 06:25:01 web01 sshd[1234]: Connection closed by 203.0.113.7 port 52144 [preauth]"));
+        assertNull(parse("Jun 21 06:25:01 web01 CRON[1234]: pam_unix(cron:session): session opened for user root"));
+    }
+
+    /**
+     * Tests the sudo and PAM messages.
+     */
+    @Test
+    void testSudoAndPam() {
+        AuthEvent sudo = parse("Jun 21 07:00:00 web01 sudo:    alice : TTY=pts/0 ; PWD=/home/alice ; USER=root ; COMMAND=/usr/bin/ls");
+        assertEquals(AuthEvent.Type.SUDO, sudo.type());
+        assertEquals("alice", sudo.user());
+        assertNull(sudo.ip());
+        assertEquals(AuthEvent.Type.SUDO_FAILURE, parse(
+                "Jun 21 07:00:00 web01 sudo:      bob : 3 incorrect password attempts ; TTY=pts/1 ; PWD=/ ; USER=root ; COMMAND=/bin/sh").type());
+        assertEquals(AuthEvent.Type.SUDO_FAILURE, parse(
+                "Jun 21 07:00:00 web01 sudo:      eve : user NOT in sudoers ; TTY=pts/1 ; PWD=/ ; USER=root ; COMMAND=/bin/sh").type());
+        assertNull(parse("Jun 21 07:00:00 web01 sudo: pam_unix(sudo:session): session opened for user root(uid=0) by alice(uid=1000)"));
+
+        AuthEvent su = parse("Jun 21 07:00:00 web01 su: pam_unix(su:auth): authentication failure; logname=bob uid=1001 euid=0 tty=pts/1 ruser=bob rhost=  user=root");
+        assertEquals(new AuthEvent(utc(2025, 6, 21, 7, 0, 0), AuthEvent.Type.PAM_FAILURE, "web01", "root", null), su);
+        // counted as "Failed password" instead
+        assertNull(parse("Jun 21 07:00:00 web01 sshd[5]: pam_unix(sshd:auth): authentication failure; logname= uid=0 euid=0 tty=ssh ruser= rhost=203.0.113.7  user=root"));
+    }
+
+    /**
+     * Tests the timestamp formats and the year of traditional timestamps.
+     */
+    @Test
+    void testTimestamps() {
+        AuthLogParser january = new AuthLogParser(LocalDate.of(2025, 1, 5), ZoneId.of("Asia/Tokyo"));
+        byte[] december = "Dec 31 23:59:59 h sshd[1]: Invalid user a from 10.0.0.1 port 1".getBytes(StandardCharsets.UTF_8);
+        assertEquals(utc(2024, 12, 31, 14, 59, 59), january.parse(december, 0, december.length).time());
+        byte[] newYear = "Jan  1 00:00:01 h sshd[1]: Invalid user a from 10.0.0.1 port 1".getBytes(StandardCharsets.UTF_8);
+        assertEquals(utc(2024, 12, 31, 15, 0, 1), january.parse(newYear, 0, newYear.length).time());
+
+        assertEquals(utc(2025, 6, 21, 21, 25, 1), parse(
+                "2025-06-22T06:25:01.123456+09:00 web01 sshd[1234]: Invalid user a from 10.0.0.1 port 1").time());
+        assertEquals(utc(2025, 6, 22, 6, 25, 1), parse(
+                "2025-06-22T06:25:01Z web01 sshd[1234]: Invalid user a from 10.0.0.1 port 1").time());
+        assertNull(parse("Foo 22 06:25:01 web01 sshd[1234]: Invalid user a from 10.0.0.1 port 1"));
+        assertNull(parse("Feb 30 06:25:01 web01 sshd[1234]: Invalid user a from 10.0.0.1 port 1"));
+        assertNull(parse("garbage"));
+    }
+
+    /**
+     * Tests that a stream is split into lines, including CRLF and an unterminated last line.
+     */
+    @Test
+    void testStream() throws IOException {
+        String log = "Jun 21 06:25:01 web01 sshd[1]: Invalid user a from 10.0.0.1 port 1\r\n"
+                + "Jun 21 06:25:02 web01 systemd[1]: Started session.\n"
+                + "Jun 21 06:25:03 web01 sshd[1]: Invalid user b from 10.0.0.2 port 1";
+        List<AuthEvent> events = new ArrayList<>();
+        parser.parse(new ByteArrayInputStream(log.getBytes(StandardCharsets.UTF_8)), events::add);
+
+        assertEquals(List.of("a", "b"), events.stream().map(AuthEvent::user).toList());
+        assertEquals("10.0.0.1", events.get(0).ip());
+        assertEquals(3, parser.lines());
+        assertEquals(log.length(), parser.bytes());
+    }
+
+}
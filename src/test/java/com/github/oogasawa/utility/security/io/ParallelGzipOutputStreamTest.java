@@ -0,0 +1,160 @@
+package com.github.oogasawa.utility.security.io;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link ParallelGzipOutputStream}.
+ */
+class ParallelGzipOutputStreamTest {
+
+    /**
+     * Tests that data spanning many blocks decompresses to the original with the standard
+     * {@link GZIPInputStream}, and that one member is written per block.
+     */
+    @Test
+    void testRoundTripAcrossBlocks() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(3);
+        for (int i = 0; i < 20000; i++) {
+            sb.append("Jun 22 10:00:").append(i % 60).append(" host sshd[").append(random.nextInt(99999))
+                    .append("]: Failed password for root from 192.0.2.").append(i % 254).append('\n');
+        }
+        byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+        int blockSize = 64 * 1024;
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed,
+                Deflater.DEFAULT_COMPRESSION, blockSize, executor)) {
+            // uneven writes, so that blocks are filled from several calls
+            int off = 0;
+            while (off < data.length) {
+                int n = Math.min(data.length - off, 1 + random.nextInt(10000));
+                out.write(data, off, n);
+                off += n;
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        byte[] gz = compressed.toByteArray();
+        assertArrayEquals(data, gunzip(gz));
+        assertEquals((data.length + blockSize - 1) / blockSize, countMembers(gz));
+        assertTrue(gz.length < data.length / 2);
+    }
+
+    /**
+     * Tests that an empty input still yields a valid gzip stream.
+     */
+    @Test
+    void testEmptyInput() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new ParallelGzipOutputStream(compressed).close();
+
+        assertArrayEquals(new byte[0], gunzip(compressed.toByteArray()));
+    }
+
+    /**
+     * Tests that single-byte writes and a flush in the middle keep the content intact.
+     */
+    @Test
+    void testSingleByteWritesAndFlush() throws IOException {
+        byte[] data = new byte[5000];
+        new Random(5).nextBytes(data);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed)) {
+            for (int i = 0; i < data.length; i++) {
+                out.write(data[i]);
+                if (i == 1234) {
+                    out.flush();
+                }
+            }
+        }
+
+        assertArrayEquals(data, gunzip(compressed.toByteArray()));
+    }
+
+
+    /**
+     * Tests that many streams compressing at once on the shared workers, more than there are
+     * slots for blocks in flight, neither deadlock nor mix up their members.
+     */
+    @Test
+    void testManyConcurrentStreams() throws Exception {
+        int streams = 3 * Runtime.getRuntime().availableProcessors() + 2;
+        ExecutorService writers = Executors.newFixedThreadPool(streams);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int s = 0; s < streams; s++) {
+                int seed = s;
+                results.add(writers.submit(() -> {
+                    byte[] data = new byte[3 * ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE + 12345];
+                    new Random(seed).nextBytes(data);
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                    try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed)) {
+                        out.write(data);
+                    }
+                    return Arrays.equals(data, gunzip(compressed.toByteArray()));
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(120, TimeUnit.SECONDS));
+            }
+        } finally {
+            writers.shutdownNow();
+        }
+    }
+
+
+    private static byte[] gunzip(byte[] gz) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gz))) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Counts the gzip members by decompressing them one at a time.
+     */
+    private static int countMembers(byte[] gz) throws IOException {
+        int members = 0;
+        int offset = 0;
+        while (offset < gz.length) {
+            Inflater inflater = new Inflater(true);
+            inflater.setInput(gz, offset + 10, gz.length - offset - 10);
+            byte[] buffer = new byte[1 << 16];
+            try {
+                while (!inflater.finished()) {
+                    inflater.inflate(buffer);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            }
+            offset = gz.length - inflater.getRemaining() + 8;
+            inflater.end();
+            members++;
+        }
+        return members;
+    }
+}
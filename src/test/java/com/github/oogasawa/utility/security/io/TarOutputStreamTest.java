@@ -0,0 +1,72 @@
+package com.github.oogasawa.utility.security.io;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link TarOutputStream}.
+ */
+class TarOutputStreamTest {
+
+    /**
+     * Tests that files of various sizes, including empty files and sizes that are multiples of
+     * the block size, and a long non-ASCII name stored in a pax header, are read back intact.
+     */
+    @Test
+    void testRoundTrip() throws IOException {
+        Random random = new Random(37);
+        String longName = "var/log/" + "a".repeat(120) + "/syslog-20250622.gz_srv";
+        List<String> names = List.of("empty", "one-block", "odd", longName, "ログ-20250622.txt_srv");
+        List<Integer> sizes = List.of(0, 512, 70001, 1234, 99);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[][] contents = new byte[names.size()][];
+        try (TarOutputStream tar = new TarOutputStream(bytes)) {
+            for (int i = 0; i < names.size(); i++) {
+                contents[i] = new byte[sizes.get(i)];
+                random.nextBytes(contents[i]);
+                tar.putNextEntry(names.get(i), contents[i].length, 1750550400000L);
+                tar.write(contents[i], 0, contents[i].length);
+                tar.closeEntry();
+            }
+        }
+
+        Map<String, byte[]> read = TarReader.read(bytes.toByteArray());
+        assertEquals(names, List.copyOf(read.keySet()));
+        for (int i = 0; i < names.size(); i++) {
+            assertArrayEquals(contents[i], read.get(names.get(i)), names.get(i));
+        }
+    }
+
+
+    /**
+     * Tests that writing more or fewer bytes than announced is rejected.
+     */
+    @Test
+    void testSizeIsEnforced() throws IOException {
+        TarOutputStream tar = new TarOutputStream(new ByteArrayOutputStream());
+        tar.putNextEntry("x", 3, 0);
+        try {
+            tar.write("abcd".getBytes(StandardCharsets.US_ASCII));
+            fail("expected an IOException for too many bytes");
+        } catch (IOException e) {
+            // expected
+        }
+        tar.write("ab".getBytes(StandardCharsets.US_ASCII));
+        try {
+            tar.closeEntry();
+            fail("expected an IOException for too few bytes");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
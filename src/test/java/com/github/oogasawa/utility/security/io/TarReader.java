@@ -0,0 +1,112 @@
+package com.github.oogasawa.utility.security.io;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A minimal tar reader for tests, which understands the ustar headers and pax {@code path} and
+ * {@code size} records written by {@link TarOutputStream} and verifies the header checksums.
+ */
+public final class TarReader {
+
+    private TarReader() {
+    }
+
+    /**
+     * Reads the regular files of an archive.
+     *
+     * @param tar the archive
+     * @return the contents by name, in archive order
+     * @throws IOException if the archive is malformed
+     */
+    public static Map<String, byte[]> read(byte[] tar) throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        Map<String, String> pax = new LinkedHashMap<>();
+        int offset = 0;
+        while (true) {
+            if (offset + 512 > tar.length) {
+                throw new IOException("Missing end-of-archive marker");
+            }
+            byte[] h = Arrays.copyOfRange(tar, offset, offset + 512);
+            if (isZero(h)) {
+                break;
+            }
+            verifyChecksum(h, offset);
+            String name = string(h, 0, 100);
+            long size = Long.parseLong(string(h, 124, 12).trim(), 8);
+            byte type = h[156];
+            offset += 512;
+
+            if (pax.containsKey("size")) {
+                size = Long.parseLong(pax.get("size"));
+            }
+            byte[] data = Arrays.copyOfRange(tar, offset, offset + (int) size);
+            offset += (int) ((size + 511) / 512 * 512);
+
+            if (type == 'x') {
+                pax = parsePax(data);
+                continue;
+            }
+            if (type != '0') {
+                throw new IOException("Unexpected entry type " + (char) type);
+            }
+            files.put(pax.getOrDefault("path", name), data);
+            pax = new LinkedHashMap<>();
+        }
+        if (tar.length % (20 * 512) != 0) {
+            throw new IOException("Archive not padded to a whole record: " + tar.length);
+        }
+        return files;
+    }
+
+    private static Map<String, String> parsePax(byte[] data) throws IOException {
+        Map<String, String> records = new LinkedHashMap<>();
+        int pos = 0;
+        while (pos < data.length) {
+            int space = pos;
+            while (data[space] != ' ') {
+                space++;
+            }
+            int length = Integer.parseInt(new String(data, pos, space - pos, StandardCharsets.US_ASCII));
+            String record = new String(data, space + 1, length - (space - pos) - 2, StandardCharsets.UTF_8);
+            if (data[pos + length - 1] != '\n') {
+                throw new IOException("Bad pax record length at " + pos);
+            }
+            int eq = record.indexOf('=');
+            records.put(record.substring(0, eq), record.substring(eq + 1));
+            pos += length;
+        }
+        return records;
+    }
+
+    private static void verifyChecksum(byte[] h, int offset) throws IOException {
+        long expected = Long.parseLong(string(h, 148, 8).trim(), 8);
+        long sum = 0;
+        for (int i = 0; i < 512; i++) {
+            sum += (i >= 148 && i < 156) ? ' ' : (h[i] & 0xff);
+        }
+        if (sum != expected) {
+            throw new IOException("Bad header checksum at " + offset);
+        }
+    }
+
+    private static String string(byte[] h, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && h[end] != 0) {
+            end++;
+        }
+        return new String(h, offset, end - offset, StandardCharsets.US_ASCII);
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,162 @@
+package com.github.oogasawa.utility.security.ioc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link IndicatorType}, {@link IndicatorSet} and {@link IocScanner}.
+ */
+class IocScannerTest {
+
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("ioc");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /**
+     * Tests the normal forms of listed indicators.
+     */
+    @Test
+    void testNormalize() {
+        assertEquals("evil.example.com", IndicatorType.normalize("hxxps://user@Evil[.]Example.com:8443/payload?x=1"));
+        assertEquals("evil.example", IndicatorType.normalize("*.evil.example."));
+        assertEquals("10.1.2.3", IndicatorType.normalize("010.001.002.003"));
+        assertEquals("2001:db8::1", IndicatorType.normalize("2001:0DB8:0000:0000:0000:0000:0000:0001"));
+        assertEquals("2001:db8:0:1:1:1:1:1", IndicatorType.normalize("2001:db8:0:1:1:1:1:1"));
+        assertEquals("::ffff:192.0.2.1", IndicatorType.normalize("[::ffff:192.0.2.1]"));
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", IndicatorType.normalize("D41D8CD98F00B204E9800998ECF8427E"));
+        assertEquals(IndicatorType.HASH, IndicatorType.of("d41d8cd98f00b204e9800998ecf8427e"));
+        assertEquals(IndicatorType.IPV6, IndicatorType.of("2001:db8::1"));
+        assertNull(IndicatorType.normalize("999.1.2.3"));
+        assertNull(IndicatorType.normalize("localhost"));
+        assertNull(IndicatorType.normalize("1:2:3"));
+    }
+
+
+    /**
+     * Tests that a compiled set contains exactly its indicators, including the addresses of a
+     * CIDR range.
+     */
+    @Test
+    void testCompileAndVerify() throws IOException {
+        Path list = dir.resolve("list.csv");
+        List<String> lines = new ArrayList<>();
+        lines.add("# indicator,comment");
+        lines.add("198.51.100.0/30,scanner range");
+        lines.add("10.0.0.0/8,too large");
+        lines.add("not an indicator");
+        for (int i = 0; i < 1000; i++) {
+            lines.add("bad" + i + ".example");
+        }
+        Files.write(list, lines);
+        Path compiled = dir.resolve("iocs.bin");
+
+        IndicatorSet.Stats stats = IndicatorSet.compile(List.of(list, list), compiled, 0.001);
+        assertEquals(1004, stats.indicators());
+        assertEquals(2 * 2, stats.rejected());
+
+        try (IndicatorSet set = IndicatorSet.open(compiled)) {
+            assertEquals(4, set.count(IndicatorType.IPV4));
+            for (String v : List.of("198.51.100.0", "198.51.100.3", "bad0.example", "bad999.example")) {
+                assertTrue(contains(set, v), v);
+            }
+            for (String v : List.of("198.51.100.4", "bad1000.example", "aaa.example", "zzz.example", "bad5.exampl")) {
+                assertFalse(contains(set, v), v);
+            }
+        }
+    }
+
+
+    /**
+     * Tests that the indicators are found in the lines of plain and compressed logs in their
+     * various textual contexts, and that nothing else is reported.
+     */
+    @Test
+    void testScan() throws IOException {
+        Path list = dir.resolve("iocs.txt");
+        Files.writeString(list, String.join("\n",
+                "203.0.113.7",
+                "evil[.]example",
+                "2001:db8::bad",
+                "44d88612fea8a8f36de82e1278abb02f",
+                ""));
+        Path compiled = dir.resolve("iocs.bin");
+        IndicatorSet.compile(List.of(list), compiled, 0.001);
+
+        Path logs = Files.createDirectory(dir.resolve("logs"));
+        Files.writeString(logs.resolve("secure-20250622.txt_web01"), String.join("\n",
+                "Jun 22 10:00:00 web01 sshd[1]: Failed password for root from 203.0.113.7 port 22 ssh2",
+                "Jun 22 10:00:01 web01 sshd[1]: Failed password for root from 203.0.113.70 port 22 ssh2",
+                "Jun 22 10:00:02 web01 sshd[1]: Accepted publickey for alice from 2001:db8::bad port 22",
+                "Jun 22 10:00:03 web01 sshd[1]: Accepted publickey for alice from 2001:db8::ba port 22",
+                ""));
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(logs.resolve("access.log-20250622.gz_web01")))) {
+            out.write(String.join("\n",
+                    "10.0.0.1 - - [22/Jun/2025:10:00:00 +0900] \"GET http://CDN.Evil.Example:8080/x HTTP/1.1\" 200 1",
+                    "10.0.0.1 - - [22/Jun/2025:10:00:00 +0900] \"GET /notevil.example HTTP/1.1\" 200 1",
+                    "10.0.0.2 - - [22/Jun/2025:10:00:01 +0900] \"GET /?md5=44D88612FEA8A8F36DE82E1278ABB02F HTTP/1.1\" 200 1",
+                    "10.0.0.3 - - [22/Jun/2025:10:00:02 +0900] \"GET /evil.example.org HTTP/1.1\" 200 1",
+                    "10.0.0.4 - - [22/Jun/2025:10:00:03 +0900] \"GET / HTTP/1.1\" 200 1 \"-\" \"203.0.113.7:443\"")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+
+        List<IocMatch> matches = new ArrayList<>();
+        IocScanner scanner = new IocScanner();
+        scanner.setThreads(2);
+        IocScanner.Report report;
+        try (IndicatorSet set = IndicatorSet.open(compiled)) {
+            report = scanner.scan(IocScanner.resolve(List.of(logs.toString())), set, matches::add);
+        }
+        matches.sort(Comparator.comparing((IocMatch m) -> m.file().getFileName().toString())
+                .thenComparingLong(IocMatch::line));
+
+        List<String> found = matches.stream()
+                .map(m -> m.file().getFileName() + ":" + m.line() + " " + m.indicator()).toList();
+        assertEquals(List.of(
+                "access.log-20250622.gz_web01:1 evil.example",
+                "access.log-20250622.gz_web01:3 44d88612fea8a8f36de82e1278abb02f",
+                "access.log-20250622.gz_web01:5 203.0.113.7",
+                "secure-20250622.txt_web01:1 203.0.113.7",
+                "secure-20250622.txt_web01:3 2001:db8::bad"), found);
+        assertEquals(IndicatorType.IPV6, matches.get(4).type());
+        assertTrue(matches.get(3).text().endsWith("from 203.0.113.7 port 22 ssh2"));
+        assertEquals(2, report.files());
+        assertEquals(9, report.lines());
+        assertEquals(5, report.matches());
+        assertEquals(report.filterHits(), report.matches() + report.falsePositives());
+        assertEquals(2L, report.indicators().get(0).getValue().longValue());
+        assertEquals("203.0.113.7", report.indicators().get(0).getKey());
+    }
+
+
+    private static boolean contains(IndicatorSet set, String value) {
+        byte[] b = value.getBytes(StandardCharsets.US_ASCII);
+        return set.contains(b, 0, b.length);
+    }
+
+}
@@ -0,0 +1,193 @@
+package com.github.oogasawa.utility.security.log;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link Chunker} and {@link ChunkStore}.
+ */
+class ChunkStoreTest {
+
+    private Path sourceDir;
+    private Path destDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        sourceDir = Files.createTempDirectory("store-src");
+        destDir = Files.createTempDirectory("store-dest");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (Path dir : List.of(sourceDir, destDir)) {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Tests that chunks stay within their bounds and that the chunks after an insertion are
+     * found again.
+     */
+    @Test
+    void testChunker() {
+        byte[] content = logLines(0, 20_000);
+        byte[] inserted = new byte[content.length + 100];
+        byte[] head = new byte[100];
+        new Random(1).nextBytes(head);
+        System.arraycopy(head, 0, inserted, 0, head.length);
+        System.arraycopy(content, 0, inserted, head.length, content.length);
+
+        List<String> a = chunks(content);
+        List<String> b = chunks(inserted);
+        Set<String> common = new HashSet<>(a);
+        common.retainAll(b);
+        assertTrue(a.size() > content.length / Chunker.MAX_SIZE, "too few chunks: " + a.size());
+        assertTrue(common.size() >= a.size() - 2, common.size() + " of " + a.size() + " chunks in common");
+    }
+
+
+    /**
+     * Tests that whole copies are collected into the store when it is turned on, and recipes are
+     * replaced with whole copies when it is turned off, instead of being skipped as unchanged.
+     */
+    @Test
+    void testStoreModeChangeCollectsAgain() throws IOException {
+        byte[] content = logLines(0, 1000);
+        Files.write(sourceDir.resolve("app-20250622.txt"), content);
+        Path copy = destDir.resolve(LogFileNameHelper.buildNewFileName("app-20250622.txt", "20250622", "web01"));
+
+        LogCollector.builder("web01", destDir).build().collect(sourceDir);
+        assertArrayEquals(content, Files.readAllBytes(copy));
+
+        LogCollector.Stats stats = LogCollector.builder("web01", destDir).store(ChunkStore.open(destDir)).build()
+                .collect(sourceDir);
+        assertEquals(1, stats.copiedFiles());
+        assertTrue(Files.size(copy) < content.length / 10, "not a recipe");
+        assertEquals(1, LogCollector.builder("web01", destDir).store(ChunkStore.open(destDir)).build()
+                .collect(sourceDir).skippedFiles());
+
+        stats = LogCollector.builder("web01", destDir).build().collect(sourceDir);
+        assertEquals(1, stats.copiedFiles());
+        assertArrayEquals(content, Files.readAllBytes(copy));
+    }
+
+
+    /**
+     * Tests that collecting the same content under several names and again stores it once, that
+     * the recipes restore it exactly and are read as the files by {@link LogInputs}, and that a
+     * corrupt chunk is detected.
+     */
+    @Test
+    void testCollectIntoStore() throws IOException {
+        byte[] day1 = logLines(0, 30_000);
+        byte[] day2 = logLines(30_000, 31_000);
+        byte[] both = new byte[day1.length + day2.length];
+        System.arraycopy(day1, 0, both, 0, day1.length);
+        System.arraycopy(day2, 0, both, day1.length, day2.length);
+        Files.write(sourceDir.resolve("app-20250622.txt"), day1);
+        Files.write(sourceDir.resolve("app-copy-20250622.txt"), day1);
+        Files.write(sourceDir.resolve("app-20250623.txt"), both);
+
+        ChunkStore store = ChunkStore.open(destDir);
+        LogCollector.Stats stats = LogCollector.builder("web01", destDir).store(store).build().collect(sourceDir);
+        assertEquals(3, stats.copiedFiles());
+        assertEquals(0, stats.failedFiles());
+
+        long packs = 0;
+        try (Stream<Path> files = Files.list(destDir.resolve(ChunkStore.DIRECTORY))) {
+            for (Path p : files.toList()) {
+                packs += p.toString().endsWith(".pack") ? Files.size(p) : 0;
+            }
+        }
+        // the content of one day is stored once, compressed
+        assertTrue(packs < day1.length / 3, "packs of " + packs + " bytes");
+
+        List<Path> recipes = LogInputs.resolve(List.of(destDir.toString()), name -> name.startsWith("app"));
+        assertEquals(3, recipes.size());
+        for (Path recipe : recipes) {
+            assertTrue(Files.size(recipe) < day1.length / 50, recipe + " is large");
+            byte[] expected = recipe.getFileName().toString().startsWith("app-20250623") ? both : day1;
+            try (InputStream in = LogInputs.open(recipe)) {
+                assertArrayEquals(expected, in.readAllBytes());
+            }
+        }
+
+        // reopened, the store knows its chunks, so content stored before is not stored again
+        long chunks = store.chunks();
+        ChunkStore reopened = ChunkStore.open(destDir);
+        assertEquals(chunks, reopened.chunks());
+        Files.write(sourceDir.resolve("app-20250624.txt"), day2);
+        LogCollector.builder("web01", destDir).store(reopened).build().collect(sourceDir);
+        // only the chunks at the start of the content of the second day are new
+        long added = reopened.chunks() - chunks;
+        assertTrue(added <= 3 && added < chunks(day2).size() / 2, added + " of " + chunks(day2).size() + " chunks are new");
+
+        // a flipped byte in a pack is detected
+        Path pack;
+        try (Stream<Path> files = Files.list(destDir.resolve(ChunkStore.DIRECTORY))) {
+            pack = files.filter(p -> p.toString().endsWith(".pack"))
+                    .max(Comparator.comparingLong(p -> p.toFile().length())).orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(pack, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, 1000);
+            b.put(0, (byte) (b.get(0) ^ 1)).rewind();
+            channel.write(b, 1000);
+        }
+        assertThrows(IOException.class, () -> {
+            try (InputStream in = ChunkStore.restore(recipes.get(0))) {
+                in.readAllBytes();
+            }
+        });
+    }
+
+
+    private static List<String> chunks(byte[] content) {
+        List<String> chunks = new ArrayList<>();
+        int offset = 0;
+        while (offset < content.length) {
+            int n = Chunker.cut(content, offset, content.length - offset);
+            assertTrue(n <= Chunker.MAX_SIZE);
+            assertTrue(n >= Chunker.MIN_SIZE || offset + n == content.length);
+            chunks.add(new String(content, offset, n, StandardCharsets.ISO_8859_1));
+            offset += n;
+        }
+        return chunks;
+    }
+
+
+    private static byte[] logLines(int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(from);
+        for (int i = from; i < to; i++) {
+            sb.append(String.format("Jun 22 %02d:%02d:%02d web01 app[%d]: request %d from 10.0.%d.%d took %d ms%n",
+                    i / 3600 % 24, i / 60 % 60, i % 60, 1000 + random.nextInt(50), i,
+                    random.nextInt(256), random.nextInt(256), random.nextInt(1000)));
+        }
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.github.oogasawa.utility.security.log;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Compares the {@link CopyStrategy copy strategies} on large synthetic log files.
+ * <p>
+ * This is not a unit test and is not run by the build. Run it from the test classpath:
+ *
+ * <pre>{@code
+ * mvn -q test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.github.oogasawa.utility.security.log.CopyStrategyBenchmark \
+ *     -Dexec.args="4 /data/tmp"
+ * }</pre>
+ *
+ * The optional arguments are the total size of the logs in GiB (default 2) and the directory in
+ * which the logs and their copies are created (default: the temporary directory). The page cache
+ * is not dropped between runs, so the first strategy may pay for reading the logs from disk.
+ */
+public class CopyStrategyBenchmark {
+
+    private static final int FILES = 4;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the optional size in GiB and working directory
+     * @throws IOException if the files cannot be written or copied
+     */
+    public static void main(String[] args) throws IOException {
+        long gib = args.length > 0 ? Long.parseLong(args[0]) : 2;
+        Path base = args.length > 1 ? Path.of(args[1]) : Path.of(System.getProperty("java.io.tmpdir"));
+        Path workDir = Files.createTempDirectory(base, "copy-bench");
+        try {
+            Path sourceDir = Files.createDirectory(workDir.resolve("src"));
+            List<Path> sources = new ArrayList<>();
+            for (int i = 0; i < FILES; i++) {
+                Path file = sourceDir.resolve("syslog-2025062" + i);
+                writeSyntheticLog(file, (gib << 30) / FILES);
+                sources.add(file);
+            }
+            long total = 0;
+            for (Path source : sources) {
+                total += Files.size(source);
+            }
+            System.out.printf("logs: %d files, %.2f GiB%n", FILES, total / (double) (1L << 30));
+
+            for (CopyStrategy strategy : CopyStrategy.values()) {
+                Path destDir = Files.createDirectory(workDir.resolve("dest-" + strategy));
+                long start = System.nanoTime();
+                for (Path source : sources) {
+                    strategy.copy(source, destDir.resolve(source.getFileName()));
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%-8s %8.2f s %10.1f MiB/s%n", strategy, seconds,
+                        total / 1048576.0 / seconds);
+                deleteRecursively(destDir);
+            }
+        } finally {
+            deleteRecursively(workDir);
+        }
+    }
+
+
+    private static void writeSyntheticLog(Path file, long bytes) throws IOException {
+        long written = 0;
+        long n = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            while (written < bytes) {
+                String line = String.format(
+                        "Jun 22 %02d:%02d:%02d host sshd[%d]: Accepted publickey for user%d from 192.0.2.%d port %d ssh2%n",
+                        n / 3600 % 24, n / 60 % 60, n % 60, 1000 + n % 50000, n % 97, n % 254 + 1,
+                        1024 + n % 60000);
+                out.write(line);
+                written += line.length();
+                n++;
+            }
+        }
+    }
+
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.oogasawa.utility.security.log;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link CopyStrategy}.
+ */
+class CopyStrategyTest {
+
+    private Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("copyStrategy");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /**
+     * Tests that every strategy produces an identical copy and replaces an existing file.
+     */
+    @Test
+    void testAllStrategiesCopyContent() throws IOException {
+        byte[] data = new byte[(1 << 20) + 123];
+        new Random(7).nextBytes(data);
+        Path source = tempDir.resolve("syslog-20250622.gz");
+        Files.write(source, data);
+
+        for (CopyStrategy strategy : CopyStrategy.values()) {
+            Path target = tempDir.resolve("copy-" + strategy);
+            Files.writeString(target, "stale content that is longer than nothing");
+
+            assertEquals(data.length, strategy.copy(source, target), strategy.name());
+            assertArrayEquals(data, Files.readAllBytes(target), strategy.name());
+        }
+    }
+
+    /**
+     * Tests that every strategy feeds the copied content to the digests.
+     */
+    @Test
+    void testHashWhileCopying() throws Exception {
+        byte[] data = new byte[(3 << 18) + 5];
+        new Random(11).nextBytes(data);
+        Path source = tempDir.resolve("kern.log-20250622.gz");
+        Files.write(source, data);
+        String expected = CollectionManifest.sha256(source);
+
+        for (CopyStrategy strategy : CopyStrategy.values()) {
+            Path target = tempDir.resolve("hashed-" + strategy);
+            MessageDigest sha256 = CollectionManifest.newSha256();
+            MessageDigest sha512 = CollectionManifest.newDigest("SHA-512/256");
+
+            assertEquals(data.length, strategy.copy(source, target, List.of(sha256, sha512)));
+            assertEquals(expected, HexFormat.of().formatHex(sha256.digest()), strategy.name());
+            assertArrayEquals(MessageDigest.getInstance("SHA-512/256").digest(data), sha512.digest());
+            assertArrayEquals(data, Files.readAllBytes(target), strategy.name());
+        }
+    }
+
+    /**
+     * Tests that a hard link to a symbolic link links the file it points to.
+     */
+    @Test
+    void testHardlinkFollowsSymbolicLink() throws IOException {
+        Path source = tempDir.resolve("auth.log-20250622.gz");
+        Files.writeString(source, "content");
+        Path symlink = Files.createSymbolicLink(tempDir.resolve("link.gz"), source);
+        Path target = tempDir.resolve("target.gz");
+
+        CopyStrategy.HARDLINK.copy(symlink, target);
+
+        assertEquals("content", Files.readString(target));
+        assertFalse(Files.isSymbolicLink(target));
+    }
+
+    /**
+     * Tests that strategy names are parsed case-insensitively.
+     */
+    @Test
+    void testOf() {
+        assertEquals(CopyStrategy.TRANSFER, CopyStrategy.of("transfer"));
+        assertEquals(CopyStrategy.HARDLINK, CopyStrategy.of("HardLink"));
+    }
+}
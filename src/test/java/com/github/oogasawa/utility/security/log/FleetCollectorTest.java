@@ -0,0 +1,134 @@
+package com.github.oogasawa.utility.security.log;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link FleetCollector}.
+ */
+class FleetCollectorTest {
+
+    private Path sourceRoot;
+    private Path fleetDest;
+    private Path singleDest;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        sourceRoot = Files.createTempDirectory("fleet-src");
+        fleetDest = Files.createTempDirectory("fleet-dest");
+        singleDest = Files.createTempDirectory("fleet-single");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (Path dir : List.of(sourceRoot, fleetDest, singleDest)) {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Tests that every host is collected into its own subdirectory, with the same files as a
+     * collection of that host alone, even if the hosts differ much in size.
+     */
+    @Test
+    void testSameFilesAsPerHostCollection() throws IOException {
+        Map<String, Integer> fileCounts = Map.of("web01", 200, "web02", 3, "db01", 1);
+        for (Map.Entry<String, Integer> host : fileCounts.entrySet()) {
+            Path logDir = Files.createDirectories(sourceRoot.resolve(host.getKey()).resolve("var/log/apache2"));
+            for (int i = 0; i < host.getValue(); i++) {
+                Files.writeString(logDir.resolve("access" + i + ".log-20250622.gz"), host.getKey() + " " + i + "\n");
+            }
+            Files.writeString(logDir.resolve("access.log"), "current\n");
+        }
+
+        Map<String, Path> hosts = FleetCollector.hostsFromDirectory(sourceRoot, "var/log");
+        assertEquals(List.of("db01", "web01", "web02"), List.copyOf(hosts.keySet()));
+
+        FleetCollector.Result result = new FleetCollector(LogCollector.builder(null, fleetDest).threads(3))
+                .collect(hosts);
+
+        assertTrue(result.failedHosts().isEmpty());
+        assertEquals(204, result.total().copiedFiles());
+        for (Map.Entry<String, Path> host : hosts.entrySet()) {
+            Path single = singleDest.resolve(host.getKey());
+            Files.createDirectories(single);
+            LogCollector.builder(host.getKey(), single).threads(1).build().collect(host.getValue());
+
+            Path fleet = fleetDest.resolve(host.getKey());
+            List<Path> expected = listFiles(single);
+            assertEquals(expected, listFiles(fleet));
+            for (Path name : expected) {
+                assertArrayEquals(Files.readAllBytes(single.resolve(name)), Files.readAllBytes(fleet.resolve(name)));
+            }
+            assertEquals(fileCounts.get(host.getKey()).longValue(), result.hosts().get(host.getKey()).copiedFiles());
+        }
+    }
+
+    /**
+     * Tests that a host whose source directory is missing is reported while the other hosts are
+     * collected.
+     */
+    @Test
+    void testMissingHostIsReported() throws IOException {
+        Path logDir = Files.createDirectories(sourceRoot.resolve("web01"));
+        Files.writeString(logDir.resolve("syslog-20250622.gz"), "x");
+        Map<String, Path> hosts = new LinkedHashMap<>();
+        hosts.put("web01", logDir);
+        hosts.put("gone", sourceRoot.resolve("gone"));
+
+        FleetCollector.Result result = new FleetCollector(LogCollector.builder(null, fleetDest).threads(2))
+                .collect(hosts);
+
+        assertEquals(1, result.hosts().get("web01").copiedFiles());
+        assertTrue(result.failedHosts().containsKey("gone"));
+        assertThrows(IllegalArgumentException.class,
+                () -> new FleetCollector(LogCollector.builder(null, fleetDest)).collect(Map.of("../x", logDir)));
+    }
+
+    /**
+     * Tests the parsing of a hosts file.
+     */
+    @Test
+    void testHostsFromFile() throws IOException {
+        Path file = sourceRoot.resolve("hosts.txt");
+        Files.writeString(file, "# fleet\n\nweb01  mnt/web01/var/log\ndb01\t/srv/db01/log\n");
+
+        Map<String, Path> hosts = FleetCollector.hostsFromFile(file);
+
+        assertEquals(List.of("web01", "db01"), List.copyOf(hosts.keySet()));
+        assertEquals(sourceRoot.toAbsolutePath().resolve("mnt/web01/var/log"), hosts.get("web01"));
+        assertEquals(Path.of("/srv/db01/log"), hosts.get("db01"));
+
+        Files.writeString(file, "web01 a\nweb01 b\n");
+        assertThrows(IllegalArgumentException.class, () -> FleetCollector.hostsFromFile(file));
+        Files.writeString(file, "web01\n");
+        assertThrows(IllegalArgumentException.class, () -> FleetCollector.hostsFromFile(file));
+    }
+
+    private static List<Path> listFiles(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.list(dir)) {
+            return paths.filter(Files::isRegularFile)
+                    .map(dir::relativize)
+                    .filter(p -> !p.toString().startsWith("."))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.github.oogasawa.utility.security.log;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link IoThrottle}.
+ */
+class IoThrottleTest {
+
+    /**
+     * Tests that reads are held to the byte rate.
+     */
+    @Test
+    void testByteRate() throws IOException {
+        IoThrottle throttle = new IoThrottle(4 << 20, 0, false);
+        long start = System.nanoTime();
+        InputStream in = throttle.wrap(new ByteArrayInputStream(new byte[3 << 20]));
+        byte[] buffer = new byte[1 << 16];
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            total += n;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        assertEquals(3 << 20, total);
+        // 3 MiB at 4 MiB/s, less the initial tenth of a second of tokens
+        assertTrue(seconds > 0.6, "took " + seconds + " s");
+        assertTrue(seconds < 2.0, "took " + seconds + " s");
+    }
+
+
+    /**
+     * Tests that files are started at the file rate.
+     */
+    @Test
+    void testFileRate() {
+        IoThrottle throttle = new IoThrottle(0, 50, false);
+        long start = System.nanoTime();
+        for (int i = 0; i < 26; i++) {
+            throttle.acquireFile();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        // 26 files at 50 files/s, less the initial tenth of a second of tokens
+        assertTrue(seconds > 0.38, "took " + seconds + " s");
+        assertTrue(throttle.waitedNanos() > 0);
+    }
+
+
+    /**
+     * Tests that an unlimited throttle is inactive and does not wrap streams.
+     */
+    @Test
+    void testUnlimited() {
+        InputStream in = new ByteArrayInputStream(new byte[1]);
+        assertTrue(!IoThrottle.UNLIMITED.isActive());
+        assertTrue(IoThrottle.UNLIMITED.wrap(in) == in);
+    }
+
+
+    /**
+     * Tests that an adaptive throttle lowers the byte rate when the read latency rises well
+     * above its baseline, and raises it again when the latency returns to normal.
+     */
+    @Test
+    void testAdaptiveBackOff() throws IOException {
+        long limit = 1L << 30;
+        IoThrottle throttle = new IoThrottle(limit, 0, true);
+        SlowChannel channel = new SlowChannel();
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+        channel.latencyNanos = 50_000;
+        readFor(throttle, channel, buffer, 1.2);
+        assertEquals(limit, throttle.currentBytesPerSecond());
+
+        channel.latencyNanos = 4_000_000;
+        readFor(throttle, channel, buffer, 1.2);
+        long lowered = throttle.currentBytesPerSecond();
+        assertTrue(lowered < limit, "rate " + lowered);
+        assertTrue(lowered >= limit / 16, "rate " + lowered);
+
+        channel.latencyNanos = 50_000;
+        readFor(throttle, channel, buffer, 1.2);
+        assertTrue(throttle.currentBytesPerSecond() > lowered,
+                "rate " + throttle.currentBytesPerSecond() + " after " + lowered);
+    }
+
+
+    /**
+     * Tests the parsing of rates.
+     */
+    @Test
+    void testParseBytes() {
+        assertEquals(50L << 20, IoThrottle.parseBytes("50M"));
+        assertEquals(512L << 10, IoThrottle.parseBytes("512k"));
+        assertEquals(3L << 29, IoThrottle.parseBytes("1.5G"));
+        assertEquals(1000, IoThrottle.parseBytes("1000"));
+        assertEquals(0, IoThrottle.parseBytes("0"));
+    }
+
+
+    private static void readFor(IoThrottle throttle, ReadableByteChannel channel, ByteBuffer buffer,
+            double seconds) throws IOException {
+        long end = System.nanoTime() + (long) (seconds * 1e9);
+        while (System.nanoTime() < end) {
+            buffer.clear();
+            throttle.read(channel, buffer);
+        }
+    }
+
+
+    /**
+     * An endless channel whose reads take a given time.
+     */
+    private static final class SlowChannel implements ReadableByteChannel {
+
+        volatile long latencyNanos;
+
+        @Override
+        public int read(ByteBuffer dst) {
+            LockSupport.parkNanos(latencyNanos);
+            int n = dst.remaining();
+            dst.position(dst.limit());
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
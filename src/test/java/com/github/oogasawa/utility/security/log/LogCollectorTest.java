@@ -0,0 +1,329 @@
+package com.github.oogasawa.utility.security.log;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.oogasawa.utility.security.io.TarReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link LogCollector}.
+ */
+class LogCollectorTest {
+
+    private static final String serverName = "testServer";
+
+    private Path sourceDir;
+    private Path serialDest;
+    private Path parallelDest;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        sourceDir = Files.createTempDirectory("collector-src");
+        serialDest = Files.createTempDirectory("collector-serial");
+        parallelDest = Files.createTempDirectory("collector-parallel");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (Path dir : List.of(sourceDir, serialDest, parallelDest)) {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Tests that the parallel collector produces the same destination files as a serial walk
+     * with {@link LogFileProcessor}, and that its counters match.
+     */
+    @Test
+    void testSameDestinationSetAsSerialWalk() throws IOException {
+        SimulatedLogDataPopulator.populate(sourceDir);
+        for (int host = 0; host < 20; host++) {
+            Path dir = Files.createDirectories(sourceDir.resolve("remote/host" + host + "/apache2"));
+            Files.writeString(dir.resolve("access-host" + host + ".log-20250622.gz"), "GET / " + host + "\n");
+        }
+
+        Files.walkFileTree(sourceDir, new LogFileProcessor(serverName, serialDest));
+        LogCollector.Stats stats = LogCollector.builder(serverName, parallelDest)
+                .threads(4).perDeviceLimit(2).build().collect(sourceDir);
+
+        List<Path> expected = listFiles(serialDest);
+        assertEquals(expected, listFiles(parallelDest));
+        for (Path name : expected) {
+            assertArrayEquals(Files.readAllBytes(serialDest.resolve(name)),
+                    Files.readAllBytes(parallelDest.resolve(name)));
+        }
+
+        assertEquals(expected.size(), stats.copiedFiles());
+        long expectedBytes = 0;
+        for (Path name : expected) {
+            expectedBytes += Files.size(serialDest.resolve(name));
+        }
+        assertEquals(expectedBytes, stats.copiedBytes());
+        assertEquals(0, stats.failedFiles());
+        assertTrue(stats.scannedFiles() > stats.copiedFiles());
+    }
+
+    /**
+     * Tests that two sources mapping to the same destination name are copied only once.
+     */
+    @Test
+    void testDuplicateDestinationNameIsCopiedOnce() throws IOException {
+        Files.createDirectories(sourceDir.resolve("a"));
+        Files.createDirectories(sourceDir.resolve("b"));
+        Files.writeString(sourceDir.resolve("a/auth.log-20250622.gz"), "a");
+        Files.writeString(sourceDir.resolve("b/auth.log-20250622.gz"), "b");
+
+        LogCollector.Stats stats = LogCollector.builder(serverName, parallelDest)
+                .threads(2).perDeviceLimit(1).build().collect(sourceDir);
+
+        String expected = LogFileNameHelper.buildNewFileName("auth.log-20250622.gz", "20250622", serverName);
+        assertEquals(List.of(Path.of(expected)), listFiles(parallelDest));
+        assertEquals(1, stats.copiedFiles());
+    }
+
+    /**
+     * Tests that a second run skips unchanged files without copying them, and copies files
+     * that were modified or newly rotated.
+     */
+    @Test
+    void testIncrementalRunSkipsUnchangedFiles() throws IOException {
+        Path old = sourceDir.resolve("syslog-20250615.gz");
+        Path changed = sourceDir.resolve("syslog-20250616.gz");
+        Files.writeString(old, "old");
+        Files.writeString(changed, "v1");
+
+        LogCollector collector = LogCollector.builder(serverName, parallelDest).threads(2).build();
+        LogCollector.Stats first = collector.collect(sourceDir);
+        assertEquals(2, first.copiedFiles());
+
+        Files.writeString(changed, "v2 is longer");
+        Files.writeString(sourceDir.resolve("syslog-20250622.gz"), "new");
+        LogCollector.Stats second = collector.collect(sourceDir);
+
+        assertEquals(2, second.copiedFiles());
+        assertEquals(1, second.skippedFiles());
+        String changedName = LogFileNameHelper.buildNewFileName("syslog-20250616.gz", "20250616", serverName);
+        assertEquals("v2 is longer", Files.readString(parallelDest.resolve(changedName)));
+
+        // without evidence, the content is not hashed
+        CollectionManifest manifest = CollectionManifest.load(parallelDest);
+        assertNull(manifest.get(changedName).sha256());
+        assertEquals(12, manifest.get(changedName).size());
+
+        LogCollector.Stats full = LogCollector.builder(serverName, parallelDest).incremental(false)
+                .build().collect(sourceDir);
+        assertEquals(3, full.copiedFiles());
+        assertEquals(0, full.skippedFiles());
+    }
+
+    /**
+     * Tests that a copy interrupted while it waits for its source device is counted as failed.
+     */
+    @Test
+    void testInterruptedCopyIsCountedAsFailed() throws IOException {
+        Files.writeString(sourceDir.resolve("syslog-20250615.gz"), "x");
+
+        LogCollector.Stats stats = LogCollector.builder(serverName, parallelDest)
+                .copyExecutor(task -> {
+                    Thread.currentThread().interrupt();
+                    try {
+                        task.run();
+                    } finally {
+                        Thread.interrupted();
+                    }
+                })
+                .build().collect(sourceDir);
+
+        assertEquals(1, stats.scannedFiles());
+        assertEquals(0, stats.copiedFiles());
+        assertEquals(1, stats.failedFiles());
+    }
+
+
+    /**
+     * Tests that without evidence the content is not hashed, so that hard links are made without
+     * reading the files.
+     */
+    @Test
+    void testHardLinkWithoutEvidence() throws IOException {
+        Path source = sourceDir.resolve("syslog-20250615.gz");
+        Files.writeString(source, "linked");
+        LogCollector.builder(serverName, parallelDest).copyStrategy(CopyStrategy.HARDLINK).build()
+                .collect(sourceDir);
+
+        String name = LogFileNameHelper.buildNewFileName("syslog-20250615.gz", "20250615", serverName);
+        assertTrue(Files.isSameFile(source, parallelDest.resolve(name)));
+        assertNull(CollectionManifest.load(parallelDest).get(name).sha256());
+    }
+
+    /**
+     * Tests that the evidence files list the hashes of all collected files in the format of
+     * sha256sum, including files skipped as unchanged that were collected without evidence, and
+     * that the sign-off fixes them.
+     */
+    @Test
+    void testEvidenceManifest() throws IOException {
+        Files.writeString(sourceDir.resolve("syslog-20250615.gz"), "first");
+        LogCollector.builder(serverName, parallelDest).build().collect(sourceDir);
+        Files.writeString(sourceDir.resolve("syslog-20250622.gz"), "second");
+        LogCollector.Stats stats = LogCollector.builder(serverName, parallelDest).evidence(true)
+                .extraDigests(List.of("SHA-512/256")).build().collect(sourceDir);
+        assertEquals(1, stats.skippedFiles());
+
+        List<String> sums = Files.readAllLines(parallelDest.resolve("SHA256SUMS"));
+        assertEquals(2, sums.size());
+        for (String line : sums) {
+            String[] f = line.split("  ", 2);
+            assertEquals(CollectionManifest.sha256(parallelDest.resolve(f[1])), f[0]);
+        }
+        assertEquals(2, Files.readAllLines(parallelDest.resolve("SHA512-256SUMS")).size());
+
+        String signoff = Files.readString(parallelDest.resolve(EvidenceManifest.SIGNOFF_FILE));
+        assertTrue(signoff.contains("files: 2\n"));
+        assertTrue(signoff.contains("sha256(SHA256SUMS): "
+                + CollectionManifest.sha256(parallelDest.resolve("SHA256SUMS"))));
+    }
+
+    /**
+     * Tests that uncompressed logs are gzip-compressed with {@code .gz} appended, that
+     * compressed logs pass through unchanged, and that the evidence hashes the written files.
+     */
+    @Test
+    void testCompressWhileCopying() throws IOException {
+        String text = "Jun 22 10:00:00 host sshd[1]: Accepted publickey for user\n".repeat(50000);
+        Files.writeString(sourceDir.resolve("audit-20250622.txt"), text);
+        byte[] gz = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, 3, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+        Files.write(sourceDir.resolve("access.log-20250610.gz"), gz);
+
+        LogCollector.Stats stats = LogCollector.builder(serverName, parallelDest).compress(true)
+                .evidence(true).build().collect(sourceDir);
+        assertEquals(2, stats.copiedFiles());
+
+        String compressedName = LogFileNameHelper.buildNewFileName("audit-20250622.txt", "20250622",
+                serverName) + ".gz";
+        Path compressed = parallelDest.resolve(compressedName);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(compressed))) {
+            assertEquals(text, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertTrue(Files.size(compressed) < text.length() / 10);
+
+        String passedName = LogFileNameHelper.buildNewFileName("access.log-20250610.gz", "20250610",
+                serverName);
+        assertArrayEquals(gz, Files.readAllBytes(parallelDest.resolve(passedName)));
+
+        assertTrue(Files.readString(parallelDest.resolve("SHA256SUMS"))
+                .contains(CollectionManifest.sha256(compressed) + "  " + compressedName));
+    }
+
+
+    /**
+     * Tests that a run resumes from the journal of an interrupted run: a completed copy is
+     * skipped without being read, a partial copy is discarded with its index and redone, a torn
+     * last line is ignored, and the journal is deleted when the run completes.
+     */
+    @Test
+    void testResumeInterruptedRun() throws IOException {
+        Path done = sourceDir.resolve("syslog-20250615.gz");
+        Path partial = sourceDir.resolve("syslog-20250616.gz");
+        Files.writeString(done, "completed before the crash");
+        Files.writeString(partial, "interrupted while copying");
+        String doneName = LogFileNameHelper.buildNewFileName("syslog-20250615.gz", "20250615", serverName);
+        String partialName = LogFileNameHelper.buildNewFileName("syslog-20250616.gz", "20250616", serverName);
+
+        // the state left by a run that crashed while copying the second file
+        Files.writeString(parallelDest.resolve(doneName), "marker: not copied again");
+        Path temp = parallelDest.resolve(CollectionJournal.tempName(partialName));
+        Files.writeString(temp, "interr");
+        Path tempIndex = TimeIndex.pathOf(temp);
+        Files.writeString(tempIndex, "partial index");
+        try (CollectionJournal journal = CollectionJournal.open(parallelDest,
+                CollectionManifest.load(parallelDest))) {
+            journal.done(new CollectionManifest.Entry(doneName, done.toAbsolutePath().toString(),
+                    Files.size(done), Files.getLastModifiedTime(done).toMillis(), "0".repeat(64)));
+            journal.begin(partialName, partial);
+        }
+        Files.writeString(parallelDest.resolve(CollectionJournal.FILE_NAME), "done\tsyslog-2025",
+                StandardOpenOption.APPEND);
+
+        LogCollector.Stats stats = LogCollector.builder(serverName, parallelDest).build().collect(sourceDir);
+
+        assertEquals(1, stats.skippedFiles());
+        assertEquals(1, stats.copiedFiles());
+        assertEquals("marker: not copied again", Files.readString(parallelDest.resolve(doneName)));
+        assertEquals("interrupted while copying", Files.readString(parallelDest.resolve(partialName)));
+        assertFalse(Files.exists(temp));
+        assertFalse(Files.exists(tempIndex));
+        assertFalse(Files.exists(parallelDest.resolve(CollectionJournal.FILE_NAME)));
+
+        CollectionManifest manifest = CollectionManifest.load(parallelDest);
+        assertEquals("0".repeat(64), manifest.get(doneName).sha256());
+        assertEquals(Files.size(partial), manifest.get(partialName).size());
+    }
+
+
+    /**
+     * Tests that archiving streams the same files under the same names as a serial walk copies,
+     * into a valid gzip-compressed tar archive, across many buffers of the pipeline.
+     */
+    @Test
+    void testArchive() throws IOException {
+        SimulatedLogDataPopulator.populate(sourceDir);
+        byte[] large = new byte[LogArchiver.BUFFER_SIZE * 3 + 12345];
+        new Random(37).nextBytes(large);
+        Files.write(sourceDir.resolve("audit-20250622.txt"), large);
+
+        Files.walkFileTree(sourceDir, new LogFileProcessor(serverName, serialDest));
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        LogCollector.Stats stats = LogCollector.builder(serverName, null).threads(4)
+                .archive(archive).compress(true).build().collect(sourceDir);
+
+        byte[] tar;
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(archive.toByteArray()))) {
+            tar = in.readAllBytes();
+        }
+        Map<String, byte[]> entries = TarReader.read(tar);
+
+        List<Path> expected = listFiles(serialDest);
+        assertEquals(expected.size(), entries.size());
+        long expectedBytes = 0;
+        for (Path name : expected) {
+            assertArrayEquals(Files.readAllBytes(serialDest.resolve(name)), entries.get(name.toString()),
+                    name.toString());
+            expectedBytes += Files.size(serialDest.resolve(name));
+        }
+        assertEquals(expected.size(), stats.copiedFiles());
+        assertEquals(expectedBytes, stats.copiedBytes());
+        assertEquals(0, stats.failedFiles());
+    }
+
+
+    private static List<Path> listFiles(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(p -> !p.getFileName().toString().startsWith(CollectionManifest.FILE_NAME))
+                    .map(dir::relativize).sorted().toList();
+        }
+    }
+}
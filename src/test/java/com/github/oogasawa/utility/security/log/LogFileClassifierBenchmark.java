@@ -0,0 +1,118 @@
+package com.github.oogasawa.utility.security.log;
+
+import java.util.Random;
+
+/**
+ * Compares {@link LogFileClassifier} with the former per-call {@link String#matches} chain on
+ * millions of synthetic file names.
+ * <p>
+ * This is not a unit test and is not run by the build. Run it from the test classpath:
+ *
+ * <pre>{@code
+ * mvn -q test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.github.oogasawa.utility.security.log.LogFileClassifierBenchmark \
+ *     -Dexec.args="5000000"
+ * }</pre>
+ *
+ * The optional argument is the number of names (default 2,000,000). Each method runs three
+ * rounds over the same names; the last round is reported.
+ */
+public class LogFileClassifierBenchmark {
+
+    private static final String[] STEMS = {
+        "syslog", "auth.log", "kern.log", "access.log", "error.log", "messages", "secure",
+        "journal", "audit", "sa", "sar", "dmesg", "cron", "maillog", "btmp"
+    };
+
+    private static final String[] SUFFIXES = {
+        "", ".1", ".2.gz", ".gz", ".txt", ".log", "-nigscHP2", ".xz", ".journal"
+    };
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the optional number of names
+     */
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        String[] names = syntheticNames(count);
+        System.out.printf("names: %,d%n", count);
+
+        long legacy = 0;
+        long compiled = 0;
+        double legacyNanos = 0;
+        double compiledNanos = 0;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            legacy = runLegacy(names);
+            legacyNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            compiled = runClassifier(names);
+            compiledNanos = System.nanoTime() - start;
+        }
+
+        System.out.printf("String.matches:    %8.0f ms  %10.0f names/s  (%d renamed)%n",
+                legacyNanos / 1e6, count / (legacyNanos / 1e9), legacy);
+        System.out.printf("LogFileClassifier: %8.0f ms  %10.0f names/s  (%d renamed)%n",
+                compiledNanos / 1e6, count / (compiledNanos / 1e9), compiled);
+        System.out.printf("speed-up: %.1fx%n", legacyNanos / compiledNanos);
+        if (legacy != compiled) {
+            System.out.println("WARNING: the methods disagree");
+        }
+    }
+
+
+    private static String[] syntheticNames(int count) {
+        Random random = new Random(36);
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder(STEMS[random.nextInt(STEMS.length)]);
+            if (random.nextInt(4) > 0) {
+                sb.append('-').append(2020 + random.nextInt(6))
+                        .append(String.format("%02d%02d", 1 + random.nextInt(12), 1 + random.nextInt(28)));
+            } else {
+                sb.append(random.nextInt(31));
+            }
+            sb.append(SUFFIXES[random.nextInt(SUFFIXES.length)]);
+            names[i] = sb.toString();
+        }
+        return names;
+    }
+
+
+    /**
+     * Classifies the names as {@code LogFileFilter} and {@code LogFileNameHelper} did before the
+     * classifier: up to four {@code matches} calls, then {@code matches} and {@code replaceAll}
+     * for the date.
+     */
+    private static long runLegacy(String[] names) {
+        long renamed = 0;
+        for (String name : names) {
+            boolean target = !name.matches(".*(\\.log(\\.\\d+)?|-nigscHP2)(\\.gz)?$")
+                    && (name.matches(".*\\.(log|log\\.\\d+|gz|txt)$")
+                            || name.matches(".*\\.(sa\\d+|sar\\d+|dmesg(\\.\\d+)?(\\.gz)?)$")
+                            || name.matches(".*journal.*\\.log(\\.\\d+)?(\\.gz)?$"));
+            if (target) {
+                String datePattern = ".*?(\\d{8}).*";
+                if (name.matches(datePattern) && name.replaceAll(datePattern, "$1") != null) {
+                    renamed++;
+                }
+            }
+        }
+        return renamed;
+    }
+
+
+    private static long runClassifier(String[] names) {
+        LogFileClassifier classifier = LogFileClassifier.DEFAULT;
+        long renamed = 0;
+        for (String name : names) {
+            LogFileClassifier.Classification c = classifier.classify(name);
+            if (c.target() && c.date() != null) {
+                renamed++;
+            }
+        }
+        return renamed;
+    }
+}
@@ -0,0 +1,144 @@
+package com.github.oogasawa.utility.security.log;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link LogFileClassifier}.
+ */
+class LogFileClassifierTest {
+
+    private Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("classifier-test");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+        }
+    }
+
+
+    /**
+     * Tests that the default rules classify names, and extract dates, exactly as the former
+     * chain of {@link String#matches} calls did.
+     */
+    @Test
+    void testDefaultRulesAgreeWithLegacyMatching() {
+        List<String> names = List.of(
+                "alternatives.log", "access.log.1", "access.log-20250610.gz",
+                "access.log-20250610_testServer.gz", "access.log-20250622", "error.log-20250622_testServer",
+                "sc.ddbj.nig.ac.jp-access.log.1", "eipp.log.xz", "auth.log", "auth.log-20250622",
+                "btmp", "dmesg", "dmesg.0", "dmesg.1.gz", "kern.dmesg", "kern.dmesg.2",
+                "system@201fd858ffad44c69c52e9bdd721acba-0000000000003768-000637184f01c80c.journal",
+                "journal-20250608.log", "journal-20250608.log.1.gz", "journal-20250608_testServer.log",
+                "sa20250622", "sar20250622", "host.sa22", "host.sar22", "audit-20250622.txt",
+                "syslog-20250622.gz", "syslog-2025062.gz", "messages-nigscHP2", "messages-nigscHP2.gz",
+                "report-20250601-20250630.txt", "20250622", "", ".gz", "notes.txt.bak", "x.txt");
+
+        for (String name : names) {
+            LogFileClassifier.Classification c = LogFileClassifier.DEFAULT.classify(name);
+            assertEquals(legacyIsTarget(name), c.target(), name);
+            if (c.target()) {
+                assertEquals(legacyDate(name), c.date(), name);
+            } else {
+                assertNull(c.date(), name);
+            }
+            assertEquals(LogFileFilter.isTarget(name), c.target(), name);
+        }
+    }
+
+
+    /**
+     * Tests that the renamed name follows {@link LogFileNameHelper#buildNewFileName}.
+     */
+    @Test
+    void testRenamedName() {
+        assertEquals(LogFileNameHelper.buildNewFileName("syslog-20250622.gz", "20250622", "srv"),
+                LogFileClassifier.DEFAULT.classify("syslog-20250622.gz").renamedName("srv"));
+        assertNull(LogFileClassifier.DEFAULT.classify("notes.txt").renamedName("srv"));
+        assertNull(LogFileClassifier.DEFAULT.classify("auth.log.1.gz").renamedName("srv"));
+    }
+
+
+    /**
+     * Tests rules loaded from YAML, including that exclude rules take precedence over include
+     * rules and that a custom date pattern is used.
+     */
+    @Test
+    void testLoadFromYaml() throws IOException {
+        Path rules = tempDir.resolve("rules.yaml");
+        Files.writeString(rules, String.join("\n",
+                "include:",
+                "  - '.*\\.log-\\d{4}-\\d{2}-\\d{2}'",
+                "  - 'secure-.*'",
+                "exclude:",
+                "  - 'secure-old.*'",
+                "date: '\\d{4}-\\d{2}-\\d{2}'",
+                ""), StandardCharsets.UTF_8);
+
+        LogFileClassifier classifier = LogFileClassifier.load(rules);
+
+        LogFileClassifier.Classification c = classifier.classify("auth.log-2025-06-22");
+        assertTrue(c.target());
+        assertEquals("2025-06-22", c.date());
+
+        assertTrue(classifier.classify("secure-x").target());
+        assertNull(classifier.classify("secure-x").date());
+        assertFalse(classifier.classify("secure-old-2025-06-22").target());
+        assertFalse(classifier.classify("syslog-20250622.gz").target());
+    }
+
+
+    /**
+     * Tests that a malformed rules file is rejected with an {@link IllegalArgumentException}.
+     */
+    @Test
+    void testInvalidYaml() throws IOException {
+        Path notAList = tempDir.resolve("a.yaml");
+        Files.writeString(notAList, "include: '.*'\n", StandardCharsets.UTF_8);
+        Path badRegex = tempDir.resolve("b.yaml");
+        Files.writeString(badRegex, "include:\n  - '.*('\n", StandardCharsets.UTF_8);
+
+        for (Path file : List.of(notAList, badRegex)) {
+            try {
+                LogFileClassifier.load(file);
+                fail("expected an IllegalArgumentException for " + file);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().startsWith(file.toString()));
+            }
+        }
+    }
+
+
+    private static boolean legacyIsTarget(String fileName) {
+        if (fileName.matches(".*(\\.log(\\.\\d+)?|-nigscHP2)(\\.gz)?$")) {
+            return false;
+        }
+        return fileName.matches(".*\\.(log|log\\.\\d+|gz|txt)$")
+                || fileName.matches(".*\\.(sa\\d+|sar\\d+|dmesg(\\.\\d+)?(\\.gz)?)$")
+                || fileName.matches(".*journal.*\\.log(\\.\\d+)?(\\.gz)?$");
+    }
+
+    private static String legacyDate(String fileName) {
+        String datePattern = ".*?(\\d{8}).*";
+        return fileName.matches(datePattern) ? fileName.replaceAll(datePattern, "$1") : null;
+    }
+}
@@ -0,0 +1,151 @@
+package com.github.oogasawa.utility.security.log;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link LogMerger} and {@link SyslogTimestamps}.
+ */
+class LogMergerTest {
+
+    private static final ZoneId TOKYO = ZoneId.of("Asia/Tokyo");
+
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("merge");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /**
+     * Tests that traditional and ISO timestamps of compressed and plain files interleave, with
+     * continuation lines kept in place, normalized timestamps and host labels.
+     */
+    @Test
+    void testMixedFormats() throws IOException {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(dir.resolve("auth.log-20250622.gz_web01")))) {
+            out.write(("Jun 21 23:59:58 web01 sshd[1]: a\n"
+                    + "Jun 22 00:00:02 web01 sshd[1]: c\n").getBytes(StandardCharsets.UTF_8));
+        }
+        Files.writeString(dir.resolve("journal_20250622_db01"),
+                "2025-06-21T15:00:00.500000+0000 db01 kernel: b\n"
+                + "    continued\n"
+                + "2025-06-22 00:00:02 db01 kernel: d\n");
+
+        LogMerger merger = new LogMerger();
+        merger.setZone(TOKYO);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LogMerger.Stats stats = merger.merge(List.of(dir.resolve("auth.log-20250622.gz_web01"),
+                dir.resolve("journal_20250622_db01")), out);
+        assertEquals("Jun 21 23:59:58 web01 sshd[1]: a\n"
+                + "2025-06-21T15:00:00.500000+0000 db01 kernel: b\n"
+                + "    continued\n"
+                + "Jun 22 00:00:02 web01 sshd[1]: c\n"
+                + "2025-06-22 00:00:02 db01 kernel: d\n", out.toString(StandardCharsets.UTF_8));
+        assertEquals(5, stats.lines());
+        assertEquals(4, stats.records());
+        assertEquals(0, stats.passes());
+
+        merger.setNormalize(true);
+        merger.setLabel(true);
+        out.reset();
+        merger.merge(List.of(dir.resolve("journal_20250622_db01"), dir.resolve("auth.log-20250622.gz_web01")), out);
+        assertEquals("web01 2025-06-21T23:59:58.000000+09:00 web01 sshd[1]: a\n"
+                + "db01 2025-06-22T00:00:00.500000+09:00 db01 kernel: b\n"
+                + "    continued\n"
+                + "db01 2025-06-22T00:00:02.000000+09:00 db01 kernel: d\n"
+                + "web01 2025-06-22T00:00:02.000000+09:00 web01 sshd[1]: c\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * Tests that more inputs than may be open at once are merged through spilled runs, in order
+     * and stably, and that the runs are removed.
+     */
+    @Test
+    void testSpill() throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (int f = 0; f < 23; f++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = f % 3; i < 60; i += 3) {
+                sb.append(String.format("Jun 22 06:%02d:00 host%02d app: line%n", i, f));
+            }
+            Path file = dir.resolve("syslog-20250622_host" + f);
+            Files.writeString(file, sb);
+            files.add(file);
+        }
+        Path tmp = Files.createDirectory(dir.resolve("tmp"));
+
+        LogMerger merger = new LogMerger();
+        merger.setZone(TOKYO);
+        merger.setMaxOpenFiles(4);
+        merger.setTempDir(tmp);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LogMerger.Stats stats = merger.merge(files, out);
+
+        assertEquals(2, stats.passes());
+        assertEquals(6 + 2, stats.runs());
+        assertEquals(23 * 20, stats.records());
+        List<String> lines = out.toString(StandardCharsets.UTF_8).lines().toList();
+        assertEquals(23 * 20, lines.size());
+        // by minute, and within a minute by input
+        List<String> sorted = new ArrayList<>(lines);
+        sorted.sort(Comparator.comparing((String l) -> l.substring(0, 15)).thenComparing(l -> l.substring(16, 22)));
+        assertEquals(sorted, lines);
+        try (Stream<Path> left = Files.list(tmp)) {
+            assertEquals(0, left.count());
+        }
+    }
+
+
+    /**
+     * Tests the timestamp formats.
+     */
+    @Test
+    void testTimestamps() {
+        SyslogTimestamps ts = new SyslogTimestamps(LocalDate.of(2025, 6, 22), TOKYO);
+        long expected = 1750541101_000000L; // 2025-06-22T06:25:01+09:00
+        assertEquals(expected, parse(ts, "Jun 22 06:25:01 host x"));
+        assertEquals(15, ts.end());
+        assertEquals(expected, parse(ts, "2025-06-22T06:25:01+09:00 host x"));
+        assertEquals(expected, parse(ts, "2025-06-22T06:25:01+0900 host x"));
+        assertEquals(expected, parse(ts, "2025-06-21T21:25:01Z host x"));
+        assertEquals(expected, parse(ts, "2025-06-22 06:25:01 host x"));
+        assertEquals(expected + 123456, parse(ts, "2025-06-22T06:25:01.123456789+09:00 host x"));
+        assertEquals(35, ts.end());
+        assertEquals(expected + 500000, parse(ts, "2025-06-21T21:25:01,5Z"));
+        assertEquals(SyslogTimestamps.NONE, parse(ts, "    at Foo.bar(Foo.java:1)"));
+        assertEquals(SyslogTimestamps.NONE, parse(ts, "Jun 31 06:25:01 host x"));
+        assertTrue(parse(ts, "Dec 31 23:59:59 host x") < expected);
+    }
+
+    private static long parse(SyslogTimestamps ts, String line) {
+        byte[] b = line.getBytes(StandardCharsets.US_ASCII);
+        return ts.parse(b, 0, b.length);
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.github.oogasawa.utility.security.log;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link LogRotationWatcher}.
+ */
+class LogRotationWatcherTest {
+
+    private static final String serverName = "testServer";
+
+    private Path sourceDir;
+    private Path destDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        sourceDir = Files.createTempDirectory("watch-src");
+        destDir = Files.createTempDirectory("watch-dest");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (Path dir : List.of(sourceDir, destDir)) {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Tests that a rotated file is collected only after it has been quiet for the debounce
+     * period, and that active logs are ignored.
+     */
+    @Test
+    void testDebounce() throws IOException {
+        LogRotationWatcher watcher = new LogRotationWatcher(sourceDir, LogCollector.builder(serverName, destDir));
+        watcher.setDebounceMillis(1_000);
+        Path rotated = Files.writeString(sourceDir.resolve("auth.log-20250622.gz"), "rotated");
+        Path active = Files.writeString(sourceDir.resolve("auth.log"), "active");
+
+        watcher.fileChanged(rotated, 0);
+        watcher.fileChanged(active, 0);
+        assertNull(watcher.processPending(500));
+        // still being written, e.g. compressed by logrotate
+        watcher.fileChanged(rotated, 800);
+        assertNull(watcher.processPending(1_500));
+
+        LogCollector.Stats stats = watcher.processPending(1_800);
+        assertNotNull(stats);
+        assertEquals(1, stats.scannedFiles());
+        assertEquals(1, stats.copiedFiles());
+        String expected = LogFileNameHelper.buildNewFileName("auth.log-20250622.gz", "20250622", serverName);
+        assertEquals("rotated", Files.readString(destDir.resolve(expected)));
+        assertNull(watcher.processPending(10_000));
+    }
+
+    /**
+     * Tests that the watcher collects existing files when it starts, and then files rotated
+     * into existing and new directories.
+     */
+    @Test
+    void testWatch() throws Exception {
+        Files.writeString(sourceDir.resolve("syslog-20250621.gz"), "old");
+        LogRotationWatcher watcher = new LogRotationWatcher(sourceDir,
+                LogCollector.builder(serverName, destDir).threads(2));
+        watcher.setDebounceMillis(100);
+        Thread thread = new Thread(() -> {
+            try {
+                watcher.watch();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        try {
+            awaitFile(LogFileNameHelper.buildNewFileName("syslog-20250621.gz", "20250621", serverName));
+
+            Files.writeString(sourceDir.resolve("syslog-20250622.gz"), "new");
+            Path apache = Files.createDirectories(sourceDir.resolve("apache2"));
+            Files.writeString(apache.resolve("access.log-20250622.gz"), "GET /");
+
+            awaitFile(LogFileNameHelper.buildNewFileName("syslog-20250622.gz", "20250622", serverName));
+            awaitFile(LogFileNameHelper.buildNewFileName("access.log-20250622.gz", "20250622", serverName));
+        } finally {
+            thread.interrupt();
+            thread.join(10_000);
+        }
+        assertTrue(!thread.isAlive());
+        CollectionManifest manifest = CollectionManifest.load(destDir);
+        assertEquals(3, manifest.entries().size());
+    }
+
+    private void awaitFile(String name) throws InterruptedException {
+        Path file = destDir.resolve(name);
+        for (int i = 0; i < 200 && !Files.exists(file); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(Files.exists(file), name + " was not collected");
+    }
+
+}
@@ -0,0 +1,198 @@
+package com.github.oogasawa.utility.security.log;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link Redactor}.
+ */
+class RedactorTest {
+
+    private static final byte[] KEY = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private Path sourceDir;
+    private Path destDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        sourceDir = Files.createTempDirectory("redact-src");
+        destDir = Files.createTempDirectory("redact-dest");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (Path dir : List.of(sourceDir, destDir)) {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Tests that addresses, email addresses and user names are replaced in their usual contexts,
+     * consistently, and that the rest of the lines is kept.
+     */
+    @Test
+    void testRedactLines() throws IOException {
+        String text = String.join("\n",
+                "Jun 22 10:00:00 web01 sshd[42]: Failed password for invalid user alice from 203.0.113.7 port 22 ssh2",
+                "Jun 22 10:00:01 web01 sshd[42]: Accepted publickey for bob from 2001:DB8::1 port 50022 ssh2",
+                "Jun 22 10:00:02 web01 sshd[42]: pam_unix(sshd:session): session opened for user bob(uid=1000) by (uid=0)",
+                "Jun 22 10:00:03 web01 sudo:      bob : TTY=pts/0 ; PWD=/home/bob ; USER=root ; COMMAND=/bin/ls",
+                "Jun 22 10:00:04 web01 postfix/smtp[7]: to=<Carol@Example.COM>, relay=mx.example.com[198.51.100.2]:25",
+                "Jun 22 10:00:05 web01 sshd[42]: pam_unix(sshd:auth): authentication failure; logname= uid=0 ruser= rhost=203.0.113.7  user=alice",
+                "Jun 22 10:00:06 web01 kernel: version 1.2.3.4.5 at 10:00:06 mac 00:11:22:33:44:55 dead:: ok");
+
+        String redacted = redact(new Redactor(KEY, 16), text);
+        String[] lines = redacted.split("\n", -1);
+        assertEquals(7, lines.length);
+
+        for (String secret : List.of("alice", "bob", "203.0.113.7", "2001:DB8::1", "Carol", "198.51.100.2")) {
+            assertFalse(redacted.contains(secret), secret + " in " + redacted);
+        }
+        String alice = group(lines[0], "invalid user (u-[0-9a-f]{12}) from");
+        String ip = group(lines[0], "from (2[45]\\d\\.\\d+\\.\\d+\\.\\d+) port 22 ssh2$");
+        assertEquals(alice, group(lines[5], "user=(u-[0-9a-f]{12})$"));
+        assertEquals(ip, group(lines[5], "rhost=(\\S+) "));
+        assertTrue(lines[1].matches(".*for u-[0-9a-f]{12} from fd[0-9a-f]{2}(:[0-9a-f]{1,4}){7} port 50022 ssh2$"), lines[1]);
+        String bob = group(lines[2], "for user (u-[0-9a-f]{12})\\(uid=1000\\) by \\(uid=0\\)$");
+        assertEquals(bob, group(lines[3], "sudo:      (u-[0-9a-f]{12}) : "));
+        assertEquals(bob, group(lines[3], "PWD=/home/(u-[0-9a-f]{12}) ;"));
+        assertTrue(lines[3].contains("USER=u-"));
+        assertTrue(lines[4].matches(".*to=<u-[0-9a-f]{12}@pseudonym\\.invalid>, relay=mx\\.example\\.com\\[2[45]\\d\\.\\d+\\.\\d+\\.\\d+\\]:25$"),
+                lines[4]);
+        assertTrue(lines[5].contains("logname= uid=0 ruser= rhost="));
+        assertEquals("Jun 22 10:00:06 web01 kernel: version 1.2.3.4.5 at 10:00:06 mac 00:11:22:33:44:55 dead:: ok", lines[6]);
+
+        // the same key gives the same pseudonyms, however the content is written; another does not
+        String again = redact(new Redactor(KEY, 1 << 10), text);
+        assertEquals(redacted, again);
+        byte[] other = KEY.clone();
+        other[0] ^= 1;
+        assertNotEquals(alice, group(redact(new Redactor(other, 16), text).split("\n")[0],
+                "invalid user (u-[0-9a-f]{12}) from"));
+        assertThrows(IllegalArgumentException.class, () -> new Redactor(new byte[8], 16));
+    }
+
+
+    /**
+     * Tests that the collector redacts plain and gzip-compressed files, keeping the latter
+     * compressed, and does not copy binary files, which it cannot redact.
+     */
+    @Test
+    void testCollectRedacted() throws IOException {
+        String line = "Jun 22 10:00:00 web01 sshd[42]: Accepted password for alice from 192.0.2.10 port 22 ssh2\n";
+        Files.writeString(sourceDir.resolve("secure-20250622.txt"), line.repeat(20000));
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(sourceDir.resolve("secure-20250621.gz")))) {
+            out.write(line.repeat(3).getBytes(StandardCharsets.US_ASCII));
+        }
+        Files.write(sourceDir.resolve("wtmp-20250620.txt"), new byte[] {7, 0, 0, 0, 'p', 't', 's', 0});
+
+        Redactor redactor = new Redactor(KEY, 64);
+        LogCollector.Stats stats = LogCollector.builder("web01", destDir).redactor(redactor).index(true).build()
+                .collect(sourceDir);
+        assertEquals(2, stats.copiedFiles());
+        assertEquals(1, stats.failedFiles());
+        assertEquals(2 * 20003, redactor.redacted());
+
+        Path plain = destDir.resolve(LogFileNameHelper.buildNewFileName("secure-20250622.txt", "20250622", "web01"));
+        String copy = Files.readString(plain);
+        String expected = redact(new Redactor(KEY, 16), line);
+        assertEquals(expected.repeat(20000), copy);
+        assertTrue(Files.exists(TimeIndex.pathOf(plain)));
+
+        Path gz = destDir.resolve(LogFileNameHelper.buildNewFileName("secure-20250621.gz", "20250621", "web01"));
+        try (GZIPInputStream in = new GZIPInputStream(Files.newInputStream(gz))) {
+            assertEquals(expected.repeat(3), new String(in.readAllBytes(), StandardCharsets.US_ASCII));
+        }
+    }
+
+
+    /**
+     * Tests that files collected without redaction, or with another key, are collected again
+     * when a key is given, instead of being skipped as unchanged with their raw content.
+     */
+    @Test
+    void testRedactionKeyChangeCollectsAgain() throws IOException {
+        Files.writeString(sourceDir.resolve("auth-20250622.txt"),
+                "Jun 22 10:00:00 h sshd[42]: Failed password for bob from 10.1.2.3 port 22 ssh2\n");
+        Path copy = destDir.resolve(LogFileNameHelper.buildNewFileName("auth-20250622.txt", "20250622", "h"));
+
+        assertEquals(1, LogCollector.builder("h", destDir).build().collect(sourceDir).copiedFiles());
+        assertTrue(Files.readString(copy).contains("10.1.2.3"));
+
+        LogCollector.Stats stats = LogCollector.builder("h", destDir).redactor(new Redactor(KEY, 64)).build()
+                .collect(sourceDir);
+        assertEquals(1, stats.copiedFiles());
+        assertEquals(0, stats.skippedFiles());
+        String redacted = Files.readString(copy);
+        assertFalse(redacted.contains("10.1.2.3"));
+        assertFalse(redacted.contains("bob"));
+
+        // unchanged with the same key, collected again with another one
+        assertEquals(1, LogCollector.builder("h", destDir).redactor(new Redactor(KEY, 64)).build()
+                .collect(sourceDir).skippedFiles());
+        byte[] otherKey = "fedcba9876543210fedcba9876543210".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(1, LogCollector.builder("h", destDir).redactor(new Redactor(otherKey, 64)).build()
+                .collect(sourceDir).copiedFiles());
+        assertNotEquals(redacted, Files.readString(copy));
+    }
+
+
+    /**
+     * Tests that a gzip-compressed file that cannot be inflated fails without leaving a partial
+     * copy behind.
+     */
+    @Test
+    void testCorruptGzipLeavesNoCopy() throws IOException {
+        Files.write(sourceDir.resolve("secure-20250621.gz"), new byte[] {0x1f, (byte) 0x8b, 8, 0, 'x', 'y'});
+
+        LogCollector.Stats stats = LogCollector.builder("web01", destDir).redactor(new Redactor(KEY, 64)).build()
+                .collect(sourceDir);
+        assertEquals(0, stats.copiedFiles());
+        assertEquals(1, stats.failedFiles());
+        assertFalse(Files.exists(destDir.resolve(
+                LogFileNameHelper.buildNewFileName("secure-20250621.gz", "20250621", "web01"))));
+    }
+
+
+    private static String redact(Redactor redactor, String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] b = text.getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = redactor.wrap(bytes)) {
+            // in uneven pieces, so that lines span writes
+            for (int i = 0; i < b.length; i += 7) {
+                out.write(b, i, Math.min(7, b.length - i));
+            }
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+
+    private static String group(String line, String regex) {
+        Matcher m = Pattern.compile(regex).matcher(line);
+        assertTrue(m.find(), regex + " in " + line);
+        return m.group(1);
+    }
+
+}
@@ -0,0 +1,166 @@
+package com.github.oogasawa.utility.security.log;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.oogasawa.utility.security.io.ParallelGzipOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link TimeIndex} and the time windows of {@link LogMerger}.
+ */
+class TimeIndexTest {
+
+    private static final DateTimeFormatter SYSLOG = DateTimeFormatter.ofPattern("MMM dd HH:mm:ss", Locale.ENGLISH);
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private static final LocalDateTime DAY = LocalDateTime.of(2025, 6, 22, 0, 0);
+
+    private Path sourceDir;
+    private Path destDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        sourceDir = Files.createTempDirectory("index-src");
+        destDir = Files.createTempDirectory("index-dest");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (Path dir : List.of(sourceDir, destDir)) {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Tests that a file compressed by the collector is indexed by gzip member, and that a window
+     * is read from the member before it, with exactly the records of the window.
+     */
+    @Test
+    void testWindowOfCompressedCopy() throws IOException {
+        String day = syslogDay(1);
+        Files.writeString(sourceDir.resolve("secure-20250622.txt"), day);
+
+        LogCollector.builder("web01", destDir).compress(true).index(true).build().collect(sourceDir);
+
+        Path copy = destDir.resolve(LogFileNameHelper.buildNewFileName("secure-20250622.txt", "20250622",
+                "web01") + ".gz");
+        TimeIndex index = TimeIndex.load(copy);
+        assertNotNull(index);
+        assertTrue(index.entries().size() > day.length() / TimeIndex.DEFAULT_INTERVAL - 2);
+        assertTrue(index.entries().stream().anyMatch(e -> e.offset() > 0 && e.skip() < 100));
+        assertEquals(micros(DAY), index.first());
+
+        LogMerger merger = new LogMerger();
+        merger.setRange(micros(DAY.withHour(2).withMinute(10)), micros(DAY.withHour(2).withMinute(40)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LogMerger.Stats stats = merger.merge(List.of(copy), out);
+
+        String window = out.toString(StandardCharsets.UTF_8);
+        assertEquals(30 * 60, stats.records());
+        assertTrue(window.startsWith("Jun 22 02:10:00 "));
+        assertTrue(window.endsWith("Jun 22 02:39:59 web01 sshd[4242]: Accepted publickey for user 9599\n"));
+        assertTrue(stats.bytes() < 3 * ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE, "read " + stats.bytes());
+    }
+
+
+    /**
+     * Tests that the window of a plain file is read from the nearest entry and agrees with a
+     * filtered scan of the whole file, even with lines out of order and continuation lines.
+     */
+    @Test
+    void testWindowOfPlainFileOutOfOrder() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int s = 0; s < 86400; s += 2) {
+            LocalDateTime time = DAY.plusSeconds(s);
+            if (s % 600 == 0) {
+                // a late write, stamped ten seconds before the lines around it
+                time = time.minusSeconds(10);
+            }
+            text.append(SYSLOG.format(time)).append(" web01 kernel: event ").append(s).append('\n');
+            if (s % 1000 == 0) {
+                text.append("  continued ").append(s).append('\n');
+            }
+        }
+        Path file = sourceDir.resolve("kern.log-20250622");
+        Files.writeString(file, text);
+        TimeIndex.build(file, ZONE).save(file);
+
+        long from = micros(DAY.withHour(13).withMinute(59).withSecond(45));
+        long to = micros(DAY.withHour(14).withMinute(30));
+        LogMerger merger = new LogMerger();
+        merger.setRange(from, to);
+        ByteArrayOutputStream indexed = new ByteArrayOutputStream();
+        LogMerger.Stats stats = merger.merge(List.of(file), indexed);
+
+        Files.delete(TimeIndex.pathOf(file));
+        ByteArrayOutputStream scanned = new ByteArrayOutputStream();
+        LogMerger.Stats full = merger.merge(List.of(file), scanned);
+
+        assertEquals(scanned.toString(StandardCharsets.UTF_8), indexed.toString(StandardCharsets.UTF_8));
+        assertTrue(indexed.toString(StandardCharsets.UTF_8).contains("Jun 22 13:59:50 web01 kernel: event 50400\n"));
+        assertTrue(indexed.toString(StandardCharsets.UTF_8).contains("event 51000\n  continued 51000\n"));
+        assertEquals(text.length(), full.bytes());
+        assertTrue(stats.bytes() < 3 * TimeIndex.DEFAULT_INTERVAL, "read " + stats.bytes());
+    }
+
+
+    /**
+     * Tests that a file outside the window is not read at all, and that a stale index is
+     * ignored.
+     */
+    @Test
+    void testFileOutsideWindowAndStaleIndex() throws IOException {
+        Path file = sourceDir.resolve("syslog-20250622");
+        Files.writeString(file, syslogDay(60));
+        TimeIndex.build(file, ZONE).save(file);
+
+        LogMerger merger = new LogMerger();
+        merger.setRange(micros(DAY.plusDays(1)), micros(DAY.plusDays(2)));
+        LogMerger.Stats stats = merger.merge(List.of(file), new ByteArrayOutputStream());
+        assertEquals(0, stats.bytes());
+        assertEquals(0, stats.records());
+
+        Files.writeString(file, "Jun 22 23:59:59 web01 late: line\n", StandardOpenOption.APPEND);
+        assertNull(TimeIndex.load(file));
+    }
+
+
+    /**
+     * Returns a day of sshd lines at the given interval in seconds.
+     */
+    private static String syslogDay(int step) {
+        StringBuilder text = new StringBuilder();
+        for (int s = 0; s < 86400; s += step) {
+            text.append(SYSLOG.format(DAY.plusSeconds(s)))
+                    .append(" web01 sshd[4242]: Accepted publickey for user ").append(s).append('\n');
+        }
+        return text.toString();
+    }
+
+
+    private static long micros(LocalDateTime time) {
+        return time.atZone(ZONE).toInstant().toEpochMilli() * 1000;
+    }
+
+}
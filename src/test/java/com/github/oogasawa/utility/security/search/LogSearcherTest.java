@@ -0,0 +1,152 @@
+package com.github.oogasawa.utility.security.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link AhoCorasick} and {@link LogSearcher}.
+ */
+class LogSearcherTest {
+
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("search");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /**
+     * Tests that the automaton finds the first end of any pattern, including patterns within
+     * others, and never across a line feed.
+     */
+    @Test
+    void testAhoCorasick() {
+        AhoCorasick ac = new AhoCorasick(List.of("he", "she", "his", "hers"), false);
+        assertEquals(3, find(ac, "ushers"));
+        assertEquals(4, find(ac, "ahhis"));
+        assertEquals(-1, find(ac, "HERS"));
+        assertEquals(-1, find(ac, "sh\ne"));
+        assertEquals(20, find(new AhoCorasick(List.of("Failed password"), false), "sshd: Failed password"));
+        assertEquals(3, find(new AhoCorasick(List.of("hers"), true), "HeRs"));
+        assertEquals(3, find(new AhoCorasick(List.of("für"), false), "für"));
+        assertThrows(IllegalArgumentException.class, () -> new AhoCorasick(List.of("a\nb"), false));
+        assertThrows(IllegalArgumentException.class, () -> new AhoCorasick(List.of(), false));
+    }
+
+
+    /**
+     * Tests literal and regular expression searches with context over plain, compressed and
+     * binary files, with lines across the boundaries of the read buffer and matches whose
+     * context overlaps, against a line-by-line reference.
+     */
+    @Test
+    void testSearch() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 1; i <= 100_000; i++) {
+            String event = i % 9973 == 0 || i == 500 || i == 501 || i == 504 ? "Failed password for root" : "session opened";
+            lines.add(String.format(Locale.ROOT, "Jun 20 10:%02d:%02d web01 sshd[%d]: %s", i / 60 % 60, i % 60, i, event));
+        }
+        lines.add("Jun 20 23:59:59 web01 sshd[0]: FAILED PASSWORD for admin"); // no final line feed
+        String content = String.join("\n", lines);
+        Files.writeString(dir.resolve("auth.log-20250620.txt_web01"), content);
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(dir.resolve("auth.log-20250621.gz_web02")))) {
+            out.write((content + "\r\n").getBytes(StandardCharsets.UTF_8));
+        }
+        Files.write(dir.resolve("wtmp-20250621.txt_web01"), new byte[] {'F', 'a', 'i', 'l', 'e', 'd', 0, 0});
+
+        List<String> plain = reference(lines, "failed password", 2, 1);
+        LogSearcher literal = new LogSearcher(List.of("Failed password", "FAILED PASSWORD"), List.of(), false);
+        literal.setContext(2, 1);
+        literal.setThreads(2);
+        List<SearchMatch> matches = new ArrayList<>();
+        LogSearcher.Report report = literal.search(LogSearcher.resolve(List.of(dir.toString())), matches::add);
+        assertEquals(3, report.files());
+        assertEquals(1, report.binary());
+        assertEquals(2 * lines.size(), report.lines());
+        assertEquals(2L * (100_000 / 9973 + 4), report.matches());
+        assertEquals(plain, format(matches, "web01"));
+        assertEquals(plain, format(matches, "web02"));
+
+        // a regular expression, ignoring case, without context
+        LogSearcher regex = new LogSearcher(List.of(), List.of("^Jun 20 \\S+ web01 sshd\\[\\d+\\]: failed"), true);
+        matches.clear();
+        report = regex.search(List.of(dir.resolve("auth.log-20250621.gz_web02")), matches::add);
+        assertEquals(report.matches(), matches.size());
+        assertEquals(reference(lines, "failed password", 0, 0), format(matches, "web02"));
+    }
+
+
+    private static int find(AhoCorasick ac, String text) {
+        byte[] b = text.getBytes(StandardCharsets.UTF_8);
+        return ac.find(b, 0, b.length);
+    }
+
+
+    /**
+     * Searches lines one by one, reporting every line once as {@code number:text} for a match
+     * and {@code number-text} for context.
+     */
+    private static List<String> reference(List<String> lines, String text, int before, int after) {
+        List<String> out = new ArrayList<>();
+        int reported = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            if (!lines.get(i).toLowerCase(Locale.ROOT).contains(text)) {
+                continue;
+            }
+            for (int j = Math.max(reported, i - before); j < i; j++) {
+                out.add((j + 1) + "-" + lines.get(j));
+            }
+            out.add((i + 1) + ":" + lines.get(i));
+            reported = i + 1;
+            for (int j = i + 1; j <= i + after && j < lines.size()
+                    && !lines.get(j).toLowerCase(Locale.ROOT).contains(text); j++) {
+                out.add((j + 1) + "-" + lines.get(j));
+                reported = j + 1;
+            }
+        }
+        return out;
+    }
+
+
+    private static List<String> format(List<SearchMatch> matches, String host) {
+        List<String> out = new ArrayList<>();
+        for (SearchMatch m : matches) {
+            if (!host.equals(m.host())) {
+                continue;
+            }
+            long n = m.firstLine();
+            for (String line : m.before()) {
+                out.add(n++ + "-" + line);
+            }
+            out.add(n++ + ":" + m.text());
+            for (String line : m.after()) {
+                out.add(n++ + "-" + line);
+            }
+            assertEquals(m.lastLine(), n - 1);
+        }
+        return out;
+    }
+
+}
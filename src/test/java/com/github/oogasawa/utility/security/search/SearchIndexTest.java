@@ -0,0 +1,166 @@
+package com.github.oogasawa.utility.security.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link Tokenizer} and {@link SearchIndex}.
+ */
+class SearchIndexTest {
+
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("index");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /**
+     * Tests that the terms of a pattern are open where the pattern may continue a token of the
+     * log, and match the terms of the index accordingly.
+     */
+    @Test
+    void testQuery() {
+        List<Tokenizer.QueryTerm> terms = Tokenizer.query("Failed password for 192.0.2.1");
+        assertEquals(List.of("failed", "password", "for", "192.0.2.1"), text(terms));
+        assertTrue(terms.get(0).openLeft());
+        assertFalse(terms.get(0).openRight());
+        assertFalse(terms.get(1).openLeft());
+        assertFalse(terms.get(1).openRight());
+        assertTrue(terms.get(3).openRight());
+
+        terms = Tokenizer.query(" sshd[812]: .com");
+        assertEquals(List.of("sshd", "812", "com"), text(terms));
+        assertFalse(terms.get(0).openLeft());
+        assertFalse(terms.get(1).openLeft());
+        assertFalse(terms.get(1).openRight());
+        assertTrue(terms.get(2).openLeft());
+        assertTrue(Tokenizer.query("[]: ").isEmpty());
+
+        byte[] host = "mail.example.com".getBytes(StandardCharsets.UTF_8);
+        assertTrue(terms.get(2).matches(host, host.length));
+        assertFalse(terms.get(1).matches(host, host.length));
+        Tokenizer.QueryTerm inner = Tokenizer.query("example").get(0);
+        assertTrue(inner.matches(host, host.length));
+        assertTrue(inner.overlong());
+    }
+
+
+    /**
+     * Tests that searches through the index find what full scans find, reading less, and that
+     * the index follows appended files and survives merging.
+     */
+    @Test
+    void testIndex() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 1; i <= 200_000; i++) {
+            String event = i == 54_321 ? "Failed password for root from 203.0.113.77 port 22"
+                    : "Accepted publickey for user" + i % 50 + " from 198.51.100." + i % 200;
+            lines.add(String.format(Locale.ROOT, "Jun 20 10:%02d:%02d web01 sshd[%d]: %s", i / 60 % 60, i % 60, i, event));
+        }
+        String content = String.join("\n", lines) + "\n";
+        Path plain = dir.resolve("auth.log-20250620.txt_web01");
+        Files.writeString(plain, content);
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(dir.resolve("auth.log-20250621.gz_web02")))) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        Files.write(dir.resolve("wtmp-20250621.txt_web01"), new byte[] {'2', '0', '3', 0, 0});
+
+        List<Path> files = LogSearcher.resolve(List.of(dir.toString()));
+        SearchIndex index = SearchIndex.open(dir.resolve(SearchIndex.DIRECTORY));
+        index.setThreads(2);
+        index.setMemory(1 << 20);
+        SearchIndex.Report report = index.update(files);
+        assertEquals(3, report.files());
+        assertEquals(0, report.unchanged());
+        assertTrue(report.blocks() > 100);
+
+        List<String> patterns = List.of("203.0.113.77", "0.113.7", "FAILED PASSWORD FOR ROOT");
+        for (String p : patterns) {
+            LogSearcher.Report indexed = compare(index, files, p);
+            assertEquals(3, indexed.indexed());
+            assertEquals(2, indexed.matches());
+        }
+
+        // unchanged files are skipped; an appended one is searched whole until it is indexed again
+        assertEquals(3, index.update(files).unchanged());
+        Files.writeString(plain, "Jun 20 23:59:59 web01 sshd[1]: Failed password for root from 203.0.113.77\n",
+                StandardOpenOption.APPEND);
+        Files.setLastModifiedTime(plain, FileTime.fromMillis(Files.getLastModifiedTime(plain).toMillis() + 2000));
+        LogSearcher.Report stale = compare(index, files, "203.0.113.77");
+        assertEquals(2, stale.indexed());
+        assertEquals(3, stale.matches());
+
+        report = index.update(files);
+        assertEquals(1, report.files());
+        assertEquals(2, report.unchanged());
+        assertEquals(3, compare(index, files, "203.0.113.77").indexed());
+
+        report = index.merge();
+        assertEquals(1, report.segments());
+        for (String p : patterns) {
+            assertEquals(3, compare(index, files, p).indexed());
+        }
+    }
+
+
+    /**
+     * Searches for a pattern with context through the index and by full scans, checks that both
+     * find the same lines and that the index reads less, and returns the report of the former.
+     */
+    private static LogSearcher.Report compare(SearchIndex index, List<Path> files, String pattern) throws IOException {
+        LogSearcher full = new LogSearcher(List.of(pattern), List.of(), true);
+        full.setContext(1, 1);
+        List<String> expected = new ArrayList<>();
+        LogSearcher.Report scanned = full.search(files, m -> expected.add(format(m)));
+
+        LogSearcher searcher = new LogSearcher(List.of(pattern), List.of(), true);
+        searcher.setContext(1, 1);
+        searcher.setIndex(index);
+        List<String> actual = new ArrayList<>();
+        LogSearcher.Report report = searcher.search(files, m -> actual.add(format(m)));
+
+        expected.sort(null);
+        actual.sort(null);
+        assertEquals(expected, actual, pattern);
+        assertEquals(scanned.matches(), report.matches());
+        assertTrue(report.bytes() < scanned.bytes(), pattern);
+        return report;
+    }
+
+
+    private static String format(SearchMatch m) {
+        return m.file().getFileName() + ":" + m.firstLine() + ":" + m.before() + m.text() + m.after();
+    }
+
+
+    private static List<String> text(List<Tokenizer.QueryTerm> terms) {
+        return terms.stream().map(t -> new String(t.term(), StandardCharsets.UTF_8)).toList();
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.github.oogasawa.utility.security.sketch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link BloomFilter}.
+ */
+class BloomFilterTest {
+
+    /**
+     * Tests that every added value is found and that the false positive rate is near the
+     * configured one.
+     */
+    @Test
+    void testFalsePositiveRate() {
+        BloomFilter filter = new BloomFilter(200_000, 0.001);
+        for (int i = 0; i < 200_000; i++) {
+            filter.add(Hashing.hash64("evil-" + i + ".example"));
+        }
+        for (int i = 0; i < 200_000; i++) {
+            assertTrue(filter.mightContain(Hashing.hash64("evil-" + i + ".example")));
+        }
+        int positives = 0;
+        for (int i = 0; i < 1_000_000; i++) {
+            if (filter.mightContain(Hashing.hash64("benign-" + i + ".example"))) {
+                positives++;
+            }
+        }
+        assertTrue(positives < 1_000_000 * 0.001 * 1.5, "false positives " + positives);
+        assertTrue(filter.byteSize() < 200_000 * 3, "bytes " + filter.byteSize());
+    }
+
+
+    /**
+     * Tests that a filter read back from a stream answers as the original.
+     */
+    @Test
+    void testSerialization() throws IOException {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            filter.add(Hashing.hash64("10.0.0." + i));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        filter.writeTo(new DataOutputStream(bytes));
+        BloomFilter copy = BloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(filter.size(), copy.size());
+        assertEquals(filter.hashes(), copy.hashes());
+        for (int i = 0; i < 5000; i++) {
+            long hash = Hashing.hash64("10.0.0." + i);
+            assertEquals(filter.mightContain(hash), copy.mightContain(hash));
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.github.oogasawa.utility.security.sketch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link HyperLogLog} and {@link Hashing}.
+ */
+class HyperLogLogTest {
+
+    /**
+     * Tests the estimates of small and large cardinalities against the standard error.
+     */
+    @Test
+    void testEstimate() {
+        HyperLogLog small = new HyperLogLog();
+        for (int i = 0; i < 100; i++) {
+            small.add("10.0.0." + i);
+            small.add("10.0.0." + i);
+        }
+        // linear counting is nearly exact for small cardinalities
+        assertEquals(100, small.estimate(), 2);
+
+        HyperLogLog large = new HyperLogLog();
+        for (int i = 0; i < 1_000_000; i++) {
+            large.add("client-" + i);
+        }
+        double error = Math.abs(large.estimate() - 1_000_000) / 1e6;
+        assertTrue(error < 4 * large.standardError(), "error " + error);
+    }
+
+
+    /**
+     * Tests that merged sketches estimate the union of their streams.
+     */
+    @Test
+    void testMerge() {
+        HyperLogLog a = new HyperLogLog(12);
+        HyperLogLog b = new HyperLogLog(12);
+        HyperLogLog union = new HyperLogLog(12);
+        for (int i = 0; i < 50_000; i++) {
+            a.add("x" + i);
+            union.add("x" + i);
+        }
+        for (int i = 25_000; i < 100_000; i++) {
+            b.add("x" + i);
+            union.add("x" + i);
+        }
+        a.merge(b);
+        assertEquals(union.estimate(), a.estimate());
+    }
+
+
+    /**
+     * Tests that the byte and string hashes agree with themselves and spread single-bit
+     * changes.
+     */
+    @Test
+    void testHashing() {
+        byte[] b = "GET /index.html HTTP/1.1".getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+        assertEquals(Hashing.hash64(b, 4, 15), Hashing.hash64(b.clone(), 4, 15));
+        assertTrue(Hashing.hash64(b, 4, 15) != Hashing.hash64(b, 4, 15, 1));
+        long h1 = Hashing.hash64("10.0.0.1");
+        long h2 = Hashing.hash64("10.0.0.3");
+        int flipped = Long.bitCount(h1 ^ h2);
+        assertTrue(flipped > 16 && flipped < 48, "flipped " + flipped);
+    }
+
+}
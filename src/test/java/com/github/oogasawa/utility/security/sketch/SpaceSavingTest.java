@@ -0,0 +1,68 @@
+package com.github.oogasawa.utility.security.sketch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link SpaceSaving}.
+ */
+class SpaceSavingTest {
+
+    /**
+     * Tests that the heavy hitters of a long tail are found with bounded errors.
+     */
+    @Test
+    void testHeavyHitters() {
+        SpaceSaving sketch = new SpaceSaving(50);
+        for (int i = 0; i < 100_000; i++) {
+            if (i % 10 == 0) {
+                sketch.add("heavy");
+            } else if (i % 25 == 1) {
+                sketch.add("medium");
+            } else {
+                sketch.add("tail-" + i);
+            }
+        }
+        List<SpaceSaving.Item> top = sketch.top(2);
+        assertEquals("heavy", top.get(0).value());
+        assertEquals("medium", top.get(1).value());
+        for (SpaceSaving.Item item : top) {
+            assertTrue(item.guaranteed() <= (item.value().equals("heavy") ? 10_000 : 4_000));
+            assertTrue(item.count() >= (item.value().equals("heavy") ? 10_000 : 4_000));
+            assertTrue(item.error() <= sketch.total() / sketch.capacity());
+        }
+        assertEquals(100_000, sketch.total());
+    }
+
+
+    /**
+     * Tests exact counts while the counters suffice, and merging.
+     */
+    @Test
+    void testMerge() {
+        SpaceSaving a = new SpaceSaving(3);
+        SpaceSaving b = new SpaceSaving(3);
+        a.add("x", 5);
+        a.add("y", 2);
+        b.add("x", 1);
+        b.add("z", 7);
+        a.merge(b);
+        assertEquals(List.of(new SpaceSaving.Item("z", 7, 0), new SpaceSaving.Item("x", 6, 0),
+                new SpaceSaving.Item("y", 2, 0)), a.top(3));
+        assertEquals(15, a.total());
+
+        // the floor of a full sketch is added to the values it lacks
+        SpaceSaving full = new SpaceSaving(2);
+        full.add("p", 4);
+        full.add("q", 3);
+        SpaceSaving other = new SpaceSaving(2);
+        other.add("r", 10);
+        full.merge(other);
+        assertEquals(new SpaceSaving.Item("r", 13, 3), full.top(1).get(0));
+        assertEquals(2, full.top(5).size());
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.github.oogasawa.utility.security.usn;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link DigestInputs} and gzip-compressed inputs of {@link USNJsonExporter}.
+ */
+class DigestInputsTest {
+
+    private Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("digestInputs");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.walk(tempDir).sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+
+    /**
+     * Tests that glob patterns are expanded in sorted order and literal paths are kept.
+     */
+    @Test
+    void testResolveGlob() throws IOException {
+        Files.createDirectories(tempDir.resolve("2025"));
+        for (String name : List.of("2025/b.txt.gz", "2025/a.txt.gz", "2025/c.txt", "other.gz")) {
+            Files.writeString(tempDir.resolve(name), "x");
+        }
+
+        List<Path> paths = DigestInputs.resolve(List.of(
+                tempDir.resolve("2025") + "/*.gz",
+                tempDir.resolve("literal.txt").toString()));
+
+        assertEquals(List.of(tempDir.resolve("2025/a.txt.gz"), tempDir.resolve("2025/b.txt.gz"),
+                tempDir.resolve("literal.txt")), paths);
+    }
+
+    /**
+     * Tests that a gzip-compressed file is read back unchanged through the background inflater.
+     */
+    @Test
+    void testOpenGzip() throws IOException {
+        byte[] data = new byte[3 * (1 << 20) + 17];
+        new Random(42).nextBytes(data);
+        Path gz = tempDir.resolve("random.bin.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gz))) {
+            out.write(data);
+        }
+
+        try (InputStream in = DigestInputs.open(gz)) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+    }
+
+    /**
+     * Tests that compressed plain-text digests and compressed mbox files are parsed, and that the
+     * entries of several inputs keep the order of the inputs.
+     */
+    @Test
+    void testParseCompressedInputs() throws IOException {
+        Path text = tempDir.resolve("digest.txt.gz");
+        gzip(text, notice("USN-7000-1"));
+        Path mbox = tempDir.resolve("list.mbox.gz");
+        gzip(mbox, "From mailman Tue May 20 12:00:00 2025\n"
+                + "Subject: [USN-7001-1] Foo vulnerability\n"
+                + "Content-Type: text/plain\n\n"
+                + notice("USN-7001-1").substring(notice("USN-7001-1").indexOf('\n') + 1));
+
+        List<USNEntryJson> entries = new USNJsonExporter().parseInputs(List.of(mbox, text));
+
+        assertEquals(List.of("USN-7001-1", "USN-7000-1"), entries.stream().map(e -> e.id).toList());
+    }
+
+
+    private static void gzip(Path path, String content) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(path))) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String notice(String id) {
+        return String.join("\n",
+                "Subject: [" + id + "] Foo vulnerability",
+                "",
+                "May 12, 2025",
+                "",
+                "Update instructions:",
+                "",
+                "Ubuntu 24.04 LTS",
+                "");
+    }
+}
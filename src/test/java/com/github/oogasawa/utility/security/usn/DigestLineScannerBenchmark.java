@@ -0,0 +1,74 @@
+package com.github.oogasawa.utility.security.usn;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the throughput of {@link DigestLineScanner} with the {@link BufferedReader} based
+ * parser on a large synthetic digest.
+ * <p>
+ * This is not a unit test and is not run by the build. Run it from the test classpath:
+ *
+ * <pre>{@code
+ * mvn -q test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.github.oogasawa.utility.security.usn.DigestLineScannerBenchmark \
+ *     -Dexec.args="512"
+ * }</pre>
+ *
+ * The optional argument is the size of the digest in MiB (default 256).
+ */
+public class DigestLineScannerBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the optional size of the digest in MiB
+     * @throws IOException if the digest cannot be written or read
+     */
+    public static void main(String[] args) throws IOException {
+        long mib = args.length > 0 ? Long.parseLong(args[0]) : 256;
+        Path file = Files.createTempFile("digest-bench", ".txt");
+        try {
+            int notices = SyntheticDigest.write(file, mib << 20);
+            long size = Files.size(file);
+            System.out.printf("digest: %d notices, %.1f MiB%n", notices, size / 1048576.0);
+
+            for (int round = 1; round <= ROUNDS; round++) {
+                long t0 = System.nanoTime();
+                int readerCount;
+                try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    readerCount = USNJsonExporter.parseUSNMessages(reader).size();
+                }
+                long t1 = System.nanoTime();
+
+                List<USNEntryJson> scanned = new ArrayList<>();
+                USNMessageParser parser = new USNMessageParser(scanned::add);
+                DigestLineScanner.Stats stats = new DigestLineScanner().scan(file, parser);
+                parser.finish();
+                long t2 = System.nanoTime();
+
+                if (readerCount != scanned.size()) {
+                    throw new IllegalStateException(
+                            "entry count differs: " + readerCount + " vs " + scanned.size());
+                }
+                System.out.printf("round %d: reader %7.1f MiB/s, scanner %7.1f MiB/s (%d of %d lines decoded)%n",
+                        round, mibPerSecond(size, t1 - t0), mibPerSecond(size, t2 - t1),
+                        stats.decodedLines(), stats.lines());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+
+    private static double mibPerSecond(long bytes, long nanos) {
+        return bytes / 1048576.0 / (nanos / 1e9);
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.oogasawa.utility.security.usn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link DigestLineScanner}.
+ */
+class DigestLineScannerTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("digestScanner");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.walk(tempDir).sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+
+    /**
+     * Tests that the scanner yields the same entries as the reader-based parser on the sample
+     * digest, while decoding only part of the lines.
+     */
+    @Test
+    void testSameEntriesAsReader() throws IOException {
+        Path sample = Path.of("test_input.txt");
+        String text = Files.isRegularFile(sample)
+                ? Files.readString(sample)
+                : SyntheticDigest.notice(1) + SyntheticDigest.notice(2);
+        Path file = tempDir.resolve("digest.txt");
+        Files.writeString(file, text);
+
+        List<USNEntryJson> scanned = new ArrayList<>();
+        USNMessageParser parser = new USNMessageParser(scanned::add);
+        DigestLineScanner.Stats stats = new DigestLineScanner().scan(file, parser);
+        parser.finish();
+
+        assertEquals(json(readerParse(text)), json(scanned));
+        assertTrue(stats.decodedLines() < stats.lines());
+    }
+
+    /**
+     * Tests CRLF and CR line terminators and lines crossing the boundary of small mapping
+     * windows, including a CRLF pair split across two windows.
+     */
+    @Test
+    void testLineTerminatorsAndWindows() throws IOException {
+        String text = SyntheticDigest.notice(1) + SyntheticDigest.notice(2) + SyntheticDigest.notice(3);
+        String expected = json(readerParse(text));
+
+        for (String eol : List.of("\r\n", "\r")) {
+            String converted = text.replace("\n", eol);
+            Path file = tempDir.resolve("digest" + eol.length() + ".txt");
+            Files.writeString(file, converted);
+
+            for (int window : new int[] {128, 129, 130, 131, DigestLineScanner.DEFAULT_WINDOW}) {
+                List<USNEntryJson> scanned = new ArrayList<>();
+                USNMessageParser parser = new USNMessageParser(scanned::add);
+                DigestLineScanner.Stats stats = new DigestLineScanner(window).scan(file, parser);
+                parser.finish();
+
+                assertEquals(expected, json(scanned), "window " + window);
+                assertEquals(converted.getBytes(StandardCharsets.UTF_8).length, stats.bytes());
+            }
+        }
+    }
+
+
+    private static List<USNEntryJson> readerParse(String text) throws IOException {
+        return USNJsonExporter.parseUSNMessages(new BufferedReader(new StringReader(text)));
+    }
+
+    private static String json(List<USNEntryJson> entries) throws IOException {
+        return mapper.writeValueAsString(entries);
+    }
+}
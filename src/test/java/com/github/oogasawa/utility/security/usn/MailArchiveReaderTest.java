@@ -0,0 +1,179 @@
+package com.github.oogasawa.utility.security.usn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link MailArchiveReader} and {@link MimeTextExtractor}.
+ */
+class MailArchiveReaderTest {
+
+    private Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("mailArchive");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.walk(tempDir).sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+
+    /**
+     * A single USN mail encoded as quoted-printable, with a soft line break inside the summary.
+     */
+    private static final String QP_MAIL = String.join("\r\n",
+            "From noreply@canonical.com Mon May 12 10:00:00 2025",
+            "From: noreply+usn-bot@canonical.com",
+            "Subject: [USN-7507-1] Rack",
+            "  vulnerabilities",
+            "Content-Type: text/plain; charset=\"utf-8\"",
+            "Content-Transfer-Encoding: quoted-printable",
+            "",
+            "Ubuntu Security Notice USN-7507-1",
+            "May 12, 2025",
+            "",
+            "Summary:",
+            "",
+            "Several security issues were fixed in Rack=E2=80=94a modular web serv=",
+            "er interface.",
+            "",
+            "Update instructions:",
+            "",
+            "Ubuntu 24.04 LTS",
+            "",
+            "References:",
+            "  CVE-2025-46727",
+            ">From the archive",
+            "");
+
+    /**
+     * A MIME digest whose embedded message carries a base64 encoded text part.
+     */
+    private static String mimeDigest() {
+        String body = String.join("\n",
+                "Ubuntu Security Notice USN-7520-1",
+                "May 20, 2025",
+                "",
+                "Summary:",
+                "",
+                "PostgreSQL could be made to crash.",
+                "",
+                "Update instructions:",
+                "",
+                "Ubuntu 24.04 LTS",
+                "",
+                "References:",
+                "  CVE-2025-4207",
+                "");
+        String encoded = Base64.getMimeEncoder(20, "\n".getBytes(StandardCharsets.US_ASCII))
+                .encodeToString(body.getBytes(StandardCharsets.UTF_8));
+
+        return String.join("\n",
+                "From mailman Tue May 20 12:00:00 2025",
+                "Subject: ubuntu-security-announce Digest, Vol 248, Issue 20",
+                "MIME-Version: 1.0",
+                "Content-Type: multipart/mixed; boundary=\"outer\"",
+                "",
+                "--outer",
+                "Content-Type: text/plain",
+                "",
+                "Today's Topics:",
+                "",
+                "--outer",
+                "Content-Type: multipart/digest; boundary=inner",
+                "",
+                "--inner",
+                "",
+                "Subject: [USN-7520-1] PostgreSQL vulnerability",
+                "Content-Type: text/plain; charset=utf-8",
+                "Content-Transfer-Encoding: base64",
+                "",
+                encoded,
+                "--inner--",
+                "",
+                "--outer",
+                "Content-Type: text/html",
+                "",
+                "<p>Subject: [USN-0000-0] must be skipped</p>",
+                "--outer--",
+                "");
+    }
+
+    /**
+     * Tests that notices in quoted-printable mails and MIME digests are decoded and parsed.
+     */
+    @Test
+    void testParseMbox() throws IOException {
+        byte[] mbox = (QP_MAIL + "\n" + mimeDigest()).getBytes(StandardCharsets.UTF_8);
+        List<USNEntryJson> entries = new ArrayList<>();
+        MailArchiveReader.parseMbox(new ByteArrayInputStream(mbox), entries::add);
+
+        assertEquals(2, entries.size());
+
+        USNEntryJson rack = entries.get(0);
+        assertEquals("USN-7507-1", rack.id);
+        assertEquals("Rack vulnerabilities", rack.title);
+        assertEquals("2025-05-12", rack.published_date);
+        assertEquals("Several security issues were fixed in Rack—a modular web server interface.",
+                rack.summary.trim());
+        assertEquals(List.of("CVE-2025-46727"), rack.cves);
+        assertTrue(rack.releases.contains("24.04"));
+
+        USNEntryJson postgres = entries.get(1);
+        assertEquals("USN-7520-1", postgres.id);
+        assertEquals("2025-05-20", postgres.published_date);
+        assertEquals("PostgreSQL could be made to crash.", postgres.summary.trim());
+        assertEquals(List.of("CVE-2025-4207"), postgres.cves);
+    }
+
+    /**
+     * Tests that the messages of a Maildir are parsed in file name order.
+     */
+    @Test
+    void testParseMaildir() throws IOException {
+        Path maildir = tempDir.resolve("Maildir");
+        Files.createDirectories(maildir.resolve("cur"));
+        Files.createDirectories(maildir.resolve("new"));
+        // Strip the mbox "From " line: Maildir files hold bare messages.
+        Files.writeString(maildir.resolve("cur/1000.a"), QP_MAIL.substring(QP_MAIL.indexOf('\n') + 1));
+        String digest = mimeDigest();
+        Files.writeString(maildir.resolve("new/2000.b"), digest.substring(digest.indexOf('\n') + 1));
+
+        assertTrue(MailArchiveReader.isMaildir(maildir));
+
+        List<USNEntryJson> entries = new ArrayList<>();
+        MailArchiveReader.parseMaildir(maildir, entries::add);
+
+        assertEquals(List.of("USN-7507-1", "USN-7520-1"), entries.stream().map(e -> e.id).toList());
+    }
+
+    /**
+     * Tests the detection of mbox files.
+     */
+    @Test
+    void testIsMbox() throws IOException {
+        Path mbox = tempDir.resolve("list.mbox");
+        Files.writeString(mbox, QP_MAIL);
+        Path text = tempDir.resolve("digest.txt");
+        Files.writeString(text, "Subject: [USN-1-1] x\n");
+
+        assertTrue(MailArchiveReader.isMbox(mbox));
+        assertFalse(MailArchiveReader.isMbox(text));
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.oogasawa.utility.security.usn;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Generates synthetic ubuntu-security-announce digests for tests and benchmarks.
+ */
+class SyntheticDigest {
+
+    /**
+     * Returns the text of one digest message with a notice, surrounded by the mail headers and
+     * the package lists that a real digest contains.
+     *
+     * @param n the number of the notice; the USN id is {@code USN-<7000 + n>-1}
+     * @return the message text, ending with a newline
+     */
+    static String notice(int n) {
+        String id = "USN-" + (7000 + n) + "-1";
+        StringBuilder sb = new StringBuilder();
+        sb.append("Message: ").append(n).append('\n')
+                .append("From: noreply+usn-bot@canonical.com\n")
+                .append("To: ubuntu-security-announce@lists.ubuntu.com\n")
+                .append("Subject: [").append(id).append("] Linux kernel vulnerabilities\n")
+                .append("Message-ID:\n")
+                .append("        <mailman.").append(n).append(".ubuntu-security-announce@lists.ubuntu.com>\n")
+                .append("Content-Type: text/plain; charset=\"utf-8\"\n\n")
+                .append("==========================================================================\n")
+                .append("Ubuntu Security Notice ").append(id).append('\n')
+                .append("May ").append(1 + n % 28).append(", 2025\n\n")
+                .append("linux vulnerabilities\n")
+                .append("==========================================================================\n\n")
+                .append("A security issue affects these releases of Ubuntu and its derivatives:\n\n")
+                .append("- Ubuntu 24.04 LTS\n- Ubuntu 22.04 LTS\n\n")
+                .append("Summary:\n\n")
+                .append("Several security issues were fixed in the Linux kernel.\n\n")
+                .append("Software Description:\n")
+                .append("- linux: Linux kernel\n")
+                .append("- linux-aws: Linux kernel for Amazon Web Services (AWS) systems\n\n")
+                .append("Details:\n\n")
+                .append("Several security issues were discovered in the Linux kernel. An attacker\n")
+                .append("could possibly use these to compromise the system. (CVE-2025-")
+                .append(20000 + n).append(")\n\n")
+                .append("Update instructions:\n\n")
+                .append("The problem can be corrected by updating your system to the following\n")
+                .append("package versions:\n\n")
+                .append("Ubuntu 24.04 LTS\n")
+                .append("  linux-image-6.8.0-60-generic    6.8.0-60.63\n\n")
+                .append("In general, a standard system update will make all the necessary changes.\n\n")
+                .append("References:\n")
+                .append("  https://ubuntu.com/security/notices/").append(id).append('\n')
+                .append("  CVE-2025-").append(20000 + n).append("\n\n")
+                .append("Package Information:\n");
+        for (int i = 0; i < 40; i++) {
+            sb.append("  https://launchpad.net/ubuntu/+source/linux-variant").append(i)
+                    .append("/6.8.0-60.63\n");
+        }
+        sb.append("\n-------------- next part --------------\n")
+                .append("A non-text attachment was scrubbed...\n")
+                .append("Name: signature.asc\n")
+                .append("Type: application/pgp-signature\n")
+                .append("Size: 833 bytes\n")
+                .append("Desc: OpenPGP digital signature\n\n")
+                .append("------------------------------\n\n");
+        return sb.toString();
+    }
+
+
+    /**
+     * Writes notices to a file until it reaches the given size.
+     *
+     * @param file  the file to write
+     * @param bytes the minimum size of the file
+     * @return the number of notices written
+     * @throws IOException if writing fails
+     */
+    static int write(Path file, long bytes) throws IOException {
+        long written = 0;
+        int n = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            while (written < bytes) {
+                String text = notice(++n);
+                out.write(text);
+                written += text.length();
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.oogasawa.utility.security.usn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link TimedCache}.
+ */
+class TimedCacheTest {
+
+    /**
+     * Tests that entries expire after their time to live, also when they are not looked up, and
+     * that the least recently used entry is evicted beyond the maximum size.
+     */
+    @Test
+    void testExpiryAndEviction() {
+        AtomicLong now = new AtomicLong();
+        TimedCache<String, String> cache = new TimedCache<>(Duration.ofNanos(100), 2, now::get);
+
+        cache.put("CVE-1", "medium");
+        now.set(99);
+        assertEquals("medium", cache.get("CVE-1"));
+        now.set(100);
+        assertNull(cache.get("CVE-1"));
+        assertEquals(0, cache.size());
+
+        // storing drops an expired eldest entry
+        cache.put("CVE-2", "low");
+        now.set(250);
+        cache.put("CVE-3", "high");
+        assertEquals(1, cache.size());
+
+        // beyond the maximum size, the least recently used entry goes
+        cache.put("CVE-4", "low");
+        assertEquals("high", cache.get("CVE-3"));
+        cache.put("CVE-5", "critical");
+        assertEquals(2, cache.size());
+        assertNull(cache.get("CVE-4"));
+        assertEquals("high", cache.get("CVE-3"));
+        assertEquals("critical", cache.get("CVE-5"));
+    }
+
+}
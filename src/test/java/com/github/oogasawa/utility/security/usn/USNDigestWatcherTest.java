@@ -0,0 +1,178 @@
+package com.github.oogasawa.utility.security.usn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link USNDigestWatcher}.
+ *
+ * <p>The exporter is replaced by one that enriches entries with fixed values, so the tests do
+ * not access the Ubuntu web site.</p>
+ */
+class USNDigestWatcherTest {
+
+    private Path digestDir;
+    private Path reportDir;
+
+    /** Counts the entries that were enriched. */
+    private final List<String> enriched = new ArrayList<>();
+
+    private final USNJsonExporter exporter = new USNJsonExporter() {
+        @Override
+        void enrich(USNEntryJson entry) {
+            enriched.add(entry.id);
+            entry.severity = "Medium";
+            entry.livepatch = "NA";
+            entry.needs_reboot = "no";
+        }
+    };
+
+    @BeforeEach
+    void setUp() throws IOException {
+        digestDir = Files.createTempDirectory("usnDigests");
+        reportDir = Files.createTempDirectory("usnReports");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (Path dir : List.of(digestDir, reportDir)) {
+            Files.walk(dir).sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /**
+     * Tests that appended content is parsed incrementally and that an unterminated trailing
+     * notice is held back until its message separator arrives.
+     */
+    @Test
+    void testAppendedNoticesAreReportedOnce() throws IOException {
+        Path digest = digestDir.resolve("digest-248-19.txt");
+        Files.writeString(digest, notice("USN-7000-1", "Foo vulnerability") + SEPARATOR
+                + notice("USN-7001-1", "Bar vulnerability"));
+
+        USNDigestWatcher watcher = new USNDigestWatcher(exporter, digestDir, reportDir);
+        watcher.loadState();
+
+        assertFalse(watcher.processFile(digest, false), "The trailing notice should be held back");
+        assertEquals(List.of("USN-7000-1"), reportedIds());
+
+        Files.writeString(digest, SEPARATOR + notice("USN-7002-1", "Baz vulnerability") + SEPARATOR,
+                StandardOpenOption.APPEND);
+        assertTrue(watcher.processFile(digest, false));
+        assertEquals(List.of("USN-7000-1", "USN-7001-1", "USN-7002-1"), reportedIds());
+
+        // Nothing new: nothing is enriched again.
+        watcher.processFile(digest, true);
+        assertEquals(List.of("USN-7000-1", "USN-7001-1", "USN-7002-1"), enriched);
+    }
+
+    /**
+     * Tests that a restarted watcher continues from the saved offsets.
+     */
+    @Test
+    void testRestartDoesNotReportTwice() throws IOException {
+        Path digest = digestDir.resolve("digest.txt");
+        Files.writeString(digest, notice("USN-7000-1", "Foo vulnerability") + SEPARATOR);
+
+        USNDigestWatcher first = new USNDigestWatcher(exporter, digestDir, reportDir);
+        first.loadState();
+        first.processFile(digest, true);
+
+        Files.writeString(digest, notice("USN-7003-1", "Qux vulnerability") + SEPARATOR,
+                StandardOpenOption.APPEND);
+        USNDigestWatcher second = new USNDigestWatcher(exporter, digestDir, reportDir);
+        second.loadState();
+        second.processFile(digest, true);
+
+        assertEquals(List.of("USN-7000-1", "USN-7003-1"), reportedIds());
+    }
+
+    /**
+     * Tests that a digest replaced by a longer file is read from the start, not from the offset
+     * of the old file.
+     */
+    @Test
+    void testReplacedDigestIsReadAgain() throws IOException {
+        Path digest = digestDir.resolve("digest.txt");
+        Files.writeString(digest, notice("USN-7000-1", "Foo vulnerability") + SEPARATOR);
+
+        USNDigestWatcher watcher = new USNDigestWatcher(exporter, digestDir, reportDir);
+        watcher.loadState();
+        watcher.processFile(digest, true);
+
+        Path replacement = digestDir.resolve(".digest.txt.tmp");
+        Files.writeString(replacement, notice("USN-7004-1", "Quux vulnerability") + SEPARATOR
+                + notice("USN-7005-1", "Corge vulnerability") + SEPARATOR);
+        Files.move(replacement, digest, StandardCopyOption.REPLACE_EXISTING);
+        watcher.processFile(digest, true);
+
+        assertEquals(List.of("USN-7000-1", "USN-7004-1", "USN-7005-1"), reportedIds());
+    }
+
+    /**
+     * Tests the detection of an unterminated trailing notice and of an incomplete last line.
+     */
+    @Test
+    void testConsumable() throws IOException {
+        byte[] complete = ("Subject: [USN-1-1] a\nbody\n" + SEPARATOR).getBytes(StandardCharsets.UTF_8);
+        assertEquals(complete.length, USNDigestWatcher.consumable(new ByteArrayInputStream(complete), false));
+
+        byte[] open = "Subject: [USN-1-1] a\nbody\n".getBytes(StandardCharsets.UTF_8);
+        assertEquals(0, USNDigestWatcher.consumable(new ByteArrayInputStream(open), false));
+        assertEquals(open.length, USNDigestWatcher.consumable(new ByteArrayInputStream(open), true));
+
+        byte[] partial = "body\nSubj".getBytes(StandardCharsets.UTF_8);
+        assertEquals(5, USNDigestWatcher.consumable(new ByteArrayInputStream(partial), true));
+    }
+
+
+    private List<String> reportedIds() throws IOException {
+        Path report = reportDir.resolve(USNDigestWatcher.REPORT_PREFIX
+                + LocalDate.now().toString().replace("-", "") + ".tsv");
+        List<String> lines = Files.readAllLines(report);
+        assertEquals(USNJsonExporter.TSV_HEADER, lines.get(0));
+        return lines.stream().skip(1).map(l -> l.substring(0, l.indexOf('\t')))
+                .collect(Collectors.toList());
+    }
+
+    private static final String SEPARATOR = "------------------------------\n\n";
+
+    private static String notice(String id, String title) {
+        return String.join("\n",
+                "Message: 1",
+                "Subject: [" + id + "] " + title,
+                "",
+                "Ubuntu Security Notice " + id,
+                "May 12, 2025",
+                "",
+                "Summary:",
+                "",
+                title + " was fixed.",
+                "",
+                "Update instructions:",
+                "",
+                "Ubuntu 24.04 LTS",
+                "  foo                       1.0-1ubuntu0.1",
+                "",
+                "References:",
+                "  https://ubuntu.com/security/notices/" + id,
+                "");
+    }
+}
@@ -0,0 +1,176 @@
+package com.github.oogasawa.utility.security.usn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link USNReportServer}.
+ *
+ * <p>The digests used here only contain notices for releases other than Ubuntu 24.04, so no
+ * request reaches the Ubuntu web site.</p>
+ */
+class USNReportServerTest {
+
+    private static final String DIGEST = String.join("\n",
+            "Subject: [USN-7507-1] Rack vulnerabilities",
+            "",
+            "==========================================================================",
+            "Ubuntu Security Notice USN-7507-1",
+            "May 12, 2025",
+            "",
+            "Summary:",
+            "",
+            "Several security issues were fixed in Rack.",
+            "",
+            "Update instructions:",
+            "",
+            "Ubuntu 22.04 LTS",
+            "  ruby-rack                       2.1.4-5ubuntu1.1",
+            "");
+
+    private USNReportServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new USNReportServer(new USNJsonExporter(),
+                new InetSocketAddress("127.0.0.1", 0), 2);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop();
+    }
+
+    /**
+     * Tests that a posted digest is answered with a TSV report.
+     */
+    @Test
+    void testPostDigestReturnsTsv() throws IOException {
+        HttpURLConnection conn = open("/report?format=tsv");
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(DIGEST.getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertEquals(200, conn.getResponseCode());
+        String body = read(conn.getInputStream());
+        assertEquals("id\ttitle\tpublished_date\tsummary\tseverity\treboot\tlivepatch",
+                body.trim(), "Entries for other releases should be filtered out");
+    }
+
+    /**
+     * Tests that a JSON report can be requested.
+     */
+    @Test
+    void testPostDigestReturnsJson() throws IOException {
+        HttpURLConnection conn = open("/report?format=json");
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(DIGEST.getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertEquals(200, conn.getResponseCode());
+        assertTrue(conn.getContentType().startsWith("application/json"));
+        assertTrue(read(conn.getInputStream()).trim().startsWith("["));
+    }
+
+    /**
+     * Tests that a GET without a path is rejected.
+     */
+    @Test
+    void testGetWithoutPathIsRejected() throws IOException {
+        HttpURLConnection conn = open("/report");
+        assertEquals(400, conn.getResponseCode());
+    }
+
+    /**
+     * Tests that a GET for a missing file is answered with 404.
+     */
+    @Test
+    void testGetMissingFile() throws IOException {
+        HttpURLConnection conn = open("/report?path=%2Fno%2Fsuch%2Fdigest.txt");
+        assertEquals(404, conn.getResponseCode());
+    }
+
+    /**
+     * Tests that the path form only reads files below the root directory, and is refused
+     * without one on an address other than loopback.
+     */
+    @Test
+    void testPathConfinement() throws IOException {
+        Path root = Files.createTempDirectory("serve");
+        Path outside = Files.createTempFile("digest", ".txt");
+        USNReportServer confined = new USNReportServer(new USNJsonExporter(),
+                new InetSocketAddress("127.0.0.1", 0), 1);
+        USNReportServer open = new USNReportServer(new USNJsonExporter(),
+                new InetSocketAddress("0.0.0.0", 0), 1);
+        try {
+            Files.writeString(root.resolve("digest.txt"), DIGEST);
+            Files.writeString(outside, DIGEST);
+            confined.setRoot(root);
+            confined.start();
+            open.start();
+
+            assertEquals(200, get(confined, root.resolve("digest.txt")));
+            assertEquals(403, get(confined, outside));
+            assertEquals(403, get(confined, root.resolve("..").resolve(outside.getFileName())));
+            assertEquals(403, get(open, root.resolve("digest.txt")));
+        } finally {
+            confined.stop();
+            open.stop();
+            Files.deleteIfExists(outside);
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Tests decoding of query parameters.
+     */
+    @Test
+    void testParseQuery() {
+        Map<String, String> params = USNReportServer.parseQuery("path=%2Ftmp%2Fa+b.txt&format=json");
+        assertEquals("/tmp/a b.txt", params.get("path"));
+        assertEquals("json", params.get("format"));
+        assertTrue(USNReportServer.parseQuery(null).isEmpty());
+    }
+
+
+    private HttpURLConnection open(String pathAndQuery) throws IOException {
+        URI uri = URI.create("http://127.0.0.1:" + server.getPort() + pathAndQuery);
+        return (HttpURLConnection) uri.toURL().openConnection();
+    }
+
+    private static int get(USNReportServer target, Path digest) throws IOException {
+        URI uri = URI.create("http://127.0.0.1:" + target.getPort() + "/report?path="
+                + URLEncoder.encode(digest.toString(), StandardCharsets.UTF_8));
+        return ((HttpURLConnection) uri.toURL().openConnection()).getResponseCode();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}